@@ -0,0 +1,7 @@
+@echo off
+REM Builds and runs the JMH benchmarks in src/jmh (see src/jmh/README.md). Any
+REM arguments are passed to JMH.
+REM
+REM Usage: run_benchmarks.bat [JMH OPTIONS] [BENCHMARK REGEX]
+REM   e.g. run_benchmarks.bat -prof gc SheetBenchmark
+mvn -q -P benchmarks package -DskipTests && java -jar target\benchmarks.jar %*
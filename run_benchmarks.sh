@@ -0,0 +1,7 @@
+#!/bin/bash
+# Builds and runs the JMH benchmarks in src/jmh (see src/jmh/README.md). Any
+# arguments are passed to JMH.
+#
+# Usage: run_benchmarks.sh [JMH OPTIONS] [BENCHMARK REGEX]
+#   e.g. run_benchmarks.sh -prof gc SheetBenchmark
+mvn -q -P benchmarks package -DskipTests && java -jar target/benchmarks.jar "$@"
@@ -0,0 +1,6 @@
+@echo off
+REM Builds and runs the checks in src/test (see src/test/README.md), which compare
+REM parallel validation against serial validation.
+REM
+REM Usage: run_checks.bat
+mvn -q test-compile && mvn exec:java -e -q -Dexec.mainClass="com.aytao.rubiks.client.ConcurrencyCheck" -Dexec.classpathScope=test
@@ -0,0 +1,6 @@
+#!/bin/bash
+# Builds and runs the checks in src/test (see src/test/README.md), which compare
+# parallel validation against serial validation.
+#
+# Usage: run_checks.sh
+mvn -q test-compile && mvn exec:java -e -q -Dexec.mainClass="com.aytao.rubiks.client.ConcurrencyCheck" -Dexec.classpathScope=test
@@ -0,0 +1,73 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The bundled comm sheets, loaded once for the benchmarks. Both
+ *                sheets have headers and no empty buffer groups, and are for
+ *                buffer C.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.utils.ResourceHandler;
+
+public final class BenchmarkSheets {
+  public static final char BUFFER = 'c';
+
+  private BenchmarkSheets() {
+  }
+
+  /* Returns the resource name of a bundled sheet, e.g. "Comms/UFComms.csv" */
+  public static String getResourceName(String sheet) {
+    return "Comms/" + sheet;
+  }
+
+  /* Returns the piece type of a bundled sheet */
+  public static PieceType getPieceType(String sheet) {
+    return sheet.startsWith("UFR") ? PieceType.CORNER : PieceType.EDGE;
+  }
+
+  /* Reads a bundled sheet's comm strings, with headers removed */
+  public static CharSequence[][] readCommStrings(String sheet) throws IOException {
+    try (Reader reader = new InputStreamReader(getStream(sheet), StandardCharsets.UTF_8)) {
+      return CommSheetValidator.readSheet(reader, getPieceType(sheet), true, false);
+    }
+  }
+
+  /* Returns every non-empty comm of a bundled sheet that parses, in row-major order */
+  public static List<String> getComms(String sheet) throws IOException {
+    List<String> comms = new ArrayList<>();
+    for (CharSequence[] row : readCommStrings(sheet)) {
+      for (CharSequence cell : row) {
+        if (CommSheetValidator.isBlank(cell)) {
+          continue;
+        }
+        try {
+          new Comm(cell.toString());
+          comms.add(cell.toString());
+        } catch (Exception e) {
+          // Malformed cells are not part of the benchmarks
+        }
+      }
+    }
+    return comms;
+  }
+
+  private static InputStream getStream(String sheet) throws IOException {
+    try {
+      return ResourceHandler.getStream(getResourceName(sheet));
+    } catch (Exception e) {
+      throw new IOException("Error opening sheet '" + sheet + "'", e);
+    }
+  }
+}
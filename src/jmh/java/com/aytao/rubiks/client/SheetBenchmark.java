@@ -0,0 +1,65 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  End-to-end validation of the bundled sheets, with no result
+ *                cache so that every cell is parsed and simulated each time.
+ *                checkValidity reads the sheet as well, while validate only
+ *                validates comm strings that were read beforehand.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class SheetBenchmark {
+  @Param({ "UFComms.csv", "UFRComms.csv" })
+  public String sheet;
+
+  // Run with -p threads=N to validate cells on N threads
+  @Param({ "1" })
+  public int threads;
+
+  private CommSheetValidator validator;
+  private PieceType pieceType;
+  private CharSequence[][] commStrings;
+
+  @Setup
+  public void setup() throws IOException {
+    validator = new CommSheetValidator(threads);
+    pieceType = BenchmarkSheets.getPieceType(sheet);
+    commStrings = BenchmarkSheets.readCommStrings(sheet);
+  }
+
+  @Benchmark
+  public CommValidity[][] checkValidity() {
+    return validator.checkValidity(BenchmarkSheets.getResourceName(sheet), BenchmarkSheets.BUFFER, pieceType, true,
+        false);
+  }
+
+  @Benchmark
+  public CommValidity[][] validate() {
+    return validator.checkValidity(commStrings, BenchmarkSheets.BUFFER, pieceType, false);
+  }
+}
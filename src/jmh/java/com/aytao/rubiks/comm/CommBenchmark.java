@@ -0,0 +1,70 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Parsing comms and expanding them into moves, for the comms
+ *                of the bundled sheets. Each invocation handles the next comm
+ *                of the sheet, so results are averaged over the whole sheet.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.comm;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aytao.rubiks.client.BenchmarkSheets;
+import com.aytao.rubiks.cube.Move;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class CommBenchmark {
+  @Param({ "UFComms.csv", "UFRComms.csv" })
+  public String sheet;
+
+  private String[] commStrings;
+  private Comm[] comms;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    List<String> sheetComms = BenchmarkSheets.getComms(sheet);
+    commStrings = sheetComms.toArray(new String[0]);
+    comms = new Comm[commStrings.length];
+    for (int i = 0; i < comms.length; i++) {
+      comms[i] = new Comm(commStrings[i]);
+    }
+  }
+
+  private int nextIndex() {
+    int index = next;
+    next = index + 1 == commStrings.length ? 0 : index + 1;
+    return index;
+  }
+
+  @Benchmark
+  public Comm parse() {
+    return new Comm(commStrings[nextIndex()]);
+  }
+
+  @Benchmark
+  public List<Move> toSequence() {
+    return comms[nextIndex()].toSequence();
+  }
+}
@@ -0,0 +1,91 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Simulating the expanded comms of the bundled sheets, one at
+ *                a time on a MoveTables facelet permutation and a batch at a
+ *                time with BatchSimulator. Scores are per comm either way.
+ *                Which BatchSimulator kernel runs depends on the JVM; see
+ *                src/jmh/README.md.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aytao.rubiks.client.BenchmarkSheets;
+import com.aytao.rubiks.comm.Comm;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class BatchBenchmark {
+  private static final int BATCH_SIZE = 16;
+
+  @Param({ "UFComms.csv", "UFRComms.csv" })
+  public String sheet;
+
+  private List<List<Move>> sequences;
+  private BatchSimulator batch;
+  private int[] state;
+  private int[] scratch;
+  private int next;
+
+  @Setup
+  public void setup() throws IOException {
+    List<String> comms = BenchmarkSheets.getComms(sheet);
+    sequences = new ArrayList<>();
+    for (String comm : comms) {
+      sequences.add(new Comm(comm).toSequence());
+    }
+    batch = new BatchSimulator(BATCH_SIZE);
+    state = new int[MoveTables.NUM_FACELETS];
+    scratch = new int[MoveTables.NUM_FACELETS];
+  }
+
+  private List<Move> nextSequence() {
+    List<Move> sequence = sequences.get(next);
+    next = next + 1 == sequences.size() ? 0 : next + 1;
+    return sequence;
+  }
+
+  @Benchmark
+  public int[] moveTables() {
+    MoveTables.reset(state);
+    MoveTables.apply(state, nextSequence(), scratch);
+    return state;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public int[] batch() {
+    batch.clear();
+    for (int lane = 0; lane < BATCH_SIZE; lane++) {
+      batch.add(nextSequence());
+    }
+    batch.simulate();
+    for (int lane = 0; lane < BATCH_SIZE; lane++) {
+      batch.getState(lane, state);
+    }
+    return state;
+  }
+}
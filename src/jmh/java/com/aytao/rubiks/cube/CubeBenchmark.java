@@ -0,0 +1,93 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Executing single moves of each family (face turns, wide
+ *                turns, slice moves and rotations), both on a Cube and on a
+ *                MoveTables facelet permutation. Each invocation executes the
+ *                next move of the family.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class CubeBenchmark {
+  public enum Family {
+    FACE, WIDE, SLICE, ROTATION
+  }
+
+  @Param({ "FACE", "WIDE", "SLICE", "ROTATION" })
+  public Family family;
+
+  private Move[] moves;
+  private Cube cube;
+  private int[] state;
+  private int[] scratch;
+  private int next;
+
+  @Setup
+  public void setup() {
+    List<Move> familyMoves = new ArrayList<>();
+    for (Move move : Move.values()) {
+      if (getFamily(move) == family) {
+        familyMoves.add(move);
+      }
+    }
+    moves = familyMoves.toArray(new Move[0]);
+    cube = new Cube();
+    state = new int[MoveTables.NUM_FACELETS];
+    scratch = new int[MoveTables.NUM_FACELETS];
+    MoveTables.reset(state);
+  }
+
+  static Family getFamily(Move move) {
+    char first = move.name().charAt(0);
+    if (first == 'M' || first == 'S' || first == 'E') {
+      return Family.SLICE;
+    } else if (first == 'X' || first == 'Y' || first == 'Z') {
+      return Family.ROTATION;
+    } else if (move.name().length() > 1 && move.name().charAt(1) == 'w') {
+      return Family.WIDE;
+    }
+    return Family.FACE;
+  }
+
+  private Move nextMove() {
+    Move move = moves[next];
+    next = next + 1 == moves.length ? 0 : next + 1;
+    return move;
+  }
+
+  @Benchmark
+  public Cube execute() {
+    cube.execute(nextMove());
+    return cube;
+  }
+
+  @Benchmark
+  public int[] moveTables() {
+    MoveTables.apply(state, nextMove(), scratch);
+    return state;
+  }
+}
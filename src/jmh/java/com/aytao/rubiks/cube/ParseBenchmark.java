@@ -0,0 +1,76 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Parsing single moves with Move.move, and parsing the moves
+ *                of the bundled sheets' expanded comms with
+ *                Sequence.getSequence. Each invocation parses the next move
+ *                or sequence.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aytao.rubiks.client.BenchmarkSheets;
+import com.aytao.rubiks.comm.Comm;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class ParseBenchmark {
+  @Param({ "UFComms.csv", "UFRComms.csv" })
+  public String sheet;
+
+  private String[] moveStrings;
+  private String[] sequenceStrings;
+  private int nextMove;
+  private int nextSequence;
+
+  @Setup
+  public void setup() throws IOException {
+    List<String> moves = new ArrayList<>();
+    List<String> sequences = new ArrayList<>();
+    for (String commString : BenchmarkSheets.getComms(sheet)) {
+      ArrayList<Move> sequence = new Comm(commString).toSequence();
+      for (Move move : sequence) {
+        moves.add(move.toString());
+      }
+      sequences.add(Sequence.toString(sequence).trim());
+    }
+    moveStrings = moves.toArray(new String[0]);
+    sequenceStrings = sequences.toArray(new String[0]);
+  }
+
+  @Benchmark
+  public Move move() {
+    String moveString = moveStrings[nextMove];
+    nextMove = nextMove + 1 == moveStrings.length ? 0 : nextMove + 1;
+    return Move.move(moveString);
+  }
+
+  @Benchmark
+  public List<Move> getSequence() {
+    String sequenceString = sequenceStrings[nextSequence];
+    nextSequence = nextSequence + 1 == sequenceStrings.length ? 0 : nextSequence + 1;
+    return Sequence.getSequence(sequenceString);
+  }
+}
@@ -0,0 +1,52 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Building Speffz sticker reports of a scrambled cube, into a
+ *                reused report buffer as the validator used to.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class ReportBenchmark {
+  // A fixed scramble, so that every run reports the same state
+  private static final String SCRAMBLE = "R U2 F' L D2 B R' U F2 D' L2 B2 U' R2 F D B' L' U2 R";
+
+  private Cube cube;
+  private char[] report;
+
+  @Setup
+  public void setup() {
+    cube = new Cube(Sequence.getSequence(SCRAMBLE));
+    report = new char[SpeffzUtils.NUM_SPEFFZ_LETTERS];
+  }
+
+  @Benchmark
+  public char[] edgeReport() {
+    return SpeffzUtils.edgeReport(cube, report);
+  }
+
+  @Benchmark
+  public char[] cornerReport() {
+    return SpeffzUtils.cornerReport(cube, report);
+  }
+}
@@ -0,0 +1,60 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Throughput of generating random scrambles into a byte buffer
+ *                and of sampling uniformly random cube states. Every thread
+ *                has its own Scrambler and RandomStates, so running with
+ *                -t N gives N times the single-thread figure if generation
+ *                scales with cores.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aytao.rubiks.client.RandomStates;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Thread)
+public class ScrambleBenchmark {
+  private Scrambler scrambler;
+  private RandomStates randomStates;
+  private byte[] buffer;
+  private int[] state;
+
+  @Setup
+  public void setup() {
+    scrambler = new Scrambler();
+    randomStates = new RandomStates();
+    buffer = new byte[Scrambler.DEFAULT_LENGTH];
+    state = new int[MoveTables.NUM_FACELETS];
+  }
+
+  @Benchmark
+  public byte[] scramble() {
+    scrambler.next(buffer, 0, buffer.length);
+    return buffer;
+  }
+
+  @Benchmark
+  public int[] randomState() {
+    randomStates.next(state);
+    return state;
+  }
+}
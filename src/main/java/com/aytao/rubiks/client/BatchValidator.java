@@ -0,0 +1,350 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Validates many comm sheets in one run. Sheets are pushed
+ *                through a pipeline of stages (read the CSV, parse the comms,
+ *                simulate the comms, report), each running on its own thread
+ *                and connected to the next by a small bounded queue. Reading
+ *                and parsing of later sheets overlaps with simulation of
+ *                earlier ones, while the bounded queues keep only a handful of
+ *                sheets in memory at once. Every stage handles sheets in order,
+ *                so the consolidated report lists sheets in the order given.
+ *
+ *                Workbooks are read the same way, except that the reader
+ *                streams each workbook's tabs (see WorkbookReader) and passes
+ *                each tab on as soon as its last row has been read, so only
+ *                a tab at a time is ever held in memory.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.aytao.rubiks.client.CommSheetValidator.Cell;
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public class BatchValidator {
+  // Number of sheets that may wait between two stages
+  private static final int QUEUE_CAPACITY = 2;
+
+  /* A sheet as it moves through the pipeline */
+  private static class SheetJob {
+    private final String name;
+    private final SheetConfig config;
+    private CharSequence[][] commStrings;
+    private Cell[] cells;
+    private CommValidity[][] validities;
+    private Throwable error;
+    // What the sheet was going through when it failed, e.g. "reading"
+    private String failedWhile;
+    private String skipped;
+
+    SheetJob(SheetConfig config) {
+      this(String.valueOf(config), config);
+    }
+
+    SheetJob(String name, SheetConfig config) {
+      this.name = name;
+      this.config = config;
+    }
+
+    void fail(String action, Throwable e) {
+      error = e;
+      failedWhile = action;
+    }
+  }
+
+  // Action reported for sheets that fail before they reach the pipeline's stages
+  private static final String READING = "reading";
+
+  // Marks the end of the sheets flowing through a queue
+  private static final SheetJob END = new SheetJob("", null);
+
+  private interface Stage {
+    void process(SheetJob job) throws Exception;
+  }
+
+  /* Reads sheets and passes each one on to the first stage, in order */
+  private interface Source {
+    void read(BlockingQueue<SheetJob> out) throws InterruptedException;
+  }
+
+  /*
+   * Collects the rows of each workbook tab into a sheet job, and passes the job
+   * on once the tab ends. A tab's buffer and piece type come from its name,
+   * which must start with the buffer's location, e.g. "UF" or "UFR Comms".
+   */
+  private static class TabJobs implements WorkbookReader.TabHandler {
+    private final Path workbook;
+    private final SheetConfig layout;
+    private final BlockingQueue<SheetJob> out;
+    private final List<CharSequence[]> rows = new ArrayList<>();
+    private SheetJob job;
+    private long startNanos;
+    private long startAllocated;
+
+    TabJobs(Path workbook, SheetConfig layout, BlockingQueue<SheetJob> out) {
+      this.workbook = workbook;
+      this.layout = layout;
+      this.out = out;
+    }
+
+    @Override
+    public boolean startTab(String name) throws InterruptedException {
+      startNanos = System.nanoTime();
+      startAllocated = ValidationStats.allocatedBytes();
+      String location = getLocation(name);
+      try {
+        if (location.length() == 2) {
+          job = new SheetJob(layout.forTab(workbook, name, SpeffzUtils.getEdgeSticker(location), PieceType.EDGE));
+          return true;
+        } else if (location.length() == 3) {
+          job = new SheetJob(layout.forTab(workbook, name, SpeffzUtils.getCornerSticker(location),
+              PieceType.CORNER));
+          return true;
+        }
+      } catch (IllegalArgumentException e) {
+        // Reported as skipped below
+      }
+
+      SheetJob skippedJob = new SheetJob(workbook + " [" + name + "]", null);
+      skippedJob.skipped = "Skipped: tab name does not start with a buffer such as UF or UFR";
+      out.put(skippedJob);
+      return false;
+    }
+
+    @Override
+    public void row(CharSequence[] cells) {
+      rows.add(cells);
+    }
+
+    /* Pads the tab's rows to a rectangle, as a CSV export would, and passes it on */
+    @Override
+    public void endTab() throws InterruptedException {
+      ValidationStats.get().sheetRead(startNanos, startAllocated);
+      int width = 0;
+      for (CharSequence[] row : rows) {
+        width = Math.max(width, row.length);
+      }
+      for (int i = 0; i < rows.size(); i++) {
+        CharSequence[] row = rows.get(i);
+        if (row.length < width) {
+          CharSequence[] padded = Arrays.copyOf(row, width);
+          Arrays.fill(padded, row.length, width, "");
+          rows.set(i, padded);
+        }
+      }
+
+      SheetConfig config = job.config;
+      try {
+        job.commStrings = CommSheetValidator.getCommStrings(rows, config.getPieceType(), config.includesHeaders(),
+            config.includesEmptyBufferGroups());
+      } catch (Exception e) {
+        job.fail(READING, e);
+      }
+      rows.clear();
+      out.put(job);
+      job = null;
+    }
+
+    /* Returns the leading run of face letters (U, L, F, R, B, D) of a tab name */
+    private static String getLocation(String name) {
+      int end = 0;
+      while (end < name.length() && "ULFRBD".indexOf(name.charAt(end)) >= 0) {
+        end++;
+      }
+      return name.substring(0, end);
+    }
+  }
+
+  private final CommSheetValidator validator;
+  private final PrintStream out;
+
+  /* Creates a batch validator that simulates cells with validator */
+  public BatchValidator(CommSheetValidator validator, PrintStream out) {
+    this.validator = validator;
+    this.out = out;
+  }
+
+  /*
+   * Validates every sheet and writes a single consolidated report. Returns the
+   * number of sheets that had errors or could not be read.
+   */
+  public int run(List<SheetConfig> sheets) throws InterruptedException {
+    return run(out -> {
+      for (SheetConfig sheet : sheets) {
+        SheetJob job = new SheetJob(sheet);
+        try {
+          read(job);
+        } catch (Throwable e) {
+          job.fail(READING, e);
+        }
+        out.put(job);
+      }
+    });
+  }
+
+  /*
+   * Validates every tab of each .xlsx or .ods workbook as its own sheet, laid
+   * out as described by layout, and writes a single consolidated report. Tabs
+   * whose names do not start with a buffer are skipped. Returns the number of
+   * tabs that had errors or could not be read.
+   */
+  public int runWorkbooks(List<Path> workbooks, SheetConfig layout) throws InterruptedException {
+    return run(out -> {
+      for (Path workbook : workbooks) {
+        try {
+          WorkbookReader.read(workbook, new TabJobs(workbook, layout, out));
+        } catch (IOException e) {
+          SheetJob job = new SheetJob(workbook.toString(), null);
+          job.fail(READING, e);
+          out.put(job);
+        }
+      }
+    });
+  }
+
+  private int run(Source source) throws InterruptedException {
+    BlockingQueue<SheetJob> toParse = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    BlockingQueue<SheetJob> toSimulate = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    BlockingQueue<SheetJob> toReport = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    Thread reader = new Thread(() -> {
+      try {
+        source.read(toParse);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        putEnd(toParse);
+      }
+    }, "sheet-reader");
+    Thread parser = startStage("sheet-parser", "parsing", toParse, toSimulate, this::parse);
+    Thread simulator = startStage("sheet-simulator", "validating", toSimulate, toReport, this::simulate);
+    reader.setDaemon(true);
+    reader.start();
+
+    int sheetsWithErrors = 0;
+    int numSheets = 0;
+    try {
+      for (SheetJob job = toReport.take(); job != END; job = toReport.take()) {
+        if (job.skipped != null) {
+          report(job);
+          continue;
+        }
+        numSheets++;
+        if (report(job) > 0) {
+          sheetsWithErrors++;
+        }
+      }
+    } finally {
+      reader.interrupt();
+      parser.interrupt();
+      simulator.interrupt();
+    }
+
+    out.println(numSheets + " sheets checked, " + sheetsWithErrors + " with errors");
+    return sheetsWithErrors;
+  }
+
+  /*
+   * Starts a thread that applies stage to each sheet from in and passes it on to
+   * out. Sheets that already failed or were skipped are passed on untouched. A
+   * sheet that the stage throws anything for, even an Error, fails on its own,
+   * reported as failing while doing action, and END is always passed on, so
+   * that the report never waits forever.
+   */
+  private static Thread startStage(String name, String action, BlockingQueue<SheetJob> in,
+      BlockingQueue<SheetJob> out, Stage stage) {
+    Thread thread = new Thread(() -> {
+      try {
+        for (SheetJob job = in.take(); job != END; job = in.take()) {
+          if (job.error == null && job.skipped == null) {
+            try {
+              stage.process(job);
+            } catch (Throwable e) {
+              job.fail(action, e);
+            }
+          }
+          out.put(job);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        putEnd(out);
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /* Passes END on, unless the thread was interrupted because the run is over */
+  private static void putEnd(BlockingQueue<SheetJob> out) {
+    if (Thread.currentThread().isInterrupted()) {
+      return;
+    }
+    try {
+      out.put(END);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void read(SheetJob job) throws Exception {
+    SheetConfig config = job.config;
+    job.commStrings = CommSheetValidator.readSheet(config.getPath(), config.getPieceType(),
+        config.includesHeaders(), config.includesEmptyBufferGroups());
+  }
+
+  private void parse(SheetJob job) {
+    SheetConfig config = job.config;
+    job.cells = CommSheetValidator.getCells(job.commStrings, config.getBuffer(), config.getPieceType(),
+        config.includesEmptyBufferGroups());
+    job.commStrings = null;
+    for (Cell cell : job.cells) {
+      validator.parseCell(cell, config.getPieceType(), config.getBuffer());
+    }
+  }
+
+  private void simulate(SheetJob job) {
+    validator.validateCells(job.cells, job.config.getPieceType(), job.config.getBuffer());
+    job.validities = CommSheetValidator.toValidities(job.cells);
+    job.cells = null;
+  }
+
+  /* Writes the section of the report for one sheet, returning its error count */
+  private int report(SheetJob job) {
+    String title = "== " + job.name + " ==";
+    out.println(title);
+    out.println();
+
+    if (job.skipped != null) {
+      out.println(job.skipped);
+      out.println();
+      return 0;
+    }
+
+    if (job.error != null) {
+      String message = job.error.getMessage() != null ? job.error.getMessage() : job.error.toString();
+      out.println("Error " + job.failedWhile + " sheet: " + message);
+      out.println();
+      return 1;
+    }
+
+    int numErrors = CommSheetValidator.printErrors(out, job.validities, job.config.ignoreEmpty());
+    if (numErrors == 0) {
+      out.println("No errors");
+      out.println();
+    }
+    return numErrors;
+  }
+}
@@ -0,0 +1,225 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Validates sheets for big-cube piece types (see BigPieceType)
+ *                on a cube of a given size. Comms are parsed with big-cube
+ *                notation (see BigMove) and simulated on facelet permutations
+ *                (see BigCube), the same way CommSheetValidator simulates 3x3
+ *                comms on MoveTables.
+ *
+ *                Pieces of the same color are interchangeable on a big cube:
+ *                the four x-centers on a face can trade places without the
+ *                cube looking any different. So a comm is checked by the color
+ *                of every facelet it leaves, against the colors its 3-cycle
+ *                should leave, rather than by where each facelet went.
+ *
+ *                A validator reuses its own scratch space, so each one is
+ *                meant to be used by one thread.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.comm.Comm.UnbalancedBracketsException;
+import com.aytao.rubiks.cube.BigCube;
+import com.aytao.rubiks.cube.BigMove;
+import com.aytao.rubiks.cube.BigPieceType;
+import com.aytao.rubiks.cube.Move.IllegalMoveException;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public class BigSheetValidator {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  private final BigCube cube;
+  private final BigPieceType pieceType;
+
+  // Facelets of the piece each letter is on, starting with the letter's own
+  private final int[][] pieceFacelets = new int[NUM_LETTERS][];
+
+  // Whether each facelet is on one of the three pieces of the cycle being checked
+  private final boolean[] inCycle;
+
+  private final int[] state;
+  private final int[] expected;
+  private final int[] scratch;
+
+  /* Creates a validator for a piece type on an n x n cube */
+  public BigSheetValidator(int n, BigPieceType pieceType) {
+    this.cube = BigCube.of(n);
+    this.pieceType = pieceType;
+    if (!pieceType.existsOn(n)) {
+      throw new IllegalArgumentException("A " + n + "x" + n + " has no " + pieceType.name().toLowerCase() + "s");
+    }
+
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      pieceFacelets[c - 'a'] = cube.getCubieFacelets(pieceType.getFacelet(cube, c));
+    }
+    inCycle = new boolean[cube.getNumFacelets()];
+    state = new int[cube.getNumFacelets()];
+    expected = new int[cube.getNumFacelets()];
+    scratch = new int[cube.getNumFacelets()];
+  }
+
+  /*****************************************************************************
+   * Reading sheets
+   ****************************************************************************/
+
+  /*
+   * Checks the dimensions of a sheet's rows and returns its comm strings with
+   * any headers removed. A sheet without empty buffer groups leaves out the
+   * rows and columns of every sticker on the buffer's piece.
+   */
+  public static CharSequence[][] getCommStrings(List<? extends CharSequence[]> rows, BigPieceType pieceType,
+      char buffer, boolean includesHeaders, boolean includesEmptyBufferGroups) {
+    int expectedDim = NUM_LETTERS;
+    if (!includesEmptyBufferGroups) {
+      expectedDim -= pieceType.getRelatedStickersSet(buffer).size();
+    }
+    if (includesHeaders) {
+      expectedDim++;
+    }
+
+    String flagSuggestion = " Consider setting flags -e or -r. See usage help with -h for more details.";
+    if (rows.size() != expectedDim) {
+      throw new IllegalArgumentException("Provided file has " + rows.size() + " rows, but " + expectedDim
+          + " were expected." + flagSuggestion);
+    }
+
+    CharSequence[][] comms = new CharSequence[rows.size() - (includesHeaders ? 1 : 0)][];
+    for (int i = includesHeaders ? 1 : 0; i < rows.size(); i++) {
+      CharSequence[] arr = rows.get(i);
+      if (arr.length != expectedDim) {
+        throw new IllegalArgumentException("Row " + i + " of provided file has " + arr.length + " columns, but "
+            + expectedDim + " were expected." + flagSuggestion);
+      }
+      comms[i - (includesHeaders ? 1 : 0)] = includesHeaders ? Arrays.copyOfRange(arr, 1, arr.length) : arr;
+    }
+    return comms;
+  }
+
+  /*****************************************************************************
+   * Validation
+   ****************************************************************************/
+
+  /*
+   * Validates a sheet whose comm strings have already been read, with headers
+   * removed. Rows are indexed by the second target and columns by the first,
+   * and the validities returned by [target1][target2], with null for the
+   * buffer's piece.
+   */
+  public CommValidity[][] checkValidity(CharSequence[][] commStrings, char buffer,
+      boolean includesEmptyBufferGroups) {
+    Set<Character> bufferPieceSet = pieceType.getRelatedStickersSet(buffer);
+    List<Character> targets = new ArrayList<>();
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      if (includesEmptyBufferGroups || !bufferPieceSet.contains(c)) {
+        targets.add(c);
+      }
+    }
+
+    CommValidity[][] validities = new CommValidity[NUM_LETTERS][NUM_LETTERS];
+    for (int column = 0; column < targets.size(); column++) {
+      char target1 = targets.get(column);
+      for (int row = 0; row < targets.size(); row++) {
+        char target2 = targets.get(row);
+        if (!bufferPieceSet.contains(target1) && !bufferPieceSet.contains(target2)) {
+          validities[target1 - 'a'][target2 - 'a'] = checkCell(commStrings[row][column].toString(), buffer, target1,
+              target2);
+        }
+      }
+    }
+    return validities;
+  }
+
+  /* Validates a single cell of a sheet for the given buffer and targets */
+  public CommValidity checkCell(String commString, char buffer, char target1, char target2) {
+    boolean blank = CommSheetValidator.isBlank(commString);
+    if (pieceType.getRelatedStickersSet(target1).contains(target2)) {
+      return blank ? CommValidity.VALID : CommValidity.SHOULD_BE_EMPTY;
+    }
+    if (blank) {
+      return CommValidity.UNEXPECTED_EMPTY;
+    }
+
+    Comm comm;
+    try {
+      comm = Comm.parseBigCube(commString);
+    } catch (IllegalMoveException e) {
+      return CommValidity.ILLEGAL_MOVE;
+    } catch (UnbalancedBracketsException e) {
+      return CommValidity.UNBALANCED_BRACKETS;
+    } catch (Exception e) {
+      return CommValidity.PARSING_ERROR;
+    }
+    return checkComm(comm, buffer, target1, target2);
+  }
+
+  /*
+   * Simulates the comm on a solved cube and checks that it cycles buffer ->
+   * target1 -> target2 without disturbing anything else, up to pieces of the
+   * same color.
+   */
+  public CommValidity checkComm(Comm comm, char buffer, char target1, char target2) {
+    List<BigMove> moves = comm.toBigSequence();
+    cube.reset(state);
+    try {
+      cube.apply(state, moves, scratch);
+    } catch (IllegalMoveException e) {
+      return CommValidity.ILLEGAL_MOVE;
+    }
+    if (!setExpected(buffer, target1, target2)) {
+      return CommValidity.INCORRECT_CYCLE;
+    }
+
+    CommValidity validity = CommValidity.VALID;
+    for (int i = 0; i < state.length; i++) {
+      if (cube.face(state[i]) != cube.face(expected[i])) {
+        if (!inCycle[i]) {
+          return CommValidity.DISRUPTS_OTHER_PIECES;
+        }
+        validity = CommValidity.INCORRECT_CYCLE;
+      }
+    }
+    return validity;
+  }
+
+  /*
+   * Puts the state of the 3-cycle buffer -> target1 -> target2 into expected,
+   * and marks the facelets of its pieces in inCycle. Returns false if the
+   * three stickers are not on three different pieces.
+   */
+  private boolean setExpected(char buffer, char target1, char target2) {
+    char[] cycle = { Character.toLowerCase(buffer), Character.toLowerCase(target1), Character.toLowerCase(target2) };
+    for (int k = 0; k < cycle.length; k++) {
+      if (pieceType.getRelatedStickersSet(cycle[k]).contains(cycle[(k + 1) % cycle.length])) {
+        return false;
+      }
+    }
+
+    cube.reset(expected);
+    Arrays.fill(inCycle, false);
+    for (int k = 0; k < cycle.length; k++) {
+      int[] from = pieceFacelets[cycle[k] - 'a'];
+      int[] to = pieceFacelets[cycle[(k + 1) % cycle.length] - 'a'];
+      for (int j = 0; j < from.length; j++) {
+        expected[to[j]] = from[j];
+        inCycle[to[j]] = true;
+      }
+    }
+    return true;
+  }
+
+  public int getSize() {
+    return cube.getSize();
+  }
+
+  public BigPieceType getPieceType() {
+    return pieceType;
+  }
+}
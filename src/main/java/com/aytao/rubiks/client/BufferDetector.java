@@ -0,0 +1,217 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Infers which buffer, piece type and empty-group layout a
+ *                sheet was written for, so that the sheet can be checked
+ *                without trusting the -b, -t and -e flags. A sample of cells
+ *                is spread across the sheet, and each sampled comm is
+ *                simulated exactly once. Every candidate layout then only
+ *                has to compare those simulated states against the 3-cycles
+ *                it predicts for the sampled cells (see ExpectedPermutation),
+ *                and the candidate that explains the most cells wins.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+final class BufferDetector {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  // Number of cells to sample, spread evenly over the sheet's non-empty cells
+  private static final int SAMPLE_SIZE = 24;
+
+  /* A sampled cell, by its position among the sheet's rows and columns */
+  private static class Sample {
+    private final int row;
+    private final int column;
+    private final String commString;
+    private final int[] state;
+
+    Sample(int row, int column, String commString, int[] state) {
+      this.row = row;
+      this.column = column;
+      this.commString = commString;
+      this.state = state;
+    }
+  }
+
+  /* The layout that best explains a sheet, and the sampled cells it explains */
+  static class Detection {
+    private final PieceType pieceType;
+    private final char buffer;
+    private final boolean includesEmptyBufferGroups;
+    private final int numSampled;
+    private final List<Sample> matched;
+    private final char[] letters;
+
+    private Detection(PieceType pieceType, char buffer, boolean includesEmptyBufferGroups, int numSampled,
+        List<Sample> matched, char[] letters) {
+      this.pieceType = pieceType;
+      this.buffer = buffer;
+      this.includesEmptyBufferGroups = includesEmptyBufferGroups;
+      this.numSampled = numSampled;
+      this.matched = matched;
+      this.letters = letters;
+    }
+
+    PieceType getPieceType() {
+      return pieceType;
+    }
+
+    char getBuffer() {
+      return buffer;
+    }
+
+    boolean includesEmptyBufferGroups() {
+      return includesEmptyBufferGroups;
+    }
+
+    /*
+     * Records every sampled cell that the detected layout explains as valid in
+     * cache, so that validating the sheet does not simulate it again.
+     */
+    void cacheMatched(ValidationCache cache) {
+      for (Sample sample : matched) {
+        cache.putResult(sample.commString, pieceType, buffer, letters[sample.column], letters[sample.row],
+            CommValidity.VALID);
+      }
+    }
+
+    public String toString() {
+      String pieceName = pieceType.equals(PieceType.EDGE) ? "edges" : "corners";
+      String layout = includesEmptyBufferGroups ? "with" : "without";
+      return "buffer " + Character.toUpperCase(buffer) + ", " + pieceName + ", " + layout
+          + " empty buffer rows and columns (" + matched.size() + " of " + numSampled + " sampled cells agree)";
+    }
+  }
+
+  private BufferDetector() {
+  }
+
+  /*
+   * Detects the layout of a sheet from its rows, including any header row and
+   * column. Throws an IllegalArgumentException if the sheet is not square, has
+   * a size no layout has, or if no layout explains most of the sampled cells.
+   */
+  static Detection detect(List<CharSequence[]> rows, boolean includesHeaders) {
+    int offset = includesHeaders ? 1 : 0;
+    int dim = rows.size() - offset;
+    for (int i = offset; i < rows.size(); i++) {
+      if (rows.get(i).length - offset != dim) {
+        throw new IllegalArgumentException("Row " + i + " of provided file has " + rows.get(i).length
+            + " columns, but the sheet has " + rows.size() + " rows.");
+      }
+    }
+
+    List<Sample> samples = sample(rows, offset, dim);
+    if (samples.isEmpty()) {
+      throw new IllegalArgumentException("Sheet has no comms to detect its buffer from.");
+    }
+
+    Detection best = null;
+    int numCandidates = 0;
+    for (PieceType pieceType : PieceType.values()) {
+      for (boolean includesEmptyBufferGroups : new boolean[] { false, true }) {
+        for (char buffer = 'a'; buffer < 'a' + NUM_LETTERS; buffer++) {
+          char[] letters = getLetters(pieceType, buffer, includesEmptyBufferGroups);
+          if (letters.length != dim) {
+            continue;
+          }
+          numCandidates++;
+          List<Sample> matched = match(samples, pieceType, buffer, letters);
+          if (best == null || matched.size() > best.matched.size()) {
+            best = new Detection(pieceType, buffer, includesEmptyBufferGroups, samples.size(), matched, letters);
+          }
+        }
+      }
+    }
+
+    if (numCandidates == 0) {
+      throw new IllegalArgumentException("Sheet has " + dim + " rows of comms, which does not fit any buffer."
+          + (includesHeaders ? "" : " Consider setting flag -r."));
+    }
+    if (best.matched.size() * 2 <= samples.size()) {
+      throw new IllegalArgumentException("Could not detect the sheet's buffer: at most " + best.matched.size()
+          + " of " + samples.size() + " sampled cells agree on one.");
+    }
+    return best;
+  }
+
+  /*
+   * Parses and simulates up to SAMPLE_SIZE non-empty cells, spread evenly over
+   * the sheet. Cells that cannot be parsed are left out.
+   */
+  private static List<Sample> sample(List<CharSequence[]> rows, int offset, int dim) {
+    List<int[]> positions = new ArrayList<>();
+    for (int row = 0; row < dim; row++) {
+      for (int column = 0; column < dim; column++) {
+        if (!CommSheetValidator.isBlank(rows.get(row + offset)[column + offset])) {
+          positions.add(new int[] { row, column });
+        }
+      }
+    }
+
+    List<Sample> samples = new ArrayList<>();
+    int numSamples = Math.min(SAMPLE_SIZE, positions.size());
+    int[] scratch = new int[MoveTables.NUM_FACELETS];
+    for (int k = 0; k < numSamples; k++) {
+      int[] position = positions.get((int) ((long) k * positions.size() / numSamples));
+      String commString = rows.get(position[0] + offset)[position[1] + offset].toString();
+      Comm comm;
+      try {
+        comm = new Comm(commString);
+      } catch (Exception e) {
+        continue;
+      }
+      int[] state = new int[MoveTables.NUM_FACELETS];
+      MoveTables.reset(state);
+      MoveTables.apply(state, comm.toSequence(), scratch);
+      samples.add(new Sample(position[0], position[1], commString, state));
+    }
+    return samples;
+  }
+
+  /* Returns the samples whose state is the 3-cycle that the candidate layout predicts for their cell */
+  private static List<Sample> match(List<Sample> samples, PieceType pieceType, char buffer, char[] letters) {
+    List<Sample> matched = new ArrayList<>();
+    for (Sample sample : samples) {
+      char target1 = letters[sample.column];
+      char target2 = letters[sample.row];
+      if (target1 == 0 || target2 == 0) {
+        continue;
+      }
+      if (ExpectedPermutation.threeCycle(pieceType, buffer, target1, target2).matches(sample.state)) {
+        matched.add(sample);
+      }
+    }
+    return matched;
+  }
+
+  /*
+   * Returns the letter that each row and column of a sheet stands for under a
+   * layout, with 0 for the buffer piece's empty rows and columns.
+   */
+  private static char[] getLetters(PieceType pieceType, char buffer, boolean includesEmptyBufferGroups) {
+    Set<Character> bufferPiece = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getRelatedEdgeStickersSet(buffer)
+        : SpeffzUtils.getRelatedCornerStickersSet(buffer);
+    char[] letters = new char[includesEmptyBufferGroups ? NUM_LETTERS : NUM_LETTERS - bufferPiece.size()];
+    int k = 0;
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      if (!bufferPiece.contains(c)) {
+        letters[k++] = c;
+      } else if (includesEmptyBufferGroups) {
+        letters[k++] = 0;
+      }
+    }
+    return letters;
+  }
+}
@@ -0,0 +1,21 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Receives the validity of each cell of a sheet as soon as it
+ *                is decided, rather than once the whole sheet is done. Cells
+ *                are reported in no particular order, and possibly from
+ *                several threads at once, so implementations must be thread
+ *                safe. Returning false cancels the rest of the validation.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+public interface CellListener {
+
+  /*
+   * Called once for every cell that is decided, with the targets of the cell.
+   * Returns whether validation should continue.
+   */
+  boolean cellValidated(char target1, char target2, CommValidity validity);
+}
@@ -0,0 +1,481 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Searches for comms of the form [setup : [A , B]] that solve
+ *                a 3-cycle case, so that empty or broken cells of a sheet can
+ *                be filled in. A is a single move (the interchange) and B is
+ *                a single move or an insertion X Y X'; moves are face turns,
+ *                slices and wide turns.
+ *
+ *                Every pure 3-cycle [A , B] is found once, up front, and
+ *                stored by the sticker cycle it performs, which identifies
+ *                its facelet permutation exactly. A setup moves the three
+ *                stickers of a case somewhere else, so solving a case only
+ *                takes a search over setups, followed by a lookup of the
+ *                cycle the stickers were set up into. A table of how many
+ *                setup moves each sticker triple is from one that some
+ *                commutator cycles prunes that search.
+ *
+ *                The tables are immutable once built, so one finder can
+ *                search many cases at once on different threads.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class CommFinder {
+  public static final int DEFAULT_MAX_SETUP_MOVES = 3;
+
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+  private static final int NUM_TRIPLES = NUM_LETTERS * NUM_LETTERS * NUM_LETTERS;
+
+  // Marks triples that no number of setup moves makes solvable
+  private static final byte UNREACHABLE = Byte.MAX_VALUE;
+
+  // Face turns, slices and wide turns; rotations are never needed
+  private static final Move[] MOVES;
+
+  static {
+    List<Move> moves = new ArrayList<>();
+    for (Move move : Move.values()) {
+      if (getAxis(move) >= 0) {
+        moves.add(move);
+      }
+    }
+    MOVES = moves.toArray(new Move[0]);
+  }
+
+  /* A commutator [A , B] that cycles exactly three pieces */
+  private static class Core {
+    private final String notation;
+    private final int length;
+    private final int firstLayer;
+
+    // Slice and wide moves, which make a comm a little harder to execute
+    private final int numInnerMoves;
+
+    Core(Move[] a, Move[] b) {
+      this.notation = "[" + toString(a) + " , " + toString(b) + "]";
+      this.length = 2 * (a.length + b.length);
+      this.firstLayer = getLayer(a[0]);
+      this.numInnerMoves = 2 * (countInnerMoves(a) + countInnerMoves(b));
+    }
+
+    boolean isBetterThan(Core other) {
+      if (length != other.length) {
+        return length < other.length;
+      }
+      return numInnerMoves < other.numInnerMoves;
+    }
+
+    private static String toString(Move[] moves) {
+      return Sequence.toString(new ArrayList<>(Arrays.asList(moves)));
+    }
+
+    private static int countInnerMoves(Move[] moves) {
+      int count = 0;
+      for (Move move : moves) {
+        if (getLayer(move) >= 6) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+
+  private final PieceType pieceType;
+  private final int maxSetupMoves;
+
+  // Facelet of each letter's sticker, and letter of each sticker facelet (or -1)
+  private final int[] faceletOf = new int[NUM_LETTERS];
+  private final int[] letterAt = new int[NUM_FACELETS];
+
+  // destination[move][letter] is the letter a move takes that sticker to
+  private final int[][] destination = new int[MOVES.length][NUM_LETTERS];
+
+  // Best commutator for each sticker cycle x -> y -> z, indexed by triple
+  private final Core[] cores = new Core[NUM_TRIPLES];
+
+  // Fewest setup moves from each triple to one that has a commutator
+  private final byte[] distance = new byte[NUM_TRIPLES];
+
+  /* Creates a finder for the given piece type, with at most 3 setup moves */
+  public CommFinder(PieceType pieceType) {
+    this(pieceType, DEFAULT_MAX_SETUP_MOVES);
+  }
+
+  /* Creates a finder that tries setups of at most maxSetupMoves moves */
+  public CommFinder(PieceType pieceType, int maxSetupMoves) {
+    if (maxSetupMoves < 0) {
+      throw new IllegalArgumentException("Setup move limit cannot be negative, but was " + maxSetupMoves);
+    }
+    this.pieceType = pieceType;
+    this.maxSetupMoves = maxSetupMoves;
+
+    Arrays.fill(letterAt, -1);
+    for (int i = 0; i < NUM_LETTERS; i++) {
+      char c = (char) ('a' + i);
+      faceletOf[i] = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(c)
+          : SpeffzUtils.getCornerFacelet(c);
+      letterAt[faceletOf[i]] = i;
+    }
+
+    int[] state = new int[NUM_FACELETS];
+    int[] scratch = new int[NUM_FACELETS];
+    for (int m = 0; m < MOVES.length; m++) {
+      MoveTables.reset(state);
+      MoveTables.apply(state, MOVES[m], scratch);
+      // The sticker at state[i] has moved to i
+      for (int i = 0; i < NUM_FACELETS; i++) {
+        if (letterAt[state[i]] >= 0) {
+          destination[m][letterAt[state[i]]] = letterAt[i];
+        }
+      }
+    }
+
+    buildCores();
+    buildDistances();
+  }
+
+  /*****************************************************************************
+   * Tables
+   ****************************************************************************/
+
+  /*
+   * Finds every commutator of an interchange and an insertion that cycles
+   * exactly three pieces of this finder's piece type, keeping the best one for
+   * each cycle. [B , A] is the inverse of [A , B], so it is recorded for the
+   * reversed cycle without simulating it.
+   */
+  private void buildCores() {
+    List<Move[]> interchanges = new ArrayList<>();
+    List<Move[]> insertions = new ArrayList<>();
+    for (Move x : MOVES) {
+      interchanges.add(new Move[] { x });
+      insertions.add(new Move[] { x });
+    }
+    for (Move x : MOVES) {
+      for (Move y : MOVES) {
+        if (getAxis(x) != getAxis(y)) {
+          insertions.add(new Move[] { x, y, Move.getInverse(x) });
+        }
+      }
+    }
+
+    int[][] insertionStates = new int[insertions.size()][];
+    int[][] insertionInverses = new int[insertions.size()][];
+    for (int k = 0; k < insertions.size(); k++) {
+      insertionStates[k] = simulate(insertions.get(k));
+      insertionInverses[k] = invert(insertionStates[k]);
+    }
+
+    int faceletsMoved = 3 * (pieceType.equals(PieceType.EDGE) ? 2 : 3);
+    int[] state = new int[NUM_FACELETS];
+    for (Move[] a : interchanges) {
+      int[] aState = simulate(a);
+      int[] aInverse = invert(aState);
+      for (int k = 0; k < insertions.size(); k++) {
+        int[] bState = insertionStates[k];
+        int[] bInverse = insertionInverses[k];
+
+        // The facelet at i after A B A' B' came from aState[bState[aInverse[bInverse[i]]]]
+        int moved = 0;
+        for (int i = 0; i < NUM_FACELETS && moved <= faceletsMoved; i++) {
+          state[i] = aState[bState[aInverse[bInverse[i]]]];
+          if (state[i] != i) {
+            moved++;
+          }
+        }
+        if (moved != faceletsMoved) {
+          continue;
+        }
+
+        int[] cycle = getThreeCycle(state);
+        if (cycle == null) {
+          continue;
+        }
+        Move[] b = insertions.get(k);
+        offer(cycle[0], cycle[1], cycle[2], new Core(a, b));
+        offer(cycle[0], cycle[2], cycle[1], new Core(b, a));
+      }
+    }
+  }
+
+  /*
+   * Returns the letters x, y, z if state cycles stickers x -> y -> z of three
+   * different pieces and leaves everything else solved, or null otherwise.
+   */
+  private int[] getThreeCycle(int[] state) {
+    int x = -1;
+    for (int i = 0; i < NUM_LETTERS && x < 0; i++) {
+      if (state[faceletOf[i]] != faceletOf[i]) {
+        x = i;
+      }
+    }
+    if (x < 0) {
+      return null;
+    }
+
+    int[] inverse = invert(state);
+    int y = letterAt[inverse[faceletOf[x]]];
+    int z = y < 0 ? -1 : letterAt[inverse[faceletOf[y]]];
+    if (z < 0 || x == y || y == z || z == x) {
+      return null;
+    }
+    ExpectedPermutation expected = ExpectedPermutation.threeCycle(pieceType, (char) ('a' + x), (char) ('a' + y),
+        (char) ('a' + z));
+    return expected.matches(state) ? new int[] { x, y, z } : null;
+  }
+
+  /* Records core for the cycle x -> y -> z and its rotations, unless a better one is known */
+  private void offer(int x, int y, int z, Core core) {
+    int[] rotations = { index(x, y, z), index(y, z, x), index(z, x, y) };
+    for (int index : rotations) {
+      if (cores[index] == null || core.isBetterThan(cores[index])) {
+        cores[index] = core;
+      }
+    }
+  }
+
+  /*
+   * Breadth-first search outwards from the triples that have a commutator. The
+   * move set contains every move's inverse, so a triple one move away from a
+   * solvable triple is also one move away in the other direction.
+   */
+  private void buildDistances() {
+    Arrays.fill(distance, UNREACHABLE);
+    int[] queue = new int[NUM_TRIPLES];
+    int head = 0;
+    int tail = 0;
+    for (int index = 0; index < NUM_TRIPLES; index++) {
+      if (cores[index] != null) {
+        distance[index] = 0;
+        queue[tail++] = index;
+      }
+    }
+
+    while (head < tail) {
+      int index = queue[head++];
+      int x = index / (NUM_LETTERS * NUM_LETTERS);
+      int y = (index / NUM_LETTERS) % NUM_LETTERS;
+      int z = index % NUM_LETTERS;
+      for (int m = 0; m < MOVES.length; m++) {
+        int next = index(destination[m][x], destination[m][y], destination[m][z]);
+        if (distance[next] == UNREACHABLE) {
+          distance[next] = (byte) (distance[index] + 1);
+          queue[tail++] = next;
+        }
+      }
+    }
+  }
+
+  /*****************************************************************************
+   * Searching
+   ****************************************************************************/
+
+  /*
+   * The best comm found so far for one case. Costs are in half moves, so that
+   * a comm whose setup ends on the layer its commutator starts with (and so
+   * does not read as written) loses ties against one that does not.
+   */
+  private static class Search {
+    private final int[] setup;
+    private int bestCost = Integer.MAX_VALUE;
+    private String best;
+
+    Search(int maxSetupMoves) {
+      this.setup = new int[maxSetupMoves];
+    }
+  }
+
+  /*
+   * Returns the shortest comm that cycles buffer -> target1 -> target2, in the
+   * notation sheets use, or null if none needs at most this finder's number of
+   * setup moves. Shorter setups win ties, and slice and wide moves are only
+   * used when they make the comm shorter. Throws an IllegalArgumentException
+   * if the three stickers are not on three different pieces.
+   */
+  public String find(char buffer, char target1, char target2) {
+    int b = checkLetter(buffer);
+    int t1 = checkLetter(target1);
+    int t2 = checkLetter(target2);
+    if (getRelatedStickersSet(buffer).contains(target1) || getRelatedStickersSet(buffer).contains(target2)
+        || getRelatedStickersSet(target1).contains(target2)) {
+      throw new IllegalArgumentException("Stickers " + buffer + ", " + target1 + " and " + target2
+          + " are not on three different pieces");
+    }
+
+    Search search = new Search(maxSetupMoves);
+    for (int depth = 0; depth <= maxSetupMoves; depth++) {
+      search(search, b, t1, t2, 0, depth, -1);
+    }
+    if (search.best == null) {
+      return null;
+    }
+
+    // Everything above is derived from the move tables, but confirm the result anyway
+    Comm comm = new Comm(search.best);
+    if (!ExpectedPermutation.threeCycle(pieceType, buffer, target1, target2).matches(comm.toSequence())) {
+      throw new IllegalStateException("Found comm " + search.best + " does not solve " + buffer + target1 + target2);
+    }
+    return search.best;
+  }
+
+  /*
+   * Tries every setup of exactly depth moves that continues the current one,
+   * where x, y and z are the letters the case's stickers have been set up to.
+   * Setups that cannot beat the best comm so far, even with the shortest
+   * commutator, are cut off.
+   */
+  private void search(Search search, int x, int y, int z, int moves, int depth, int previous) {
+    int index = index(x, y, z);
+    if (distance[index] > depth - moves || 2 * (2 * (moves + distance[index]) + 4) >= search.bestCost) {
+      return;
+    }
+    if (moves == depth) {
+      Core core = cores[index];
+      boolean cancels = previous >= 0 && getLayer(MOVES[previous]) == core.firstLayer;
+      int cost = 2 * (2 * depth + core.length) + (cancels ? 1 : 0);
+      if (cost < search.bestCost) {
+        search.bestCost = cost;
+        search.best = toNotation(search.setup, depth, core);
+      }
+      return;
+    }
+
+    for (int m = 0; m < MOVES.length; m++) {
+      if (previous >= 0 && !canFollow(MOVES[previous], MOVES[m])) {
+        continue;
+      }
+      search.setup[moves] = m;
+      search(search, destination[m][x], destination[m][y], destination[m][z], moves + 1, depth, m);
+    }
+  }
+
+  /*
+   * Finds a comm for each case on the given number of threads, as with find.
+   * Each case is a {target1, target2} pair for the buffer.
+   */
+  public String[] findAll(char buffer, List<char[]> cases, int threads) throws InterruptedException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    List<Callable<String>> tasks = new ArrayList<>();
+    for (char[] targets : cases) {
+      tasks.add(() -> find(buffer, targets[0], targets[1]));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<Future<String>> futures = pool.invokeAll(tasks);
+      String[] comms = new String[cases.size()];
+      for (int k = 0; k < comms.length; k++) {
+        try {
+          comms[k] = futures.get(k).get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return comms;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static String toNotation(int[] setup, int depth, Core core) {
+    if (depth == 0) {
+      return core.notation;
+    }
+    StringBuilder sb = new StringBuilder("[");
+    for (int k = 0; k < depth; k++) {
+      if (k != 0) {
+        sb.append(' ');
+      }
+      sb.append(MOVES[setup[k]]);
+    }
+    return sb.append(" : ").append(core.notation).append(']').toString();
+  }
+
+  /*****************************************************************************
+   * Helpers
+   ****************************************************************************/
+
+  private static int index(int x, int y, int z) {
+    return (x * NUM_LETTERS + y) * NUM_LETTERS + z;
+  }
+
+  private static int checkLetter(char c) {
+    if (!SpeffzUtils.isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
+    return Character.toLowerCase(c) - 'a';
+  }
+
+  private Set<Character> getRelatedStickersSet(char c) {
+    return CommSheetValidator.getRelatedStickersSet(pieceType, Character.toLowerCase(c));
+  }
+
+  /*
+   * Returns the layer a move turns: 0-5 for U, D, F, B, R and L, 6-11 for the
+   * wide turns and 12-14 for M, S and E. Moves are declared in groups of three.
+   */
+  static int getLayer(Move move) {
+    return move.ordinal() / 3;
+  }
+
+  /* Returns 0, 1 or 2 for moves about the U/D, F/B and R/L axes, or -1 for rotations */
+  static int getAxis(Move move) {
+    int layer = getLayer(move);
+    if (layer < 12) {
+      return (layer % 6) / 2;
+    }
+    if (layer < 15) {
+      // M turns like L, S like F and E like D
+      return new int[] { 2, 1, 0 }[layer - 12];
+    }
+    return -1;
+  }
+
+  /*
+   * Whether a setup may play next right after previous. Moves about one axis
+   * commute, so they are only tried in one order, and never twice on a layer.
+   */
+  private static boolean canFollow(Move previous, Move next) {
+    return getAxis(previous) != getAxis(next) || getLayer(previous) < getLayer(next);
+  }
+
+  private static int[] simulate(Move[] moves) {
+    int[] state = new int[NUM_FACELETS];
+    MoveTables.reset(state);
+    MoveTables.apply(state, Arrays.asList(moves), new int[NUM_FACELETS]);
+    return state;
+  }
+
+  private static int[] invert(int[] state) {
+    int[] inverse = new int[NUM_FACELETS];
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      inverse[state[i]] = i;
+    }
+    return inverse;
+  }
+}
@@ -7,32 +7,51 @@
 
 package com.aytao.rubiks.client;
 
-import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.aytao.rubiks.comm.Comm;
 import com.aytao.rubiks.comm.Comm.UnbalancedBracketsException;
-import com.aytao.rubiks.cube.Cube;
+import com.aytao.rubiks.cube.BatchSimulator;
+import com.aytao.rubiks.cube.BigCube;
+import com.aytao.rubiks.cube.BigPieceType;
+import com.aytao.rubiks.cube.Metric;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.Scrambler;
+import com.aytao.rubiks.cube.Sequence;
 import com.aytao.rubiks.cube.SpeffzUtils;
 import com.aytao.rubiks.cube.Move.IllegalMoveException;
 import com.aytao.rubiks.utils.ResourceHandler;
 
-import au.com.bytecode.opencsv.CSVReader;
-
 import org.apache.commons.cli.*;
 
-public class CommSheetValidator {
+public class CommSheetValidator implements AutoCloseable {
 
   public enum PieceType {
     EDGE, CORNER;
   }
 
-  private static class CommDescription {
+  static class CommDescription {
     private final char target1;
     private final char target2;
 
@@ -40,13 +59,212 @@ public class CommSheetValidator {
       this.target1 = target1;
       this.target2 = target2;
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      CommDescription commDescription = (CommDescription) o;
+      return target1 == commDescription.target1 && target2 == commDescription.target2;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * target1 + target2;
+    }
   }
 
-  private static final String EMPTY_REGEX = "(\\s)*";
-  private static final Pattern EMPTY_PATTERN = Pattern.compile(EMPTY_REGEX);
+  /*
+   * A single non-buffer cell of a sheet. A cell is parsed before it is
+   * simulated; parsing either decides the cell's validity outright (empty cells,
+   * malformed comms) or produces the Comm that still has to be simulated.
+   */
+  static class Cell {
+    final char target1;
+    final char target2;
+    final CharSequence commText;
+    Comm comm;
+    CommValidity validity;
+
+    // Related cells that share this cell's validity instead of being simulated
+    List<Cell> dependents;
 
-  private static void checkExpectedDims(List<String[]> commStrings, PieceType pieceType, boolean includesHeaders,
-      boolean includesEmptyBufferGroups) {
+    // commText as a String, made only once the comm has to be parsed or stored
+    private String commString;
+
+    Cell(char target1, char target2, CharSequence commText) {
+      this.target1 = target1;
+      this.target2 = target2;
+      this.commText = commText;
+    }
+
+    String getCommString() {
+      if (commString == null) {
+        commString = commText.toString();
+      }
+      return commString;
+    }
+  }
+
+  /*
+   * Per-thread scratch state for simulating comms. Each worker thread reuses its
+   * own facelet arrays instead of allocating new ones for every cell.
+   */
+  private static class Scratch {
+    private final int[] facelets = new int[MoveTables.NUM_FACELETS];
+    private final int[] faceletScratch = new int[MoveTables.NUM_FACELETS];
+
+    // Batch the cells of a leaf task are simulated in, and the cell in each lane
+    private final BatchSimulator batch = new BatchSimulator(ValidityTask.THRESHOLD);
+    private final Cell[] lanes = new Cell[ValidityTask.THRESHOLD];
+    private final long[] expandNanos = new long[ValidityTask.THRESHOLD];
+
+    // Expanded length and time of the last comm this thread simulated
+    private int moves;
+    private long nanos;
+  }
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  private static final ValidationStats stats = ValidationStats.get();
+
+  /*
+   * A single validation of a set of cells: what they are validated against,
+   * who is told about each decided cell, and whether the listener has asked
+   * for the rest of the work to be cancelled.
+   */
+  private static class Run {
+    private final PieceType pieceType;
+    private final char buffer;
+    private final CellListener listener;
+    private volatile boolean cancelled;
+
+    Run(PieceType pieceType, char buffer, CellListener listener) {
+      this.pieceType = pieceType;
+      this.buffer = buffer;
+      this.listener = listener;
+    }
+
+    void emit(Cell cell) {
+      if (listener != null && !listener.cellValidated(cell.target1, cell.target2, cell.validity)) {
+        cancelled = true;
+      }
+    }
+  }
+
+  /*
+   * Parses or simulates a contiguous range of cells, splitting it in half until
+   * it is small enough to run directly. Every cell only writes to itself and its
+   * dependents, so results do not depend on scheduling. Once the run is
+   * cancelled, every task stops before its next cell. A range small enough to
+   * simulate directly is simulated as one batch (see simulateCells).
+   */
+  private class ValidityTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 16;
+
+    private final Run run;
+    private final Cell[] cells;
+    private final boolean simulate;
+    private final int lo;
+    private final int hi;
+
+    ValidityTask(Run run, Cell[] cells, boolean simulate, int lo, int hi) {
+      this.run = run;
+      this.cells = cells;
+      this.simulate = simulate;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo <= THRESHOLD) {
+        long allocated = ValidationStats.allocatedBytes();
+        if (simulate) {
+          simulateCells(cells, lo, hi, run);
+          stats.simulateAllocated(allocated);
+          return;
+        }
+        for (int k = lo; k < hi && !run.cancelled; k++) {
+          parseCell(cells[k], run.pieceType, run.buffer);
+          if (cells[k].validity != null) {
+            run.emit(cells[k]);
+          }
+        }
+        stats.parseAllocated(allocated);
+        return;
+      }
+
+      if (run.cancelled) {
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new ValidityTask(run, cells, simulate, lo, mid), new ValidityTask(run, cells, simulate, mid, hi));
+    }
+  }
+
+  // Pool used to validate cells in parallel, or null to validate serially
+  private final ForkJoinPool pool;
+
+  // Cache of parses and results shared across validations, or null for none
+  private final ValidationCache cache;
+
+  // Whether cells may also share results with their L/R mirror image
+  private final boolean reuseMirrors;
+
+  /* Creates a validator that uses all available processors */
+  public CommSheetValidator() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /* Creates a validator that validates cells using the given number of threads */
+  public CommSheetValidator(int threads) {
+    this(threads, null);
+  }
+
+  /*
+   * Creates a validator that validates cells using the given number of threads,
+   * and reuses parses and results from cache when it is not null.
+   */
+  public CommSheetValidator(int threads, ValidationCache cache) {
+    this(threads, cache, false);
+  }
+
+  /*
+   * As above, and if reuseMirrors is set, also decides a cell from the cell its
+   * comm is the L/R mirror image of, when the buffer is its own mirror image.
+   */
+  public CommSheetValidator(int threads, ValidationCache cache, boolean reuseMirrors) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    this.cache = cache;
+    this.reuseMirrors = reuseMirrors;
+  }
+
+  /* Shuts down the validator's thread pool. Validations already running finish first */
+  @Override
+  public void close() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  /* Returns whether cells may share results with their L/R mirror image */
+  public boolean isReusingMirrors() {
+    return reuseMirrors;
+  }
+
+  /*****************************************************************************
+   * Reading sheets
+   ****************************************************************************/
+
+  private static void checkExpectedDims(List<? extends CharSequence[]> commStrings, PieceType pieceType,
+      boolean includesHeaders, boolean includesEmptyBufferGroups) {
 
     int expectedDim = SpeffzUtils.NUM_SPEFFZ_LETTERS;
 
@@ -75,9 +293,9 @@ public class CommSheetValidator {
         continue;
       }
 
-      String[] arr = commStrings.get(i);
+      CharSequence[] arr = commStrings.get(i);
       if (arr.length != expectedDim) {
-        String errorString = "Row " + i + " of provided file has " + commStrings.size() + " columns, but " + expectedDim
+        String errorString = "Row " + i + " of provided file has " + arr.length + " columns, but " + expectedDim
             + " were expected.";
         errorString += flagSuggestion;
         throw new IllegalArgumentException(errorString);
@@ -85,29 +303,65 @@ public class CommSheetValidator {
     }
   }
 
-  private static String[][] csvToTwoDimArray(String fileName, PieceType pieceType, boolean includesHeaders,
+  private static CharSequence[][] csvToTwoDimArray(String fileName, PieceType pieceType, boolean includesHeaders,
       boolean includesEmptyBufferGroups) {
-    List<String[]> commStrings;
-    try (CSVReader reader = new CSVReader(new FileReader(ResourceHandler.getFile(fileName)))) {
-      commStrings = reader.readAll();
+    return getCommStrings(scanSheet(fileName), pieceType, includesHeaders, includesEmptyBufferGroups);
+  }
+
+  /* Reads the rows of a sheet resource, without checking its dimensions */
+  private static List<CharSequence[]> scanSheet(String fileName) {
+    long start = System.nanoTime();
+    long allocated = ValidationStats.allocatedBytes();
+    try (Reader reader = new InputStreamReader(ResourceHandler.getStream(fileName), StandardCharsets.UTF_8)) {
+      List<CharSequence[]> rows = SheetScanner.scan(reader);
+      stats.sheetRead(start, allocated);
+      return rows;
+    } catch (IllegalArgumentException e) {
+      throw e;
     } catch (Exception e) {
       e.printStackTrace();
       throw new RuntimeException("Error reading file '" + fileName + "'");
     }
+  }
 
-    checkExpectedDims(commStrings, pieceType, includesHeaders, includesEmptyBufferGroups);
+  /*
+   * Reads a sheet's CSV contents from reader, checks its dimensions, and
+   * returns its comm strings with any headers removed. Does not close reader.
+   * Cells are views into one buffer holding the whole sheet (see SheetScanner).
+   */
+  static CharSequence[][] readSheet(Reader reader, PieceType pieceType, boolean includesHeaders,
+      boolean includesEmptyBufferGroups) throws IOException {
+    long start = System.nanoTime();
+    long allocated = ValidationStats.allocatedBytes();
+    List<CharSequence[]> rows = SheetScanner.scan(reader);
+    stats.sheetRead(start, allocated);
+    return getCommStrings(rows, pieceType, includesHeaders, includesEmptyBufferGroups);
+  }
 
-    if (includesHeaders) {
-      commStrings.remove(0);
-    }
+  /* As above, but memory-maps the UTF-8 sheet at path */
+  static CharSequence[][] readSheet(Path path, PieceType pieceType, boolean includesHeaders,
+      boolean includesEmptyBufferGroups) throws IOException {
+    long start = System.nanoTime();
+    long allocated = ValidationStats.allocatedBytes();
+    List<CharSequence[]> rows = SheetScanner.scan(path);
+    stats.sheetRead(start, allocated);
+    return getCommStrings(rows, pieceType, includesHeaders, includesEmptyBufferGroups);
+  }
 
-    String[][] comms = new String[commStrings.size()][];
+  /*
+   * Checks the dimensions of a sheet's rows and returns its comm strings with
+   * any headers removed. Does not modify rows or copy any cells.
+   */
+  static CharSequence[][] getCommStrings(List<? extends CharSequence[]> rows, PieceType pieceType,
+      boolean includesHeaders, boolean includesEmptyBufferGroups) {
+    checkExpectedDims(rows, pieceType, includesHeaders, includesEmptyBufferGroups);
+
+    List<? extends CharSequence[]> commStrings = includesHeaders ? rows.subList(1, rows.size()) : rows;
+    CharSequence[][] comms = new CharSequence[commStrings.size()][];
     int idx = 0;
-    for (String[] arr : commStrings) {
+    for (CharSequence[] arr : commStrings) {
       if (includesHeaders) {
-        String[] commsRow = new String[arr.length - 1];
-        System.arraycopy(arr, 1, commsRow, 0, comms.length);
-        comms[idx] = commsRow;
+        comms[idx] = Arrays.copyOfRange(arr, 1, arr.length);
       } else {
         comms[idx] = arr;
       }
@@ -117,7 +371,7 @@ public class CommSheetValidator {
     return comms;
   }
 
-  private static Set<Character> getRelatedStickersSet(PieceType pieceType, char sticker) {
+  static Set<Character> getRelatedStickersSet(PieceType pieceType, char sticker) {
     if (pieceType.equals(PieceType.EDGE)) {
       return SpeffzUtils.getRelatedEdgeStickersSet(sticker);
     } else {
@@ -125,12 +379,70 @@ public class CommSheetValidator {
     }
   }
 
+  private static char getMirroredSticker(PieceType pieceType, char sticker) {
+    if (pieceType.equals(PieceType.EDGE)) {
+      return SpeffzUtils.getMirroredEdgeSticker(sticker);
+    } else {
+      return SpeffzUtils.getMirroredCornerSticker(sticker);
+    }
+  }
+
+  /*****************************************************************************
+   * Validation
+   ****************************************************************************/
+
   public CommValidity[][] checkValidity(String fileName, char buffer, PieceType pieceType, boolean includesHeaders,
       boolean includesEmptyBufferGroups) {
+    CharSequence[][] commStrings = csvToTwoDimArray(fileName, pieceType, includesHeaders, includesEmptyBufferGroups);
+    return checkValidity(commStrings, buffer, pieceType, includesEmptyBufferGroups);
+  }
+
+  /*
+   * Validates a sheet file, passing each cell's validity to listener as soon as
+   * it is decided. Returns false if the listener cancelled the validation, in
+   * which case some cells are never reported.
+   */
+  public boolean checkValidity(String fileName, char buffer, PieceType pieceType, boolean includesHeaders,
+      boolean includesEmptyBufferGroups, CellListener listener) {
+    CharSequence[][] commStrings = csvToTwoDimArray(fileName, pieceType, includesHeaders, includesEmptyBufferGroups);
+    return checkValidity(commStrings, buffer, pieceType, includesEmptyBufferGroups, listener);
+  }
+
+  /*
+   * Validates a sheet whose comm strings have already been read, with headers
+   * removed. Rows are indexed by the second target and columns by the first.
+   */
+  public CommValidity[][] checkValidity(CharSequence[][] commStrings, char buffer, PieceType pieceType,
+      boolean includesEmptyBufferGroups) {
+    Cell[] cells = getCells(commStrings, buffer, pieceType, includesEmptyBufferGroups);
+    validateCells(cells, pieceType, buffer);
+    return toValidities(cells);
+  }
+
+  /* As above, but streams each cell to listener; see CellListener */
+  public boolean checkValidity(CharSequence[][] commStrings, char buffer, PieceType pieceType,
+      boolean includesEmptyBufferGroups, CellListener listener) {
+    Cell[] cells = getCells(commStrings, buffer, pieceType, includesEmptyBufferGroups);
+    return validateCells(cells, pieceType, buffer, listener);
+  }
+
+  /* Validates a single cell of a sheet for the given buffer and targets */
+  public CommValidity checkCell(String commString, PieceType pieceType, char buffer, char target1, char target2) {
+    Cell cell = new Cell(target1, target2, commString);
+    parseCell(cell, pieceType, buffer);
+    simulateCell(cell, new Run(pieceType, buffer, null));
+    return cell.validity;
+  }
+
+  /*
+   * Lays out the non-buffer cells of a sheet in row-major order of (target1,
+   * target2).
+   */
+  static Cell[] getCells(CharSequence[][] commStrings, char buffer, PieceType pieceType,
+      boolean includesEmptyBufferGroups) {
     Set<Character> bufferPieceSet = getRelatedStickersSet(pieceType, buffer);
-    CommValidity[][] validities = new CommValidity[SpeffzUtils.NUM_SPEFFZ_LETTERS][SpeffzUtils.NUM_SPEFFZ_LETTERS];
+    List<Cell> cells = new ArrayList<>();
 
-    String[][] commStrings = csvToTwoDimArray(fileName, pieceType, includesHeaders, includesEmptyBufferGroups);
     int firstPieceIdx = 0;
     for (int i = 0; i < SpeffzUtils.NUM_SPEFFZ_LETTERS; i++) {
       if (bufferPieceSet.contains((char) (i + 'a'))) {
@@ -147,176 +459,1321 @@ public class CommSheetValidator {
           }
           continue;
         }
-        validities[i][j] = getCommStringValidity(
-            commStrings[secondPieceIdx][firstPieceIdx], pieceType, buffer, (char) (i + 'a'),
-            (char) (j + 'a'));
+        cells.add(new Cell((char) (i + 'a'), (char) (j + 'a'), commStrings[secondPieceIdx][firstPieceIdx]));
         secondPieceIdx++;
       }
       firstPieceIdx++;
     }
 
+    return cells.toArray(new Cell[0]);
+  }
+
+  /*
+   * Parses and simulates every cell, in parallel if this validator has threads.
+   * Cells related to an earlier cell (see linkRelatedCells) are not simulated,
+   * but take on that cell's validity.
+   */
+  void validateCells(Cell[] cells, PieceType pieceType, char buffer) {
+    validateCells(cells, pieceType, buffer, null);
+  }
+
+  /*
+   * As above, but passes each cell to listener (if not null) as soon as it is
+   * decided. Cells that are malformed, empty or cached are decided while
+   * parsing, before any cell is simulated. Returns false if the listener
+   * cancelled the validation, leaving the remaining cells undecided.
+   */
+  boolean validateCells(Cell[] cells, PieceType pieceType, char buffer, CellListener listener) {
+    Run run = new Run(pieceType, buffer, listener);
+    runTask(new ValidityTask(run, cells, false, 0, cells.length));
+    if (run.cancelled) {
+      return false;
+    }
+    Cell[] simulated = linkRelatedCells(cells, pieceType, buffer);
+    runTask(new ValidityTask(run, simulated, true, 0, simulated.length));
+    return !run.cancelled;
+  }
+
+  private void runTask(ValidityTask task) {
+    if (pool == null) {
+      task.compute();
+    } else {
+      pool.invoke(task);
+    }
+  }
+
+  /*
+   * Links each parsed cell that still has to be simulated to an earlier such
+   * cell whose validity it must share, and returns the cells that are left to
+   * simulate. Cell (t2, t1) shares the validity of cell (t1, t2) if its comm is
+   * the exact inverse, since the inverse of the cycle buffer -> t1 -> t2 is
+   * buffer -> t2 -> t1 and both disturb exactly the same pieces. Likewise, if
+   * the buffer is its own mirror image, a cell whose comm is the L/R mirror of
+   * another's shares its validity with the cell for the mirrored targets.
+   */
+  private Cell[] linkRelatedCells(Cell[] cells, PieceType pieceType, char buffer) {
+    boolean mirrors = reuseMirrors && getMirroredSticker(pieceType, buffer) == buffer;
+    Cell[][] simulatedByTargets = new Cell[SpeffzUtils.NUM_SPEFFZ_LETTERS][SpeffzUtils.NUM_SPEFFZ_LETTERS];
+    List<Cell> simulated = new ArrayList<>();
+
+    for (Cell cell : cells) {
+      if (cell.comm == null || cell.validity != null) {
+        continue;
+      }
+
+      Cell inverse = simulatedByTargets[cell.target2 - 'a'][cell.target1 - 'a'];
+      if (inverse != null && cell.comm.isInverseOf(inverse.comm)) {
+        addDependent(inverse, cell);
+        continue;
+      }
+
+      if (mirrors) {
+        char mirror1 = getMirroredSticker(pieceType, cell.target1);
+        char mirror2 = getMirroredSticker(pieceType, cell.target2);
+        Cell mirror = simulatedByTargets[mirror1 - 'a'][mirror2 - 'a'];
+        if (mirror != null && cell.comm.isMirrorOf(mirror.comm)) {
+          addDependent(mirror, cell);
+          continue;
+        }
+      }
+
+      simulatedByTargets[cell.target1 - 'a'][cell.target2 - 'a'] = cell;
+      simulated.add(cell);
+    }
+
+    return simulated.toArray(new Cell[0]);
+  }
+
+  private static void addDependent(Cell cell, Cell dependent) {
+    if (cell.dependents == null) {
+      cell.dependents = new ArrayList<>();
+    }
+    cell.dependents.add(dependent);
+  }
+
+  static CommValidity[][] toValidities(Cell[] cells) {
+    CommValidity[][] validities = new CommValidity[SpeffzUtils.NUM_SPEFFZ_LETTERS][SpeffzUtils.NUM_SPEFFZ_LETTERS];
+    for (Cell cell : cells) {
+      validities[cell.target1 - 'a'][cell.target2 - 'a'] = cell.validity;
+    }
     return validities;
   }
 
-  private CommValidity getCommStringValidity(String commString, PieceType commPieceType, char buffer, char target1,
-      char target2) {
-    boolean targetsOnSamePiece = getRelatedStickersSet(commPieceType, target1).contains(target2);
+  /*
+   * Decides the validity of empty, malformed or cached cells, and otherwise
+   * parses the cell's comm so that it can be simulated. Does nothing if the
+   * cell has already been parsed.
+   */
+  void parseCell(Cell cell, PieceType commPieceType, char buffer) {
+    if (cell.comm != null || cell.validity != null) {
+      return;
+    }
+    stats.cellProcessed();
+
+    boolean targetsOnSamePiece = getRelatedStickersSet(commPieceType, cell.target1).contains(cell.target2);
 
     if (targetsOnSamePiece) {
-      if (EMPTY_PATTERN.matcher(commString).matches()) {
-        return CommValidity.VALID;
+      if (isBlank(cell.commText)) {
+        cell.validity = CommValidity.VALID;
       } else {
-        return CommValidity.SHOULD_BE_EMPTY;
+        cell.validity = CommValidity.SHOULD_BE_EMPTY;
       }
+      return;
     } else {
-      if (EMPTY_PATTERN.matcher(commString).matches()) {
-        return CommValidity.UNEXPECTED_EMPTY;
+      if (isBlank(cell.commText)) {
+        cell.validity = CommValidity.UNEXPECTED_EMPTY;
+        return;
       }
     }
 
-    Comm comm;
+    if (cache != null) {
+      cell.validity = cache.getResult(cell.commText, commPieceType, buffer, cell.target1, cell.target2);
+      if (cell.validity != null) {
+        stats.cellFromResultCache();
+        return;
+      }
+
+      long start = System.nanoTime();
+      ValidationCache.ParsedComm parsedComm = cache.parse(cell.getCommString());
+      stats.cellParsed(System.nanoTime() - start);
+      cell.comm = parsedComm.comm;
+      cell.validity = parsedComm.failure;
+      if (cell.validity != null) {
+        cache.putResult(cell.getCommString(), commPieceType, buffer, cell.target1, cell.target2, cell.validity);
+      }
+      return;
+    }
+
+    long start = System.nanoTime();
     try {
-      comm = new Comm(commString);
+      cell.comm = new Comm(cell.getCommString());
     } catch (IllegalMoveException e) {
-      return CommValidity.ILLEGAL_MOVE;
+      cell.validity = CommValidity.ILLEGAL_MOVE;
     } catch (UnbalancedBracketsException e) {
-      return CommValidity.UNBALANCED_BRACKETS;
+      cell.validity = CommValidity.UNBALANCED_BRACKETS;
     } catch (Exception e) {
-      return CommValidity.PARSING_ERROR;
+      cell.validity = CommValidity.PARSING_ERROR;
     }
-
-    return checkComm(comm, commPieceType, buffer, target1, target2);
+    stats.cellParsed(System.nanoTime() - start);
   }
 
-  public static CommValidity checkComm(Comm comm, PieceType pieceType, char buffer, char target1, char target2) {
-    Cube cube = new Cube();
-    cube.execute(comm.toSequence());
-
-    char[] otherPieceTypeReport;
-    char[] relevantPieceTypeReport;
-    if (pieceType.equals(PieceType.EDGE)) {
-      otherPieceTypeReport = SpeffzUtils.cornerReport(cube);
-      relevantPieceTypeReport = SpeffzUtils.edgeReport(cube);
-    } else {
-      otherPieceTypeReport = SpeffzUtils.edgeReport(cube);
-      relevantPieceTypeReport = SpeffzUtils.cornerReport(cube);
+  /* Returns whether text is empty or only whitespace, as matched by the regex \\s* */
+  static boolean isBlank(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+        return false;
+      }
     }
+    return true;
+  }
 
-    if (!isAscendingOrder(otherPieceTypeReport)) {
-      return CommValidity.DISRUPTS_OTHER_PIECES;
+  /*
+   * Simulates a parsed cell whose validity has not been decided yet, then
+   * decides its dependents the same way. Each decided cell is cached and passed
+   * to the run's listener.
+   */
+  private void simulateCell(Cell cell, Run run) {
+    if (cell.validity != null) {
+      return;
     }
 
-    Set<Character> ignore = getRelatedStickersSet(pieceType, buffer);
-    ignore.addAll(getRelatedStickersSet(pieceType, target1));
-    ignore.addAll(getRelatedStickersSet(pieceType, target2));
-    if (!otherStickersUndisturbed(relevantPieceTypeReport, ignore)) {
-      return CommValidity.DISRUPTS_OTHER_PIECES;
-    }
+    cell.validity = checkComm(cell.comm, run.pieceType, run.buffer, cell.target1, cell.target2);
+    Scratch scratch = SCRATCH.get();
+    finishCell(cell, run, scratch.moves, scratch.nanos);
+  }
 
-    if (!isCycle(relevantPieceTypeReport, buffer, target1, target2)) {
-      return CommValidity.INCORRECT_CYCLE;
+  /*
+   * Simulates the undecided cells of cells[lo, hi), at most
+   * ValidityTask.THRESHOLD of them, as one BatchSimulator batch, then decides
+   * each one as simulateCell does. Each cell's share of the batch's time is in
+   * proportion to its number of moves.
+   */
+  private void simulateCells(Cell[] cells, int lo, int hi, Run run) {
+    if (run.cancelled) {
+      return;
+    }
+    Scratch scratch = SCRATCH.get();
+    BatchSimulator batch = scratch.batch;
+    batch.clear();
+    int totalMoves = 0;
+    for (int k = lo; k < hi; k++) {
+      if (cells[k].validity != null) {
+        continue;
+      }
+      long start = System.nanoTime();
+      List<Move> moves = cells[k].comm.toSequence();
+      int lane = batch.add(moves);
+      scratch.expandNanos[lane] = System.nanoTime() - start;
+      scratch.lanes[lane] = cells[k];
+      totalMoves += moves.size();
     }
 
-    return CommValidity.VALID;
+    long start = System.nanoTime();
+    batch.simulate();
+    long batchNanos = System.nanoTime() - start;
+
+    for (int lane = 0; lane < batch.size() && !run.cancelled; lane++) {
+      Cell cell = scratch.lanes[lane];
+      scratch.lanes[lane] = null;
+      int moves = batch.getLength(lane);
+      long checkStart = System.nanoTime();
+      batch.getState(lane, scratch.facelets);
+      cell.validity = checkState(scratch.facelets, run.pieceType, run.buffer, cell.target1, cell.target2);
+      long simulateNanos = (totalMoves == 0 ? 0 : batchNanos * moves / totalMoves) + System.nanoTime() - checkStart;
+      stats.cellSimulated(scratch.expandNanos[lane], simulateNanos, moves);
+      finishCell(cell, run, moves, scratch.expandNanos[lane] + simulateNanos);
+    }
+    Arrays.fill(scratch.lanes, null);
   }
 
-  private static boolean otherStickersUndisturbed(char[] report, Set<Character> ignore) {
-    for (int i = 0; i < SpeffzUtils.NUM_SPEFFZ_LETTERS; i++) {
-      if (ignore.contains((char) ('a' + i))) {
-        continue;
+  /* Records the time a simulated cell took, then decides it and its dependents */
+  private void finishCell(Cell cell, Run run, int moves, long nanos) {
+    stats.timedCell(cell.getCommString(), run.pieceType, run.buffer, cell.target1, cell.target2, moves, nanos);
+    decide(cell, run);
+    if (cell.dependents != null) {
+      for (Cell dependent : cell.dependents) {
+        dependent.validity = cell.validity;
+        stats.decidedByRelatedCell();
+        decide(dependent, run);
       }
+    }
+  }
 
-      if (report[i] != i + 'a') {
-        return false;
-      }
+  private void decide(Cell cell, Run run) {
+    if (cache != null) {
+      cache.putResult(cell.getCommString(), run.pieceType, run.buffer, cell.target1, cell.target2, cell.validity);
     }
+    run.emit(cell);
+  }
 
-    return true;
+  /*
+   * Simulates the comm on a solved cube and checks that it cycles buffer ->
+   * target1 -> target2 without disturbing anything else. Safe to call from
+   * multiple threads; each thread simulates on its own scratch state.
+   *
+   * The comm is applied to a compact facelet permutation, which is first
+   * checked against cheap invariants that reject most broken comms. A comm
+   * that passes them only moves the three cycled pieces, so it is correct
+   * exactly when it produces the expected permutation for its case.
+   */
+  public static CommValidity checkComm(Comm comm, PieceType pieceType, char buffer, char target1, char target2) {
+    Scratch scratch = SCRATCH.get();
+    long start = System.nanoTime();
+    List<Move> moves = comm.toSequence();
+    long expanded = System.nanoTime();
+    MoveTables.reset(scratch.facelets);
+    MoveTables.apply(scratch.facelets, moves, scratch.faceletScratch);
+    CommValidity validity = checkState(scratch.facelets, pieceType, buffer, target1, target2);
+
+    long end = System.nanoTime();
+    stats.cellSimulated(expanded - start, end - expanded, moves.size());
+    scratch.moves = moves.size();
+    scratch.nanos = end - start;
+    return validity;
   }
 
-  private static boolean isReplaced(char[] report, char source, char target) {
-    return report[target - 'a'] == source;
+  /*
+   * Decides the validity of a comm from the facelet state it leaves on a
+   * solved cube: by the invariant filter if it can, and otherwise by the
+   * expected permutation of the case.
+   */
+  private static CommValidity checkState(int[] facelets, PieceType pieceType, char buffer, char target1,
+      char target2) {
+    CommValidity validity = InvariantFilter.check(facelets, pieceType, buffer, target1, target2);
+    if (validity != null) {
+      stats.decidedByFilter();
+      return validity;
+    }
+    stats.decidedByTable();
+    ExpectedPermutation expected = ExpectedPermutation.threeCycle(pieceType, buffer, target1, target2);
+    return expected.matches(facelets) ? CommValidity.VALID : CommValidity.INCORRECT_CYCLE;
   }
 
-  private static boolean isCycle(char[] report, char b, char t1, char t2) {
-    return isReplaced(report, b, t1) &&
-        isReplaced(report, t1, t2) &&
-        isReplaced(report, t2, b);
+  /* Returns the number of simulated comms rejected by the invariant filter */
+  public static long getDecidedByFilterCount() {
+    return stats.getDecidedByFilter();
   }
 
-  private static boolean isAscendingOrder(char[] report) {
-    for (int i = 0; i < report.length; i++) {
-      if (report[i] != 'a' + i) {
-        return false;
-      }
-    }
+  /* Returns the number of simulated comms decided by their expected permutation */
+  public static long getDecidedByTableCount() {
+    return stats.getDecidedByTable();
+  }
 
-    return true;
+  /* Returns the number of cells decided from an inverse or mirrored cell */
+  public static long getDecidedByRelatedCellCount() {
+    return stats.getDecidedByRelatedCell();
   }
 
-  private static void printErrorGroup(CommValidity cv, List<CommDescription> list) {
+  /*****************************************************************************
+   * Reporting
+   ****************************************************************************/
+
+  static void printErrorGroup(PrintStream out, CommValidity cv, List<CommDescription> list) {
     String title = cv.name().replace("_", " ");
     String underline = new String(new char[title.length()]).replace('\0', '_');
-    System.out.println(title);
-    System.out.println(underline);
+    out.println(title);
+    out.println(underline);
 
     for (CommDescription commDescription : list) {
-      System.out.printf("%c%c\n", Character.toUpperCase(commDescription.target1),
+      out.printf("%c%c\n", Character.toUpperCase(commDescription.target1),
           Character.toUpperCase(commDescription.target2));
     }
   }
 
-  private static void detectAllErrors(String sheetName,
+  /*
+   * Prints every invalid cell to out, grouped by validity. Returns the number of
+   * invalid cells printed.
+   */
+  static int printErrors(PrintStream out, CommValidity[][] commValidities, boolean ignoreEmpty) {
+    Map<CommValidity, List<CommDescription>> map = getErrorGroups(commValidities, ignoreEmpty);
+
+    int numErrors = 0;
+    for (CommValidity cv : map.keySet()) {
+      printErrorGroup(out, cv, map.get(cv));
+      out.println();
+      numErrors += map.get(cv).size();
+    }
+
+    return numErrors;
+  }
+
+  /* Groups every invalid cell by its validity, in a stable order */
+  static Map<CommValidity, List<CommDescription>> getErrorGroups(CommValidity[][] commValidities,
+      boolean ignoreEmpty) {
+    Map<CommValidity, List<CommDescription>> map = new EnumMap<>(CommValidity.class);
+    for (int i = 0; i < commValidities.length; i++) {
+      for (int j = 0; j < commValidities[i].length; j++) {
+        CommValidity cv = commValidities[i][j];
+        if (cv == null || CommValidity.isValid(cv) || (ignoreEmpty && cv.equals(CommValidity.UNEXPECTED_EMPTY))) {
+          continue;
+        }
+        List<CommDescription> list = map.getOrDefault(cv, new ArrayList<>());
+        list.add(new CommDescription((char) (i + 'a'), (char) (j + 'a')));
+        map.put(cv, list);
+      }
+    }
+
+    return map;
+  }
+
+  private static CommValidity[][] detectAllErrors(String sheetName,
       char buffer,
       PieceType pieceType,
       boolean containsHeaders,
       boolean containsEmptyBufferGroups,
-      boolean ignoreEmpty) {
-    CommSheetValidator commSheetValidator = new CommSheetValidator();
+      boolean ignoreEmpty,
+      CommSheetValidator commSheetValidator) {
     CommValidity[][] commValidities = commSheetValidator.checkValidity(
         sheetName, buffer, pieceType, containsHeaders, containsEmptyBufferGroups);
 
-    Map<CommValidity, List<CommDescription>> map = new HashMap<>();
+    printErrors(System.out, commValidities, ignoreEmpty);
+    return commValidities;
+  }
+
+  /*
+   * Validates a sheet, printing each invalid cell as soon as it is found instead
+   * of grouping them, and cancels the rest of the validation once maxErrors
+   * cells have been printed. Returns the number of invalid cells printed.
+   */
+  private static int streamErrors(PrintStream out, String sheetName, SheetConfig sheet, int maxErrors,
+      CommSheetValidator commSheetValidator) {
+    AtomicInteger numErrors = new AtomicInteger();
+    boolean completed = commSheetValidator.checkValidity(sheetName, sheet.getBuffer(), sheet.getPieceType(),
+        sheet.includesHeaders(), sheet.includesEmptyBufferGroups(), (target1, target2, validity) -> {
+          if (CommValidity.isValid(validity)
+              || (sheet.ignoreEmpty() && validity.equals(CommValidity.UNEXPECTED_EMPTY))) {
+            return true;
+          }
+          // Cells decided concurrently with the last allowed error are dropped
+          int errorNum = numErrors.incrementAndGet();
+          if (errorNum > maxErrors) {
+            return false;
+          }
+          out.printf("%s: %c%c\n", validity.name().replace("_", " "), Character.toUpperCase(target1),
+              Character.toUpperCase(target2));
+          return errorNum < maxErrors;
+        });
+
+    if (!completed) {
+      out.println("Stopped after " + maxErrors + (maxErrors == 1 ? " error" : " errors"));
+    }
+    return Math.min(numErrors.get(), maxErrors);
+  }
+
+  /*****************************************************************************
+   * Filling
+   ****************************************************************************/
+
+  /* Whether a cell needs a new comm, because it has none or its comm is wrong */
+  private static boolean needsComm(CommValidity cv) {
+    return cv == CommValidity.UNEXPECTED_EMPTY || cv == CommValidity.INCORRECT_CYCLE
+        || cv == CommValidity.DISRUPTS_OTHER_PIECES;
+  }
+
+  /*
+   * Searches for a comm for every cell that needs one (see CommFinder) on the
+   * given number of threads, and prints them. If output is not null, also
+   * writes the sheet there as CSV, with the comms found filled in.
+   */
+  private static void fillSheet(PrintStream out, String sheetName, SheetConfig sheet,
+      CommValidity[][] commValidities, int threads, Path output) throws IOException, InterruptedException {
+    List<char[]> cases = new ArrayList<>();
     for (int i = 0; i < commValidities.length; i++) {
       for (int j = 0; j < commValidities[i].length; j++) {
-        if (commValidities[i][j] == null) {
-          continue;
+        if (needsComm(commValidities[i][j])) {
+          cases.add(new char[] { (char) (i + 'a'), (char) (j + 'a') });
         }
-        List<CommDescription> list = map.getOrDefault(commValidities[i][j], new ArrayList<>());
-        list.add(new CommDescription((char) (i + 'a'), (char) (j + 'a')));
-        map.put(commValidities[i][j], list);
       }
     }
 
-    for (CommValidity cv : map.keySet()) {
-      if (CommValidity.isValid(cv) || (ignoreEmpty && cv.equals(CommValidity.UNEXPECTED_EMPTY))) {
+    CommFinder finder = new CommFinder(sheet.getPieceType());
+    String[] comms = finder.findAll(sheet.getBuffer(), cases, threads);
+
+    String title = "SUGGESTED COMMS";
+    out.println(title);
+    out.println(new String(new char[title.length()]).replace('\0', '_'));
+    for (int k = 0; k < cases.size(); k++) {
+      out.printf("%c%c: %s\n", Character.toUpperCase(cases.get(k)[0]), Character.toUpperCase(cases.get(k)[1]),
+          comms[k] == null ? "none found" : comms[k]);
+    }
+    out.println();
+
+    if (output == null) {
+      return;
+    }
+    List<CharSequence[]> rows = scanSheet(sheetName);
+    int offset = sheet.includesHeaders() ? 1 : 0;
+    for (int k = 0; k < cases.size(); k++) {
+      if (comms[k] != null) {
+        int column = getSheetIndex(sheet, cases.get(k)[0]);
+        int row = getSheetIndex(sheet, cases.get(k)[1]);
+        rows.get(row + offset)[column + offset] = comms[k];
+      }
+    }
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      for (CharSequence[] cells : rows) {
+        for (int i = 0; i < cells.length; i++) {
+          if (i != 0) {
+            writer.write(',');
+          }
+          writeCsvField(writer, cells[i]);
+        }
+        writer.write('\n');
+      }
+    }
+    out.println("Wrote filled sheet to " + output);
+  }
+
+  /* Returns the row or column of a sheet, headers aside, that holds a target's comms */
+  private static int getSheetIndex(SheetConfig sheet, char target) {
+    Set<Character> bufferPieceSet = getRelatedStickersSet(sheet.getPieceType(), sheet.getBuffer());
+    int index = 0;
+    for (char c = 'a'; c < target; c++) {
+      if (sheet.includesEmptyBufferGroups() || !bufferPieceSet.contains(c)) {
+        index++;
+      }
+    }
+    return index;
+  }
+
+  /* Writes a CSV field, quoting it if it contains a comma, quote or line break */
+  private static void writeCsvField(Writer writer, CharSequence field) throws IOException {
+    String text = field.toString();
+    if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+      writer.write(text);
+      return;
+    }
+    writer.write('"');
+    writer.write(text.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+  /*****************************************************************************
+   * Scoring
+   ****************************************************************************/
+
+  /*
+   * Finds the shortest alg in metric for the case of every valid comm (see
+   * OptimalSolver) on the given number of threads, and prints how long each
+   * comm is next to it. Each search stops at the length of the comm, since the
+   * comm itself is an alg for its case. The pruning table is kept next to
+   * cacheFile, or only in memory if it is null.
+   */
+  private static void printOptimalLengths(PrintStream out, String sheetName, SheetConfig sheet,
+      CommValidity[][] commValidities, Metric metric, int threads, Path cacheFile)
+      throws IOException, InterruptedException {
+    CharSequence[][] commStrings = csvToTwoDimArray(sheetName, sheet.getPieceType(), sheet.includesHeaders(),
+        sheet.includesEmptyBufferGroups());
+    List<char[]> cases = new ArrayList<>();
+    List<Integer> lengths = new ArrayList<>();
+    for (Cell cell : getCells(commStrings, sheet.getBuffer(), sheet.getPieceType(),
+        sheet.includesEmptyBufferGroups())) {
+      if (isBlank(cell.commText) || !CommValidity.isValid(commValidities[cell.target1 - 'a'][cell.target2 - 'a'])) {
         continue;
       }
-      printErrorGroup(cv, map.get(cv));
-      System.out.println();
+      cases.add(new char[] { cell.target1, cell.target2 });
+      lengths.add(metric.length(new Comm(cell.getCommString()).toSequence()));
+    }
+
+    int[] maxLengths = new int[lengths.size()];
+    for (int k = 0; k < maxLengths.length; k++) {
+      maxLengths[k] = lengths.get(k);
+    }
+    List<List<Move>> solutions;
+    try (OptimalSolver solver = OptimalSolver.open(metric, cacheFile)) {
+      solutions = solver.solveAll(sheet.getPieceType(), sheet.getBuffer(), cases, maxLengths, threads);
+    }
+
+    String title = "OPTIMAL LENGTHS (" + metric + ")";
+    out.println(title);
+    out.println(new String(new char[title.length()]).replace('\0', '_'));
+    int numOptimal = 0;
+    for (int k = 0; k < cases.size(); k++) {
+      List<Move> solution = solutions.get(k);
+      int optimal = solution == null ? maxLengths[k] : metric.length(solution);
+      out.printf("%c%c: your comm: %d moves / optimal: %d moves", Character.toUpperCase(cases.get(k)[0]),
+          Character.toUpperCase(cases.get(k)[1]), maxLengths[k], optimal);
+      if (optimal < maxLengths[k]) {
+        out.print(" (" + Sequence.toString(new ArrayList<>(solution)) + ")");
+      } else {
+        numOptimal++;
+      }
+      out.println();
     }
+    out.println();
+    out.println(numOptimal + " of " + cases.size() + " comms are optimal in " + metric);
+    out.println();
   }
 
-  public static void main(String[] args) {
-    Options options = new Options();
+  /*****************************************************************************
+   * Usage
+   ****************************************************************************/
+
+  /*
+   * Traces the memos of samples random cubes for the sheet's buffer (see
+   * MemoStatistics) on the given number of threads, and prints how often the
+   * letter pair of each cell that is not valid comes up, most used first. If
+   * output is not null, also writes the share of letter pairs of every cell
+   * there as CSV, laid out like a sheet with headers.
+   */
+  private static void printPairUsage(PrintStream out, SheetConfig sheet, CommValidity[][] commValidities,
+      long samples, int threads, Path output) throws IOException, InterruptedException {
+    MemoStatistics statistics = MemoStatistics.sample(sheet.getPieceType(), sheet.getBuffer(), samples, threads,
+        new RandomStates());
+
+    List<CommDescription> cells = new ArrayList<>();
+    double invalidShare = 0;
+    for (Map.Entry<CommValidity, List<CommDescription>> group : getErrorGroups(commValidities, sheet.ignoreEmpty())
+        .entrySet()) {
+      for (CommDescription cell : group.getValue()) {
+        cells.add(cell);
+        invalidShare += statistics.getPairFrequency(cell.target1, cell.target2);
+      }
+    }
+    cells.sort((a, b) -> Long.compare(statistics.getPairCount(b.target1, b.target2),
+        statistics.getPairCount(a.target1, a.target2)));
+
+    String title = "LETTER PAIR USAGE (" + samples + " random cubes)";
+    out.println(title);
+    out.println(new String(new char[title.length()]).replace('\0', '_'));
+    for (CommDescription cell : cells) {
+      out.printf("%c%c: %.3f%% of letter pairs (%s)\n", Character.toUpperCase(cell.target1),
+          Character.toUpperCase(cell.target2), 100 * statistics.getPairFrequency(cell.target1, cell.target2),
+          commValidities[cell.target1 - 'a'][cell.target2 - 'a'].name().replace("_", " "));
+    }
+    if (!cells.isEmpty()) {
+      out.println();
+    }
+    out.printf("A solve has %.2f targets on average, with %.2f cycle breaks and %.2f misoriented pieces, and "
+        + "has parity %.1f%% of the time\n", statistics.getMeanTargets(), statistics.getMeanCycleBreaks(),
+        statistics.getMeanMisoriented(), 100 * statistics.getParityRate());
+    out.printf("Cells that are not valid hold %.2f%% of letter pairs\n", 100 * invalidShare);
+    out.println();
+
+    if (output == null) {
+      return;
+    }
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      for (char c = 'a'; c < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; c++) {
+        writer.write(',');
+        writer.write(Character.toUpperCase(c));
+      }
+      writer.write('\n');
+      // As in the sheets, rows are second targets and columns are first targets
+      for (char target2 = 'a'; target2 < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; target2++) {
+        writer.write(Character.toUpperCase(target2));
+        for (char target1 = 'a'; target1 < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; target1++) {
+          writer.write(',');
+          if (statistics.getPairCount(target1, target2) > 0) {
+            writer.write(String.format(Locale.ROOT, "%.5f", 100 * statistics.getPairFrequency(target1, target2)));
+          }
+        }
+        writer.write('\n');
+      }
+    }
+    out.println("Wrote letter pair usage to " + output);
+  }
+
+  /*****************************************************************************
+   * Reconstruction
+   ****************************************************************************/
+
+  /*
+   * Reconstructs solves of random scrambles with the given sheets, at most one
+   * per piece type (see SolveReconstructor), on the given number of threads,
+   * and prints the solves that did not end solved and the pairs responsible.
+   * Returns the number of failed solves.
+   */
+  private static long printReconstruction(PrintStream out, List<SheetConfig> sheets,
+      List<CharSequence[][]> commStrings, CommSheetValidator validator, long solves, int threads)
+      throws InterruptedException {
+    SolveReconstructor reconstructor = new SolveReconstructor();
+    for (int k = 0; k < sheets.size(); k++) {
+      reconstructor.addSheet(sheets.get(k), commStrings.get(k), validator);
+    }
+    SolveReconstructor.Summary summary = reconstructor.run(solves, threads, new Scrambler());
+
+    String title = "SOLVE RECONSTRUCTION (" + solves + " scrambles)";
+    out.println(title);
+    out.println(new String(new char[title.length()]).replace('\0', '_'));
+    for (SolveReconstructor.Failure failure : summary.getReportedFailures()) {
+      out.println(failure);
+    }
+    if (summary.getFailures() > summary.getReportedFailures().size()) {
+      out.println("...");
+    }
+    if (summary.getFailures() > 0) {
+      out.println();
+    }
+
+    // The pairs behind the most failed solves, most first
+    List<CommDescription> pairs = new ArrayList<>();
+    List<PieceType> pieceTypes = new ArrayList<>();
+    for (SheetConfig sheet : sheets) {
+      for (char target1 = 'a'; target1 < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; target1++) {
+        for (char target2 = 'a'; target2 < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; target2++) {
+          if (summary.getFailures(sheet.getPieceType(), target1, target2) > 0) {
+            pairs.add(new CommDescription(target1, target2));
+            pieceTypes.add(sheet.getPieceType());
+          }
+        }
+      }
+    }
+    Integer[] order = new Integer[pairs.size()];
+    for (int k = 0; k < order.length; k++) {
+      order[k] = k;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(
+        summary.getFailures(pieceTypes.get(b), pairs.get(b).target1, pairs.get(b).target2),
+        summary.getFailures(pieceTypes.get(a), pairs.get(a).target1, pairs.get(a).target2)));
+    for (int k = 0; k < Math.min(order.length, SolveReconstructor.MAX_REPORTED_FAILURES); k++) {
+      CommDescription pair = pairs.get(order[k]);
+      PieceType pieceType = pieceTypes.get(order[k]);
+      long failures = summary.getFailures(pieceType, pair.target1, pair.target2);
+      out.printf("%s %c%c: failed %d %s\n", pieceType.equals(PieceType.EDGE) ? "edges" : "corners",
+          Character.toUpperCase(pair.target1), Character.toUpperCase(pair.target2), failures,
+          failures == 1 ? "solve" : "solves");
+    }
+    if (order.length > 0) {
+      out.println();
+    }
+
+    if (summary.getFailures() == 0) {
+      out.println("All " + summary.getSolves() + " solves ended solved");
+    } else {
+      out.println(summary.getFailures() + " of " + summary.getSolves() + " solves did not end solved");
+    }
+    out.println();
+    return summary.getFailures();
+  }
+
+  /*****************************************************************************
+   * Deriving
+   ****************************************************************************/
+
+  /*
+   * Derives a sheet for every buffer not on the sheet's buffer piece by
+   * transforming its comms with cube symmetries (see SheetDeriver), prints how
+   * many of each sheet's comms are valid and how many of its cells are meant
+   * to be blank, and writes each to directory as CSV, named after its buffer's
+   * location and laid out like the source sheet.
+   */
+  private static void deriveSheets(PrintStream out, String sheetName, SheetConfig sheet,
+      CommValidity[][] commValidities, Path directory) throws IOException {
+    CharSequence[][] commStrings = csvToTwoDimArray(sheetName, sheet.getPieceType(), sheet.includesHeaders(),
+        sheet.includesEmptyBufferGroups());
+    SheetDeriver deriver = new SheetDeriver(sheet, commStrings, commValidities);
+    Files.createDirectories(directory);
+
+    String title = "DERIVED SHEETS";
+    out.println(title);
+    out.println(new String(new char[title.length()]).replace('\0', '_'));
+    List<Character> buffers = deriver.getBuffers();
+    for (char buffer : buffers) {
+      SheetDeriver.DerivedSheet derived = deriver.derive(buffer);
+      String location = getLocation(sheet.getPieceType(), buffer);
+      SheetConfig derivedSheet = new SheetConfig(directory.resolve(location + "Comms.csv"), buffer,
+          sheet.getPieceType(), sheet.includesHeaders(), sheet.includesEmptyBufferGroups(), sheet.ignoreEmpty());
+      writeDerivedSheet(derivedSheet, derived);
+      out.printf("%s (%c) by %s: %d of %d comms valid, %d cells blank as expected", location,
+          Character.toUpperCase(buffer), derived.getSymmetry(), derived.getNumValid(), derived.getNumTransformed(),
+          derived.getNumBlank());
+      // Cells with no comm to transform keep the source cell's text and validity
+      int numCopied = derived.getNumCells() - derived.getNumTransformed() - derived.getNumBlank();
+      if (numCopied > 0) {
+        out.printf(", %d cells copied that were not valid in the source", numCopied);
+      }
+      out.println();
+    }
+    out.println();
+    out.println("Wrote " + buffers.size() + " derived sheets to " + directory);
+  }
+
+  /* Writes a derived sheet as CSV to the path of sheet, which gives its buffer and layout */
+  private static void writeDerivedSheet(SheetConfig sheet, SheetDeriver.DerivedSheet derived) throws IOException {
+    List<Character> targets = new ArrayList<>();
+    Set<Character> bufferPieceSet = getRelatedStickersSet(sheet.getPieceType(), sheet.getBuffer());
+    for (char c = 'a'; c < 'a' + SpeffzUtils.NUM_SPEFFZ_LETTERS; c++) {
+      if (sheet.includesEmptyBufferGroups() || !bufferPieceSet.contains(c)) {
+        targets.add(c);
+      }
+    }
+
+    try (Writer writer = Files.newBufferedWriter(sheet.getPath(), StandardCharsets.UTF_8)) {
+      if (sheet.includesHeaders()) {
+        writer.write("1st ->");
+        for (char target1 : targets) {
+          writer.write(',');
+          writeCsvField(writer, getHeader(sheet.getPieceType(), target1));
+        }
+        writer.write('\n');
+      }
+      // As in the sheets, rows are second targets and columns are first targets
+      for (char target2 : targets) {
+        if (sheet.includesHeaders()) {
+          writeCsvField(writer, getHeader(sheet.getPieceType(), target2));
+        }
+        for (int i = 0; i < targets.size(); i++) {
+          if (i != 0 || sheet.includesHeaders()) {
+            writer.write(',');
+          }
+          CharSequence comm = derived.getComm(targets.get(i), target2);
+          writeCsvField(writer, comm == null ? "" : comm);
+        }
+        writer.write('\n');
+      }
+    }
+  }
+
+  /* Returns the header of a sticker's row and column, e.g. "A (UBL)" */
+  private static String getHeader(PieceType pieceType, char sticker) {
+    return Character.toUpperCase(sticker) + " (" + getLocation(pieceType, sticker) + ")";
+  }
+
+  private static String getLocation(PieceType pieceType, char sticker) {
+    if (pieceType.equals(PieceType.EDGE)) {
+      return SpeffzUtils.getEdgeLocation(sticker);
+    } else {
+      return SpeffzUtils.getCornerLocation(sticker);
+    }
+  }
+
+  /*****************************************************************************
+   * Big cubes
+   ****************************************************************************/
+
+  /*
+   * Validates a big-cube sheet of the given piece type on an n x n cube (see
+   * BigSheetValidator), and prints every invalid cell as for a 3x3 sheet.
+   */
+  private static CommValidity[][] detectAllBigErrors(String sheetName, int n, BigPieceType pieceType, char buffer,
+      boolean containsHeaders, boolean containsEmptyBufferGroups, boolean ignoreEmpty) {
+    BigSheetValidator validator = new BigSheetValidator(n, pieceType);
+    CharSequence[][] commStrings = BigSheetValidator.getCommStrings(scanSheet(sheetName), pieceType, buffer,
+        containsHeaders, containsEmptyBufferGroups);
+    CommValidity[][] commValidities = validator.checkValidity(commStrings, buffer, containsEmptyBufferGroups);
+
+    printErrors(System.out, commValidities, ignoreEmpty);
+    return commValidities;
+  }
+
+  /*****************************************************************************
+   * Command line
+   ****************************************************************************/
+
+  /* Adds the options that describe a single sheet's layout */
+  static void addSheetOptions(Options options) {
     options.addOption("r", "headers", false, "Sheet includes row and column headers");
     options.addOption("e", "empty-buffer-groups", false, "Sheet has a empty rows and columns for buffer piece");
     options.addOption("b", "buffer", true, "Set the buffer (default is 'c')");
     options.addOption("i", "ignore-empty", false, "Ignore unexpectedly empty entries");
+    options.addOption("t", "piece-type", true,
+        "Specifies what piece type the sheet is for. Must be either 'e' for edges or 'c' for corners, or for "
+            + "big cubes (see --size) 'w' for wings, 'x' for x-centers, 't' for t-centers or 'm' for midges");
+    options.addOption(null, "size", true,
+        "Size of the cube for big-cube piece types, from " + BigCube.MIN_SIZE + " to " + BigCube.MAX_SIZE
+            + " (default is 4 for wings and x-centers, and 5 for t-centers and midges)");
+  }
+
+  /* Builds the config for a sheet from options added by addSheetOptions */
+  static SheetConfig getSheetConfig(CommandLine cmd, Path path) throws ParseException {
+    boolean containsHeaders = cmd.hasOption("headers");
+    boolean containsEmptyBufferGroups = cmd.hasOption("empty-buffer-groups");
+    boolean ignoreEmpty = cmd.hasOption("ignore-empty");
+
+    char buffer = getBuffer(cmd);
+
+    if (!cmd.hasOption("piece-type")) {
+      throw new ParseException("Missing required option: t");
+    }
+    String pieceTypeArg = cmd.getOptionValue("piece-type");
+    PieceType pieceType;
+    if (pieceTypeArg.equals("e")) {
+      pieceType = PieceType.EDGE;
+    } else if (pieceTypeArg.equals("c")) {
+      pieceType = PieceType.CORNER;
+    } else {
+      throw new IllegalArgumentException("Illegal piece type argument: " + pieceTypeArg);
+    }
+
+    return new SheetConfig(path, buffer, pieceType, containsHeaders, containsEmptyBufferGroups,
+        ignoreEmpty);
+  }
+
+  /* Returns the buffer given with -b, or 'c' */
+  private static char getBuffer(CommandLine cmd) {
+    char buffer = 'c';
+    if (cmd.hasOption("buffer")) {
+      String bufferArg = cmd.getOptionValue("buffer");
+      if (bufferArg.length() != 1 || !SpeffzUtils.isValidSpeffzLetter(bufferArg.charAt(0))) {
+        throw new IllegalArgumentException("Illegal buffer: " + bufferArg);
+      }
+      buffer = bufferArg.charAt(0);
+    }
+    return buffer;
+  }
+
+  /*
+   * Detects the buffer, piece type and empty-group layout of a sheet (see
+   * BufferDetector) and returns its config. Sampled cells found to be valid are
+   * recorded in cache so that they are not simulated again.
+   */
+  private static SheetConfig detectSheetConfig(CommandLine cmd, String fileName, ValidationCache cache)
+      throws ParseException {
+    if (cmd.hasOption("buffer") || cmd.hasOption("piece-type") || cmd.hasOption("empty-buffer-groups")) {
+      throw new ParseException("--detect infers the buffer, piece type and empty buffer groups itself");
+    }
+    boolean containsHeaders = cmd.hasOption("headers");
+    BufferDetector.Detection detection = BufferDetector.detect(scanSheet(fileName), containsHeaders);
+    System.out.println("Detected " + detection);
+    System.out.println();
+    detection.cacheMatched(cache);
+
+    return new SheetConfig(Paths.get(fileName), detection.getBuffer(), detection.getPieceType(), containsHeaders,
+        detection.includesEmptyBufferGroups(), cmd.hasOption("ignore-empty"));
+  }
+
+  private static int parsePort(String portArg) {
+    try {
+      return Integer.parseInt(portArg);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Illegal port: " + portArg);
+    }
+  }
+
+  private static int parsePositive(String arg, String name) {
+    int value;
+    try {
+      value = Integer.parseInt(arg);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Illegal " + name + ": " + arg);
+    }
+    if (value < 1) {
+      throw new IllegalArgumentException("Illegal " + name + ": " + arg);
+    }
+    return value;
+  }
+
+  /* Returns the options that local --corpus workers share with the coordinator */
+  private static List<String> getWorkerArgs(CommandLine cmd, int threads) {
+    List<String> args = new ArrayList<>();
+    args.add("--threads");
+    args.add(Integer.toString(threads));
+    if (cmd.hasOption("no-cache")) {
+      args.add("--no-cache");
+    } else if (cmd.hasOption("cache-file")) {
+      args.add("--cache-file");
+      args.add(cmd.getOptionValue("cache-file"));
+    }
+    if (cmd.hasOption("mirrors")) {
+      args.add("--mirrors");
+    }
+    return args;
+  }
+
+  private static long parsePositiveLong(String arg, String name) {
+    long value;
+    try {
+      value = Long.parseLong(arg);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Illegal " + name + ": " + arg);
+    }
+    if (value < 1) {
+      throw new IllegalArgumentException("Illegal " + name + ": " + arg);
+    }
+    return value;
+  }
+
+  /*
+   * The options every mode shares, parsed once. Constructing these checks that
+   * the options given can be used together.
+   */
+  private static class Settings {
+    private final int threads;
+    private final int maxErrors;
+    private final boolean fill;
+    private final Metric metric;
+    private final long usageSamples;
+    private final long reconstructSolves;
+    private final BigPieceType bigPieceType;
+    private final int size;
+
+    Settings(CommandLine cmd) throws ParseException {
+      threads = cmd.hasOption("threads") ? parsePositive(cmd.getOptionValue("threads"), "thread count")
+          : Runtime.getRuntime().availableProcessors();
+
+      int errorLimit = cmd.hasOption("max-errors") ? parsePositive(cmd.getOptionValue("max-errors"), "error limit")
+          : 0;
+      maxErrors = cmd.hasOption("fail-fast") ? 1 : errorLimit;
+      boolean multiSheet = cmd.hasOption("batch") || cmd.hasOption("manifest") || cmd.hasOption("watch")
+          || cmd.hasOption("server") || cmd.hasOption("workbook") || cmd.hasOption("corpus")
+          || cmd.hasOption("worker");
+      if ((cmd.hasOption("corpus-format") || cmd.hasOption("checkpoint") || cmd.hasOption("workers")
+          || cmd.hasOption("listen") || cmd.hasOption("shard-size")) && !cmd.hasOption("corpus")) {
+        throw new ParseException(
+            "--corpus-format, --checkpoint, --workers, --listen and --shard-size can only be used with --corpus");
+      }
+      if (cmd.hasOption("shard-size") && !cmd.hasOption("workers") && !cmd.hasOption("listen")) {
+        throw new ParseException("--shard-size can only be used with --workers or --listen");
+      }
+      if (maxErrors > 0 && multiSheet) {
+        throw new ParseException("--max-errors and --fail-fast can only be used with a single sheet");
+      }
+      if (cmd.hasOption("detect") && multiSheet) {
+        throw new ParseException("--detect can only be used with a single sheet");
+      }
+      fill = cmd.hasOption("fill") || cmd.hasOption("fill-output");
+      if (fill && (multiSheet || maxErrors > 0)) {
+        throw new ParseException("--fill can only be used with a single sheet, without --max-errors or --fail-fast");
+      }
+      metric = cmd.hasOption("optimal") ? Metric.parse(cmd.getOptionValue("optimal")) : null;
+      if (metric != null && (multiSheet || maxErrors > 0)) {
+        throw new ParseException(
+            "--optimal can only be used with a single sheet, without --max-errors or --fail-fast");
+      }
+
+      if (cmd.hasOption("derive") && (multiSheet || maxErrors > 0)) {
+        throw new ParseException("--derive can only be used with a single sheet, without --max-errors or --fail-fast");
+      }
+
+      usageSamples = cmd.hasOption("usage") ? parsePositiveLong(cmd.getOptionValue("usage"), "number of cubes") : 0;
+      if (cmd.hasOption("usage-output") && usageSamples == 0) {
+        throw new ParseException("--usage-output can only be used with --usage");
+      }
+      if (usageSamples > 0 && (multiSheet || maxErrors > 0)) {
+        throw new ParseException("--usage can only be used with a single sheet, without --max-errors or --fail-fast");
+      }
+
+      reconstructSolves = cmd.hasOption("reconstruct")
+          ? parsePositiveLong(cmd.getOptionValue("reconstruct"), "number of scrambles")
+          : 0;
+      if (reconstructSolves > 0) {
+        if (cmd.hasOption("workbook")) {
+          throw new ParseException("--reconstruct cannot be combined with --workbook; list the sheets as CSV files "
+              + "with --batch or --manifest instead");
+        }
+        if (maxErrors > 0 || cmd.hasOption("watch") || cmd.hasOption("server") || cmd.hasOption("corpus")
+            || cmd.hasOption("worker")) {
+          throw new ParseException("--reconstruct can only be used with a single sheet, --batch or --manifest, "
+              + "without --max-errors or --fail-fast");
+        }
+      }
+
+      bigPieceType = cmd.hasOption("piece-type") ? BigPieceType.forOption(cmd.getOptionValue("piece-type")) : null;
+      if (cmd.hasOption("size")) {
+        String sizeArg = cmd.getOptionValue("size");
+        if (bigPieceType == null) {
+          throw new ParseException("--size can only be used with a big-cube piece type");
+        }
+        try {
+          size = Integer.parseInt(sizeArg);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Illegal cube size: " + sizeArg);
+        }
+      } else if (bigPieceType != null) {
+        size = bigPieceType.existsOn(4) ? 4 : 5;
+      } else {
+        size = 0;
+      }
+      if (bigPieceType != null && (multiSheet || maxErrors > 0 || cmd.hasOption("detect") || fill || metric != null
+          || usageSamples > 0 || reconstructSolves > 0 || cmd.hasOption("derive") || cmd.hasOption("mirrors"))) {
+        throw new ParseException("Big-cube piece types can only be used to validate a single sheet");
+      }
+    }
+  }
+
+  private static Options getOptions() {
+    Options options = new Options();
+    addSheetOptions(options);
+    options.addOption("j", "threads", true, "Number of threads used to validate cells (default is all cores)");
+    options.addOption(null, "batch", false,
+        "Validate every sheet matched by the given files, directories and globs in one run; exits with status 1 "
+            + "if any sheet has errors");
+    options.addOption("m", "manifest", true,
+        "Validate the sheets listed in a manifest file, one '<path|dir|glob> [OPTION]...' per line");
+    options.addOption("o", "output", true, "Write the batch report or corpus results to a file instead of stdout");
+    options.addOption(null, "watch", false,
+        "Keep running and revalidate the given sheets (as for --batch) whenever they change");
+    options.addOption(null, "workbook", false,
+        "Validate every tab of the given .xlsx or .ods workbooks, taking each tab's buffer and piece type from "
+            + "the start of its name (e.g. 'UF' or 'UFR Comms')");
+    options.addOption(null, "corpus", false,
+        "Validate the comm records of the given files, or of stdin if none or '-' is given, one "
+            + "'buffer,target1,target2,comm' CSV line or JSON object per record, writing results in input order; "
+            + "exits with status 1 if any record is not valid");
+    options.addOption(null, "corpus-format", true,
+        "Format of --corpus records: 'csv' or 'jsonl' (default is jsonl for .jsonl and .json files, and csv "
+            + "otherwise)");
+    options.addOption(null, "checkpoint", true,
+        "Record --corpus progress in a file, and resume from it if it exists (needs --output)");
+    options.addOption(null, "workers", true,
+        "Validate --corpus on this many worker processes on this machine, splitting -j threads between them");
+    options.addOption(null, "listen", true,
+        "Validate --corpus on workers that connect to this port from any host with --worker (with --workers, "
+            + "in addition to the local ones)");
+    options.addOption(null, "shard-size", true,
+        "Records handed to a worker at a time with --workers or --listen (default is "
+            + CorpusCoordinator.DEFAULT_SHARD_SIZE + ")");
+    options.addOption(null, "worker", true,
+        "Run as a worker for the --corpus coordinator at HOST:PORT, validating on -j threads; "
+            + "pass the same --mirrors setting as the coordinator");
+    options.addOption(null, "server", false, "Run a local validation server (see validate_sheet.sh)");
+    options.addOption(null, "port", true, "Port for --server (default is " + ValidationServer.DEFAULT_PORT + ")");
+    options.addOption(null, "detect", false,
+        "Detect the sheet's buffer, piece type and empty buffer groups instead of taking them from -b, -t and -e");
+    options.addOption(null, "max-errors", true,
+        "Print invalid cells as they are found and stop after this many; exits with status 1 on any error");
+    options.addOption(null, "fail-fast", false, "Same as --max-errors 1");
+    options.addOption(null, "fill", false,
+        "Search for a comm for every empty cell and every cell that cycles the wrong pieces");
+    options.addOption(null, "fill-output", true,
+        "Same as --fill, and also write the sheet with the comms found filled in to this CSV file");
+    options.addOption(null, "optimal", true,
+        "Compare every valid comm with the shortest alg for its case, counted in this metric: htm, qtm or stm");
+    options.addOption(null, "usage", true,
+        "Trace the blindfolded memo of this many random cubes and rank the cells that are not valid by how "
+            + "often their letter pair comes up");
+    options.addOption(null, "usage-output", true,
+        "With --usage, also write how often every letter pair comes up to this CSV file");
+    options.addOption(null, "reconstruct", true,
+        "Solve this many random scrambles with the given sheets (at most one edge and one corner sheet) and "
+            + "check that every solve ends solved; exits with status 1 if any does not");
+    options.addOption(null, "derive", true,
+        "Derive a sheet for every other buffer of the sheet's piece type by rotating or mirroring its comms, "
+            + "and write them to this directory");
+    options.addOption(null, "mirrors", false,
+        "Also reuse results between cells whose comms are L/R mirror images of each other");
+    options.addOption(null, "no-cache", false,
+        "Do not read or write the persistent result cache, or the pruning tables saved next to it for --optimal");
+    options.addOption(null, "cache-file", true,
+        "Location of the persistent result cache, in whose directory --optimal also keeps its pruning tables "
+            + "(default is " + PersistentResultCache.defaultPath() + ")");
+    options.addOption(null, "stats", false,
+        "Print counters and timings for each phase to stderr when done, or, with --server, when it shuts down");
+    options.addOption(null, "jmx", false, "Expose the counters printed by --stats as a JMX MBean ("
+        + ValidationStats.OBJECT_NAME + ")");
     options.addOption("h", "help", false, "Print usage help");
+    return options;
+  }
+
+  /*
+   * Starts a validation server that runs until the JVM is stopped, so what
+   * other modes do when they finish happens on shutdown instead
+   */
+  private static void startServer(CommandLine cmd, CommSheetValidator validator, ValidationCache cache,
+      PersistentResultCache store) throws IOException {
+    int port = cmd.hasOption("port") ? parsePort(cmd.getOptionValue("port")) : ValidationServer.DEFAULT_PORT;
+    ValidationServer server = new ValidationServer(port, validator, cache);
+    server.start();
+    System.out.println("Validation server listening on http://localhost:" + server.getPort());
+    boolean printStats = cmd.hasOption("stats");
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.stop();
+      if (printStats) {
+        ValidationStats.get().printReport(System.err, cache, store);
+      }
+      validator.close();
+      if (store != null) {
+        try {
+          store.close();
+        } catch (IOException e) {
+          System.err.println("Warning: could not close result cache: " + e.getMessage());
+        }
+      }
+    }, "validation-server-shutdown"));
+  }
+
+  /* Validates --corpus records for the coordinator given with --worker until it has no more */
+  private static void runWorker(CommandLine cmd, CommSheetValidator validator, int threads) throws Exception {
+    if (cmd.hasOption("corpus") || cmd.hasOption("batch") || cmd.hasOption("manifest") || cmd.hasOption("watch")
+        || cmd.hasOption("workbook") || cmd.getArgs().length > 0) {
+      throw new ParseException("--worker takes its records from the coordinator, not from files or sheets");
+    }
+    new CorpusWorker(validator, threads, System.err).run(CorpusWorker.parseAddress(cmd.getOptionValue("worker")));
+  }
+
+  /* Validates --corpus records, locally or on workers, and returns the exit status */
+  private static int runCorpus(CommandLine cmd, CommSheetValidator validator, int threads) throws Exception {
+    if (cmd.hasOption("batch") || cmd.hasOption("manifest") || cmd.hasOption("watch") || cmd.hasOption("workbook")) {
+      throw new ParseException("--corpus cannot be combined with --batch, --manifest, --watch or --workbook");
+    }
+    PieceType pieceType = cmd.hasOption("piece-type") ? getSheetConfig(cmd, null).getPieceType() : null;
+    CorpusValidator.Format format = null;
+    if (cmd.hasOption("corpus-format")) {
+      String formatArg = cmd.getOptionValue("corpus-format");
+      try {
+        format = CorpusValidator.Format.valueOf(formatArg.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Illegal corpus format: " + formatArg);
+      }
+    }
+    String[] anonymousArgs = cmd.getArgs();
+    List<String> inputs = anonymousArgs.length == 0 ? Collections.singletonList(CorpusValidator.STDIN)
+        : Arrays.asList(anonymousArgs);
+    Path output = cmd.hasOption("output") ? Paths.get(cmd.getOptionValue("output")) : null;
+    Path checkpoint = cmd.hasOption("checkpoint") ? Paths.get(cmd.getOptionValue("checkpoint")) : null;
+    if (checkpoint != null && output == null) {
+      throw new ParseException("--checkpoint can only be used with --output");
+    }
+    CorpusValidator corpus;
+    if (cmd.hasOption("workers") || cmd.hasOption("listen")) {
+      int workers = cmd.hasOption("workers") ? parsePositive(cmd.getOptionValue("workers"), "worker count") : 0;
+      int port = cmd.hasOption("listen") ? parsePort(cmd.getOptionValue("listen")) : 0;
+      int shardSize = cmd.hasOption("shard-size") ? parsePositive(cmd.getOptionValue("shard-size"), "shard size")
+          : CorpusCoordinator.DEFAULT_SHARD_SIZE;
+      CorpusCoordinator coordinator = new CorpusCoordinator(port, cmd.hasOption("listen"), shardSize,
+          cmd.hasOption("mirrors"), System.err);
+      if (workers > 0) {
+        coordinator.startLocalWorkers(workers, getWorkerArgs(cmd, Math.max(1, threads / workers)));
+      }
+      corpus = new CorpusValidator(coordinator, pieceType, format, System.err);
+    } else {
+      corpus = new CorpusValidator(validator, threads, pieceType, format, System.err);
+    }
+    return corpus.run(inputs, output, checkpoint) > 0 ? 1 : 0;
+  }
+
+  /*
+   * Validates the sheets given with --batch, --manifest or --workbook, or keeps
+   * revalidating them with --watch, and returns the exit status
+   */
+  private static int runBatch(CommandLine cmd, CommSheetValidator validator, Settings settings) throws Exception {
+    List<SheetConfig> sheets = new ArrayList<>();
+    List<Path> workbooks = new ArrayList<>();
+    if (cmd.hasOption("workbook")) {
+      if (cmd.hasOption("batch") || cmd.hasOption("manifest") || cmd.hasOption("watch")) {
+        throw new ParseException("--workbook cannot be combined with --batch, --manifest or --watch");
+      }
+      if (cmd.hasOption("buffer") || cmd.hasOption("piece-type")) {
+        throw new ParseException("With --workbook, the buffer and piece type come from each tab's name");
+      }
+      for (String arg : cmd.getArgs()) {
+        Path workbook = Paths.get(arg);
+        if (!WorkbookReader.isWorkbook(workbook)) {
+          throw new ParseException("Not an .xlsx or .ods workbook: " + arg);
+        }
+        workbooks.add(workbook);
+      }
+      if (workbooks.isEmpty()) {
+        throw new ParseException("No workbooks given");
+      }
+    } else {
+      if (cmd.hasOption("manifest")) {
+        sheets.addAll(SheetManifest.read(Paths.get(cmd.getOptionValue("manifest"))));
+      }
+      for (String pattern : cmd.getArgs()) {
+        sheets.addAll(SheetManifest.expand(pattern, getSheetConfig(cmd, null)));
+      }
+      if (sheets.isEmpty()) {
+        throw new ParseException("No sheets matched");
+      }
+    }
 
-    options.addRequiredOption("t", "piece-type", true,
-        "Specifies what piece type the sheet is for. Must be either 'e' for edges or 'c' for corners");
+    if (cmd.hasOption("watch")) {
+      new SheetWatcher(validator, System.out).watch(sheets);
+      return 0;
+    }
+
+    int exitStatus = 0;
+    PrintStream out = System.out;
+    if (cmd.hasOption("output")) {
+      out = new PrintStream(new FileOutputStream(cmd.getOptionValue("output")), false, "UTF-8");
+    }
+    try {
+      BatchValidator batch = new BatchValidator(validator, out);
+      if (cmd.hasOption("workbook")) {
+        // Only the layout options apply to every tab
+        SheetConfig layout = new SheetConfig(null, 'c', PieceType.CORNER, cmd.hasOption("headers"),
+            cmd.hasOption("empty-buffer-groups"), cmd.hasOption("ignore-empty"));
+        if (batch.runWorkbooks(workbooks, layout) > 0) {
+          exitStatus = 1;
+        }
+      } else {
+        if (batch.run(sheets) > 0) {
+          exitStatus = 1;
+        }
+        // Workbook tabs are not sheet files, so only listed sheets can be reconstructed
+        if (settings.reconstructSolves > 0) {
+          List<CharSequence[][]> commStrings = new ArrayList<>();
+          for (SheetConfig sheet : sheets) {
+            commStrings.add(readSheet(sheet.getPath(), sheet.getPieceType(), sheet.includesHeaders(),
+                sheet.includesEmptyBufferGroups()));
+          }
+          if (printReconstruction(out, sheets, commStrings, validator, settings.reconstructSolves,
+              settings.threads) > 0) {
+            exitStatus = 1;
+          }
+        }
+      }
+    } finally {
+      out.flush();
+      if (out != System.out) {
+        out.close();
+      }
+    }
+    return exitStatus;
+  }
+
+  /*
+   * Validates a single sheet, then runs whichever of --fill, --optimal, --usage,
+   * --derive and --reconstruct were given on it, and returns the exit status
+   */
+  private static int runSheet(CommandLine cmd, CommSheetValidator validator, ValidationCache cache,
+      Settings settings, Path cachePath) throws Exception {
+    String[] anonymousArgs = cmd.getArgs();
+    if (anonymousArgs.length != 1) {
+      throw new ParseException("Only one anonymous arg expected");
+    }
+    String fileName = "Comms/" + anonymousArgs[0];
+    if (settings.bigPieceType != null) {
+      detectAllBigErrors(fileName, settings.size, settings.bigPieceType, getBuffer(cmd), cmd.hasOption("headers"),
+          cmd.hasOption("empty-buffer-groups"), cmd.hasOption("ignore-empty"));
+      return 0;
+    }
+    SheetConfig sheet = cmd.hasOption("detect") ? detectSheetConfig(cmd, fileName, cache)
+        : getSheetConfig(cmd, Paths.get(fileName));
+
+    if (settings.maxErrors > 0) {
+      return streamErrors(System.out, fileName, sheet, settings.maxErrors, validator) > 0 ? 1 : 0;
+    }
+
+    int threads = settings.threads;
+    CommValidity[][] commValidities = detectAllErrors(fileName, sheet.getBuffer(), sheet.getPieceType(),
+        sheet.includesHeaders(), sheet.includesEmptyBufferGroups(), sheet.ignoreEmpty(), validator);
+    if (settings.fill) {
+      Path output = cmd.hasOption("fill-output") ? Paths.get(cmd.getOptionValue("fill-output")) : null;
+      fillSheet(System.out, fileName, sheet, commValidities, threads, output);
+    }
+    if (settings.metric != null) {
+      printOptimalLengths(System.out, fileName, sheet, commValidities, settings.metric, threads, cachePath);
+    }
+    if (settings.usageSamples > 0) {
+      Path output = cmd.hasOption("usage-output") ? Paths.get(cmd.getOptionValue("usage-output")) : null;
+      printPairUsage(System.out, sheet, commValidities, settings.usageSamples, threads, output);
+    }
+    if (cmd.hasOption("derive")) {
+      deriveSheets(System.out, fileName, sheet, commValidities, Paths.get(cmd.getOptionValue("derive")));
+    }
+    if (settings.reconstructSolves > 0) {
+      CharSequence[][] commStrings = csvToTwoDimArray(fileName, sheet.getPieceType(), sheet.includesHeaders(),
+          sheet.includesEmptyBufferGroups());
+      if (printReconstruction(System.out, Collections.singletonList(sheet), Collections.singletonList(commStrings),
+          validator, settings.reconstructSolves, threads) > 0) {
+        return 1;
+      }
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) {
+    Options options = getOptions();
     String cmdLineSyntax = "check_comms.(bat|sh) [COMM_SHEET] [OPTION]...";
 
+    int exitStatus = 0;
     CommandLineParser parser = new DefaultParser();
     try {
       CommandLine cmd = parser.parse(options, args);
-      String[] anonymousArgs = cmd.getArgs();
-      if (anonymousArgs.length != 1) {
-        throw new ParseException("Only one anonymous arg expected");
-      }
-      String fileName = "Comms/" + anonymousArgs[0];
 
       if (cmd.hasOption("help")) {
         HelpFormatter formatter = new HelpFormatter();
@@ -324,30 +1781,52 @@ public class CommSheetValidator {
         return;
       }
 
-      boolean containsHeaders = cmd.hasOption("headers");
-      boolean containsEmptyBufferGroups = cmd.hasOption("empty-buffer-groups");
-      boolean ignoreEmpty = cmd.hasOption("ignore-empty");
+      Settings settings = new Settings(cmd);
 
-      char buffer = 'c';
-      if (cmd.hasOption("buffer")) {
-        String bufferArg = cmd.getOptionValue("buffer");
-        if (bufferArg.length() != 1 || !SpeffzUtils.isValidSpeffzLetter(bufferArg.charAt(0))) {
-          throw new IllegalArgumentException("Illegal buffer: " + bufferArg);
+      PersistentResultCache store = null;
+      // The result cache, next to which pruning tables are kept too, or null for neither
+      Path cachePath = null;
+      if (!cmd.hasOption("no-cache")) {
+        cachePath = cmd.hasOption("cache-file") ? Paths.get(cmd.getOptionValue("cache-file"))
+            : PersistentResultCache.defaultPath();
+        try {
+          store = PersistentResultCache.open(cachePath);
+        } catch (IOException e) {
+          System.err.println("Warning: not using result cache '" + cachePath + "': " + e.getMessage());
         }
-        buffer = bufferArg.charAt(0);
+      }
+      ValidationCache cache = new ValidationCache(store);
+      CommSheetValidator validator = new CommSheetValidator(settings.threads, cache, cmd.hasOption("mirrors"));
+      if (cmd.hasOption("jmx")) {
+        ValidationStats.registerMBean();
       }
 
-      String pieceTypeArg = cmd.getOptionValue("piece-type");
-      PieceType pieceType;
-      if (pieceTypeArg.equals("e")) {
-        pieceType = PieceType.EDGE;
-      } else if (pieceTypeArg.equals("c")) {
-        pieceType = PieceType.CORNER;
-      } else {
-        throw new IllegalArgumentException("Illegal piece type argument: " + pieceTypeArg);
+      if (cmd.hasOption("server")) {
+        startServer(cmd, validator, cache, store);
+        return;
       }
 
-      detectAllErrors(fileName, buffer, pieceType, containsHeaders, containsEmptyBufferGroups, ignoreEmpty);
+      try {
+        if (cmd.hasOption("worker")) {
+          runWorker(cmd, validator, settings.threads);
+        } else if (cmd.hasOption("corpus")) {
+          exitStatus = runCorpus(cmd, validator, settings.threads);
+        } else if (cmd.hasOption("batch") || cmd.hasOption("manifest") || cmd.hasOption("watch")
+            || cmd.hasOption("workbook")) {
+          exitStatus = runBatch(cmd, validator, settings);
+        } else {
+          exitStatus = runSheet(cmd, validator, cache, settings, cachePath);
+        }
+      } finally {
+        if (cmd.hasOption("stats")) {
+          System.out.flush();
+          ValidationStats.get().printReport(System.err, cache, store);
+        }
+        validator.close();
+        if (store != null) {
+          store.close();
+        }
+      }
     } catch (ParseException e) {
       System.err.println("Error parsing command-line arguments: " + e.getMessage());
       HelpFormatter formatter = new HelpFormatter();
@@ -356,5 +1835,9 @@ public class CommSheetValidator {
       System.err.println(e.getMessage());
       System.exit(1);
     }
+
+    if (exitStatus != 0) {
+      System.exit(exitStatus);
+    }
   }
 }
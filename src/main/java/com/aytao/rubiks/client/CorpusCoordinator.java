@@ -0,0 +1,504 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Validates the records of a CorpusValidator run on worker
+ *                processes instead of in this JVM. Records are grouped in
+ *                input order into shards of a fixed number of records, and
+ *                each connected CorpusWorker is handed one shard at a time
+ *                over TCP (see CorpusProtocol), so faster workers simply take
+ *                more shards. The workers can be processes this coordinator
+ *                starts on the same machine, workers on other hosts that
+ *                connect to the port it listens on, or both.
+ *
+ *                When no shard is waiting, an idle worker steals a shard that
+ *                has been running on another worker for much longer than
+ *                shards usually take, and whichever copy finishes first is
+ *                used. This keeps one slow worker or an unusually expensive
+ *                shard from holding up the in-order output. When a worker
+ *                dies or its connection breaks, its shard goes back to the
+ *                front of the queue for another worker; a shard that has
+ *                killed MAX_ATTEMPTS workers fails the run, as does losing
+ *                every local worker when no remote ones can connect.
+ *
+ *                Results are merged by the CorpusValidator run as usual, so
+ *                output, checkpoints and the summary are the same as for a
+ *                run in one JVM.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.aytao.rubiks.client.CorpusValidator.Record;
+
+public class CorpusCoordinator implements CorpusValidator.Checker {
+  public static final int DEFAULT_SHARD_SIZE = 1024;
+
+  // Shards' worth of records kept in flight, enough to keep a good number of workers busy
+  private static final int WINDOW_SHARDS = 64;
+
+  // Workers a shard may kill before the run gives up on it
+  static final int MAX_ATTEMPTS = 3;
+
+  // A running shard can be stolen once it has taken STEAL_FACTOR times as long as shards take on average
+  private static final long STEAL_FACTOR = 3;
+  private static final long MIN_STEAL_MILLIS = 500;
+  private static final long IDLE_CHECK_MILLIS = 50;
+
+  private static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+  private static final long CLOSE_MILLIS = 5000;
+
+  /* A run of consecutive records and their results */
+  private static class Shard {
+    private final int id;
+    private final List<Record> records = new ArrayList<>();
+    private final List<CompletableFuture<CommValidity>> results = new ArrayList<>();
+    // Workers running the shard right now, and how many died running it
+    private int runners;
+    private int failures;
+    private boolean done;
+
+    Shard(int id) {
+      this.id = id;
+    }
+
+    void fail(IOException e) {
+      done = true;
+      for (CompletableFuture<CommValidity> result : results) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  private final ServerSocket server;
+  private final boolean remote;
+  private final int shardSize;
+  private final boolean mirrors;
+  private final PrintStream progress;
+
+  // Guarded by this
+  private final Deque<Shard> pending = new ArrayDeque<>();
+  private final Set<Shard> running = new LinkedHashSet<>();
+  private final Set<Session> sessions = new HashSet<>();
+  private final List<Process> localWorkers = new ArrayList<>();
+  private Shard current;
+  private int nextShardId;
+  private int nextSessionId;
+  private int liveLocalWorkers;
+  private IOException failure;
+  private boolean closed;
+  private long completedShards;
+  private long completedShardNanos;
+  private long stolenShards;
+  private long retriedShards;
+
+  /*
+   * Creates a coordinator that hands out shards of shardSize records. With
+   * remote, it listens on every interface on the given port so that workers
+   * on other hosts can connect; otherwise only on the loopback interface. A
+   * port of 0 picks a free one (see getPort). Only workers whose mirrors
+   * setting matches mirrors are accepted.
+   */
+  public CorpusCoordinator(int port, boolean remote, int shardSize, boolean mirrors, PrintStream progress)
+      throws IOException {
+    if (shardSize < 1) {
+      throw new IllegalArgumentException("Shard size must be positive, but was " + shardSize);
+    }
+    this.remote = remote;
+    this.shardSize = shardSize;
+    this.mirrors = mirrors;
+    this.progress = progress;
+    this.server = remote ? new ServerSocket(port) : new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+
+    Thread acceptor = new Thread(this::accept, "corpus-coordinator");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    if (remote) {
+      progress.println("Waiting for corpus workers on port " + getPort());
+    }
+  }
+
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /*
+   * Starts count worker processes on this machine, running this class path's
+   * CommSheetValidator with --worker and the given extra arguments. Their
+   * output goes to the progress stream.
+   */
+  public void startLocalWorkers(int count, List<String> workerArgs) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CommSheetValidator.class.getName());
+    command.add("--worker");
+    command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort());
+    command.addAll(workerArgs);
+
+    for (int i = 1; i <= count; i++) {
+      Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+      synchronized (this) {
+        localWorkers.add(process);
+        liveLocalWorkers++;
+      }
+      String name = "local worker " + i;
+      Thread reaper = new Thread(() -> reap(process, name), "corpus-" + name.replace(' ', '-'));
+      reaper.setDaemon(true);
+      reaper.start();
+    }
+  }
+
+  /* Copies a local worker's output to the progress stream until it exits, then accounts for its exit */
+  private void reap(Process process, String name) {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        progress.println("[" + name + "] " + line);
+      }
+    } catch (IOException e) {
+      // The pipe closes when the process dies, which waitFor reports below
+    }
+    int status;
+    try {
+      status = process.waitFor();
+    } catch (InterruptedException e) {
+      return;
+    }
+    synchronized (this) {
+      liveLocalWorkers--;
+      if (!closed) {
+        progress.println("Corpus " + name + " exited with status " + status);
+        checkWorkersLeft();
+      }
+    }
+  }
+
+  /*****************************************************************************
+   * Checker
+   ****************************************************************************/
+
+  @Override
+  public int getWindow() {
+    return shardSize * WINDOW_SHARDS;
+  }
+
+  @Override
+  public synchronized CompletableFuture<CommValidity> check(Record record) {
+    CompletableFuture<CommValidity> result = new CompletableFuture<>();
+    if (failure != null) {
+      result.completeExceptionally(failure);
+      return result;
+    }
+    if (current == null) {
+      current = new Shard(nextShardId++);
+    }
+    current.records.add(record);
+    current.results.add(result);
+    if (current.records.size() >= shardSize) {
+      flush();
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void flush() {
+    if (current != null) {
+      pending.addLast(current);
+      current = null;
+      notifyAll();
+    }
+  }
+
+  /* Says goodbye to every worker, waits briefly for them to finish and prints what the workers did */
+  @Override
+  public void close() throws IOException {
+    List<Session> stragglers;
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    server.close();
+
+    long deadline = System.currentTimeMillis() + CLOSE_MILLIS;
+    synchronized (this) {
+      try {
+        long left;
+        while (!sessions.isEmpty() && (left = deadline - System.currentTimeMillis()) > 0) {
+          wait(left);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      stragglers = new ArrayList<>(sessions);
+    }
+    // Workers still running a shard that another worker already finished
+    for (Session session : stragglers) {
+      session.socket.close();
+    }
+
+    List<Process> processes;
+    synchronized (this) {
+      processes = new ArrayList<>(localWorkers);
+    }
+    for (Process process : processes) {
+      try {
+        if (!process.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized (this) {
+      progress.printf("Coordinator: %d shards, %d stolen, %d retried after a worker died%n", completedShards,
+          stolenShards, retriedShards);
+    }
+  }
+
+  /*****************************************************************************
+   * Scheduling
+   ****************************************************************************/
+
+  /*
+   * Returns the next shard for session: the oldest waiting one, else one to
+   * steal. Waits while there is neither, and returns null once the
+   * coordinator is closed.
+   */
+  private synchronized Shard take(Session session) throws InterruptedException {
+    while (!closed) {
+      Shard shard = pending.pollFirst();
+      if (shard == null) {
+        shard = findShardToSteal();
+        if (shard != null) {
+          stolenShards++;
+          progress.println("Worker " + session.name + " is stealing shard " + shard.id);
+        }
+      }
+      if (shard != null) {
+        shard.runners++;
+        running.add(shard);
+        return shard;
+      }
+      wait(IDLE_CHECK_MILLIS);
+    }
+    return null;
+  }
+
+  /* Returns the oldest shard that only one worker is running and that has been running for too long, if any */
+  private Shard findShardToSteal() {
+    long average = completedShards == 0 ? 0 : completedShardNanos / completedShards;
+    long stealAfter = Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_STEAL_MILLIS), STEAL_FACTOR * average);
+    long now = System.nanoTime();
+    Session oldest = null;
+    for (Session session : sessions) {
+      Shard shard = session.shard;
+      if (shard != null && !shard.done && shard.runners == 1 && now - session.shardStart > stealAfter
+          && (oldest == null || session.shardStart < oldest.shardStart)) {
+        oldest = session;
+      }
+    }
+    return oldest == null ? null : oldest.shard;
+  }
+
+  /* Records a worker's results for its shard, unless another worker got there first */
+  private synchronized void complete(Session session, CommValidity[] validities) {
+    Shard shard = session.shard;
+    session.shard = null;
+    shard.runners--;
+    if (shard.done) {
+      return;
+    }
+    shard.done = true;
+    running.remove(shard);
+    completedShards++;
+    completedShardNanos += System.nanoTime() - session.shardStart;
+    for (int i = 0; i < validities.length; i++) {
+      shard.results.get(i).complete(validities[i]);
+    }
+  }
+
+  /* Puts a dead worker's shard back in the queue, or fails the run if the shard keeps killing workers */
+  private synchronized void fail(Session session, IOException e) {
+    Shard shard = session.shard;
+    session.shard = null;
+    if (shard != null) {
+      shard.runners--;
+    }
+    // Once closed, the only connections cut are those of workers whose shards are already done
+    if (closed) {
+      return;
+    }
+    progress.println("Worker " + session.name + " failed: " + describe(e));
+    if (shard == null || shard.done) {
+      return;
+    }
+    shard.failures++;
+    if (shard.runners > 0) {
+      return;
+    }
+    running.remove(shard);
+    if (shard.failures >= MAX_ATTEMPTS) {
+      failAll(new IOException("Shard " + shard.id + " failed on " + shard.failures + " workers; last: "
+          + describe(e), e));
+      return;
+    }
+    retriedShards++;
+    progress.println("Retrying shard " + shard.id + " on another worker");
+    pending.addFirst(shard);
+    notifyAll();
+  }
+
+  /* Returns e's message, or its class name if it has none, as for an EOFException from a closed connection */
+  private static String describe(IOException e) {
+    return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+  }
+
+  /* Fails the run if every worker is gone and none can come */
+  private void checkWorkersLeft() {
+    if (!remote && liveLocalWorkers == 0 && sessions.isEmpty() && failure == null) {
+      failAll(new IOException("Every corpus worker has exited"));
+    }
+  }
+
+  private void failAll(IOException e) {
+    failure = e;
+    for (Shard shard : running) {
+      shard.fail(e);
+    }
+    for (Shard shard : pending) {
+      shard.fail(e);
+    }
+    if (current != null) {
+      current.fail(e);
+    }
+    running.clear();
+    pending.clear();
+    current = null;
+  }
+
+  /*****************************************************************************
+   * Connections
+   ****************************************************************************/
+
+  private void accept() {
+    while (true) {
+      Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        if (!server.isClosed()) {
+          progress.println("Coordinator stopped accepting workers: " + e.getMessage());
+        }
+        return;
+      }
+      Session session;
+      synchronized (this) {
+        if (closed) {
+          try {
+            socket.close();
+          } catch (IOException e) {
+            // Nothing was sent on it
+          }
+          continue;
+        }
+        session = new Session(socket, ++nextSessionId);
+        sessions.add(session);
+      }
+      Thread thread = new Thread(session, "corpus-session-" + session.id);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /* A connected worker, served by its own thread */
+  private class Session implements Runnable {
+    private final Socket socket;
+    private final int id;
+    private final String name;
+    // The shard the worker is running and when it was handed out, guarded by the coordinator
+    private Shard shard;
+    private long shardStart;
+
+    Session(Socket socket, int id) {
+      this.socket = socket;
+      this.id = id;
+      InetSocketAddress address = (InetSocketAddress) socket.getRemoteSocketAddress();
+      this.name = id + " (" + address.getHostString() + ":" + address.getPort() + ")";
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        int threads = CorpusProtocol.readHello(in, mirrors);
+        CorpusProtocol.writeHelloReply(out);
+        socket.setSoTimeout(0);
+        progress.println("Worker " + name + " connected with " + threads + " threads");
+
+        while (true) {
+          Shard next;
+          synchronized (CorpusCoordinator.this) {
+            next = take(this);
+            shard = next;
+            shardStart = System.nanoTime();
+          }
+          if (next == null) {
+            break;
+          }
+          // Records are only added to a shard before it is queued, so they can be read without the lock
+          CorpusProtocol.writeShard(out, next.id, next.records);
+          complete(this, CorpusProtocol.readResults(in, next.id, next.records.size()));
+        }
+        CorpusProtocol.writeBye(out);
+      } catch (IOException e) {
+        fail(this, e);
+      } catch (InterruptedException e) {
+        fail(this, new IOException("Interrupted", e));
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Already failed or done
+        }
+        synchronized (CorpusCoordinator.this) {
+          sessions.remove(this);
+          CorpusCoordinator.this.notifyAll();
+          if (!closed) {
+            checkWorkersLeft();
+          }
+        }
+      }
+    }
+  }
+}
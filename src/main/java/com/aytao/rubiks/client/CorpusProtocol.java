@@ -0,0 +1,220 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The binary protocol between a CorpusCoordinator and its
+ *                CorpusWorkers, over one TCP connection per worker. All
+ *                integers are big-endian, as DataOutputStream writes them.
+ *
+ *                The worker opens with a hello: the magic number and protocol
+ *                version as two ints, its thread count as an int, and the
+ *                settings that decide its verdicts: the engine version (see
+ *                PersistentResultCache.ENGINE_VERSION) as an int and whether
+ *                it reuses mirrored cells (--mirrors) as a byte. The
+ *                coordinator closes the connection if those differ from its
+ *                own, so that no record is judged by different rules than the
+ *                rest; otherwise it answers with the same magic number and
+ *                version.
+ *                From then on the coordinator sends one frame at a time and
+ *                waits for the worker's answer:
+ *
+ *                SHARD    byte 1, int shard id, int record count, then for
+ *                         each record: byte piece type ordinal, byte buffer,
+ *                         byte target1, byte target2 (Speffz letters), int
+ *                         length and the comm in UTF-8
+ *                         -> RESULTS  byte 2, int shard id, int record count,
+ *                                     then one CommValidity ordinal byte per
+ *                                     record, in order
+ *                BYE      byte 0, after which the worker closes the connection
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.client.CorpusValidator.Record;
+
+final class CorpusProtocol {
+  // "CSVC" in ASCII
+  static final int MAGIC = 0x43535643;
+  static final int VERSION = 2;
+
+  static final byte BYE = 0;
+  static final byte SHARD = 1;
+  static final byte RESULTS = 2;
+
+  // Limits on what a peer may announce, so that a corrupt frame fails instead of allocating without bound
+  private static final int MAX_RECORDS = 1 << 20;
+  private static final int MAX_COMM_BYTES = 1 << 16;
+
+  private static final PieceType[] PIECE_TYPES = PieceType.values();
+  private static final CommValidity[] VALIDITIES = CommValidity.values();
+
+  /* A shard as the worker receives it */
+  static class Shard {
+    final int id;
+    final List<Record> records;
+
+    Shard(int id, List<Record> records) {
+      this.id = id;
+      this.records = records;
+    }
+  }
+
+  private CorpusProtocol() {
+  }
+
+  static void writeHello(DataOutputStream out, int threads, boolean mirrors) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(threads);
+    out.writeInt(PersistentResultCache.ENGINE_VERSION);
+    out.writeBoolean(mirrors);
+    out.flush();
+  }
+
+  /*
+   * Reads a worker's hello and returns its thread count. Fails if the worker
+   * validates with another engine version or another mirrors setting.
+   */
+  static int readHello(DataInputStream in, boolean mirrors) throws IOException {
+    readMagic(in);
+    int threads = in.readInt();
+    if (threads < 1) {
+      throw new IOException("Illegal worker thread count: " + threads);
+    }
+    int engineVersion = in.readInt();
+    if (engineVersion != PersistentResultCache.ENGINE_VERSION) {
+      throw new IOException("Worker validates with engine version " + engineVersion + " but this run uses "
+          + PersistentResultCache.ENGINE_VERSION);
+    }
+    boolean workerMirrors = in.readBoolean();
+    if (workerMirrors != mirrors) {
+      throw new IOException("Worker was started " + (workerMirrors ? "with" : "without") + " --mirrors but this run "
+          + (mirrors ? "uses" : "does not use") + " it");
+    }
+    return threads;
+  }
+
+  static void writeHelloReply(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.flush();
+  }
+
+  static void readHelloReply(DataInputStream in) throws IOException {
+    readMagic(in);
+  }
+
+  private static void readMagic(DataInputStream in) throws IOException {
+    int magic = in.readInt();
+    if (magic != MAGIC) {
+      throw new IOException("Not a corpus validation peer (magic " + Integer.toHexString(magic) + ")");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported protocol version " + version + " (expected " + VERSION + ")");
+    }
+  }
+
+  static void writeBye(DataOutputStream out) throws IOException {
+    out.writeByte(BYE);
+    out.flush();
+  }
+
+  static void writeShard(DataOutputStream out, int id, List<Record> records) throws IOException {
+    out.writeByte(SHARD);
+    out.writeInt(id);
+    out.writeInt(records.size());
+    for (Record record : records) {
+      out.writeByte(record.pieceType.ordinal());
+      out.writeByte(record.buffer);
+      out.writeByte(record.target1);
+      out.writeByte(record.target2);
+      byte[] comm = record.comm.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(comm.length);
+      out.write(comm);
+    }
+    out.flush();
+  }
+
+  /* Reads the coordinator's next frame: a shard, or null for BYE */
+  static Shard readShard(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    if (type == BYE) {
+      return null;
+    } else if (type != SHARD) {
+      throw new IOException("Expected a shard but got frame type " + type);
+    }
+    int id = in.readInt();
+    int count = readCount(in);
+    List<Record> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Record record = new Record(i, "", "", "");
+      int pieceType = in.readUnsignedByte();
+      if (pieceType >= PIECE_TYPES.length) {
+        throw new IOException("Illegal piece type " + pieceType + " in shard " + id);
+      }
+      record.pieceType = PIECE_TYPES[pieceType];
+      record.buffer = (char) in.readUnsignedByte();
+      record.target1 = (char) in.readUnsignedByte();
+      record.target2 = (char) in.readUnsignedByte();
+      int length = in.readInt();
+      if (length < 0 || length > MAX_COMM_BYTES) {
+        throw new IOException("Illegal comm length " + length + " in shard " + id);
+      }
+      byte[] comm = new byte[length];
+      in.readFully(comm);
+      record.comm = new String(comm, StandardCharsets.UTF_8);
+      records.add(record);
+    }
+    return new Shard(id, records);
+  }
+
+  static void writeResults(DataOutputStream out, int id, CommValidity[] validities) throws IOException {
+    out.writeByte(RESULTS);
+    out.writeInt(id);
+    out.writeInt(validities.length);
+    for (CommValidity validity : validities) {
+      out.writeByte(validity.ordinal());
+    }
+    out.flush();
+  }
+
+  /* Reads a worker's results for the shard with the given id and record count */
+  static CommValidity[] readResults(DataInputStream in, int id, int count) throws IOException {
+    byte type = in.readByte();
+    if (type != RESULTS) {
+      throw new IOException("Expected results but got frame type " + type);
+    }
+    int resultId = in.readInt();
+    int resultCount = in.readInt();
+    if (resultId != id || resultCount != count) {
+      throw new IOException("Expected " + count + " results for shard " + id + " but got " + resultCount
+          + " for shard " + resultId);
+    }
+    CommValidity[] validities = new CommValidity[count];
+    for (int i = 0; i < count; i++) {
+      int ordinal = in.readUnsignedByte();
+      if (ordinal >= VALIDITIES.length) {
+        throw new IOException("Illegal validity " + ordinal + " in shard " + id);
+      }
+      validities[i] = VALIDITIES[ordinal];
+    }
+    return validities;
+  }
+
+  private static int readCount(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    if (count < 0 || count > MAX_RECORDS) {
+      throw new IOException("Illegal record count: " + count);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,720 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Validates a corpus of comm records, such as a community comm
+ *                database, instead of a sheet. Each record is one line naming
+ *                a buffer, two targets and a comm, either as CSV
+ *                (buffer,target1,target2,comm) or as a JSON object with those
+ *                keys. The buffer and targets are Speffz letters (with -t for
+ *                the piece type) or locations such as UF and UFR, which carry
+ *                their own piece type.
+ *
+ *                Records are streamed from files or stdin and validated by a
+ *                pool of workers, with a bounded window of records in flight,
+ *                so a corpus of any size runs in constant memory. Results are
+ *                written in input order as CSV (record,buffer,target1,target2,
+ *                validity), flushed every few seconds, and progress and
+ *                throughput are printed to stderr as the run goes.
+ *
+ *                With a checkpoint file, each flush also records how many
+ *                records have been written, how long the output was and how
+ *                many records had each result, so that a resumed run's
+ *                summary and exit status cover the whole corpus. A run
+ *                that is interrupted and started again with the same inputs,
+ *                output and checkpoint cuts the output back to the last
+ *                checkpoint and resumes from the record after it. The
+ *                checkpoint is deleted once the whole corpus is done.
+ *
+ *                Records are validated by a Checker: by default a thread pool
+ *                in this JVM, or a CorpusCoordinator that shards them across
+ *                worker processes.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public class CorpusValidator {
+  // Input name that reads records from stdin
+  public static final String STDIN = "-";
+
+  // Records in flight per worker thread
+  private static final int WINDOW_PER_THREAD = 256;
+
+  private static final long PROGRESS_MILLIS = 2000;
+  private static final long FLUSH_MILLIS = 5000;
+
+  private static final String HEADER = "record,buffer,target1,target2,validity";
+
+  // Result written for a record that does not name a valid case
+  static final String INVALID_RECORD = "INVALID_RECORD";
+
+  // Invalid records whose reasons are printed before the rest are only counted
+  private static final int MAX_REPORTED_RECORDS = 10;
+
+  // Checkpoint properties holding the tallies of the records written so far
+  private static final String COUNT_PREFIX = "count.";
+  private static final String MALFORMED = "malformed";
+
+  public enum Format {
+    CSV, JSONL;
+
+    /* Returns the format of a corpus file by its extension: JSONL for .jsonl or .json, CSV otherwise */
+    public static Format forInput(String input) {
+      String lower = input.toLowerCase();
+      return lower.endsWith(".jsonl") || lower.endsWith(".json") ? JSONL : CSV;
+    }
+  }
+
+  /* A record's case and comm, or why it does not name one */
+  static class Record {
+    final long number;
+    private final String bufferField;
+    private final String target1Field;
+    private final String target2Field;
+    PieceType pieceType;
+    char buffer;
+    char target1;
+    char target2;
+    String comm;
+    String error;
+
+    Record(long number, String bufferField, String target1Field, String target2Field) {
+      this.number = number;
+      this.bufferField = bufferField;
+      this.target1Field = target1Field;
+      this.target2Field = target2Field;
+    }
+
+    String toLine(String result) {
+      return number + "," + bufferField + "," + target1Field + "," + target2Field + "," + result;
+    }
+  }
+
+  /* Validates the records of a run, possibly elsewhere */
+  interface Checker extends Closeable {
+    /* Returns the number of records to keep in flight */
+    int getWindow();
+
+    /* Starts validating a well-formed record */
+    CompletableFuture<CommValidity> check(Record record);
+
+    /* Starts validating any records that check has held back, before the run waits on the oldest of them */
+    void flush();
+  }
+
+  /* Validates records on a fixed pool of threads in this JVM */
+  private static class PoolChecker implements Checker {
+    private final CommSheetValidator validator;
+    private final int threads;
+    private final ExecutorService pool;
+
+    PoolChecker(CommSheetValidator validator, int threads) {
+      this.validator = validator;
+      this.threads = threads;
+      AtomicInteger threadCount = new AtomicInteger();
+      this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, "corpus-worker-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    @Override
+    public int getWindow() {
+      return threads * WINDOW_PER_THREAD;
+    }
+
+    @Override
+    public CompletableFuture<CommValidity> check(Record record) {
+      return CompletableFuture.supplyAsync(() -> validator.checkCell(record.comm, record.pieceType, record.buffer,
+          record.target1, record.target2), pool);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+      pool.shutdownNow();
+    }
+  }
+
+  private final Checker checker;
+  private final PieceType defaultPieceType;
+  private final Format format;
+  private final PrintStream progress;
+
+  /*
+   * Creates a corpus validator that validates records with validator on the
+   * given number of threads. Records that name their buffer and targets by
+   * letter are for defaultPieceType, which may be null if every record uses
+   * locations. Inputs are read as format, or by their extension (see
+   * Format.forInput) if it is null. Progress goes to progress.
+   */
+  public CorpusValidator(CommSheetValidator validator, int threads, PieceType defaultPieceType, Format format,
+      PrintStream progress) {
+    this(newPoolChecker(validator, threads), defaultPieceType, format, progress);
+  }
+
+  /* Creates a corpus validator that validates records with checker, which its run closes when done */
+  CorpusValidator(Checker checker, PieceType defaultPieceType, Format format, PrintStream progress) {
+    this.checker = checker;
+    this.defaultPieceType = defaultPieceType;
+    this.format = format;
+    this.progress = progress;
+  }
+
+  private static Checker newPoolChecker(CommSheetValidator validator, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    return new PoolChecker(validator, threads);
+  }
+
+  /*****************************************************************************
+   * Running
+   ****************************************************************************/
+
+  /*
+   * Validates every record of inputs, in order, writing results to output, or
+   * to stdout if output is null. With a checkpoint (which needs an output
+   * file), resumes from it if it exists. Returns the number of records that
+   * are not valid.
+   */
+  public long run(List<String> inputs, Path output, Path checkpoint) throws IOException {
+    try {
+      return runRecords(inputs, output, checkpoint);
+    } finally {
+      checker.close();
+    }
+  }
+
+  private long runRecords(List<String> inputs, Path output, Path checkpoint) throws IOException {
+    if (checkpoint != null && output == null) {
+      throw new IllegalArgumentException("A checkpoint needs an output file");
+    }
+    String inputNames = String.join("\n", inputs);
+    long resumeFrom = 0;
+    long outputBytes = 0;
+    Properties saved = null;
+    if (checkpoint != null && Files.exists(checkpoint)) {
+      saved = readCheckpoint(checkpoint);
+      if (!inputNames.equals(saved.getProperty("inputs"))) {
+        throw new IllegalArgumentException("Checkpoint " + checkpoint + " is for different inputs");
+      }
+      resumeFrom = Long.parseLong(saved.getProperty("records"));
+      outputBytes = Long.parseLong(saved.getProperty("outputBytes"));
+      progress.println("Resuming after record " + resumeFrom + " from checkpoint " + checkpoint);
+    }
+
+    FileChannel channel = null;
+    OutputStream stream = System.out;
+    if (output != null) {
+      channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      if (channel.size() < outputBytes) {
+        channel.close();
+        throw new IllegalArgumentException("Output " + output + " is shorter than checkpoint " + checkpoint
+            + " expects");
+      }
+      channel.truncate(outputBytes);
+      channel.position(outputBytes);
+      stream = Channels.newOutputStream(channel);
+    }
+
+    Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    try {
+      if (outputBytes == 0) {
+        writer.write(HEADER);
+        writer.write('\n');
+      }
+      Run run = new Run(writer, channel, checkpoint, inputNames, resumeFrom);
+      if (saved != null) {
+        run.restoreCounts(saved);
+      }
+      for (String input : inputs) {
+        run.read(input);
+      }
+      run.finish();
+      writer.flush();
+      if (checkpoint != null) {
+        Files.deleteIfExists(checkpoint);
+      }
+      return run.invalid;
+    } finally {
+      if (channel != null) {
+        writer.close();
+      } else {
+        writer.flush();
+      }
+    }
+  }
+
+  /* The state of a single run: the records in flight, and how far output and progress have got */
+  private class Run {
+    private final Writer writer;
+    private final FileChannel channel;
+    private final Path checkpoint;
+    private final String inputNames;
+    private final long resumeFrom;
+    private final Deque<CompletableFuture<String>> window = new ArrayDeque<>();
+    private final Map<CommValidity, Long> validities = new EnumMap<>(CommValidity.class);
+
+    private long read;
+    private long written;
+    private long invalid;
+    private long malformed;
+    private long reported;
+
+    private final long start = System.nanoTime();
+    private long lastProgress = System.currentTimeMillis();
+    private long lastFlush = lastProgress;
+    private long writtenAtLastProgress;
+    private long nanosAtLastProgress = start;
+
+    Run(Writer writer, FileChannel channel, Path checkpoint, String inputNames, long resumeFrom) {
+      this.writer = writer;
+      this.channel = channel;
+      this.checkpoint = checkpoint;
+      this.inputNames = inputNames;
+      this.resumeFrom = resumeFrom;
+      this.written = resumeFrom;
+      this.writtenAtLastProgress = resumeFrom;
+    }
+
+    /* Carries on the tallies of the records a checkpoint says were already written */
+    void restoreCounts(Properties saved) {
+      for (CommValidity validity : CommValidity.values()) {
+        long count = Long.parseLong(saved.getProperty(COUNT_PREFIX + validity.name(), "0"));
+        if (count > 0) {
+          validities.put(validity, count);
+          if (validity != CommValidity.VALID) {
+            invalid += count;
+          }
+        }
+      }
+      malformed = Long.parseLong(saved.getProperty(MALFORMED));
+      invalid += malformed;
+    }
+
+    /* Reads every record of an input and hands it to the pool, writing results as the window fills */
+    void read(String input) throws IOException {
+      Format inputFormat = format != null ? format : input.equals(STDIN) ? Format.CSV : Format.forInput(input);
+      InputStream in = input.equals(STDIN) ? System.in : Files.newInputStream(Paths.get(input));
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (CommSheetValidator.isBlank(line)) {
+            continue;
+          }
+          Record record = inputFormat == Format.JSONL ? parseJsonRecord(read + 1, line)
+              : parseCsvRecord(read + 1, line);
+          if (record == null) {
+            continue;
+          }
+          read++;
+          if (read <= resumeFrom) {
+            continue;
+          }
+          submit(record);
+          if (window.size() >= checker.getWindow()) {
+            writeNext();
+          }
+        }
+      }
+    }
+
+    private void submit(Record record) {
+      if (record.error != null) {
+        if (reported++ < MAX_REPORTED_RECORDS) {
+          progress.println("Record " + record.number + ": " + record.error);
+        }
+        window.add(CompletableFuture.completedFuture(record.toLine(INVALID_RECORD)));
+        return;
+      }
+      window.add(checker.check(record).thenApply(validity -> record.toLine(validity.name())));
+    }
+
+    /* Writes the result of the oldest record in flight, then flushes, checkpoints and reports as they fall due */
+    private void writeNext() throws IOException {
+      if (!window.peek().isDone()) {
+        checker.flush();
+      }
+      String line;
+      try {
+        line = window.poll().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while validating the corpus", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Validating a record failed: " + e.getCause(), e.getCause());
+      }
+      writer.write(line);
+      writer.write('\n');
+      written++;
+      count(line.substring(line.lastIndexOf(',') + 1));
+
+      long now = System.currentTimeMillis();
+      if (now - lastFlush >= FLUSH_MILLIS) {
+        flush();
+        lastFlush = now;
+      }
+      if (now - lastProgress >= PROGRESS_MILLIS) {
+        printProgress();
+        lastProgress = now;
+      }
+    }
+
+    private void count(String result) {
+      if (result.equals(INVALID_RECORD)) {
+        malformed++;
+        invalid++;
+        return;
+      }
+      CommValidity validity = CommValidity.valueOf(result);
+      validities.merge(validity, 1L, Long::sum);
+      if (validity != CommValidity.VALID) {
+        invalid++;
+      }
+    }
+
+    /* Flushes the output and, if there is a checkpoint, records how far it has got */
+    private void flush() throws IOException {
+      writer.flush();
+      if (checkpoint != null) {
+        Properties properties = new Properties();
+        properties.setProperty("inputs", inputNames);
+        properties.setProperty("records", Long.toString(written));
+        properties.setProperty("outputBytes", Long.toString(channel.position()));
+        for (Map.Entry<CommValidity, Long> entry : validities.entrySet()) {
+          properties.setProperty(COUNT_PREFIX + entry.getKey().name(), Long.toString(entry.getValue()));
+        }
+        properties.setProperty(MALFORMED, Long.toString(malformed));
+        writeCheckpoint(checkpoint, properties);
+      }
+    }
+
+    private void printProgress() {
+      long now = System.nanoTime();
+      double rate = (written - writtenAtLastProgress) / ((now - nanosAtLastProgress) / 1e9);
+      progress.printf("Validated %d records (%.0f comms/s)%n", written, rate);
+      writtenAtLastProgress = written;
+      nanosAtLastProgress = now;
+    }
+
+    /* Writes every record still in flight and prints a summary */
+    void finish() throws IOException {
+      while (!window.isEmpty()) {
+        writeNext();
+      }
+      flush();
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long validated = written - resumeFrom;
+      progress.printf("Validated %d records in %.1f s (%.0f comms/s)%n", validated, seconds,
+          seconds > 0 ? validated / seconds : 0);
+      if (resumeFrom > 0) {
+        progress.println("Totals include the " + resumeFrom + " records validated before the checkpoint:");
+      }
+      for (Map.Entry<CommValidity, Long> entry : validities.entrySet()) {
+        progress.println("  " + entry.getKey().name().replace("_", " ") + ": " + entry.getValue());
+      }
+      if (malformed > 0) {
+        progress.println("  " + INVALID_RECORD.replace("_", " ") + ": " + malformed);
+      }
+    }
+  }
+
+  /*****************************************************************************
+   * Checkpoints
+   ****************************************************************************/
+
+  private static Properties readCheckpoint(Path checkpoint) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(checkpoint)) {
+      properties.load(in);
+    }
+    if (properties.getProperty("records") == null || properties.getProperty("outputBytes") == null
+        || properties.getProperty(MALFORMED) == null) {
+      throw new IllegalArgumentException("Checkpoint " + checkpoint + " is incomplete");
+    }
+    return properties;
+  }
+
+  /* Replaces the checkpoint in one step, so that an interrupted run never leaves half of one behind */
+  private static void writeCheckpoint(Path checkpoint, Properties properties) throws IOException {
+    Path parent = checkpoint.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, checkpoint.getFileName().toString(), ".tmp");
+    try (OutputStream out = Files.newOutputStream(temp)) {
+      properties.store(out, "Corpus validation checkpoint");
+    }
+    Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /*****************************************************************************
+   * Records
+   ****************************************************************************/
+
+  /*
+   * Parses a CSV record: buffer, target1, target2 and comm, which must be
+   * quoted if it contains a comma. Returns null for a header line, whose first
+   * field is "buffer".
+   */
+  private Record parseCsvRecord(long number, String line) {
+    char[] chars = line.toCharArray();
+    CharSequence[] fields = SheetScanner.scan(chars, 0, chars.length).get(0);
+    if (fields.length > 0 && fields[0].toString().trim().equalsIgnoreCase("buffer")) {
+      return null;
+    }
+    if (fields.length != 4) {
+      Record record = new Record(number, "", "", "");
+      record.error = "Expected 4 fields but found " + fields.length;
+      return record;
+    }
+    return parseRecord(number, fields[0].toString(), fields[1].toString(), fields[2].toString(),
+        fields[3].toString(), null);
+  }
+
+  /* Parses a JSON record: an object with string keys buffer, target1, target2, comm and optionally type */
+  private Record parseJsonRecord(long number, String line) {
+    Map<String, String> object;
+    try {
+      object = parseJsonObject(line);
+    } catch (IllegalArgumentException e) {
+      Record record = new Record(number, "", "", "");
+      record.error = e.getMessage();
+      return record;
+    }
+    return parseRecord(number, object.get("buffer"), object.get("target1"), object.get("target2"),
+        object.get("comm"), object.get("type"));
+  }
+
+  private Record parseRecord(long number, String bufferField, String target1Field, String target2Field,
+      String comm, String type) {
+    Record record = new Record(number, csvField(bufferField), csvField(target1Field), csvField(target2Field));
+    try {
+      if (bufferField == null || target1Field == null || target2Field == null || comm == null) {
+        throw new IllegalArgumentException("Missing buffer, target or comm");
+      }
+      record.pieceType = getPieceType(bufferField.trim(), type);
+      record.buffer = parseSticker(bufferField.trim(), record.pieceType);
+      record.target1 = parseSticker(target1Field.trim(), record.pieceType);
+      record.target2 = parseSticker(target2Field.trim(), record.pieceType);
+      for (char target : new char[] { record.target1, record.target2 }) {
+        if (CommSheetValidator.getRelatedStickersSet(record.pieceType, record.buffer).contains(target)) {
+          throw new IllegalArgumentException("Target " + target + " is on the buffer's piece");
+        }
+      }
+      record.comm = comm;
+    } catch (IllegalArgumentException e) {
+      record.error = e.getMessage();
+    }
+    return record;
+  }
+
+  /* Returns the piece type named by type, or by a location buffer's length, or the default */
+  private PieceType getPieceType(String buffer, String type) {
+    if (type != null) {
+      if (type.equals("e")) {
+        return PieceType.EDGE;
+      } else if (type.equals("c")) {
+        return PieceType.CORNER;
+      }
+      throw new IllegalArgumentException("Illegal piece type: " + type);
+    }
+    if (buffer.length() == 2) {
+      return PieceType.EDGE;
+    } else if (buffer.length() == 3) {
+      return PieceType.CORNER;
+    }
+    if (defaultPieceType == null) {
+      throw new IllegalArgumentException("Buffer " + buffer + " is a letter, but no piece type was given");
+    }
+    return defaultPieceType;
+  }
+
+  /* Returns the sticker named by a Speffz letter or a location such as UF or UFR */
+  private static char parseSticker(String field, PieceType pieceType) {
+    if (field.length() == 1) {
+      char c = Character.toLowerCase(field.charAt(0));
+      if (!SpeffzUtils.isValidSpeffzLetter(c)) {
+        throw new IllegalArgumentException("Letter " + field + " is not a valid Speffz letter");
+      }
+      return c;
+    }
+    String location = field.toUpperCase();
+    return pieceType == PieceType.EDGE ? SpeffzUtils.getEdgeSticker(location) : SpeffzUtils.getCornerSticker(location);
+  }
+
+  /* Returns a field as it is echoed in the output, without anything that would break the CSV */
+  private static String csvField(String field) {
+    return field == null ? "" : field.trim().replaceAll("[,\"\\s]", "");
+  }
+
+  /*
+   * Parses a JSON object whose values are strings, numbers, booleans or null,
+   * which is all a corpus record needs. Values other than strings are kept as
+   * their text, and null as null. Throws an IllegalArgumentException for
+   * anything else.
+   */
+  static Map<String, String> parseJsonObject(String text) {
+    JsonReader reader = new JsonReader(text);
+    Map<String, String> object = new LinkedHashMap<>();
+    reader.expect('{');
+    if (!reader.consume('}')) {
+      do {
+        String key = reader.readString();
+        reader.expect(':');
+        object.put(key, reader.readValue());
+      } while (reader.consume(','));
+      reader.expect('}');
+    }
+    reader.expectEnd();
+    return object;
+  }
+
+  private static class JsonReader {
+    private final String text;
+    private int i;
+
+    JsonReader(String text) {
+      this.text = text;
+    }
+
+    private void skipWhitespace() {
+      while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+        i++;
+      }
+    }
+
+    boolean consume(char c) {
+      skipWhitespace();
+      if (i < text.length() && text.charAt(i) == c) {
+        i++;
+        return true;
+      }
+      return false;
+    }
+
+    void expect(char c) {
+      if (!consume(c)) {
+        throw error("Expected '" + c + "'");
+      }
+    }
+
+    void expectEnd() {
+      skipWhitespace();
+      if (i != text.length()) {
+        throw error("Unexpected text after the object");
+      }
+    }
+
+    String readValue() {
+      skipWhitespace();
+      if (i < text.length() && text.charAt(i) == '"') {
+        return readString();
+      }
+      int start = i;
+      while (i < text.length() && "-+.0123456789eEtruefalsn".indexOf(text.charAt(i)) >= 0) {
+        i++;
+      }
+      String literal = text.substring(start, i);
+      if (literal.isEmpty()) {
+        throw error("Expected a value");
+      }
+      return literal.equals("null") ? null : literal;
+    }
+
+    String readString() {
+      skipWhitespace();
+      if (i >= text.length() || text.charAt(i) != '"') {
+        throw error("Expected a string");
+      }
+      i++;
+      StringBuilder sb = new StringBuilder();
+      while (i < text.length()) {
+        char c = text.charAt(i++);
+        if (c == '"') {
+          return sb.toString();
+        }
+        if (c != '\\') {
+          sb.append(c);
+          continue;
+        }
+        if (i >= text.length()) {
+          break;
+        }
+        char escaped = text.charAt(i++);
+        switch (escaped) {
+          case 'b':
+            sb.append('\b');
+            break;
+          case 'f':
+            sb.append('\f');
+            break;
+          case 'n':
+            sb.append('\n');
+            break;
+          case 'r':
+            sb.append('\r');
+            break;
+          case 't':
+            sb.append('\t');
+            break;
+          case 'u':
+            if (i + 4 > text.length()) {
+              throw error("Truncated unicode escape");
+            }
+            try {
+              sb.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("Illegal unicode escape");
+            }
+            i += 4;
+            break;
+          default:
+            sb.append(escaped);
+        }
+      }
+      throw error("Unterminated string");
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at column " + (i + 1) + " of JSON record");
+    }
+  }
+}
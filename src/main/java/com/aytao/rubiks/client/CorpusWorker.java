@@ -0,0 +1,155 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A worker process for sharded corpus validation. It connects
+ *                to a CorpusCoordinator, validates each shard it is sent on
+ *                its own pool of threads and sends back the validities, until
+ *                the coordinator says goodbye. See CorpusProtocol for the
+ *                frames.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.aytao.rubiks.client.CorpusValidator.Record;
+
+public class CorpusWorker {
+  // How long to keep trying to reach a coordinator that is not listening yet
+  private static final long CONNECT_MILLIS = 30000;
+  private static final long RETRY_MILLIS = 500;
+
+  private final CommSheetValidator validator;
+  private final int threads;
+  private final PrintStream log;
+
+  /* Creates a worker that validates with validator on the given number of threads, logging to log */
+  public CorpusWorker(CommSheetValidator validator, int threads, PrintStream log) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    this.validator = validator;
+    this.threads = threads;
+    this.log = log;
+  }
+
+  /* Returns the host and port of a HOST:PORT address, failing if the host cannot be resolved */
+  public static InetSocketAddress parseAddress(String address) {
+    int colon = address.lastIndexOf(':');
+    if (colon <= 0) {
+      throw new IllegalArgumentException("Expected HOST:PORT but got " + address);
+    }
+    InetSocketAddress socketAddress;
+    try {
+      int port = Integer.parseInt(address.substring(colon + 1));
+      socketAddress = new InetSocketAddress(address.substring(0, colon), port);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Illegal coordinator address: " + address);
+    }
+    if (socketAddress.isUnresolved()) {
+      throw new IllegalArgumentException("Unknown coordinator host: " + socketAddress.getHostString());
+    }
+    return socketAddress;
+  }
+
+  /*
+   * Serves the coordinator at address until it has no more shards. Returns the
+   * number of records validated.
+   */
+  public long run(InetSocketAddress address) throws IOException {
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "corpus-worker-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    long validated = 0;
+    try (Socket socket = connect(address)) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      CorpusProtocol.writeHello(out, threads, validator.isReusingMirrors());
+      try {
+        CorpusProtocol.readHelloReply(in);
+      } catch (EOFException e) {
+        throw new IOException("Coordinator " + address + " refused this worker; check that both were started with "
+            + "the same validation options, such as --mirrors", e);
+      }
+
+      CorpusProtocol.Shard shard;
+      while ((shard = CorpusProtocol.readShard(in)) != null) {
+        CorpusProtocol.writeResults(out, shard.id, validate(shard.records, pool));
+        validated += shard.records.size();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    log.println("Worker done after validating " + validated + " records");
+    return validated;
+  }
+
+  private static Socket connect(InetSocketAddress address) throws IOException {
+    long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+    while (true) {
+      try {
+        return new Socket(address.getAddress(), address.getPort());
+      } catch (ConnectException e) {
+        if (System.currentTimeMillis() >= deadline) {
+          throw new IOException("Could not connect to coordinator " + address + ": " + e.getMessage(), e);
+        }
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while connecting to " + address, e);
+      }
+    }
+  }
+
+  /* Validates a shard's records, split evenly between the threads */
+  private CommValidity[] validate(List<Record> records, ExecutorService pool) throws IOException {
+    CommValidity[] validities = new CommValidity[records.size()];
+    int chunks = Math.min(threads, records.size());
+    List<Future<?>> futures = new ArrayList<>(chunks);
+    for (int c = 0; c < chunks; c++) {
+      int lo = (int) ((long) records.size() * c / chunks);
+      int hi = (int) ((long) records.size() * (c + 1) / chunks);
+      futures.add(pool.submit(() -> {
+        for (int i = lo; i < hi; i++) {
+          Record record = records.get(i);
+          validities[i] = validator.checkCell(record.comm, record.pieceType, record.buffer, record.target1,
+              record.target2);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while validating a shard", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Validating a shard failed: " + e.getCause(), e.getCause());
+      }
+    }
+    return validities;
+  }
+}
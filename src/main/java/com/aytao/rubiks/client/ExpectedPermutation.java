@@ -0,0 +1,270 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The facelet permutation (see MoveTables) that a correct alg
+ *                for some case must produce, together with its 64-bit
+ *                fingerprint. A comm is correct exactly when the state it
+ *                produces from solved agrees with the expected permutation on
+ *                every edge and corner sticker (centers are ignored, as they
+ *                are by the sticker reports), so checking a comm only takes
+ *                one fingerprint comparison, plus a confirming comparison
+ *                when the fingerprints match.
+ *
+ *                Cases are described by sticker cycles: in the cycle "cfk",
+ *                the sticker at c moves to f, f to k and k back to c, and the
+ *                other stickers of each piece move along with it. This covers
+ *                3-cycles as well as flips ("ci"), twists ("cmj") and parity
+ *                swaps. The 3-cycle for every (buffer, target1, target2) is
+ *                built on first use and then shared by all threads.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class ExpectedPermutation {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+
+  // Random keys for fingerprinting, one per (position, facelet) pair
+  private static final long[] KEYS = new long[NUM_FACELETS * NUM_FACELETS];
+
+  // Facelets of every edge and corner sticker, i.e. all but the centers
+  private static final int[] PIECE_FACELETS = new int[2 * NUM_LETTERS];
+
+  /*
+   * The stickers of each piece in a consistent rotational order, indexed by
+   * letter and starting with that letter. If a piece moves sticker s to t, its
+   * k-th sticker from s moves to its k-th sticker from t.
+   */
+  private static final char[][] edgeOrder = new char[NUM_LETTERS][];
+  private static final char[][] cornerOrder = new char[NUM_LETTERS][];
+
+  // Lazily built 3-cycles, indexed by piece type and (buffer, target1, target2)
+  private static final ExpectedPermutation[][] threeCycles =
+      new ExpectedPermutation[PieceType.values().length][NUM_LETTERS * NUM_LETTERS * NUM_LETTERS];
+
+  static {
+    SplittableRandom random = new SplittableRandom(0x5eed5eedL);
+    for (int i = 0; i < KEYS.length; i++) {
+      KEYS[i] = random.nextLong();
+    }
+
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      PIECE_FACELETS[2 * (c - 'a')] = SpeffzUtils.getEdgeFacelet(c);
+      PIECE_FACELETS[2 * (c - 'a') + 1] = SpeffzUtils.getCornerFacelet(c);
+      for (char other : SpeffzUtils.getRelatedEdgeStickersSet(c)) {
+        if (other != c) {
+          edgeOrder[c - 'a'] = new char[] { c, other };
+        }
+      }
+    }
+    orderCorners();
+  }
+
+  // Expected for cases that no alg can perform, such as a 3-cycle within one piece
+  private static final ExpectedPermutation IMPOSSIBLE = new ExpectedPermutation(null, 0);
+
+  private final int[] state;
+  private final long fingerprint;
+
+  private ExpectedPermutation(int[] state) {
+    this(state, fingerprint(state));
+  }
+
+  private ExpectedPermutation(int[] state, long fingerprint) {
+    this.state = state;
+    this.fingerprint = fingerprint;
+  }
+
+  /*
+   * Picks an arbitrary order for the stickers of one corner, then carries it to
+   * every other corner by applying face turns. Turns move pieces rigidly, so the
+   * orders they produce always agree with each other.
+   */
+  private static void orderCorners() {
+    char[] seed = new char[3];
+    int k = 0;
+    for (char c : SpeffzUtils.getRelatedCornerStickersSet('a')) {
+      seed[k++] = c;
+    }
+    setCornerOrder(seed);
+
+    Move[] turns = { Move.U, Move.D, Move.F, Move.B, Move.R, Move.L };
+    int[] turned = new int[NUM_FACELETS];
+    int[] scratch = new int[NUM_FACELETS];
+    int[] letterAt = new int[NUM_FACELETS];
+    Arrays.fill(letterAt, -1);
+    for (int i = 0; i < NUM_LETTERS; i++) {
+      letterAt[SpeffzUtils.getCornerFacelet((char) ('a' + i))] = i;
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Move turn : turns) {
+        MoveTables.reset(turned);
+        MoveTables.apply(turned, turn, scratch);
+        int[] destination = new int[NUM_FACELETS];
+        for (int i = 0; i < NUM_FACELETS; i++) {
+          destination[turned[i]] = i;
+        }
+
+        for (int i = 0; i < NUM_LETTERS; i++) {
+          char[] order = cornerOrder[i];
+          if (order == null) {
+            continue;
+          }
+          char[] moved = new char[order.length];
+          for (int j = 0; j < order.length; j++) {
+            moved[j] = (char) ('a' + letterAt[destination[SpeffzUtils.getCornerFacelet(order[j])]]);
+          }
+          if (cornerOrder[moved[0] - 'a'] == null) {
+            setCornerOrder(moved);
+            changed = true;
+          }
+        }
+      }
+    }
+  }
+
+  /* Records order, and each of its rotations, as the order of its corner */
+  private static void setCornerOrder(char[] order) {
+    for (int start = 0; start < order.length; start++) {
+      char[] rotated = new char[order.length];
+      for (int j = 0; j < order.length; j++) {
+        rotated[j] = order[(start + j) % order.length];
+      }
+      cornerOrder[rotated[0] - 'a'] = rotated;
+    }
+  }
+
+  /*
+   * Returns the stickers of the piece that a sticker is on, starting with that
+   * sticker. Corner stickers are always listed in the same rotational
+   * direction, so the orders of two corners line up the way a move that takes
+   * one corner to the other would.
+   */
+  public static char[] getStickerOrder(PieceType pieceType, char sticker) {
+    char c = checkLetter(sticker);
+    return (pieceType.equals(PieceType.EDGE) ? edgeOrder : cornerOrder)[c - 'a'].clone();
+  }
+
+  /*
+   * Returns the expected permutation of the 3-cycle buffer -> target1 -> target2,
+   * which matches nothing if the targets do not make a possible 3-cycle.
+   */
+  public static ExpectedPermutation threeCycle(PieceType pieceType, char buffer, char target1, char target2) {
+    int index = ((buffer - 'a') * NUM_LETTERS + (target1 - 'a')) * NUM_LETTERS + (target2 - 'a');
+    ExpectedPermutation[] table = threeCycles[pieceType.ordinal()];
+
+    // Instances are immutable, so a racy build at worst builds one twice
+    ExpectedPermutation expected = table[index];
+    if (expected == null) {
+      String[] cycle = { new String(new char[] { buffer, target1, target2 }) };
+      try {
+        if (pieceType.equals(PieceType.EDGE)) {
+          expected = of(cycle, new String[0]);
+        } else {
+          expected = of(new String[0], cycle);
+        }
+      } catch (IllegalArgumentException e) {
+        expected = IMPOSSIBLE;
+      }
+      table[index] = expected;
+    }
+    return expected;
+  }
+
+  /*
+   * Returns the expected permutation of an alg that performs the given edge and
+   * corner sticker cycles, and leaves everything else solved. Throws an
+   * IllegalArgumentException if the cycles contradict each other.
+   */
+  public static ExpectedPermutation of(String[] edgeCycles, String[] cornerCycles) {
+    int[] state = new int[NUM_FACELETS];
+    MoveTables.reset(state);
+    boolean[] assigned = new boolean[NUM_FACELETS];
+    addCycles(state, assigned, edgeCycles, edgeOrder, PieceType.EDGE);
+    addCycles(state, assigned, cornerCycles, cornerOrder, PieceType.CORNER);
+    return new ExpectedPermutation(state);
+  }
+
+  private static void addCycles(int[] state, boolean[] assigned, String[] cycles, char[][] order,
+      PieceType pieceType) {
+    for (String cycle : cycles) {
+      for (int k = 0; k < cycle.length(); k++) {
+        char from = checkLetter(cycle.charAt(k));
+        char to = checkLetter(cycle.charAt((k + 1) % cycle.length()));
+        char[] fromOrder = order[from - 'a'];
+        char[] toOrder = order[to - 'a'];
+        for (int j = 0; j < fromOrder.length; j++) {
+          int fromFacelet = getFacelet(pieceType, fromOrder[j]);
+          int toFacelet = getFacelet(pieceType, toOrder[j]);
+          if (assigned[toFacelet] && state[toFacelet] != fromFacelet) {
+            throw new IllegalArgumentException("Cycle " + cycle + " contradicts an earlier cycle");
+          }
+          state[toFacelet] = fromFacelet;
+          assigned[toFacelet] = true;
+        }
+      }
+    }
+  }
+
+  private static char checkLetter(char c) {
+    if (!SpeffzUtils.isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
+    return Character.toLowerCase(c);
+  }
+
+  private static int getFacelet(PieceType pieceType, char c) {
+    return pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(c) : SpeffzUtils.getCornerFacelet(c);
+  }
+
+  /* Returns the 64-bit fingerprint of the edges and corners of a facelet state */
+  public static long fingerprint(int[] state) {
+    long hash = 0;
+    for (int i : PIECE_FACELETS) {
+      hash ^= KEYS[i * NUM_FACELETS + state[i]];
+    }
+    return hash;
+  }
+
+  /* Returns a copy of the expected facelet state, or null for an impossible case */
+  public int[] getState() {
+    return state == null ? null : state.clone();
+  }
+
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /* Returns whether state agrees with this expected permutation on edges and corners */
+  public boolean matches(int[] state) {
+    if (this.state == null || fingerprint(state) != fingerprint) {
+      return false;
+    }
+    for (int i : PIECE_FACELETS) {
+      if (state[i] != this.state[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Returns whether moves, applied to a solved cube, produce this permutation */
+  public boolean matches(Iterable<Move> moves) {
+    int[] state = new int[NUM_FACELETS];
+    MoveTables.reset(state);
+    MoveTables.apply(state, moves, new int[NUM_FACELETS]);
+    return matches(state);
+  }
+}
@@ -0,0 +1,165 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Cheap checks that reject most broken comms before they are
+ *                compared against their expected permutation. A comm is first
+ *                applied to a compact facelet permutation (see MoveTables),
+ *                and the result is checked for invariants every correct
+ *                3-cycle satisfies: the centers are home (which rules out any
+ *                net cube rotation or slice turn; a comm such as
+ *                M E M' E' M' U2 M U2 can leave every edge and corner where it
+ *                belongs while the centers are displaced), the other piece
+ *                type is untouched, every piece outside the three cycled
+ *                pieces is untouched, and the cycled pieces form an even
+ *                permutation. Each rejection gives the same validity a
+ *                sticker-by-sticker check would.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.Arrays;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+final class InvariantFilter {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  // The center facelet of each face, in the middle of its 3x3 block
+  private static final int FACELETS_PER_FACE = 9;
+  private static final int[] CENTERS = new int[MoveTables.NUM_FACELETS / FACELETS_PER_FACE];
+
+  static {
+    for (int face = 0; face < CENTERS.length; face++) {
+      CENTERS[face] = face * FACELETS_PER_FACE + FACELETS_PER_FACE / 2;
+    }
+  }
+
+  /* Facelet layout of one piece type, indexed by Speffz letter */
+  private static class PieceLayout {
+    private final int[] facelets = new int[NUM_LETTERS];
+    private final int[] pieceOfLetter = new int[NUM_LETTERS];
+    private final int[] pieceOfFacelet = new int[MoveTables.NUM_FACELETS];
+    private final int[] firstLetterOfPiece;
+
+    PieceLayout(PieceType pieceType) {
+      Arrays.fill(pieceOfFacelet, -1);
+      int[] firstLetters = new int[NUM_LETTERS];
+      int numPieces = 0;
+      for (int i = 0; i < NUM_LETTERS; i++) {
+        char letter = (char) ('a' + i);
+        facelets[i] = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(letter)
+            : SpeffzUtils.getCornerFacelet(letter);
+
+        // A piece is identified by its alphabetically first sticker
+        char first = letter;
+        for (char sticker : getRelatedStickers(pieceType, letter)) {
+          first = (char) Math.min(first, sticker);
+        }
+        if (first == letter) {
+          firstLetters[numPieces++] = i;
+        }
+      }
+
+      firstLetterOfPiece = Arrays.copyOf(firstLetters, numPieces);
+      for (int piece = 0; piece < numPieces; piece++) {
+        char first = (char) ('a' + firstLetterOfPiece[piece]);
+        for (char sticker : getRelatedStickers(pieceType, first)) {
+          pieceOfLetter[sticker - 'a'] = piece;
+          pieceOfFacelet[facelets[sticker - 'a']] = piece;
+        }
+      }
+    }
+  }
+
+  private static final PieceLayout EDGES = new PieceLayout(PieceType.EDGE);
+  private static final PieceLayout CORNERS = new PieceLayout(PieceType.CORNER);
+
+  private InvariantFilter() {
+  }
+
+  private static Iterable<Character> getRelatedStickers(PieceType pieceType, char letter) {
+    return pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getRelatedEdgeStickersSet(letter)
+        : SpeffzUtils.getRelatedCornerStickersSet(letter);
+  }
+
+  /*
+   * Checks the invariants of a comm whose effect on a solved cube is state.
+   * Returns DISRUPTS_OTHER_PIECES or INCORRECT_CYCLE if an invariant is broken,
+   * or null if the comm still has to be checked in full.
+   */
+  static CommValidity check(int[] state, PieceType pieceType, char buffer, char target1, char target2) {
+    PieceLayout relevant = pieceType.equals(PieceType.EDGE) ? EDGES : CORNERS;
+    PieceLayout other = pieceType.equals(PieceType.EDGE) ? CORNERS : EDGES;
+
+    for (int facelet : CENTERS) {
+      if (state[facelet] != facelet) {
+        return CommValidity.DISRUPTS_OTHER_PIECES;
+      }
+    }
+
+    for (int facelet : other.facelets) {
+      if (state[facelet] != facelet) {
+        return CommValidity.DISRUPTS_OTHER_PIECES;
+      }
+    }
+
+    int bufferPiece = relevant.pieceOfLetter[buffer - 'a'];
+    int piece1 = relevant.pieceOfLetter[target1 - 'a'];
+    int piece2 = relevant.pieceOfLetter[target2 - 'a'];
+    for (int i = 0; i < NUM_LETTERS; i++) {
+      int piece = relevant.pieceOfLetter[i];
+      if (piece == bufferPiece || piece == piece1 || piece == piece2) {
+        continue;
+      }
+      int facelet = relevant.facelets[i];
+      if (state[facelet] != facelet) {
+        return CommValidity.DISRUPTS_OTHER_PIECES;
+      }
+    }
+
+    // Only the three cycled pieces can have moved; a 3-cycle of them is even
+    int[] pieces = { bufferPiece, piece1, piece2 };
+    int[] destinations = new int[pieces.length];
+    for (int k = 0; k < pieces.length; k++) {
+      int facelet = relevant.facelets[relevant.firstLetterOfPiece[pieces[k]]];
+      destinations[k] = relevant.pieceOfFacelet[state[facelet]];
+    }
+    if (!isEvenPermutation(pieces, destinations)) {
+      return CommValidity.INCORRECT_CYCLE;
+    }
+
+    return null;
+  }
+
+  /* Returns whether mapping each pieces[k] to destinations[k] is even */
+  private static boolean isEvenPermutation(int[] pieces, int[] destinations) {
+    boolean[] visited = new boolean[pieces.length];
+    int transpositions = 0;
+    for (int start = 0; start < pieces.length; start++) {
+      if (visited[start]) {
+        continue;
+      }
+      int length = 0;
+      int k = start;
+      while (!visited[k]) {
+        visited[k] = true;
+        length++;
+        k = indexOf(pieces, destinations[k]);
+      }
+      transpositions += length - 1;
+    }
+    return transpositions % 2 == 0;
+  }
+
+  private static int indexOf(int[] pieces, int piece) {
+    for (int k = 0; k < pieces.length; k++) {
+      if (pieces[k] == piece) {
+        return k;
+      }
+    }
+    throw new IllegalStateException("Piece " + piece + " moved outside of the cycle");
+  }
+}
@@ -0,0 +1,195 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  How often each letter pair comes up in the memos traced for
+ *                many cubes (see MemoTracer), along with how often cycle
+ *                breaks, misoriented pieces and parity do. Sampling uniformly
+ *                random cube states estimates how much each cell of a sheet
+ *                is actually used, which is how a sheet's cells are weighted
+ *                for review.
+ *
+ *                sample() traces cubes on several threads, each with its own
+ *                tracer, sampler and statistics, and merges the statistics at
+ *                the end, so the threads share nothing while they run.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class MemoStatistics {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  private final PieceType pieceType;
+  private final char buffer;
+
+  // pairCounts[target1 * NUM_LETTERS + target2] counts the pair target1 target2
+  private final long[] pairCounts = new long[NUM_LETTERS * NUM_LETTERS];
+
+  // Counts of the unpaired last target of memos with parity
+  private final long[] parityCounts = new long[NUM_LETTERS];
+
+  private long samples;
+  private long pairs;
+  private long targets;
+  private long cycleBreaks;
+  private long misoriented;
+  private long parities;
+
+  /* Creates empty statistics for one piece type and buffer */
+  public MemoStatistics(PieceType pieceType, char buffer) {
+    this.pieceType = pieceType;
+    this.buffer = buffer;
+  }
+
+  /*
+   * Traces samples uniformly random cube states on the given number of threads
+   * and returns their statistics. Each thread draws from its own split of
+   * random, so a seeded random and a fixed thread count give the same result
+   * every time.
+   */
+  public static MemoStatistics sample(PieceType pieceType, char buffer, long samples, int threads,
+      RandomStates random) throws InterruptedException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    if (samples < 0) {
+      throw new IllegalArgumentException("Sample count must not be negative, but was " + samples);
+    }
+    List<Callable<MemoStatistics>> tasks = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      long share = samples / threads + (t < samples % threads ? 1 : 0);
+      RandomStates split = random.split();
+      tasks.add(() -> sample(pieceType, buffer, share, split));
+    }
+
+    MemoStatistics statistics = new MemoStatistics(pieceType, buffer);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for (Future<MemoStatistics> future : pool.invokeAll(tasks)) {
+        try {
+          statistics.merge(future.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return statistics;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /* Traces samples random states on the calling thread */
+  private static MemoStatistics sample(PieceType pieceType, char buffer, long samples, RandomStates random) {
+    MemoStatistics statistics = new MemoStatistics(pieceType, buffer);
+    MemoTracer tracer = new MemoTracer(pieceType, buffer);
+    MemoTracer.Memo memo = new MemoTracer.Memo();
+    int[] state = new int[MoveTables.NUM_FACELETS];
+    for (long k = 0; k < samples; k++) {
+      random.next(state);
+      statistics.add(tracer.trace(state, memo));
+    }
+    return statistics;
+  }
+
+  /* Adds one traced memo */
+  public void add(MemoTracer.Memo memo) {
+    int length = memo.getLength();
+    for (int i = 0; i + 1 < length; i += 2) {
+      pairCounts[(memo.getTarget(i) - 'a') * NUM_LETTERS + (memo.getTarget(i + 1) - 'a')]++;
+      pairs++;
+    }
+    if (memo.hasParity()) {
+      parityCounts[memo.getTarget(length - 1) - 'a']++;
+      parities++;
+    }
+    for (int i = 0; i < length; i++) {
+      if (memo.isCycleBreak(i)) {
+        cycleBreaks++;
+      }
+    }
+    targets += length;
+    misoriented += memo.getNumMisoriented();
+    samples++;
+  }
+
+  /* Adds every memo counted by other, which must be for the same piece type and buffer */
+  public void merge(MemoStatistics other) {
+    if (other.pieceType != pieceType || other.buffer != buffer) {
+      throw new IllegalArgumentException("Cannot merge statistics for different piece types or buffers");
+    }
+    for (int i = 0; i < pairCounts.length; i++) {
+      pairCounts[i] += other.pairCounts[i];
+    }
+    for (int i = 0; i < parityCounts.length; i++) {
+      parityCounts[i] += other.parityCounts[i];
+    }
+    samples += other.samples;
+    pairs += other.pairs;
+    targets += other.targets;
+    cycleBreaks += other.cycleBreaks;
+    misoriented += other.misoriented;
+    parities += other.parities;
+  }
+
+  /* Returns how many times the pair target1 target2 came up */
+  public long getPairCount(char target1, char target2) {
+    return pairCounts[(target1 - 'a') * NUM_LETTERS + (target2 - 'a')];
+  }
+
+  /* Returns the share of all letter pairs that were target1 target2, or 0 if there were none */
+  public double getPairFrequency(char target1, char target2) {
+    return pairs == 0 ? 0 : (double) getPairCount(target1, target2) / pairs;
+  }
+
+  /* Returns how many times target was left unpaired by parity */
+  public long getParityCount(char target) {
+    return parityCounts[target - 'a'];
+  }
+
+  public long getSamples() {
+    return samples;
+  }
+
+  public long getPairs() {
+    return pairs;
+  }
+
+  public double getMeanTargets() {
+    return samples == 0 ? 0 : (double) targets / samples;
+  }
+
+  public double getMeanCycleBreaks() {
+    return samples == 0 ? 0 : (double) cycleBreaks / samples;
+  }
+
+  public double getMeanMisoriented() {
+    return samples == 0 ? 0 : (double) misoriented / samples;
+  }
+
+  /* Returns the share of memos with parity */
+  public double getParityRate() {
+    return samples == 0 ? 0 : (double) parities / samples;
+  }
+
+  public PieceType getPieceType() {
+    return pieceType;
+  }
+
+  public char getBuffer() {
+    return buffer;
+  }
+}
@@ -0,0 +1,281 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Traces the targets a blindfolded solver would memorize for
+ *                one piece type and buffer. Starting from the sticker in the
+ *                buffer, each target is the home of the sticker now at the
+ *                previous target, so every pair of targets is one cell of the
+ *                buffer's sheet: the comm that sends buffer -> target1 ->
+ *                target2.
+ *
+ *                Whenever the buffer piece comes home before every piece is
+ *                solved, the trace breaks into a new cycle at the first
+ *                unsolved piece in alphabetical order. Pieces that are home
+ *                but flipped or twisted, with the buffer solved, are not
+ *                traced but listed separately. An odd number of targets means
+ *                the solve has parity.
+ *
+ *                A tracer reuses its own scratch space and fills a Memo that
+ *                the caller reuses too, so tracing does not allocate. Each
+ *                tracer is meant to be used by one thread.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.Set;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.Cube;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class MemoTracer {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  // Every piece is traced to at most twice, even with cycle breaks
+  private static final int MAX_TARGETS = 2 * NUM_LETTERS;
+
+  /* The targets traced for one cube, reused from one trace to the next */
+  public static final class Memo {
+    private final char[] targets = new char[MAX_TARGETS];
+    private final boolean[] cycleBreaks = new boolean[MAX_TARGETS];
+    private final char[] misoriented = new char[NUM_LETTERS];
+    private int length;
+    private int numMisoriented;
+
+    private void clear() {
+      length = 0;
+      numMisoriented = 0;
+    }
+
+    private void add(char target, boolean cycleBreak) {
+      if (length == MAX_TARGETS) {
+        throw new IllegalArgumentException("Cube state is not solvable");
+      }
+      targets[length] = target;
+      cycleBreaks[length] = cycleBreak;
+      length++;
+    }
+
+    /* Returns the number of targets, including cycle breaks */
+    public int getLength() {
+      return length;
+    }
+
+    public char getTarget(int i) {
+      return targets[i];
+    }
+
+    /* Returns whether the i-th target starts a new cycle */
+    public boolean isCycleBreak(int i) {
+      return cycleBreaks[i];
+    }
+
+    /* Returns the number of pieces that are home but flipped or twisted */
+    public int getNumMisoriented() {
+      return numMisoriented;
+    }
+
+    /*
+     * Returns where the alphabetically first sticker of the i-th misoriented
+     * piece is, e.g. 'i' for UF flipped in place.
+     */
+    public char getMisoriented(int i) {
+      return misoriented[i];
+    }
+
+    /* Returns whether the targets are odd in number, leaving the last one unpaired */
+    public boolean hasParity() {
+      return length % 2 == 1;
+    }
+
+    /* Returns the targets as letter pairs, e.g. "BJ MR K (cycle breaks: M; misoriented: I; parity)" */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < length; i++) {
+        if (i > 0 && i % 2 == 0) {
+          sb.append(' ');
+        }
+        sb.append(Character.toUpperCase(targets[i]));
+      }
+
+      StringBuilder details = new StringBuilder();
+      for (int i = 0; i < length; i++) {
+        if (cycleBreaks[i]) {
+          details.append(details.length() == 0 ? "cycle breaks: " : ", ");
+          details.append(Character.toUpperCase(targets[i]));
+        }
+      }
+      for (int i = 0; i < numMisoriented; i++) {
+        details.append(i == 0 ? (details.length() == 0 ? "" : "; ") + "misoriented: " : ", ");
+        details.append(Character.toUpperCase(misoriented[i]));
+      }
+      if (hasParity()) {
+        details.append(details.length() == 0 ? "" : "; ").append("parity");
+      }
+      if (details.length() > 0) {
+        sb.append(sb.length() == 0 ? "" : " ").append('(').append(details).append(')');
+      }
+      return sb.toString();
+    }
+  }
+
+  private final PieceType pieceType;
+  private final char buffer;
+
+  // Stickers of the piece each letter is on, starting with that letter (see ExpectedPermutation)
+  private final char[][] order = new char[NUM_LETTERS][];
+
+  // The alphabetically first sticker of the piece each letter is on
+  private final char[] piece = new char[NUM_LETTERS];
+
+  // The letter of each edge or corner facelet of this piece type, or 0
+  private final char[] letterAt = new char[MoveTables.NUM_FACELETS];
+
+  private final char[] report = new char[NUM_LETTERS];
+  private final char[] current = new char[NUM_LETTERS];
+
+  /* Creates a tracer for one piece type and buffer */
+  public MemoTracer(PieceType pieceType, char buffer) {
+    if (!SpeffzUtils.isValidSpeffzLetter(buffer)) {
+      throw new IllegalArgumentException("Illegal buffer: " + buffer);
+    }
+    this.pieceType = pieceType;
+    this.buffer = buffer;
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      order[c - 'a'] = ExpectedPermutation.getStickerOrder(pieceType, c);
+      Set<Character> related = CommSheetValidator.getRelatedStickersSet(pieceType, c);
+      char first = c;
+      for (char other : related) {
+        first = (char) Math.min(first, other);
+      }
+      piece[c - 'a'] = first;
+      int facelet = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(c)
+          : SpeffzUtils.getCornerFacelet(c);
+      letterAt[facelet] = c;
+    }
+  }
+
+  /*
+   * Traces the cube, which must have the standard orientation, into memo and
+   * returns it.
+   */
+  public Memo trace(Cube cube, Memo memo) {
+    if (pieceType.equals(PieceType.EDGE)) {
+      SpeffzUtils.edgeReport(cube, report);
+    } else {
+      SpeffzUtils.cornerReport(cube, report);
+    }
+    return trace(report, memo);
+  }
+
+  /*
+   * Traces a facelet state (see MoveTables), which must have its centers
+   * solved, into memo and returns it.
+   */
+  public Memo trace(int[] state, Memo memo) {
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      int facelet = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(c)
+          : SpeffzUtils.getCornerFacelet(c);
+      report[c - 'a'] = letterAt[state[facelet]];
+      if (report[c - 'a'] == 0) {
+        throw new IllegalArgumentException("State has a non-" + pieceType.name().toLowerCase()
+            + " facelet at " + c);
+      }
+    }
+    return trace(report, memo);
+  }
+
+  /*
+   * Traces a sticker report (see SpeffzUtils.edgeReport), in which position i
+   * holds the sticker now at letter 'a' + i, into memo and returns it. Throws an
+   * IllegalArgumentException if the report is not a solvable state.
+   */
+  public Memo trace(char[] report, Memo memo) {
+    for (int i = 0; i < NUM_LETTERS; i++) {
+      if (!SpeffzUtils.isValidSpeffzLetter(report[i])) {
+        throw new IllegalArgumentException("Report has an illegal letter at " + (char) ('a' + i));
+      }
+      current[i] = report[i];
+    }
+    memo.clear();
+    char bufferPiece = piece[buffer - 'a'];
+
+    while (true) {
+      char sticker = current[buffer - 'a'];
+      if (piece[sticker - 'a'] != bufferPiece) {
+        memo.add(sticker, false);
+        swap(sticker);
+        continue;
+      }
+
+      boolean bufferSolved = sticker == buffer;
+      char next = findCycleBreak(bufferPiece, false);
+      if (next == 0 && !bufferSolved) {
+        // Only a misoriented piece can take the buffer's misorientation
+        next = findCycleBreak(bufferPiece, true);
+        if (next == 0) {
+          throw new IllegalArgumentException("Cube state is not solvable");
+        }
+      }
+      if (next == 0) {
+        break;
+      }
+      memo.add(next, true);
+      swap(next);
+    }
+
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      if (piece[c - 'a'] == c && current[c - 'a'] != c) {
+        for (char position : order[c - 'a']) {
+          if (current[position - 'a'] == c) {
+            memo.misoriented[memo.numMisoriented++] = position;
+          }
+        }
+      }
+    }
+    return memo;
+  }
+
+  /*
+   * Returns the first sticker of the first unsolved piece other than the
+   * buffer's, or 0 if there is none. Pieces that are home but misoriented only
+   * count if misoriented is true, and then only they count.
+   */
+  private char findCycleBreak(char bufferPiece, boolean misoriented) {
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      if (piece[c - 'a'] != c || c == bufferPiece || current[c - 'a'] == c) {
+        continue;
+      }
+      boolean home = piece[current[c - 'a'] - 'a'] == c;
+      if (home == misoriented) {
+        return c;
+      }
+    }
+    return 0;
+  }
+
+  /*
+   * Swaps the piece in the buffer with the piece at target, so that the sticker
+   * in the buffer lands on target.
+   */
+  private void swap(char target) {
+    char[] from = order[buffer - 'a'];
+    char[] to = order[target - 'a'];
+    for (int k = 0; k < from.length; k++) {
+      char swap = current[from[k] - 'a'];
+      current[from[k] - 'a'] = current[to[k] - 'a'];
+      current[to[k] - 'a'] = swap;
+    }
+  }
+
+  public PieceType getPieceType() {
+    return pieceType;
+  }
+
+  public char getBuffer() {
+    return buffer;
+  }
+}
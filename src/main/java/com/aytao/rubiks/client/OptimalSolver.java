@@ -0,0 +1,312 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Finds the shortest alg for a case in a given metric, so that
+ *                comms can be scored against it. The search is IDA*: depth-
+ *                first searches with an increasing bound on the length, each
+ *                cut off wherever the moves made so far plus a lower bound on
+ *                the moves left exceed the bound. The lower bound comes from a
+ *                PruningTable, which knows the exact distance of every state
+ *                near solved, so the search also stops as soon as it reaches
+ *                one of those states, and finishes by walking down the table.
+ *
+ *                Weighting the lower bound makes the search faster but only
+ *                bounded-suboptimal: with weight w, the alg found is at most w
+ *                times as long as the shortest one.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.Metric;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+
+public final class OptimalSolver implements AutoCloseable {
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+
+  private final Metric metric;
+  private final Move[] moves;
+  private final PruningTable table;
+  // Whether close() should close the table, which is only so for tables the solver opened itself
+  private final boolean ownsTable;
+
+  /* Creates a solver for the table's metric. The table stays open when the solver is closed */
+  public OptimalSolver(PruningTable table) {
+    this(table, false);
+  }
+
+  private OptimalSolver(PruningTable table, boolean ownsTable) {
+    this.metric = table.getMetric();
+    this.moves = metric.getSolverMoves();
+    this.table = table;
+    this.ownsTable = ownsTable;
+  }
+
+  /*
+   * Returns the default pruning table depth for a metric, which keeps each
+   * table to a few million states.
+   */
+  public static int defaultTableDepth(Metric metric) {
+    switch (metric) {
+      case QTM:
+        return 6;
+      case STM:
+        return 4;
+      default:
+        return 5;
+    }
+  }
+
+  /* Opens (or first generates) the default pruning table for metric and returns a solver using it */
+  public static OptimalSolver open(Metric metric) throws IOException {
+    return open(metric, PersistentResultCache.defaultPath());
+  }
+
+  /*
+   * Returns a solver for metric whose pruning table is kept in the directory
+   * of cacheFile (see PruningTable.pathNextTo), or, if cacheFile is null, is
+   * generated in memory and never saved.
+   */
+  public static OptimalSolver open(Metric metric, Path cacheFile) throws IOException {
+    int depth = defaultTableDepth(metric);
+    if (cacheFile == null) {
+      return new OptimalSolver(PruningTable.generateInMemory(metric, depth), true);
+    }
+    return new OptimalSolver(PruningTable.open(PruningTable.pathNextTo(cacheFile, metric, depth), metric, depth),
+        true);
+  }
+
+  /* Closes the pruning table if the solver opened it */
+  @Override
+  public void close() throws IOException {
+    if (ownsTable) {
+      table.close();
+    }
+  }
+
+  /*****************************************************************************
+   * Solving
+   ****************************************************************************/
+
+  /* The state of one IDA* search */
+  private static class Search {
+    private final int[][] states;
+    private final int[] path;
+    private final int[] scratch = new int[NUM_FACELETS];
+    private final int maxLength;
+    private final double weight;
+    private double nextThreshold;
+    private List<Move> solution;
+
+    Search(int maxLength, double weight) {
+      this.states = new int[maxLength + 1][NUM_FACELETS];
+      this.path = new int[maxLength];
+      this.maxLength = maxLength;
+      this.weight = weight;
+    }
+  }
+
+  /*
+   * Returns a shortest alg that cycles buffer -> target1 -> target2, or null
+   * if every alg for the case is longer than maxLength. Throws an
+   * IllegalArgumentException if the three stickers do not make a 3-cycle.
+   */
+  public List<Move> solve(PieceType pieceType, char buffer, char target1, char target2, int maxLength) {
+    return solve(pieceType, buffer, target1, target2, maxLength, 1);
+  }
+
+  /* As above, but finds an alg at most weight times as long as the shortest */
+  public List<Move> solve(PieceType pieceType, char buffer, char target1, char target2, int maxLength,
+      double weight) {
+    int[] target = ExpectedPermutation.threeCycle(pieceType, buffer, target1, target2).getState();
+    if (target == null) {
+      throw new IllegalArgumentException("Stickers " + buffer + ", " + target1 + " and " + target2
+          + " do not make a 3-cycle");
+    }
+    return solve(target, maxLength, weight);
+  }
+
+  /*
+   * Returns an alg at most weight times as long as the shortest alg that
+   * produces the facelet state target from solved, or null if there is none
+   * of at most maxLength moves.
+   */
+  public List<Move> solve(int[] target, int maxLength, double weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("Weight must be at least 1, but was " + weight);
+    }
+    Search search = new Search(maxLength, weight);
+
+    // An alg X produces target exactly when it solves the inverse of target
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      search.states[0][target[i]] = i;
+    }
+
+    double threshold = weight * heuristic(search.states[0]);
+    while (threshold <= maxLength * weight && search.solution == null) {
+      search.nextThreshold = Double.POSITIVE_INFINITY;
+      search(search, 0, threshold, -1, -1);
+      threshold = search.nextThreshold;
+    }
+
+    if (search.solution != null) {
+      int[] state = new int[NUM_FACELETS];
+      MoveTables.reset(state);
+      MoveTables.apply(state, search.solution, search.scratch);
+      if (!Arrays.equals(state, target)) {
+        throw new IllegalStateException("Solver found " + search.solution + ", which does not produce the target");
+      }
+    }
+    return search.solution;
+  }
+
+  /* Lower bound on the moves needed to solve state, which is exact if it is in the table */
+  private int heuristic(int[] state) {
+    int distance = table.distance(PruningTable.fingerprint(state));
+    return distance >= 0 ? distance : table.getDepth() + 1;
+  }
+
+  private boolean search(Search search, int g, double threshold, int before, int previous) {
+    int[] state = search.states[g];
+    int distance = table.distance(PruningTable.fingerprint(state));
+    int h = distance >= 0 ? distance : table.getDepth() + 1;
+    double f = g + search.weight * h;
+    if (f > threshold) {
+      search.nextThreshold = Math.min(search.nextThreshold, f);
+      return false;
+    }
+    if (distance >= 0) {
+      if (g + distance > search.maxLength) {
+        return false;
+      }
+      List<Move> solution = new ArrayList<>();
+      for (int k = 0; k < g; k++) {
+        solution.add(moves[search.path[k]]);
+      }
+      if (finish(state.clone(), distance, solution, search.scratch)) {
+        search.solution = solution;
+        return true;
+      }
+      // Only a fingerprint collision can leave a state without a closer neighbour
+      return false;
+    }
+    if (g == search.maxLength) {
+      return false;
+    }
+
+    for (int m = 0; m < moves.length; m++) {
+      if (!canFollow(metric, moves, before, previous, m)) {
+        continue;
+      }
+      System.arraycopy(state, 0, search.states[g + 1], 0, NUM_FACELETS);
+      MoveTables.apply(search.states[g + 1], moves[m], search.scratch);
+      search.path[g] = m;
+      if (search(search, g + 1, threshold, previous, m)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Solves a state that is distance moves from solved by repeatedly making a
+   * move to a state one move closer, appending the moves to solution.
+   */
+  private boolean finish(int[] state, int distance, List<Move> solution, int[] scratch) {
+    int[] next = new int[NUM_FACELETS];
+    for (int d = distance; d > 0; d--) {
+      boolean found = false;
+      for (int m = 0; m < moves.length && !found; m++) {
+        System.arraycopy(state, 0, next, 0, NUM_FACELETS);
+        MoveTables.apply(next, moves[m], scratch);
+        if (table.distance(PruningTable.fingerprint(next)) == d - 1) {
+          System.arraycopy(next, 0, state, 0, NUM_FACELETS);
+          solution.add(moves[m]);
+          found = true;
+        }
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Solves each case on the given number of threads, as with solve. Each case
+   * is a {target1, target2} pair for the buffer, with its own length limit.
+   */
+  public List<List<Move>> solveAll(PieceType pieceType, char buffer, List<char[]> cases, int[] maxLengths,
+      int threads) throws InterruptedException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    List<Callable<List<Move>>> tasks = new ArrayList<>();
+    for (int k = 0; k < cases.size(); k++) {
+      char[] targets = cases.get(k);
+      int maxLength = maxLengths[k];
+      tasks.add(() -> solve(pieceType, buffer, targets[0], targets[1], maxLength));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<List<Move>> solutions = new ArrayList<>();
+      for (Future<List<Move>> future : pool.invokeAll(tasks)) {
+        try {
+          solutions.add(future.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return solutions;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /*****************************************************************************
+   * Move order
+   ****************************************************************************/
+
+  /*
+   * Whether moves[next] may follow moves[previous], which followed
+   * moves[before] (either may be -1 at the start). Moves about one axis
+   * commute, so they are only tried in one order, and a layer is never turned
+   * twice in a row, except that QTM has no half turns and turns R2 as R R.
+   */
+  static boolean canFollow(Metric metric, Move[] moves, int before, int previous, int next) {
+    if (previous < 0) {
+      return true;
+    }
+    Move p = moves[previous];
+    Move n = moves[next];
+    if (CommFinder.getAxis(p) != CommFinder.getAxis(n)) {
+      return true;
+    }
+    if (CommFinder.getLayer(p) != CommFinder.getLayer(n)) {
+      return CommFinder.getLayer(p) < CommFinder.getLayer(n);
+    }
+    boolean clockwise = p.ordinal() % 3 == 0;
+    return metric == Metric.QTM && p == n && clockwise
+        && (before < 0 || CommFinder.getLayer(moves[before]) != CommFinder.getLayer(p));
+  }
+
+  public Metric getMetric() {
+    return metric;
+  }
+}
@@ -0,0 +1,221 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A disk-backed cache of cell validities that persists across
+ *                runs and can be shared by several processes at once. The
+ *                cache is a memory-mapped file holding a header followed by a
+ *                fixed number of 8-byte slots. Each slot packs a 56-bit hash
+ *                of (normalized comm text, piece type, buffer, targets, engine
+ *                version) with the cell's validity in the low byte, so a slot
+ *                is always written with a single aligned 8-byte store and
+ *                readers in other processes never see a torn entry.
+ *
+ *                Lookups probe a small window of slots after the hash's home
+ *                slot. When the window is full, one of its slots (picked from
+ *                the hash) is overwritten, so the file never grows and stale
+ *                entries are evicted over time. Entries from an older engine
+ *                version simply stop matching and are evicted the same way.
+ *                A file with a different layout is reinitialized.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+
+public class PersistentResultCache implements AutoCloseable {
+  /*
+   * Version of the validation logic. Bump whenever a change could alter the
+   * validity of an already-cached comm, so that old entries stop matching.
+   */
+  public static final int ENGINE_VERSION = 2;
+
+  private static final long MAGIC = 0x434f4d4d43414348L; // "COMMCACH"
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 8;
+  private static final int DEFAULT_NUM_SLOTS = 1 << 18;
+  private static final int PROBE_LIMIT = 8;
+
+  private static final long VALUE_MASK = 0xFFL;
+  private static final CommValidity[] VALIDITIES = CommValidity.values();
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int numSlots;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private PersistentResultCache(FileChannel channel, MappedByteBuffer buffer, int numSlots) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.numSlots = numSlots;
+  }
+
+  /* Returns the default cache location, in the user's home directory */
+  public static Path defaultPath() {
+    return Paths.get(System.getProperty("user.home"), ".comm-sheet-validator", "results.cache");
+  }
+
+  public static PersistentResultCache open(Path path) throws IOException {
+    return open(path, DEFAULT_NUM_SLOTS);
+  }
+
+  /*
+   * Opens the cache file at path, creating or reinitializing it with numSlots
+   * slots (a power of two) if it does not already have that layout.
+   */
+  public static PersistentResultCache open(Path path, int numSlots) throws IOException {
+    if (Integer.bitCount(numSlots) != 1) {
+      throw new IllegalArgumentException("Number of slots must be a power of two, but was " + numSlots);
+    }
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      long size = HEADER_BYTES + (long) numSlots * SLOT_BYTES;
+      MappedByteBuffer buffer;
+      // Only one process may check or initialize the header at a time
+      FileLock lock = channel.lock();
+      try {
+        boolean valid = channel.size() == size;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        valid = valid && buffer.getLong(0) == MAGIC && buffer.getInt(8) == FORMAT_VERSION
+            && buffer.getInt(12) == numSlots;
+        if (!valid) {
+          for (long offset = HEADER_BYTES; offset < size; offset += SLOT_BYTES) {
+            buffer.putLong((int) offset, 0L);
+          }
+          buffer.putInt(8, FORMAT_VERSION);
+          buffer.putInt(12, numSlots);
+          buffer.putLong(0, MAGIC);
+          buffer.force();
+        }
+      } finally {
+        lock.release();
+      }
+      return new PersistentResultCache(channel, buffer, numSlots);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /* Returns the cached validity of the cell, or null if it is not cached */
+  public CommValidity get(CharSequence commText, PieceType pieceType, char buffer, char target1, char target2) {
+    long key = key(commText, pieceType, buffer, target1, target2);
+    int home = (int) (key >>> 8) & (numSlots - 1);
+
+    for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+      long slot = this.buffer.getLong(slotOffset(home + probe));
+      if (slot == 0) {
+        break;
+      }
+      if ((slot & ~VALUE_MASK) == key) {
+        int ordinal = (int) (slot & VALUE_MASK) - 1;
+        if (ordinal >= 0 && ordinal < VALIDITIES.length) {
+          hits.increment();
+          return VALIDITIES[ordinal];
+        }
+      }
+    }
+
+    misses.increment();
+    return null;
+  }
+
+  /* Stores the validity of the cell, evicting another entry if needed */
+  public void put(CharSequence commText, PieceType pieceType, char buffer, char target1, char target2,
+      CommValidity validity) {
+    long key = key(commText, pieceType, buffer, target1, target2);
+    long entry = key | (validity.ordinal() + 1);
+    int home = (int) (key >>> 8) & (numSlots - 1);
+
+    for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+      int offset = slotOffset(home + probe);
+      long slot = this.buffer.getLong(offset);
+      if (slot == 0 || (slot & ~VALUE_MASK) == key) {
+        this.buffer.putLong(offset, entry);
+        return;
+      }
+    }
+
+    int victim = (int) (key >>> 40) & (PROBE_LIMIT - 1);
+    this.buffer.putLong(slotOffset(home + victim), entry);
+  }
+
+  private int slotOffset(int slot) {
+    return HEADER_BYTES + (slot & (numSlots - 1)) * SLOT_BYTES;
+  }
+
+  /*
+   * Returns the 56-bit hash of a cell in the high bits of a long, with the low
+   * byte cleared for the validity. Comm text is normalized by collapsing runs of
+   * whitespace, so reformatting a cell does not invalidate its entry.
+   */
+  private static long key(CharSequence commText, PieceType pieceType, char buffer, char target1, char target2) {
+    long hash = 0xcbf29ce484222325L;
+    boolean pendingSpace = false;
+    boolean started = false;
+    for (int i = 0; i < commText.length(); i++) {
+      char c = commText.charAt(i);
+      if (Character.isWhitespace(c)) {
+        pendingSpace = started;
+        continue;
+      }
+      if (pendingSpace) {
+        hash = (hash ^ ' ') * 0x100000001b3L;
+        pendingSpace = false;
+      }
+      hash = (hash ^ c) * 0x100000001b3L;
+      started = true;
+    }
+
+    hash = (hash ^ 0xFFFF) * 0x100000001b3L;
+    hash = (hash ^ pieceType.ordinal()) * 0x100000001b3L;
+    hash = (hash ^ buffer) * 0x100000001b3L;
+    hash = (hash ^ target1) * 0x100000001b3L;
+    hash = (hash ^ target2) * 0x100000001b3L;
+    hash = (hash ^ ENGINE_VERSION) * 0x100000001b3L;
+
+    // Finalize so that every input bit affects the slot index
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    hash &= ~VALUE_MASK;
+    return hash == 0 ? 1L << 8 : hash;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+}
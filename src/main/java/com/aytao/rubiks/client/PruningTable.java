@@ -0,0 +1,293 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The exact distance from solved of every cube state within a
+ *                given number of moves of it, for one metric (see Metric).
+ *                OptimalSolver uses it as its heuristic: a state in the table
+ *                is exactly that many moves from solved, and any other state
+ *                is further away than the table reaches.
+ *
+ *                States are stored by a 64-bit fingerprint of their facelet
+ *                permutation (see MoveTables), centers included. The table is
+ *                generated once, by a search from the solved state, and saved
+ *                as a file holding a header followed by 8-byte slots. Each
+ *                slot packs the high 56 bits of a fingerprint with the state's
+ *                distance in the low byte, as PersistentResultCache does.
+ *                Later runs memory-map the file read-only instead of
+ *                generating it again, and threads can share one table.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import com.aytao.rubiks.cube.Metric;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+
+public final class PruningTable implements AutoCloseable {
+  private static final long MAGIC = 0x434f4d4d5052554eL; // "COMMPRUN"
+  // Version 2: STM tables include wide turns
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_BYTES = 64;
+  private static final int SLOT_BYTES = 8;
+  private static final long VALUE_MASK = 0xFFL;
+
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+
+  // Random keys for fingerprinting, one per (position, facelet) pair. The seed
+  // is fixed, since saved tables depend on it
+  private static final long[] KEYS = new long[NUM_FACELETS * NUM_FACELETS];
+
+  static {
+    SplittableRandom random = new SplittableRandom(0x7ab1e5eedL);
+    for (int i = 0; i < KEYS.length; i++) {
+      KEYS[i] = random.nextLong();
+    }
+  }
+
+  private final Metric metric;
+  private final int depth;
+  private final int numSlots;
+  private final ByteBuffer buffer;
+  private final FileChannel channel;
+
+  private PruningTable(Metric metric, int depth, ByteBuffer buffer, FileChannel channel) {
+    this.metric = metric;
+    this.depth = depth;
+    this.numSlots = buffer.getInt(20);
+    this.buffer = buffer;
+    this.channel = channel;
+  }
+
+  /* Returns the default location of the table for a metric and depth, next to the default result cache */
+  public static Path defaultPath(Metric metric, int depth) {
+    return pathNextTo(PersistentResultCache.defaultPath(), metric, depth);
+  }
+
+  /* Returns the location of the table for a metric and depth in the same directory as cacheFile */
+  public static Path pathNextTo(Path cacheFile, Metric metric, int depth) {
+    return cacheFile.toAbsolutePath().resolveSibling("pruning-" + metric.name().toLowerCase() + "-" + depth
+        + ".table");
+  }
+
+  /*
+   * Memory-maps the table for metric and depth saved at path, first generating
+   * and saving it if there is no such table there yet. If the table cannot be
+   * saved, it is kept in memory instead.
+   */
+  public static PruningTable open(Path path, Metric metric, int depth) throws IOException {
+    if (depth < 0 || depth > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Illegal pruning table depth: " + depth);
+    }
+    if (Files.exists(path)) {
+      PruningTable table = map(path, metric, depth);
+      if (table != null) {
+        return table;
+      }
+    }
+
+    ByteBuffer image = generate(metric, depth);
+    try {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      // Another process may be generating the same table, so only whole files are moved into place
+      Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        image.rewind();
+        while (image.hasRemaining()) {
+          out.write(image);
+        }
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      PruningTable table = map(path, metric, depth);
+      if (table != null) {
+        return table;
+      }
+    } catch (IOException e) {
+      System.err.println("Warning: not saving pruning table '" + path + "': " + e.getMessage());
+    }
+    return new PruningTable(metric, depth, image, null);
+  }
+
+  /* Generates the table for metric and depth in memory, without reading or saving a file */
+  public static PruningTable generateInMemory(Metric metric, int depth) {
+    if (depth < 0 || depth > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("Illegal pruning table depth: " + depth);
+    }
+    return new PruningTable(metric, depth, generate(metric, depth), null);
+  }
+
+  /* Maps the table saved at path, or returns null if it is not a table for metric and depth */
+  private static PruningTable map(Path path, Metric metric, int depth) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size >= HEADER_BYTES) {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        boolean valid = buffer.getLong(0) == MAGIC && buffer.getInt(8) == FORMAT_VERSION
+            && buffer.getInt(12) == metric.ordinal() && buffer.getInt(16) == depth
+            && size == HEADER_BYTES + (long) buffer.getInt(20) * SLOT_BYTES;
+        if (valid) {
+          return new PruningTable(metric, depth, buffer, channel);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    channel.close();
+    return null;
+  }
+
+  /*****************************************************************************
+   * Generation
+   ****************************************************************************/
+
+  /* A growable open-addressing set of entries, used while generating */
+  private static class Entries {
+    private long[] slots = new long[1 << 16];
+    private int size;
+
+    /* Records a state at a distance, unless it is already known to be closer */
+    void put(long key, int distance) {
+      int index = find(slots, key);
+      if (slots[index] == 0) {
+        slots[index] = key | distance;
+        if (++size * 2 > slots.length) {
+          grow();
+        }
+      } else if ((slots[index] & VALUE_MASK) > distance) {
+        slots[index] = key | distance;
+      }
+    }
+
+    private void grow() {
+      long[] old = slots;
+      slots = new long[old.length * 2];
+      for (long slot : old) {
+        if (slot != 0) {
+          slots[find(slots, slot & ~VALUE_MASK)] = slot;
+        }
+      }
+    }
+
+    private static int find(long[] slots, long key) {
+      int mask = slots.length - 1;
+      int index = (int) (key >>> 8) & mask;
+      while (slots[index] != 0 && (slots[index] & ~VALUE_MASK) != key) {
+        index = (index + 1) & mask;
+      }
+      return index;
+    }
+  }
+
+  /* Generates the file image of a table by a depth-first search from solved */
+  private static ByteBuffer generate(Metric metric, int depth) {
+    Move[] moves = metric.getSolverMoves();
+    int[][] states = new int[depth + 1][NUM_FACELETS];
+    MoveTables.reset(states[0]);
+    Entries entries = new Entries();
+    entries.put(key(fingerprint(states[0])), 0);
+    fill(entries, metric, moves, states, new int[NUM_FACELETS], 0, depth, -1, -1);
+
+    int numSlots = entries.slots.length;
+    ByteBuffer image = ByteBuffer.allocate(HEADER_BYTES + numSlots * SLOT_BYTES);
+    image.order(ByteOrder.LITTLE_ENDIAN);
+    image.putLong(0, MAGIC);
+    image.putInt(8, FORMAT_VERSION);
+    image.putInt(12, metric.ordinal());
+    image.putInt(16, depth);
+    image.putInt(20, numSlots);
+    image.putInt(24, entries.size);
+    for (int i = 0; i < numSlots; i++) {
+      image.putLong(HEADER_BYTES + i * SLOT_BYTES, entries.slots[i]);
+    }
+    return image;
+  }
+
+  private static void fill(Entries entries, Metric metric, Move[] moves, int[][] states, int[] scratch, int g,
+      int depth, int before, int previous) {
+    if (g == depth) {
+      return;
+    }
+    for (int m = 0; m < moves.length; m++) {
+      if (!OptimalSolver.canFollow(metric, moves, before, previous, m)) {
+        continue;
+      }
+      System.arraycopy(states[g], 0, states[g + 1], 0, NUM_FACELETS);
+      MoveTables.apply(states[g + 1], moves[m], scratch);
+      entries.put(key(fingerprint(states[g + 1])), g + 1);
+      fill(entries, metric, moves, states, scratch, g + 1, depth, previous, m);
+    }
+  }
+
+  /*****************************************************************************
+   * Lookups
+   ****************************************************************************/
+
+  /* Returns the 64-bit fingerprint of a facelet state, centers included */
+  public static long fingerprint(int[] state) {
+    long hash = 0;
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      hash ^= KEYS[i * NUM_FACELETS + state[i]];
+    }
+    return hash;
+  }
+
+  /* Returns the fingerprint's high 56 bits, never all zero, leaving the low byte for the distance */
+  private static long key(long fingerprint) {
+    long key = fingerprint & ~VALUE_MASK;
+    return key == 0 ? 1L << 8 : key;
+  }
+
+  /*
+   * Returns how many moves the state with the given fingerprint is from solved,
+   * or -1 if it is more than getDepth() moves away.
+   */
+  public int distance(long fingerprint) {
+    long key = key(fingerprint);
+    int mask = numSlots - 1;
+    for (int index = (int) (key >>> 8) & mask;; index = (index + 1) & mask) {
+      long slot = buffer.getLong(HEADER_BYTES + index * SLOT_BYTES);
+      if (slot == 0) {
+        return -1;
+      }
+      if ((slot & ~VALUE_MASK) == key) {
+        return (int) (slot & VALUE_MASK);
+      }
+    }
+  }
+
+  /* Returns the number of states in the table */
+  public int size() {
+    return buffer.getInt(24);
+  }
+
+  public Metric getMetric() {
+    return metric;
+  }
+
+  /* Returns the furthest distance from solved that the table covers */
+  public int getDepth() {
+    return depth;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+}
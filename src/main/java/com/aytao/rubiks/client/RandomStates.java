@@ -0,0 +1,144 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Samples cube states uniformly at random, as facelet states
+ *                (see MoveTables), by drawing the permutation and orientation
+ *                of every corner and edge directly rather than by applying
+ *                random moves. Only solvable states are drawn: the corner and
+ *                edge permutations have the same parity, corner twists sum
+ *                to 0 mod 3 and edge flips sum to 0 mod 2.
+ *
+ *                Orientations are counted from each piece's U or D sticker,
+ *                or for the four E-slice edges, its F or B sticker. Like
+ *                Scrambler, each instance has its own SplittableRandom and is
+ *                meant to be used by one thread; use split() for others.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.SplittableRandom;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class RandomStates {
+  // The sticker each piece's orientation is counted from
+  private static final String CORNER_REFERENCES = "abcduvwx";
+  private static final String EDGE_REFERENCES = "abcduvwxjlrt";
+
+  // Facelets of each piece's stickers, starting from its reference sticker
+  private static final int[][] cornerFacelets = getFacelets(PieceType.CORNER, CORNER_REFERENCES);
+  private static final int[][] edgeFacelets = getFacelets(PieceType.EDGE, EDGE_REFERENCES);
+
+  private final SplittableRandom random;
+
+  // Scratch permutations and orientations, reused for every sample
+  private final int[] cornerPermutation = new int[cornerFacelets.length];
+  private final int[] cornerOrientation = new int[cornerFacelets.length];
+  private final int[] edgePermutation = new int[edgeFacelets.length];
+  private final int[] edgeOrientation = new int[edgeFacelets.length];
+
+  /* Creates a sampler with an unpredictable seed */
+  public RandomStates() {
+    this(new SplittableRandom());
+  }
+
+  /* Creates a sampler that always draws the same states for the same seed */
+  public RandomStates(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+  private RandomStates(SplittableRandom random) {
+    this.random = random;
+  }
+
+  /* Returns a new sampler, for use by another thread, whose states are independent of this one's */
+  public RandomStates split() {
+    return new RandomStates(random.split());
+  }
+
+  private static int[][] getFacelets(PieceType pieceType, String references) {
+    int[][] facelets = new int[references.length()][];
+    for (int p = 0; p < facelets.length; p++) {
+      char[] order = ExpectedPermutation.getStickerOrder(pieceType, references.charAt(p));
+      facelets[p] = new int[order.length];
+      for (int j = 0; j < order.length; j++) {
+        facelets[p][j] = pieceType.equals(PieceType.EDGE) ? SpeffzUtils.getEdgeFacelet(order[j])
+            : SpeffzUtils.getCornerFacelet(order[j]);
+      }
+    }
+    return facelets;
+  }
+
+  /* Writes a uniformly random solvable state into state, with the centers solved */
+  public void next(int[] state) {
+    MoveTables.reset(state);
+
+    // Both permutations are uniform, so swapping two edges whenever their
+    // parities differ keeps every matching pair equally likely
+    boolean cornerParity = shuffle(cornerPermutation);
+    boolean edgeParity = shuffle(edgePermutation);
+    if (cornerParity != edgeParity) {
+      int swap = edgePermutation[0];
+      edgePermutation[0] = edgePermutation[1];
+      edgePermutation[1] = swap;
+    }
+
+    orient(cornerOrientation, 3);
+    orient(edgeOrientation, 2);
+    place(state, cornerFacelets, cornerPermutation, cornerOrientation);
+    place(state, edgeFacelets, edgePermutation, edgeOrientation);
+  }
+
+  /* Returns a uniformly random solvable state */
+  public int[] next() {
+    int[] state = new int[MoveTables.NUM_FACELETS];
+    next(state);
+    return state;
+  }
+
+  /* Fills permutation with a uniformly random permutation, and returns whether it is odd */
+  private boolean shuffle(int[] permutation) {
+    for (int i = 0; i < permutation.length; i++) {
+      permutation[i] = i;
+    }
+    boolean odd = false;
+    for (int i = permutation.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      if (j != i) {
+        int swap = permutation[i];
+        permutation[i] = permutation[j];
+        permutation[j] = swap;
+        odd = !odd;
+      }
+    }
+    return odd;
+  }
+
+  /* Fills orientation with random values mod n, where the last one makes them sum to 0 */
+  private void orient(int[] orientation, int n) {
+    int sum = 0;
+    for (int i = 0; i < orientation.length - 1; i++) {
+      orientation[i] = random.nextInt(n);
+      sum += orientation[i];
+    }
+    orientation[orientation.length - 1] = (n - sum % n) % n;
+  }
+
+  /*
+   * Puts piece permutation[p] at each position p, turned so that its sticker
+   * orientation[p] places after its reference sticker lands on p's reference
+   * facelet.
+   */
+  private static void place(int[] state, int[][] facelets, int[] permutation, int[] orientation) {
+    for (int p = 0; p < facelets.length; p++) {
+      int[] position = facelets[p];
+      int[] piece = facelets[permutation[p]];
+      for (int j = 0; j < position.length; j++) {
+        state[position[j]] = piece[(j + orientation[p]) % position.length];
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Describes a single comm sheet to validate: where it lives,
+ *                which buffer and piece type it is for, and how its cells are
+ *                laid out. A sheet may be a CSV file, or one tab of a
+ *                workbook (see WorkbookReader).
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.nio.file.Path;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+
+public class SheetConfig {
+  private final Path path;
+  private final String tab;
+  private final char buffer;
+  private final PieceType pieceType;
+  private final boolean includesHeaders;
+  private final boolean includesEmptyBufferGroups;
+  private final boolean ignoreEmpty;
+
+  public SheetConfig(Path path, char buffer, PieceType pieceType, boolean includesHeaders,
+      boolean includesEmptyBufferGroups, boolean ignoreEmpty) {
+    this(path, null, buffer, pieceType, includesHeaders, includesEmptyBufferGroups, ignoreEmpty);
+  }
+
+  private SheetConfig(Path path, String tab, char buffer, PieceType pieceType, boolean includesHeaders,
+      boolean includesEmptyBufferGroups, boolean ignoreEmpty) {
+    this.path = path;
+    this.tab = tab;
+    this.buffer = buffer;
+    this.pieceType = pieceType;
+    this.includesHeaders = includesHeaders;
+    this.includesEmptyBufferGroups = includesEmptyBufferGroups;
+    this.ignoreEmpty = ignoreEmpty;
+  }
+
+  /* Returns a copy of this config for a different sheet file */
+  public SheetConfig withPath(Path path) {
+    return new SheetConfig(path, buffer, pieceType, includesHeaders, includesEmptyBufferGroups, ignoreEmpty);
+  }
+
+  /*
+   * Returns a copy of this config for a tab of the workbook at path, with the
+   * given buffer and piece type but the same layout.
+   */
+  public SheetConfig forTab(Path path, String tab, char buffer, PieceType pieceType) {
+    return new SheetConfig(path, tab, buffer, pieceType, includesHeaders, includesEmptyBufferGroups, ignoreEmpty);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /* Returns the name of the workbook tab, or null if the sheet is a CSV file */
+  public String getTab() {
+    return tab;
+  }
+
+  public char getBuffer() {
+    return buffer;
+  }
+
+  public PieceType getPieceType() {
+    return pieceType;
+  }
+
+  public boolean includesHeaders() {
+    return includesHeaders;
+  }
+
+  public boolean includesEmptyBufferGroups() {
+    return includesEmptyBufferGroups;
+  }
+
+  public boolean ignoreEmpty() {
+    return ignoreEmpty;
+  }
+
+  public String toString() {
+    String pieceName = pieceType.equals(PieceType.EDGE) ? "edges" : "corners";
+    String name = tab == null ? String.valueOf(path) : path + " [" + tab + "]";
+    return name + " (buffer " + Character.toUpperCase(buffer) + ", " + pieceName + ")";
+  }
+}
@@ -0,0 +1,226 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Derives candidate sheets for other buffers from a validated
+ *                sheet by applying cube symmetries (see Symmetry) to its
+ *                comms. A symmetry that carries the sheet's buffer to another
+ *                sticker carries every case of the sheet to a case of that
+ *                sticker's sheet, and every comm to a comm for that case.
+ *
+ *                Each source comm is simulated once. A derived comm is then
+ *                checked by conjugating the source comm's facelet state by the
+ *                symmetry and comparing it with the derived case's expected
+ *                permutation, so no derived sheet is parsed or simulated from
+ *                scratch. Cells without a comm that could be transformed keep
+ *                the source cell's text and validity.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.Symmetry;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class SheetDeriver {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+
+  /* A sheet derived for another buffer by one symmetry, indexed like validities by [target1][target2] */
+  public static final class DerivedSheet {
+    private final Symmetry symmetry;
+    private final char buffer;
+    private final CharSequence[][] comms = new CharSequence[NUM_LETTERS][NUM_LETTERS];
+    private final CommValidity[][] validities = new CommValidity[NUM_LETTERS][NUM_LETTERS];
+    private int numCells;
+    private int numValid;
+    private int numBlank;
+    private int numTransformed;
+
+    private DerivedSheet(Symmetry symmetry, char buffer) {
+      this.symmetry = symmetry;
+      this.buffer = buffer;
+    }
+
+    public Symmetry getSymmetry() {
+      return symmetry;
+    }
+
+    public char getBuffer() {
+      return buffer;
+    }
+
+    /* Returns the comm of a cell, or null for a cell of the buffer's piece */
+    public CharSequence getComm(char target1, char target2) {
+      return comms[target1 - 'a'][target2 - 'a'];
+    }
+
+    /* Returns the validities of every cell, with null for cells of the buffer's piece */
+    public CommValidity[][] getValidities() {
+      return validities;
+    }
+
+    /* Returns the number of non-buffer cells */
+    public int getNumCells() {
+      return numCells;
+    }
+
+    /* Returns the number of transformed comms that are valid, which leaves out blank cells */
+    public int getNumValid() {
+      return numValid;
+    }
+
+    /* Returns the number of cells that are blank and are meant to be, such as cases on one piece */
+    public int getNumBlank() {
+      return numBlank;
+    }
+
+    /* Returns the number of cells whose comm was transformed from the source sheet */
+    public int getNumTransformed() {
+      return numTransformed;
+    }
+  }
+
+  private final PieceType pieceType;
+  private final char buffer;
+  private final CharSequence[][] texts = new CharSequence[NUM_LETTERS][NUM_LETTERS];
+  private final CommValidity[][] validities;
+
+  // Parsed source comms, and the facelet state each produces on a solved cube, or null
+  private final Comm[][] comms = new Comm[NUM_LETTERS][NUM_LETTERS];
+  private final int[][][] states = new int[NUM_LETTERS][NUM_LETTERS][];
+
+  /*
+   * Creates a deriver for a sheet whose comm strings have been read, with
+   * headers removed, and validated into validities (see
+   * CommSheetValidator.checkValidity). Simulates every comm that parses.
+   */
+  public SheetDeriver(SheetConfig sheet, CharSequence[][] commStrings, CommValidity[][] validities) {
+    this.pieceType = sheet.getPieceType();
+    this.buffer = sheet.getBuffer();
+    this.validities = validities;
+
+    int[] scratch = new int[MoveTables.NUM_FACELETS];
+    for (CommSheetValidator.Cell cell : CommSheetValidator.getCells(commStrings, buffer, pieceType,
+        sheet.includesEmptyBufferGroups())) {
+      int t1 = cell.target1 - 'a';
+      int t2 = cell.target2 - 'a';
+      texts[t1][t2] = cell.commText;
+      if (CommSheetValidator.isBlank(cell.commText)) {
+        continue;
+      }
+      try {
+        comms[t1][t2] = new Comm(cell.getCommString());
+      } catch (Exception e) {
+        continue;
+      }
+      int[] state = new int[MoveTables.NUM_FACELETS];
+      MoveTables.reset(state);
+      MoveTables.apply(state, comms[t1][t2].toSequence(), scratch);
+      states[t1][t2] = state;
+    }
+  }
+
+  /* Returns the symmetries that carry this sheet's buffer to the given sticker, rotations first */
+  public List<Symmetry> getSymmetries(char target) {
+    List<Symmetry> symmetries = new ArrayList<>();
+    for (Symmetry symmetry : Symmetry.values()) {
+      if (apply(symmetry, buffer) == Character.toLowerCase(target)) {
+        symmetries.add(symmetry);
+      }
+    }
+    return symmetries;
+  }
+
+  /*
+   * Returns the stickers that sheets can be derived for: every sticker that is
+   * not on this sheet's buffer piece.
+   */
+  public List<Character> getBuffers() {
+    Set<Character> bufferPieceSet = CommSheetValidator.getRelatedStickersSet(pieceType, buffer);
+    List<Character> buffers = new ArrayList<>();
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      if (!bufferPieceSet.contains(c)) {
+        buffers.add(c);
+      }
+    }
+    return buffers;
+  }
+
+  /*
+   * Derives the sheet for the given buffer by whichever symmetry that carries
+   * this sheet's buffer there gives the most valid comms, preferring
+   * rotations to mirrors.
+   */
+  public DerivedSheet derive(char target) {
+    List<Symmetry> symmetries = getSymmetries(target);
+    if (symmetries.isEmpty()) {
+      throw new IllegalArgumentException("No symmetry carries buffer " + buffer + " to " + target);
+    }
+    DerivedSheet best = null;
+    for (Symmetry symmetry : symmetries) {
+      DerivedSheet derived = derive(symmetry);
+      if (best == null || derived.numValid > best.numValid) {
+        best = derived;
+      }
+    }
+    return best;
+  }
+
+  /* Derives the sheet for the buffer that symmetry carries this sheet's buffer to */
+  public DerivedSheet derive(Symmetry symmetry) {
+    char derivedBuffer = apply(symmetry, buffer);
+    DerivedSheet derived = new DerivedSheet(symmetry, derivedBuffer);
+    int[] conjugated = new int[MoveTables.NUM_FACELETS];
+    for (char c1 = 'a'; c1 < 'a' + NUM_LETTERS; c1++) {
+      for (char c2 = 'a'; c2 < 'a' + NUM_LETTERS; c2++) {
+        CharSequence text = texts[c1 - 'a'][c2 - 'a'];
+        if (text == null) {
+          continue;
+        }
+        char target1 = apply(symmetry, c1);
+        char target2 = apply(symmetry, c2);
+        CommValidity validity = validities[c1 - 'a'][c2 - 'a'];
+        Comm comm = comms[c1 - 'a'][c2 - 'a'];
+        if (comm != null) {
+          text = comm.transform(symmetry).toString();
+          symmetry.conjugate(states[c1 - 'a'][c2 - 'a'], conjugated);
+          if (ExpectedPermutation.threeCycle(pieceType, derivedBuffer, target1, target2).matches(conjugated)) {
+            validity = CommValidity.VALID;
+          } else if (validity == CommValidity.VALID) {
+            // Only a cell decided from a stale cache can disagree with its own state
+            validity = CommValidity.INCORRECT_CYCLE;
+          }
+          derived.numTransformed++;
+          if (validity == CommValidity.VALID) {
+            derived.numValid++;
+          }
+        } else if (validity == CommValidity.VALID) {
+          derived.numBlank++;
+        }
+        derived.comms[target1 - 'a'][target2 - 'a'] = text;
+        derived.validities[target1 - 'a'][target2 - 'a'] = validity;
+        derived.numCells++;
+      }
+    }
+    return derived;
+  }
+
+  private char apply(Symmetry symmetry, char sticker) {
+    return pieceType.equals(PieceType.EDGE) ? symmetry.applyToEdgeSticker(sticker)
+        : symmetry.applyToCornerSticker(sticker);
+  }
+
+  public PieceType getPieceType() {
+    return pieceType;
+  }
+
+  public char getBuffer() {
+    return buffer;
+  }
+}
@@ -0,0 +1,197 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Expands sheet paths, directories and globs into individual
+ *                sheets, and reads manifest files that list sheets along with
+ *                their buffer, piece type and layout. Each non-empty manifest
+ *                line has the form
+ *
+ *                    <path|dir|glob> [OPTION]...
+ *
+ *                where the options are the same sheet options accepted on the
+ *                command line (-t, -b, -r, -e, -i). Relative paths are
+ *                resolved against the manifest's directory, and '#' starts a
+ *                comment. A path with spaces (or a '#') in it can be written
+ *                in double quotes, e.g. "My Sheets/UF Comms.csv" -t e; inside
+ *                quotes, \" stands for a quote and \\ for a backslash.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+public class SheetManifest {
+  private static final String SHEET_EXTENSION = ".csv";
+  private static final String GLOB_CHARS = "*?[{";
+
+  /*
+   * Reads a manifest file and returns the config of every sheet it lists, in
+   * the order they are listed.
+   */
+  public static List<SheetConfig> read(Path manifest) throws IOException, ParseException {
+    Options options = new Options();
+    CommSheetValidator.addSheetOptions(options);
+    Path baseDir = manifest.toAbsolutePath().getParent();
+
+    List<SheetConfig> sheets = new ArrayList<>();
+    List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i++) {
+      try {
+        List<String> tokens = tokenize(lines.get(i));
+        if (tokens.isEmpty()) {
+          continue;
+        }
+        CommandLine cmd = new DefaultParser().parse(options, tokens.toArray(new String[0]));
+        String[] args = cmd.getArgs();
+        if (args.length != 1) {
+          throw new ParseException("Exactly one sheet path expected");
+        }
+        sheets.addAll(expand(baseDir, args[0], CommSheetValidator.getSheetConfig(cmd, null)));
+      } catch (ParseException e) {
+        throw new ParseException("Line " + (i + 1) + " of manifest '" + manifest + "': " + e.getMessage());
+      }
+    }
+
+    return sheets;
+  }
+
+  /*
+   * Splits a manifest line into words at unquoted whitespace, dropping
+   * everything from an unquoted '#'. Double quotes group a word, and inside
+   * them a backslash escapes a quote or another backslash.
+   */
+  static List<String> tokenize(String line) throws ParseException {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    boolean inToken = false;
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"') {
+          quoted = false;
+        } else if (c == '\\' && i + 1 < line.length() && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+          token.append(line.charAt(++i));
+        } else {
+          token.append(c);
+        }
+      } else if (c == '#') {
+        break;
+      } else if (Character.isWhitespace(c)) {
+        if (inToken) {
+          tokens.add(token.toString());
+          token.setLength(0);
+          inToken = false;
+        }
+      } else {
+        inToken = true;
+        if (c == '"') {
+          quoted = true;
+        } else {
+          token.append(c);
+        }
+      }
+    }
+    if (quoted) {
+      throw new ParseException("Unterminated quote");
+    }
+    if (inToken) {
+      tokens.add(token.toString());
+    }
+    return tokens;
+  }
+
+  /*
+   * Expands a path, directory or glob into one copy of template per matching
+   * sheet.
+   * Directories expand to the sheets directly inside them, and globs to every
+   * sheet under the glob's fixed prefix that matches it. Matches are sorted so
+   * that runs are reproducible.
+   */
+  public static List<SheetConfig> expand(String pattern, SheetConfig template) throws IOException {
+    return expand(Paths.get(""), pattern, template);
+  }
+
+  /*
+   * As above, but with a relative pattern resolved against baseDir. Only the
+   * part of a glob after its last fixed directory is matched as a glob, so
+   * that baseDir may hold characters that globs treat specially, such as the
+   * backslashes of a Windows path.
+   */
+  static List<SheetConfig> expand(Path baseDir, String pattern, SheetConfig template) throws IOException {
+    List<Path> paths;
+    if (!isGlob(pattern)) {
+      Path path = baseDir.resolve(pattern);
+      if (Files.isDirectory(path)) {
+        try (Stream<Path> stream = Files.list(path)) {
+          paths = stream.filter(SheetManifest::isSheet).sorted().collect(Collectors.toList());
+        }
+      } else if (Files.isRegularFile(path)) {
+        paths = Collections.singletonList(path);
+      } else {
+        throw new IllegalArgumentException("No such sheet or directory: " + pattern);
+      }
+    } else {
+      int globStart = getGlobStart(pattern);
+      Path root = baseDir.resolve(pattern.substring(0, globStart));
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(globStart));
+      try (Stream<Path> stream = Files.walk(root)) {
+        paths = stream.filter(Files::isRegularFile).filter(path -> matcher.matches(root.relativize(path))).sorted()
+            .collect(Collectors.toList());
+      }
+    }
+
+    List<SheetConfig> sheets = new ArrayList<>();
+    for (Path path : paths) {
+      sheets.add(template.withPath(path));
+    }
+    return sheets;
+  }
+
+  private static boolean isSheet(Path path) {
+    return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase().endsWith(SHEET_EXTENSION);
+  }
+
+  private static boolean isGlob(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      if (GLOB_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Returns where the glob part of the pattern starts: just after the deepest
+   * directory in it that contains no glob characters.
+   */
+  private static int getGlobStart(String pattern) {
+    int firstGlobChar = pattern.length();
+    for (int i = 0; i < pattern.length(); i++) {
+      if (GLOB_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+        firstGlobChar = i;
+        break;
+      }
+    }
+
+    String prefix = pattern.substring(0, firstGlobChar);
+    return Math.max(prefix.lastIndexOf('/'), prefix.lastIndexOf('\\')) + 1;
+  }
+}
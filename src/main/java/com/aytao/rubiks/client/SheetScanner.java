@@ -0,0 +1,188 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A small CSV scanner for comm sheets. The whole sheet is held
+ *                in one char array, and each cell is returned as a
+ *                CharSequence view of its characters rather than as a copied
+ *                String, so cells that turn out to be empty or cached are
+ *                never copied at all. Quoted cells, including ones that span
+ *                lines, are supported; only a quoted cell containing an
+ *                escaped quote ("") has to be copied to unescape it.
+ *
+ *                Files are read whole into memory and decoded as UTF-8 in a
+ *                single pass. They are not memory-mapped, since on Windows a
+ *                mapped file stays locked until the mapping is garbage
+ *                collected, which would stop an editor from saving a sheet
+ *                that was just validated.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+final class SheetScanner {
+  private static final char SEPARATOR = ',';
+  private static final char QUOTE = '"';
+
+  /* A cell's characters, viewed in place in the sheet's char array */
+  private static final class Slice implements CharSequence {
+    private final char[] chars;
+    private final int offset;
+    private final int length;
+
+    Slice(char[] chars, int offset, int length) {
+      this.chars = chars;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+      }
+      return chars[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length || start > end) {
+        throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length);
+      }
+      return new Slice(chars, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(chars, offset, length);
+    }
+  }
+
+  private SheetScanner() {
+  }
+
+  /* Reads and scans all remaining characters of reader, which is not closed */
+  static List<CharSequence[]> scan(Reader reader) throws IOException {
+    char[] chars = new char[8192];
+    int length = 0;
+    int read;
+    while ((read = reader.read(chars, length, chars.length - length)) >= 0) {
+      length += read;
+      if (length == chars.length) {
+        char[] grown = new char[chars.length * 2];
+        System.arraycopy(chars, 0, grown, 0, length);
+        chars = grown;
+      }
+    }
+    return scan(chars, 0, length);
+  }
+
+  /* Reads the UTF-8 file at path and scans it */
+  static List<CharSequence[]> scan(Path path) throws IOException {
+    return scan(StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(path))));
+  }
+
+  /* Scans the remaining characters of text, which must not be modified afterwards */
+  static List<CharSequence[]> scan(CharBuffer text) {
+    if (text.hasArray()) {
+      return scan(text.array(), text.arrayOffset() + text.position(), text.remaining());
+    }
+    char[] chars = new char[text.remaining()];
+    text.duplicate().get(chars);
+    return scan(chars, 0, chars.length);
+  }
+
+  /*
+   * Splits chars[offset, offset + length) into rows of cells. A line break
+   * after the last row does not start another row.
+   */
+  static List<CharSequence[]> scan(char[] chars, int offset, int length) {
+    List<CharSequence[]> rows = new ArrayList<>();
+    List<CharSequence> row = new ArrayList<>();
+    int end = offset + length;
+    int i = offset;
+
+    while (i < end) {
+      while (true) {
+        i = scanCell(chars, i, end, row);
+        if (i < end && chars[i] == SEPARATOR) {
+          i++;
+          continue;
+        }
+        break;
+      }
+      rows.add(row.toArray(new CharSequence[0]));
+      row.clear();
+
+      if (i < end && chars[i] == '\r') {
+        i++;
+      }
+      if (i < end && chars[i] == '\n') {
+        i++;
+      }
+    }
+
+    return rows;
+  }
+
+  /*
+   * Adds the cell starting at chars[i] to row, and returns the index of the
+   * separator, line break or end that follows it.
+   */
+  private static int scanCell(char[] chars, int i, int end, List<CharSequence> row) {
+    if (i == end || chars[i] != QUOTE) {
+      int start = i;
+      i = skipToEndOfCell(chars, i, end);
+      row.add(new Slice(chars, start, i - start));
+      return i;
+    }
+
+    // Find the closing quote, skipping escaped ("") quotes
+    int start = i + 1;
+    int j = start;
+    boolean escaped = false;
+    while (j < end) {
+      if (chars[j] == QUOTE) {
+        if (j + 1 < end && chars[j + 1] == QUOTE) {
+          escaped = true;
+          j += 2;
+          continue;
+        }
+        break;
+      }
+      j++;
+    }
+    CharSequence cell = escaped ? new String(chars, start, j - start).replace("\"\"", "\"")
+        : new Slice(chars, start, j - start);
+
+    // Like most readers, keep anything between the closing quote and the separator
+    int trailing = Math.min(j + 1, end);
+    i = skipToEndOfCell(chars, trailing, end);
+    if (i > trailing) {
+      cell = cell.toString() + new String(chars, trailing, i - trailing);
+    }
+    row.add(cell);
+    return i;
+  }
+
+  private static int skipToEndOfCell(char[] chars, int i, int end) {
+    while (i < end && chars[i] != SEPARATOR && chars[i] != '\n' && chars[i] != '\r') {
+      i++;
+    }
+    return i;
+  }
+}
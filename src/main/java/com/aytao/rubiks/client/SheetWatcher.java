@@ -0,0 +1,186 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Watches comm sheets on disk and revalidates them whenever
+ *                they change. Each sheet's previous cells are kept in memory;
+ *                on a change, the new contents are diffed cell by cell, only
+ *                the cells whose comm text changed are parsed and simulated
+ *                again, and only the error groups whose members changed are
+ *                printed.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.aytao.rubiks.client.CommSheetValidator.Cell;
+import com.aytao.rubiks.client.CommSheetValidator.CommDescription;
+
+public class SheetWatcher {
+
+  /* The last validated state of a watched sheet */
+  private static class WatchedSheet {
+    private final SheetConfig config;
+    private Cell[] cells;
+    private Map<CommValidity, List<CommDescription>> errorGroups;
+
+    WatchedSheet(SheetConfig config) {
+      this.config = config;
+    }
+  }
+
+  private final CommSheetValidator validator;
+  private final PrintStream out;
+  private final Map<Path, WatchedSheet> sheets = new HashMap<>();
+
+  public SheetWatcher(CommSheetValidator validator, PrintStream out) {
+    this.validator = validator;
+    this.out = out;
+  }
+
+  /*
+   * Validates every sheet once, printing the full report, then blocks and
+   * revalidates sheets as they change on disk. Returns only if the watch
+   * service is closed or the thread is interrupted.
+   */
+  public void watch(List<SheetConfig> configs) throws IOException, InterruptedException {
+    try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+      Set<Path> dirs = new LinkedHashSet<>();
+      for (SheetConfig config : configs) {
+        Path path = config.getPath().toAbsolutePath().normalize();
+        WatchedSheet sheet = new WatchedSheet(config);
+        sheets.put(path, sheet);
+        dirs.add(path.getParent());
+        revalidate(sheet);
+      }
+
+      for (Path dir : dirs) {
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+      }
+      out.println("Watching " + sheets.size() + " sheets for changes...");
+      out.flush();
+
+      while (true) {
+        WatchKey key;
+        try {
+          key = watchService.take();
+        } catch (ClosedWatchServiceException e) {
+          return;
+        }
+
+        // Editors often fire several events per save; handle each sheet once
+        Set<Path> changed = new LinkedHashSet<>();
+        while (key != null) {
+          Path dir = (Path) key.watchable();
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+              changed.addAll(sheets.keySet());
+              continue;
+            }
+            Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+            if (sheets.containsKey(path)) {
+              changed.add(path);
+            }
+          }
+          key.reset();
+          key = watchService.poll();
+        }
+
+        for (Path path : changed) {
+          revalidate(sheets.get(path));
+        }
+        out.flush();
+      }
+    }
+  }
+
+  /*
+   * Rereads a sheet and revalidates the cells that changed since it was last
+   * read, then prints the error groups that changed.
+   */
+  private void revalidate(WatchedSheet sheet) {
+    long start = System.nanoTime();
+    SheetConfig config = sheet.config;
+
+    CharSequence[][] commStrings;
+    try {
+      commStrings = CommSheetValidator.readSheet(config.getPath(), config.getPieceType(), config.includesHeaders(),
+          config.includesEmptyBufferGroups());
+    } catch (Exception e) {
+      // Saves can be observed half-written; the next event will retry
+      out.println("== " + config + " ==");
+      out.println("Error reading sheet: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+      out.println();
+      return;
+    }
+
+    Cell[] cells = CommSheetValidator.getCells(commStrings, config.getBuffer(), config.getPieceType(),
+        config.includesEmptyBufferGroups());
+
+    List<Cell> changedCells = new ArrayList<>();
+    for (int k = 0; k < cells.length; k++) {
+      if (sheet.cells != null && sheet.cells[k].getCommString().contentEquals(cells[k].commText)) {
+        cells[k].validity = sheet.cells[k].validity;
+      } else {
+        changedCells.add(cells[k]);
+      }
+    }
+    if (sheet.cells != null && changedCells.isEmpty()) {
+      return;
+    }
+
+    validator.validateCells(changedCells.toArray(new Cell[0]), config.getPieceType(), config.getBuffer());
+    Map<CommValidity, List<CommDescription>> errorGroups = CommSheetValidator.getErrorGroups(
+        CommSheetValidator.toValidities(cells), config.ignoreEmpty());
+
+    boolean firstRun = sheet.errorGroups == null;
+    Map<CommValidity, List<CommDescription>> previousGroups = firstRun
+        ? Collections.<CommValidity, List<CommDescription>>emptyMap()
+        : sheet.errorGroups;
+    sheet.cells = cells;
+    sheet.errorGroups = errorGroups;
+
+    out.println("== " + config + " ==");
+    out.println();
+    for (CommValidity cv : CommValidity.values()) {
+      List<CommDescription> before = previousGroups.get(cv);
+      List<CommDescription> after = errorGroups.get(cv);
+      if (before == null ? after == null : before.equals(after)) {
+        continue;
+      }
+      if (after == null) {
+        out.println(cv.name().replace("_", " ") + ": fixed");
+      } else {
+        CommSheetValidator.printErrorGroup(out, cv, after);
+      }
+      out.println();
+    }
+    if (firstRun && errorGroups.isEmpty()) {
+      out.println("No errors");
+      out.println();
+    }
+
+    long micros = (System.nanoTime() - start) / 1000;
+    out.printf("(%d of %d cells revalidated in %.2f ms)\n", changedCells.size(), cells.length, micros / 1000.0);
+    out.println();
+  }
+}
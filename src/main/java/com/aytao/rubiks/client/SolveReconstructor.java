@@ -0,0 +1,457 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Checks that a set of sheets works in whole solves, not just
+ *                cell by cell. Each random scramble is traced into letter
+ *                pairs (see MemoTracer), every pair's comm is looked up in the
+ *                sheet for its piece type, and the comms are executed one
+ *                after another on the scrambled cube, which must end solved.
+ *                Problems that only show up when comms are chained, such as a
+ *                comm that leaves the centers turned, are caught at the pair
+ *                that causes them.
+ *
+ *                Every valid comm is compiled to its facelet permutation (see
+ *                MoveTables) once, when its sheet is added, so executing a
+ *                comm is a single permutation of the cube state. After each
+ *                pair the state is compared with the state the pair's ideal
+ *                3-cycle would leave. What no sheet covers (the parity swap
+ *                and pieces flipped or twisted in place) is applied ideally at
+ *                the end.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.aytao.rubiks.client.CommSheetValidator.Cell;
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.MoveTables;
+import com.aytao.rubiks.cube.Scrambler;
+import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class SolveReconstructor {
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+  private static final Move[] MOVES = Move.values();
+
+  // Number of failed solves kept with their scrambles; the rest are only counted
+  public static final int MAX_REPORTED_FAILURES = 10;
+
+  // Facelets of the edges and of the corners, by piece type
+  private static final boolean[][] PIECE_FACELETS = new boolean[PieceType.values().length][NUM_FACELETS];
+
+  static {
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      PIECE_FACELETS[PieceType.EDGE.ordinal()][SpeffzUtils.getEdgeFacelet(c)] = true;
+      PIECE_FACELETS[PieceType.CORNER.ordinal()][SpeffzUtils.getCornerFacelet(c)] = true;
+    }
+  }
+
+  /* One sheet's comms and the ideal permutations they are checked against */
+  private static class CompiledSheet {
+    private final SheetConfig config;
+
+    // Indexed by target1 * NUM_LETTERS + target2
+    private final CommValidity[] validities = new CommValidity[NUM_LETTERS * NUM_LETTERS];
+    private final String[] comms = new String[NUM_LETTERS * NUM_LETTERS];
+    private final int[][] compiled = new int[NUM_LETTERS * NUM_LETTERS][];
+    private final int[][] ideal = new int[NUM_LETTERS * NUM_LETTERS][];
+
+    // Pairs with both targets on one piece, which no sheet has a comm for
+    private final boolean[] samePiece = new boolean[NUM_LETTERS * NUM_LETTERS];
+
+    // Ideal fix-ups, by parity target and by where a misoriented piece's first sticker is
+    private final int[][] parity = new int[NUM_LETTERS][];
+    private final int[][] misoriented = new int[NUM_LETTERS][];
+
+    CompiledSheet(SheetConfig config) {
+      this.config = config;
+    }
+  }
+
+  /* A solve that did not end solved, and the pair that went wrong */
+  public static final class Failure {
+    private final String scramble;
+    private final PieceType pieceType;
+    private final char target1;
+    private final char target2;
+    private final String comm;
+    private final CommValidity validity;
+
+    private Failure(String scramble, PieceType pieceType, char target1, char target2, String comm,
+        CommValidity validity) {
+      this.scramble = scramble;
+      this.pieceType = pieceType;
+      this.target1 = target1;
+      this.target2 = target2;
+      this.comm = comm;
+      this.validity = validity;
+    }
+
+    public String getScramble() {
+      return scramble;
+    }
+
+    /* Returns the piece type of the pair that went wrong, or null if every pair was right */
+    public PieceType getPieceType() {
+      return pieceType;
+    }
+
+    public char getTarget1() {
+      return target1;
+    }
+
+    public char getTarget2() {
+      return target2;
+    }
+
+    /* Returns the comm executed for the pair, or null if its cell has no valid comm */
+    public String getComm() {
+      return comm;
+    }
+
+    /* Returns the validity of the pair's cell */
+    public CommValidity getValidity() {
+      return validity;
+    }
+
+    @Override
+    public String toString() {
+      if (pieceType == null) {
+        return scramble + ": every pair was right, but the cube did not end solved";
+      }
+      String pair = (pieceType.equals(PieceType.EDGE) ? "edges " : "corners ")
+          + Character.toUpperCase(target1) + Character.toUpperCase(target2);
+      if (comm == null) {
+        return scramble + ": " + pair + " has no valid comm (" + validity.name().replace("_", " ") + ")";
+      }
+      return scramble + ": " + pair + " (" + comm + ") did not leave the cube as its 3-cycle would";
+    }
+  }
+
+  /* The outcome of reconstructing many solves */
+  public static final class Summary {
+    private long solves;
+    private long failures;
+    private final long[][] failuresByPair = new long[PieceType.values().length][NUM_LETTERS * NUM_LETTERS];
+    private final List<Failure> reported = new ArrayList<>();
+
+    private void add(Failure failure) {
+      failures++;
+      if (failure.pieceType != null) {
+        failuresByPair[failure.pieceType.ordinal()][(failure.target1 - 'a') * NUM_LETTERS
+            + (failure.target2 - 'a')]++;
+      }
+      if (reported.size() < MAX_REPORTED_FAILURES) {
+        reported.add(failure);
+      }
+    }
+
+    private void merge(Summary other) {
+      solves += other.solves;
+      failures += other.failures;
+      for (int t = 0; t < failuresByPair.length; t++) {
+        for (int i = 0; i < failuresByPair[t].length; i++) {
+          failuresByPair[t][i] += other.failuresByPair[t][i];
+        }
+      }
+      for (Failure failure : other.reported) {
+        if (reported.size() < MAX_REPORTED_FAILURES) {
+          reported.add(failure);
+        }
+      }
+    }
+
+    public long getSolves() {
+      return solves;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    /* Returns how many solves failed at the pair target1 target2 of the given piece type */
+    public long getFailures(PieceType pieceType, char target1, char target2) {
+      return failuresByPair[pieceType.ordinal()][(target1 - 'a') * NUM_LETTERS + (target2 - 'a')];
+    }
+
+    /* Returns the first few failures, up to MAX_REPORTED_FAILURES */
+    public List<Failure> getReportedFailures() {
+      return Collections.unmodifiableList(reported);
+    }
+  }
+
+  // Sheets by piece type, or null for a piece type that is left alone
+  private final CompiledSheet[] sheets = new CompiledSheet[PieceType.values().length];
+
+  /*
+   * Validates a sheet's comm strings, as returned by CommSheetValidator.readSheet,
+   * with validator, and compiles its valid comms. Throws an
+   * IllegalArgumentException if a sheet for the same piece type was already
+   * added, since a solve has only one buffer per piece type.
+   */
+  public void addSheet(SheetConfig config, CharSequence[][] commStrings, CommSheetValidator validator) {
+    PieceType pieceType = config.getPieceType();
+    if (sheets[pieceType.ordinal()] != null) {
+      throw new IllegalArgumentException("Only one " + pieceType.name().toLowerCase()
+          + " sheet can be used in a solve, but got " + sheets[pieceType.ordinal()].config + " and " + config);
+    }
+    char buffer = config.getBuffer();
+    CompiledSheet sheet = new CompiledSheet(config);
+    CommValidity[][] validities = validator.checkValidity(commStrings, buffer, pieceType,
+        config.includesEmptyBufferGroups());
+
+    int[] scratch = new int[NUM_FACELETS];
+    for (Cell cell : CommSheetValidator.getCells(commStrings, buffer, pieceType,
+        config.includesEmptyBufferGroups())) {
+      int index = (cell.target1 - 'a') * NUM_LETTERS + (cell.target2 - 'a');
+      sheet.validities[index] = validities[cell.target1 - 'a'][cell.target2 - 'a'];
+      if (CommValidity.isValid(sheet.validities[index]) && !CommSheetValidator.isBlank(cell.commText)) {
+        int[] state = new int[NUM_FACELETS];
+        MoveTables.reset(state);
+        MoveTables.apply(state, new Comm(cell.getCommString()).toSequence(), scratch);
+        sheet.comms[index] = cell.getCommString();
+        sheet.compiled[index] = state;
+      }
+    }
+
+    for (char target1 = 'a'; target1 < 'a' + NUM_LETTERS; target1++) {
+      sheet.parity[target1 - 'a'] = cycle(pieceType, "" + buffer + target1);
+      char[] order = ExpectedPermutation.getStickerOrder(pieceType, target1);
+      char first = target1;
+      for (char sticker : order) {
+        first = (char) Math.min(first, sticker);
+      }
+      if (first != target1) {
+        // Brings the first sticker home from target1, and the rest of the piece with it
+        StringBuilder twist = new StringBuilder().append(target1).append(first);
+        for (char sticker : order) {
+          if (sticker != target1 && sticker != first) {
+            twist.append(sticker);
+          }
+        }
+        sheet.misoriented[target1 - 'a'] = cycle(pieceType, twist.toString());
+      }
+
+      for (char target2 = 'a'; target2 < 'a' + NUM_LETTERS; target2++) {
+        int[] threeCycle = ExpectedPermutation.threeCycle(pieceType, buffer, target1, target2).getState();
+        int index = (target1 - 'a') * NUM_LETTERS + (target2 - 'a');
+        if (threeCycle == null) {
+          // Two targets on one piece flip or twist it, as two swaps with the buffer
+          threeCycle = compose(sheet.parity[target1 - 'a'], cycle(pieceType, "" + buffer + target2));
+          sheet.samePiece[index] = true;
+        }
+        sheet.ideal[index] = threeCycle;
+      }
+    }
+    sheets[pieceType.ordinal()] = sheet;
+  }
+
+  /* Returns the permutation of a sticker cycle of one piece type, or null if it is not possible */
+  private static int[] cycle(PieceType pieceType, String cycle) {
+    String[] cycles = { cycle };
+    try {
+      return (pieceType.equals(PieceType.EDGE) ? ExpectedPermutation.of(cycles, new String[0])
+          : ExpectedPermutation.of(new String[0], cycles)).getState();
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /* Returns the permutation of applying first and then second */
+  private static int[] compose(int[] first, int[] second) {
+    if (first == null || second == null) {
+      return null;
+    }
+    int[] composed = new int[NUM_FACELETS];
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      composed[i] = first[second[i]];
+    }
+    return composed;
+  }
+
+  /*****************************************************************************
+   * Reconstruction
+   ****************************************************************************/
+
+  /* Per-thread state for reconstructing solves, reused from one solve to the next */
+  private class Solver {
+    private final Scrambler scrambler;
+    private final byte[] scramble = new byte[Scrambler.DEFAULT_LENGTH];
+    private final int[] actual = new int[NUM_FACELETS];
+    private final int[] expected = new int[NUM_FACELETS];
+    private final int[] scratch = new int[NUM_FACELETS];
+    private final MemoTracer[] tracers = new MemoTracer[sheets.length];
+    private final MemoTracer.Memo memo = new MemoTracer.Memo();
+    private final Summary summary = new Summary();
+
+    Solver(Scrambler scrambler) {
+      this.scrambler = scrambler;
+      for (int t = 0; t < sheets.length; t++) {
+        if (sheets[t] != null) {
+          tracers[t] = new MemoTracer(sheets[t].config.getPieceType(), sheets[t].config.getBuffer());
+        }
+      }
+    }
+
+    /* Scrambles, solves and checks one cube, recording it in the summary */
+    void solve() {
+      scrambler.next(scramble, 0, scramble.length);
+      MoveTables.reset(actual);
+      for (byte ordinal : scramble) {
+        MoveTables.apply(actual, MOVES[ordinal], scratch);
+      }
+      System.arraycopy(actual, 0, expected, 0, NUM_FACELETS);
+      summary.solves++;
+
+      // Each piece type is traced from the cube as the other piece types left it
+      for (int t = 0; t < sheets.length; t++) {
+        if (sheets[t] == null) {
+          continue;
+        }
+        CompiledSheet sheet = sheets[t];
+        MemoTracer.Memo memo = tracers[t].trace(actual, this.memo);
+        int length = memo.getLength();
+        for (int i = 0; i + 1 < length; i += 2) {
+          char target1 = memo.getTarget(i);
+          char target2 = memo.getTarget(i + 1);
+          int index = (target1 - 'a') * NUM_LETTERS + (target2 - 'a');
+          int[] comm = sheet.samePiece[index] ? sheet.ideal[index] : sheet.compiled[index];
+          if (comm == null) {
+            summary.add(new Failure(getScramble(), sheet.config.getPieceType(), target1, target2, null,
+                sheet.validities[index]));
+            return;
+          }
+          permute(actual, comm);
+          permute(expected, sheet.ideal[index]);
+          if (!equal(actual, expected)) {
+            summary.add(new Failure(getScramble(), sheet.config.getPieceType(), target1, target2,
+                sheet.comms[index], sheet.validities[index]));
+            return;
+          }
+        }
+        if (memo.hasParity()) {
+          permute(actual, sheet.parity[memo.getTarget(length - 1) - 'a']);
+        }
+        for (int i = 0; i < memo.getNumMisoriented(); i++) {
+          permute(actual, sheet.misoriented[memo.getMisoriented(i) - 'a']);
+        }
+        // Every pair matched, so the fix-ups leave both states the same
+        System.arraycopy(actual, 0, expected, 0, NUM_FACELETS);
+      }
+
+      if (!isSolved(actual)) {
+        summary.add(new Failure(getScramble(), null, (char) 0, (char) 0, null, null));
+      }
+    }
+
+    /* Applies permutation to state, as executing its moves would */
+    private void permute(int[] state, int[] permutation) {
+      for (int i = 0; i < NUM_FACELETS; i++) {
+        scratch[i] = state[permutation[i]];
+      }
+      System.arraycopy(scratch, 0, state, 0, NUM_FACELETS);
+    }
+
+    /*
+     * Returns whether every facelet is home, except for piece types without a
+     * sheet, which are left scrambled.
+     */
+    private boolean isSolved(int[] state) {
+      for (int i = 0; i < NUM_FACELETS; i++) {
+        if (state[i] != i && isChecked(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private String getScramble() {
+      ArrayList<Move> moves = new ArrayList<>();
+      for (byte ordinal : scramble) {
+        moves.add(MOVES[ordinal]);
+      }
+      return Sequence.toString(moves);
+    }
+  }
+
+  private static boolean equal(int[] a, int[] b) {
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Whether a facelet must end home: centers always, and pieces of types that have a sheet */
+  private boolean isChecked(int facelet) {
+    for (int t = 0; t < sheets.length; t++) {
+      if (PIECE_FACELETS[t][facelet]) {
+        return sheets[t] != null;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Reconstructs the given number of solves of random scrambles on the given
+   * number of threads and returns the outcome. Each thread draws its scrambles
+   * from its own split of scrambler.
+   */
+  public Summary run(long solves, int threads, Scrambler scrambler) throws InterruptedException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Thread count must be positive, but was " + threads);
+    }
+    if (solves < 0) {
+      throw new IllegalArgumentException("Solve count must not be negative, but was " + solves);
+    }
+    boolean empty = true;
+    for (CompiledSheet sheet : sheets) {
+      empty &= sheet == null;
+    }
+    if (empty) {
+      throw new IllegalStateException("No sheets to reconstruct solves with");
+    }
+
+    List<Callable<Summary>> tasks = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      long share = solves / threads + (t < solves % threads ? 1 : 0);
+      Solver solver = new Solver(scrambler.split());
+      tasks.add(() -> {
+        for (long k = 0; k < share; k++) {
+          solver.solve();
+        }
+        return solver.summary;
+      });
+    }
+
+    Summary summary = new Summary();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for (Future<Summary> future : pool.invokeAll(tasks)) {
+        try {
+          summary.merge(future.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return summary;
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
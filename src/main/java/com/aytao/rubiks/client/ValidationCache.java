@@ -0,0 +1,205 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  An in-memory cache of parsed comms and cell validities that
+ *                can be shared between validations and threads. Useful when
+ *                the same sheets are validated over and over by a long-running
+ *                process, since unchanged cells are then neither re-parsed nor
+ *                re-simulated. Each map is simply cleared once it grows past
+ *                its limit. Results can also be backed by a persistent cache,
+ *                which is consulted on a miss and updated on every store.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.comm.Comm;
+import com.aytao.rubiks.comm.Comm.UnbalancedBracketsException;
+import com.aytao.rubiks.cube.Move.IllegalMoveException;
+
+public class ValidationCache {
+  private static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+
+  /* The outcome of parsing a comm string: either a Comm or the reason it failed */
+  static class ParsedComm {
+    final Comm comm;
+    final CommValidity failure;
+
+    private ParsedComm(Comm comm, CommValidity failure) {
+      this.comm = comm;
+      this.failure = failure;
+    }
+  }
+
+  /*
+   * Keys are compared by the content of their comm text, so a cell can be looked
+   * up with a view of the sheet (see SheetScanner) without copying it into a
+   * String. Only keys that are stored hold a String.
+   */
+  private static class ResultKey {
+    private final CharSequence commText;
+    private final PieceType pieceType;
+    private final char buffer;
+    private final char target1;
+    private final char target2;
+
+    ResultKey(CharSequence commText, PieceType pieceType, char buffer, char target1, char target2) {
+      this.commText = commText;
+      this.pieceType = pieceType;
+      this.buffer = buffer;
+      this.target1 = target1;
+      this.target2 = target2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (o == null || getClass() != o.getClass())
+        return false;
+      ResultKey key = (ResultKey) o;
+      return buffer == key.buffer && target1 == key.target1 && target2 == key.target2
+          && pieceType == key.pieceType && contentEquals(commText, key.commText);
+    }
+
+    @Override
+    public int hashCode() {
+      // Same as String.hashCode, for any CharSequence
+      int hash = 0;
+      for (int i = 0; i < commText.length(); i++) {
+        hash = 31 * hash + commText.charAt(i);
+      }
+      hash = 31 * hash + pieceType.hashCode();
+      hash = 31 * hash + buffer;
+      hash = 31 * hash + target1;
+      return 31 * hash + target2;
+    }
+  }
+
+  private static boolean contentEquals(CharSequence a, CharSequence b) {
+    if (a.length() != b.length()) {
+      return false;
+    }
+    for (int i = 0; i < a.length(); i++) {
+      if (a.charAt(i) != b.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private final int maxEntries;
+  private final PersistentResultCache store;
+  private final Map<String, ParsedComm> parsed = new ConcurrentHashMap<>();
+  private final Map<ResultKey, CommValidity> results = new ConcurrentHashMap<>();
+
+  private final LongAdder parseHits = new LongAdder();
+  private final LongAdder parseMisses = new LongAdder();
+  private final LongAdder resultHits = new LongAdder();
+  private final LongAdder resultMisses = new LongAdder();
+
+  public ValidationCache() {
+    this(DEFAULT_MAX_ENTRIES, null);
+  }
+
+  /* Creates a cache whose results are also read from and written to store */
+  public ValidationCache(PersistentResultCache store) {
+    this(DEFAULT_MAX_ENTRIES, store);
+  }
+
+  /*
+   * Creates a cache that holds at most maxEntries parses and maxEntries results
+   * in memory, backed by store if it is not null.
+   */
+  public ValidationCache(int maxEntries, PersistentResultCache store) {
+    this.maxEntries = maxEntries;
+    this.store = store;
+  }
+
+  /* Parses commString, or returns the cached outcome of parsing it before */
+  ParsedComm parse(String commString) {
+    ParsedComm parsedComm = parsed.get(commString);
+    if (parsedComm != null) {
+      parseHits.increment();
+      return parsedComm;
+    }
+    parseMisses.increment();
+
+    try {
+      parsedComm = new ParsedComm(new Comm(commString), null);
+    } catch (IllegalMoveException e) {
+      parsedComm = new ParsedComm(null, CommValidity.ILLEGAL_MOVE);
+    } catch (UnbalancedBracketsException e) {
+      parsedComm = new ParsedComm(null, CommValidity.UNBALANCED_BRACKETS);
+    } catch (Exception e) {
+      parsedComm = new ParsedComm(null, CommValidity.PARSING_ERROR);
+    }
+
+    if (parsed.size() >= maxEntries) {
+      parsed.clear();
+    }
+    parsed.put(commString, parsedComm);
+    return parsedComm;
+  }
+
+  /*
+   * Returns the cached validity of a simulated cell, or null if there is none.
+   * commText is not retained unless it is a String.
+   */
+  CommValidity getResult(CharSequence commText, PieceType pieceType, char buffer, char target1, char target2) {
+    CommValidity validity = results.get(new ResultKey(commText, pieceType, buffer, target1, target2));
+    if (validity == null && store != null) {
+      validity = store.get(commText, pieceType, buffer, target1, target2);
+      if (validity != null) {
+        putInMemory(new ResultKey(commText.toString(), pieceType, buffer, target1, target2), validity);
+      }
+    }
+
+    if (validity != null) {
+      resultHits.increment();
+    } else {
+      resultMisses.increment();
+    }
+    return validity;
+  }
+
+  void putResult(String commString, PieceType pieceType, char buffer, char target1, char target2,
+      CommValidity validity) {
+    putInMemory(new ResultKey(commString, pieceType, buffer, target1, target2), validity);
+    if (store != null) {
+      store.put(commString, pieceType, buffer, target1, target2, validity);
+    }
+  }
+
+  private void putInMemory(ResultKey key, CommValidity validity) {
+    if (results.size() >= maxEntries) {
+      results.clear();
+    }
+    results.put(key, validity);
+  }
+
+  public long getParseHits() {
+    return parseHits.sum();
+  }
+
+  public long getParseMisses() {
+    return parseMisses.sum();
+  }
+
+  public long getResultHits() {
+    return resultHits.sum();
+  }
+
+  public long getResultMisses() {
+    return resultMisses.sum();
+  }
+
+  public int size() {
+    return parsed.size() + results.size();
+  }
+}
@@ -0,0 +1,383 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A long-running local HTTP server for validating comm sheets.
+ *                Keeping one JVM alive avoids paying startup, class loading
+ *                and JIT warmup on every validation, and lets parses and
+ *                results be cached between requests. Endpoints:
+ *
+ *                POST /sheet?type=e|c[&buffer=c][&headers=1][&empty-groups=1]
+ *                     [&ignore-empty=1][&format=json|text]
+ *                    Validates the CSV sheet in the request body.
+ *                GET|POST /cell?type=e|c&t1=a&t2=b[&buffer=c][&comm=...]
+ *                    Validates a single comm, given as a parameter or as the
+ *                    request body.
+ *                GET /stats
+ *                    Returns request counts, latency, throughput and cache
+ *                    statistics.
+ *
+ *                The server only listens on the loopback interface.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.SpeffzUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ValidationServer {
+  public static final int DEFAULT_PORT = 8642;
+
+  private static final int HANDLER_THREADS = 4;
+
+  /* Thrown for requests with missing or malformed parameters */
+  private static class BadRequestException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    BadRequestException(String message) {
+      super(message);
+    }
+  }
+
+  /* Request counters, shared by all handler threads */
+  private static class Stats {
+    private final long startNanos = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder cellsValidated = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    void record(long latencyNanos, int cells, boolean failed) {
+      requests.increment();
+      if (failed) {
+        failedRequests.increment();
+      }
+      cellsValidated.add(cells);
+      totalLatencyNanos.add(latencyNanos);
+      maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+  }
+
+  private final CommSheetValidator validator;
+  private final ValidationCache cache;
+  private final Stats stats = new Stats();
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /*
+   * Creates a server on the given loopback port that validates with validator,
+   * whose parses and results are cached in cache. Call start() to begin serving.
+   */
+  public ValidationServer(int port, CommSheetValidator validator, ValidationCache cache) throws IOException {
+    this.cache = cache;
+    this.validator = validator;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+
+    server.createContext("/sheet", new TimedHandler(this::handleSheet));
+    server.createContext("/cell", new TimedHandler(this::handleCell));
+    server.createContext("/stats", exchange -> respond(exchange, 200, "application/json", statsJson()));
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /*****************************************************************************
+   * Handlers
+   ****************************************************************************/
+
+  private interface RequestHandler {
+    /* Handles the request, returning the number of cells validated */
+    int handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+  }
+
+  /* Wraps a handler with parameter parsing, error responses and timing */
+  private class TimedHandler implements HttpHandler {
+    private final RequestHandler handler;
+
+    TimedHandler(RequestHandler handler) {
+      this.handler = handler;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      int cells = 0;
+      boolean failed = true;
+      try {
+        cells = handler.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+        failed = false;
+      } catch (BadRequestException e) {
+        respond(exchange, 400, "application/json", "{\"error\":" + jsonString(e.getMessage()) + "}");
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 422, "application/json", "{\"error\":" + jsonString(e.getMessage()) + "}");
+      } catch (Exception e) {
+        respond(exchange, 500, "application/json", "{\"error\":" + jsonString(String.valueOf(e)) + "}");
+      } finally {
+        stats.record(System.nanoTime() - start, cells, failed);
+      }
+    }
+  }
+
+  private int handleSheet(HttpExchange exchange, Map<String, String> params) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      throw new BadRequestException("Sheets must be POSTed");
+    }
+
+    PieceType pieceType = getPieceType(params);
+    char buffer = getLetter(params, "buffer", 'c');
+    boolean includesHeaders = getFlag(params, "headers");
+    boolean includesEmptyBufferGroups = getFlag(params, "empty-groups");
+    boolean ignoreEmpty = getFlag(params, "ignore-empty");
+
+    CharSequence[][] commStrings;
+    try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+      commStrings = CommSheetValidator.readSheet(reader, pieceType, includesHeaders, includesEmptyBufferGroups);
+    }
+    CommValidity[][] validities = validator.checkValidity(commStrings, buffer, pieceType,
+        includesEmptyBufferGroups);
+
+    if ("text".equals(params.get("format"))) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes, false, "UTF-8");
+      CommSheetValidator.printErrors(out, validities, ignoreEmpty);
+      out.flush();
+      respond(exchange, 200, "text/plain; charset=utf-8", bytes.toString("UTF-8"));
+    } else {
+      respond(exchange, 200, "application/json", sheetJson(validities, ignoreEmpty));
+    }
+
+    int cells = 0;
+    for (CommValidity[] row : validities) {
+      for (CommValidity validity : row) {
+        if (validity != null) {
+          cells++;
+        }
+      }
+    }
+    return cells;
+  }
+
+  private int handleCell(HttpExchange exchange, Map<String, String> params) throws IOException {
+    PieceType pieceType = getPieceType(params);
+    char buffer = getLetter(params, "buffer", 'c');
+    char target1 = getLetter(params, "t1", '\0');
+    char target2 = getLetter(params, "t2", '\0');
+
+    Set<Character> bufferPiece = pieceType.equals(PieceType.EDGE)
+        ? SpeffzUtils.getRelatedEdgeStickersSet(buffer)
+        : SpeffzUtils.getRelatedCornerStickersSet(buffer);
+    if (bufferPiece.contains(target1) || bufferPiece.contains(target2)) {
+      throw new BadRequestException("Targets must not be on the buffer piece");
+    }
+
+    String comm = params.get("comm");
+    if (comm == null) {
+      comm = readBody(exchange.getRequestBody());
+    }
+
+    CommValidity validity = validator.checkCell(comm, pieceType, buffer, target1, target2);
+    respond(exchange, 200, "application/json", "{\"validity\":" + jsonString(validity.name()) + "}");
+    return 1;
+  }
+
+  /*****************************************************************************
+   * Parameters
+   ****************************************************************************/
+
+  private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+    for (String pair : query.split("&")) {
+      int split = pair.indexOf('=');
+      String key = split >= 0 ? pair.substring(0, split) : pair;
+      String value = split >= 0 ? pair.substring(split + 1) : "";
+      params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+    }
+    return params;
+  }
+
+  private static PieceType getPieceType(Map<String, String> params) {
+    String type = params.get("type");
+    if ("e".equals(type)) {
+      return PieceType.EDGE;
+    } else if ("c".equals(type)) {
+      return PieceType.CORNER;
+    }
+    throw new BadRequestException("Parameter 'type' must be either 'e' or 'c'");
+  }
+
+  /* Returns a Speffz letter parameter, or defaultLetter if it is absent and not '\0' */
+  private static char getLetter(Map<String, String> params, String name, char defaultLetter) {
+    String value = params.get(name);
+    if (value == null && defaultLetter != '\0') {
+      return defaultLetter;
+    }
+    if (value == null || value.length() != 1 || !SpeffzUtils.isValidSpeffzLetter(value.charAt(0))) {
+      throw new BadRequestException("Parameter '" + name + "' must be a single Speffz letter");
+    }
+    return value.charAt(0);
+  }
+
+  private static boolean getFlag(Map<String, String> params, String name) {
+    String value = params.get(name);
+    return value != null && !value.equals("0") && !value.equalsIgnoreCase("false");
+  }
+
+  private static String readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = in.read(buf)) > 0) {
+      bytes.write(buf, 0, n);
+    }
+    return bytes.toString("UTF-8");
+  }
+
+  /*****************************************************************************
+   * Responses
+   ****************************************************************************/
+
+  private static void respond(HttpExchange exchange, int status, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /*
+   * Returns every cell's validity keyed by its letter pair, plus the invalid
+   * pairs grouped by validity.
+   */
+  private static String sheetJson(CommValidity[][] validities, boolean ignoreEmpty) {
+    StringBuilder cells = new StringBuilder();
+    Map<CommValidity, StringBuilder> errors = new EnumMap<>(CommValidity.class);
+
+    for (int i = 0; i < validities.length; i++) {
+      for (int j = 0; j < validities[i].length; j++) {
+        CommValidity validity = validities[i][j];
+        if (validity == null) {
+          continue;
+        }
+        String pair = "" + Character.toUpperCase((char) (i + 'a')) + Character.toUpperCase((char) (j + 'a'));
+        if (cells.length() > 0) {
+          cells.append(',');
+        }
+        cells.append(jsonString(pair)).append(':').append(jsonString(validity.name()));
+
+        if (CommValidity.isValid(validity) || (ignoreEmpty && validity.equals(CommValidity.UNEXPECTED_EMPTY))) {
+          continue;
+        }
+        StringBuilder group = errors.computeIfAbsent(validity, cv -> new StringBuilder());
+        if (group.length() > 0) {
+          group.append(',');
+        }
+        group.append(jsonString(pair));
+      }
+    }
+
+    StringBuilder json = new StringBuilder("{\"errors\":{");
+    boolean first = true;
+    for (Map.Entry<CommValidity, StringBuilder> entry : errors.entrySet()) {
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      json.append(jsonString(entry.getKey().name())).append(":[").append(entry.getValue()).append(']');
+    }
+    json.append("},\"cells\":{").append(cells).append("}}");
+    return json.toString();
+  }
+
+  private String statsJson() {
+    long requests = stats.requests.sum();
+    double uptimeSeconds = (System.nanoTime() - stats.startNanos) / 1e9;
+    double meanLatencyMillis = requests == 0 ? 0 : stats.totalLatencyNanos.sum() / 1e6 / requests;
+
+    return "{\"requests\":" + requests
+        + ",\"failedRequests\":" + stats.failedRequests.sum()
+        + ",\"cellsValidated\":" + stats.cellsValidated.sum()
+        + ",\"uptimeSeconds\":" + String.format(Locale.ROOT, "%.3f", uptimeSeconds)
+        + ",\"requestsPerSecond\":" + String.format(Locale.ROOT, "%.3f", requests / uptimeSeconds)
+        + ",\"meanLatencyMillis\":" + String.format(Locale.ROOT, "%.3f", meanLatencyMillis)
+        + ",\"maxLatencyMillis\":" + String.format(Locale.ROOT, "%.3f", stats.maxLatencyNanos.get() / 1e6)
+        + ",\"parseCacheHits\":" + cache.getParseHits()
+        + ",\"parseCacheMisses\":" + cache.getParseMisses()
+        + ",\"resultCacheHits\":" + cache.getResultHits()
+        + ",\"resultCacheMisses\":" + cache.getResultMisses()
+        + "}";
+  }
+
+  private static String jsonString(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
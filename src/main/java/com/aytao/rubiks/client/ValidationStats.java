@@ -0,0 +1,397 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Counters and timers for each phase of validation: reading
+ *                sheets, parsing cells, expanding comms into moves and
+ *                simulating them, plus how cells were decided and which
+ *                cells were the slowest and the longest. Counters are
+ *                LongAdders and timings are taken once per cell, and the
+ *                slowest cells are only locked when a cell beats the current
+ *                top list, so the stats are always on. Allocations are
+ *                estimated per chunk of cells from the JVM's per-thread
+ *                allocation counter, where the JVM supports it.
+ *
+ *                There is one set of stats per JVM, which can be printed with
+ *                --stats or watched over JMX (see ValidationStatsMBean).
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+
+public final class ValidationStats implements ValidationStatsMBean {
+  public static final String OBJECT_NAME = "com.aytao.rubiks:type=ValidationStats";
+
+  // Number of cells kept in each of the slowest and longest lists
+  private static final int NUM_TOP_CELLS = 10;
+
+  private static final ValidationStats INSTANCE = new ValidationStats();
+
+  private static final com.sun.management.ThreadMXBean ALLOCATIONS = getAllocationBean();
+
+  /* A simulated cell, as kept in the top lists */
+  private static class TimedCell {
+    private final String commString;
+    private final PieceType pieceType;
+    private final char buffer;
+    private final char target1;
+    private final char target2;
+    private final int moves;
+    private final long nanos;
+
+    TimedCell(String commString, PieceType pieceType, char buffer, char target1, char target2, int moves,
+        long nanos) {
+      this.commString = commString;
+      this.pieceType = pieceType;
+      this.buffer = buffer;
+      this.target1 = target1;
+      this.target2 = target2;
+      this.moves = moves;
+      this.nanos = nanos;
+    }
+
+    public String toString() {
+      String pieceName = pieceType.equals(PieceType.EDGE) ? "edges" : "corners";
+      return String.format("%c%c (buffer %c, %s): %.1f us, %d moves: %s", Character.toUpperCase(target1),
+          Character.toUpperCase(target2), Character.toUpperCase(buffer), pieceName, nanos / 1e3, moves,
+          commString);
+    }
+  }
+
+  /*
+   * The NUM_TOP_CELLS cells with the largest key. Most cells fall below the
+   * volatile threshold and are rejected without locking or allocating.
+   */
+  private static class TopCells {
+    private final boolean byMoves;
+    private final PriorityQueue<TimedCell> heap;
+    private volatile long threshold = -1;
+
+    TopCells(boolean byMoves) {
+      this.byMoves = byMoves;
+      this.heap = new PriorityQueue<>(Comparator.comparingLong(this::key));
+    }
+
+    private long key(TimedCell cell) {
+      return byMoves ? cell.moves : cell.nanos;
+    }
+
+    void offer(String commString, PieceType pieceType, char buffer, char target1, char target2, int moves,
+        long nanos) {
+      if ((byMoves ? moves : nanos) <= threshold) {
+        return;
+      }
+      synchronized (this) {
+        heap.add(new TimedCell(commString, pieceType, buffer, target1, target2, moves, nanos));
+        if (heap.size() > NUM_TOP_CELLS) {
+          heap.poll();
+        }
+        if (heap.size() == NUM_TOP_CELLS) {
+          threshold = key(heap.peek());
+        }
+      }
+    }
+
+    synchronized String[] get() {
+      List<TimedCell> cells = new ArrayList<>(heap);
+      cells.sort(Comparator.comparingLong(this::key).reversed());
+      String[] descriptions = new String[cells.size()];
+      for (int i = 0; i < descriptions.length; i++) {
+        descriptions[i] = cells.get(i).toString();
+      }
+      return descriptions;
+    }
+
+    synchronized void clear() {
+      heap.clear();
+      threshold = -1;
+    }
+  }
+
+  private final LongAdder sheetsRead = new LongAdder();
+  private final LongAdder readNanos = new LongAdder();
+  private final LongAdder readAllocatedBytes = new LongAdder();
+
+  private final LongAdder cellsProcessed = new LongAdder();
+  private final LongAdder cellsParsed = new LongAdder();
+  private final LongAdder parseNanos = new LongAdder();
+  private final LongAdder cellsFromResultCache = new LongAdder();
+  private final LongAdder parseAllocatedBytes = new LongAdder();
+
+  private final LongAdder cellsSimulated = new LongAdder();
+  private final LongAdder expandNanos = new LongAdder();
+  private final LongAdder simulateNanos = new LongAdder();
+  private final LongAdder movesExecuted = new LongAdder();
+  private final LongAdder simulateAllocatedBytes = new LongAdder();
+
+  // Simulated comms decided by the invariant filter, and by the expected permutation
+  private final LongAdder decidedByFilter = new LongAdder();
+  private final LongAdder decidedByTable = new LongAdder();
+
+  // Cells decided from an inverse or mirrored cell without simulating
+  private final LongAdder decidedByRelatedCell = new LongAdder();
+
+  private final TopCells slowestCells = new TopCells(false);
+  private final TopCells longestCells = new TopCells(true);
+
+  private ValidationStats() {
+  }
+
+  public static ValidationStats get() {
+    return INSTANCE;
+  }
+
+  /* Registers the stats with the platform MBean server under OBJECT_NAME */
+  public static void registerMBean() throws JMException {
+    ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+  }
+
+  private static com.sun.management.ThreadMXBean getAllocationBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+      if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+        return allocationBean;
+      }
+    }
+    return null;
+  }
+
+  /* Returns the bytes allocated so far by the current thread, or -1 if unknown */
+  static long allocatedBytes() {
+    return ALLOCATIONS == null ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void addAllocated(LongAdder adder, long before) {
+    if (before >= 0) {
+      adder.add(allocatedBytes() - before);
+    }
+  }
+
+  /*****************************************************************************
+   * Recording
+   ****************************************************************************/
+
+  /* Records a sheet read since startNanos and startAllocated (see allocatedBytes) */
+  void sheetRead(long startNanos, long startAllocated) {
+    readNanos.add(System.nanoTime() - startNanos);
+    addAllocated(readAllocatedBytes, startAllocated);
+    sheetsRead.increment();
+  }
+
+  void cellProcessed() {
+    cellsProcessed.increment();
+  }
+
+  void cellParsed(long nanos) {
+    cellsParsed.increment();
+    parseNanos.add(nanos);
+  }
+
+  void cellFromResultCache() {
+    cellsFromResultCache.increment();
+  }
+
+  void parseAllocated(long startAllocated) {
+    addAllocated(parseAllocatedBytes, startAllocated);
+  }
+
+  void cellSimulated(long expandNanos, long simulateNanos, int moves) {
+    cellsSimulated.increment();
+    this.expandNanos.add(expandNanos);
+    this.simulateNanos.add(simulateNanos);
+    movesExecuted.add(moves);
+  }
+
+  /* Offers a simulated cell to the slowest and longest lists */
+  void timedCell(String commString, PieceType pieceType, char buffer, char target1, char target2, int moves,
+      long nanos) {
+    slowestCells.offer(commString, pieceType, buffer, target1, target2, moves, nanos);
+    longestCells.offer(commString, pieceType, buffer, target1, target2, moves, nanos);
+  }
+
+  void simulateAllocated(long startAllocated) {
+    addAllocated(simulateAllocatedBytes, startAllocated);
+  }
+
+  void decidedByFilter() {
+    decidedByFilter.increment();
+  }
+
+  void decidedByTable() {
+    decidedByTable.increment();
+  }
+
+  void decidedByRelatedCell() {
+    decidedByRelatedCell.increment();
+  }
+
+  /*****************************************************************************
+   * MBean
+   ****************************************************************************/
+
+  @Override
+  public long getSheetsRead() {
+    return sheetsRead.sum();
+  }
+
+  @Override
+  public long getReadNanos() {
+    return readNanos.sum();
+  }
+
+  @Override
+  public long getReadAllocatedBytes() {
+    return ALLOCATIONS == null ? -1 : readAllocatedBytes.sum();
+  }
+
+  @Override
+  public long getCellsProcessed() {
+    return cellsProcessed.sum();
+  }
+
+  @Override
+  public long getCellsParsed() {
+    return cellsParsed.sum();
+  }
+
+  @Override
+  public long getParseNanos() {
+    return parseNanos.sum();
+  }
+
+  @Override
+  public long getCellsFromResultCache() {
+    return cellsFromResultCache.sum();
+  }
+
+  @Override
+  public long getParseAllocatedBytes() {
+    return ALLOCATIONS == null ? -1 : parseAllocatedBytes.sum();
+  }
+
+  @Override
+  public long getCellsSimulated() {
+    return cellsSimulated.sum();
+  }
+
+  @Override
+  public long getExpandNanos() {
+    return expandNanos.sum();
+  }
+
+  @Override
+  public long getSimulateNanos() {
+    return simulateNanos.sum();
+  }
+
+  @Override
+  public long getMovesExecuted() {
+    return movesExecuted.sum();
+  }
+
+  @Override
+  public long getSimulateAllocatedBytes() {
+    return ALLOCATIONS == null ? -1 : simulateAllocatedBytes.sum();
+  }
+
+  @Override
+  public long getDecidedByFilter() {
+    return decidedByFilter.sum();
+  }
+
+  @Override
+  public long getDecidedByTable() {
+    return decidedByTable.sum();
+  }
+
+  @Override
+  public long getDecidedByRelatedCell() {
+    return decidedByRelatedCell.sum();
+  }
+
+  @Override
+  public String[] getSlowestCells() {
+    return slowestCells.get();
+  }
+
+  @Override
+  public String[] getLongestCells() {
+    return longestCells.get();
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder adder : new LongAdder[] { sheetsRead, readNanos, readAllocatedBytes, cellsProcessed,
+        cellsParsed, parseNanos, cellsFromResultCache, parseAllocatedBytes, cellsSimulated, expandNanos,
+        simulateNanos, movesExecuted, simulateAllocatedBytes, decidedByFilter, decidedByTable,
+        decidedByRelatedCell }) {
+      adder.reset();
+    }
+    slowestCells.clear();
+    longestCells.clear();
+  }
+
+  /*****************************************************************************
+   * Reporting
+   ****************************************************************************/
+
+  /*
+   * Prints every counter to out, along with the hit rates of cache and store
+   * if they are not null.
+   */
+  void printReport(PrintStream out, ValidationCache cache, PersistentResultCache store) {
+    out.println("== Stats ==");
+    out.printf("Sheets read:     %d in %s%s\n", getSheetsRead(), formatNanos(getReadNanos()),
+        formatAllocated(getReadAllocatedBytes()));
+    out.printf("Cells processed: %d, %d parsed in %s, %d from the result cache%s\n", getCellsProcessed(),
+        getCellsParsed(), formatNanos(getParseNanos()), getCellsFromResultCache(),
+        formatAllocated(getParseAllocatedBytes()));
+    out.printf("Cells simulated: %d in %s (%s expanding), %d moves%s\n", getCellsSimulated(),
+        formatNanos(getExpandNanos() + getSimulateNanos()), formatNanos(getExpandNanos()), getMovesExecuted(),
+        formatAllocated(getSimulateAllocatedBytes()));
+    out.printf("Decided by:      invariant filter %d, expected permutation %d, related cell %d\n",
+        getDecidedByFilter(), getDecidedByTable(), getDecidedByRelatedCell());
+    if (cache != null) {
+      out.printf("Parse cache:     %d hits, %d misses\n", cache.getParseHits(), cache.getParseMisses());
+      out.printf("Result cache:    %d hits, %d misses\n", cache.getResultHits(), cache.getResultMisses());
+    }
+    if (store != null) {
+      out.printf("Persistent:      %d hits, %d misses\n", store.getHits(), store.getMisses());
+    }
+    printCells(out, "Slowest cells", getSlowestCells());
+    printCells(out, "Longest cells", getLongestCells());
+  }
+
+  private static void printCells(PrintStream out, String title, String[] cells) {
+    if (cells.length == 0) {
+      return;
+    }
+    out.println();
+    out.println(title + ":");
+    for (String cell : cells) {
+      out.println("  " + cell);
+    }
+  }
+
+  private static String formatNanos(long nanos) {
+    return String.format("%.1f ms", nanos / 1e6);
+  }
+
+  private static String formatAllocated(long bytes) {
+    return bytes < 0 ? "" : String.format(", ~%.1f MB allocated", bytes / (1024.0 * 1024.0));
+  }
+}
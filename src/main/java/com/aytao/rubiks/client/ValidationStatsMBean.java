@@ -0,0 +1,54 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The JMX view of ValidationStats. Times are in nanoseconds,
+ *                and allocations are in bytes (-1 if the JVM cannot measure
+ *                them). Every counter covers all validations since the JVM
+ *                started or since the last reset.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+public interface ValidationStatsMBean {
+
+  long getSheetsRead();
+
+  long getReadNanos();
+
+  long getReadAllocatedBytes();
+
+  long getCellsProcessed();
+
+  long getCellsParsed();
+
+  long getParseNanos();
+
+  long getCellsFromResultCache();
+
+  long getParseAllocatedBytes();
+
+  long getCellsSimulated();
+
+  long getExpandNanos();
+
+  long getSimulateNanos();
+
+  long getMovesExecuted();
+
+  long getSimulateAllocatedBytes();
+
+  long getDecidedByFilter();
+
+  long getDecidedByTable();
+
+  long getDecidedByRelatedCell();
+
+  /* The slowest simulated cells, slowest first */
+  String[] getSlowestCells();
+
+  /* The simulated cells with the most moves once expanded, longest first */
+  String[] getLongestCells();
+
+  void reset();
+}
@@ -0,0 +1,170 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A validator for one kind of sheet, meant to be embedded in
+ *                other programs. It is configured once with the sheet layout
+ *                (piece type, buffer, headers and empty buffer groups) and
+ *                then validates sheets given as rows, a Reader, an
+ *                InputStream or a Path, without going through the classpath
+ *                or writing anything to disk. Instances are immutable and
+ *                safe to share between threads; the engine's thread pool,
+ *                tables and caches are kept for the validator's lifetime.
+ *                Close a validator when done with it to release the pool of
+ *                the engine it created.
+ *
+ *                Sheets are CSV in UTF-8 and laid out exactly as for the
+ *                command line: rows are indexed by the second target and
+ *                columns by the first, including any header row and column.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public final class Validator implements AutoCloseable {
+  private final PieceType pieceType;
+  private final char buffer;
+  private final boolean includesHeaders;
+  private final boolean includesEmptyBufferGroups;
+  private final CommSheetValidator engine;
+  // Whether this validator created engine, and so closes it
+  private final boolean ownsEngine;
+
+  /* Creates a validator with its own engine, using all available processors */
+  public Validator(PieceType pieceType, char buffer, boolean includesHeaders, boolean includesEmptyBufferGroups) {
+    this(pieceType, buffer, includesHeaders, includesEmptyBufferGroups,
+        new CommSheetValidator(Runtime.getRuntime().availableProcessors(), new ValidationCache()), true);
+  }
+
+  /*
+   * Creates a validator that runs on engine, which may be shared with other
+   * validators (e.g. one per buffer) to share its threads and caches. The
+   * engine stays open when the validator is closed; close it when every
+   * validator on it is done.
+   */
+  public Validator(PieceType pieceType, char buffer, boolean includesHeaders, boolean includesEmptyBufferGroups,
+      CommSheetValidator engine) {
+    this(pieceType, buffer, includesHeaders, includesEmptyBufferGroups, engine, false);
+  }
+
+  private Validator(PieceType pieceType, char buffer, boolean includesHeaders, boolean includesEmptyBufferGroups,
+      CommSheetValidator engine, boolean ownsEngine) {
+    if (pieceType == null || engine == null) {
+      throw new IllegalArgumentException("Piece type and engine must not be null");
+    }
+    if (!SpeffzUtils.isValidSpeffzLetter(buffer)) {
+      throw new IllegalArgumentException("Illegal buffer: " + buffer);
+    }
+    this.pieceType = pieceType;
+    this.buffer = Character.toLowerCase(buffer);
+    this.includesHeaders = includesHeaders;
+    this.includesEmptyBufferGroups = includesEmptyBufferGroups;
+    this.engine = engine;
+    this.ownsEngine = ownsEngine;
+  }
+
+  /* Closes the engine if this validator created it, releasing its threads */
+  @Override
+  public void close() {
+    if (ownsEngine) {
+      engine.close();
+    }
+  }
+
+  /* Creates a validator for the layout of config, ignoring its path */
+  public static Validator forConfig(SheetConfig config, CommSheetValidator engine) {
+    return new Validator(config.getPieceType(), config.getBuffer(), config.includesHeaders(),
+        config.includesEmptyBufferGroups(), engine);
+  }
+
+  /*
+   * Validates a sheet given as rows of cells. Returns a [target1][target2]
+   * array of validities, with null for the buffer's own cells. Throws an
+   * IllegalArgumentException if the rows do not have the configured layout.
+   */
+  public CommValidity[][] validate(String[][] rows) {
+    return engine.checkValidity(getCommStrings(rows), buffer, pieceType, includesEmptyBufferGroups);
+  }
+
+  /*
+   * Validates a sheet given as rows of cells, passing each cell to listener as
+   * soon as it is decided. Returns false if the listener cancelled validation.
+   */
+  public boolean validate(String[][] rows, CellListener listener) {
+    return engine.checkValidity(getCommStrings(rows), buffer, pieceType, includesEmptyBufferGroups, listener);
+  }
+
+  /* Validates a CSV sheet read from reader, which is not closed */
+  public CommValidity[][] validate(Reader reader) throws IOException {
+    return engine.checkValidity(readSheet(reader), buffer, pieceType, includesEmptyBufferGroups);
+  }
+
+  public boolean validate(Reader reader, CellListener listener) throws IOException {
+    return engine.checkValidity(readSheet(reader), buffer, pieceType, includesEmptyBufferGroups, listener);
+  }
+
+  /* Validates a UTF-8 CSV sheet read from in, which is not closed */
+  public CommValidity[][] validate(InputStream in) throws IOException {
+    return validate(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  public boolean validate(InputStream in, CellListener listener) throws IOException {
+    return validate(new InputStreamReader(in, StandardCharsets.UTF_8), listener);
+  }
+
+  /* Validates the UTF-8 CSV sheet at path */
+  public CommValidity[][] validate(Path path) throws IOException {
+    return engine.checkValidity(readSheet(path), buffer, pieceType, includesEmptyBufferGroups);
+  }
+
+  public boolean validate(Path path, CellListener listener) throws IOException {
+    return engine.checkValidity(readSheet(path), buffer, pieceType, includesEmptyBufferGroups, listener);
+  }
+
+  /* Validates a single comm for the configured buffer and the given targets */
+  public CommValidity validateCell(String commString, char target1, char target2) {
+    if (!SpeffzUtils.isValidSpeffzLetter(target1) || !SpeffzUtils.isValidSpeffzLetter(target2)) {
+      throw new IllegalArgumentException("Illegal targets: " + target1 + target2);
+    }
+    return engine.checkCell(commString, pieceType, buffer, target1, target2);
+  }
+
+  private CharSequence[][] getCommStrings(String[][] rows) {
+    return CommSheetValidator.getCommStrings(Arrays.asList(rows), pieceType, includesHeaders,
+        includesEmptyBufferGroups);
+  }
+
+  private CharSequence[][] readSheet(Reader reader) throws IOException {
+    return CommSheetValidator.readSheet(reader, pieceType, includesHeaders, includesEmptyBufferGroups);
+  }
+
+  private CharSequence[][] readSheet(Path path) throws IOException {
+    return CommSheetValidator.readSheet(path, pieceType, includesHeaders, includesEmptyBufferGroups);
+  }
+
+  public PieceType getPieceType() {
+    return pieceType;
+  }
+
+  public char getBuffer() {
+    return buffer;
+  }
+
+  public boolean includesHeaders() {
+    return includesHeaders;
+  }
+
+  public boolean includesEmptyBufferGroups() {
+    return includesEmptyBufferGroups;
+  }
+}
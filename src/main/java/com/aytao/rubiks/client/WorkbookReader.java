@@ -0,0 +1,531 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Streams the tabs of an .xlsx or .ods workbook row by row,
+ *                using only java.util.zip and StAX. Each tab's XML is read as
+ *                a stream, and every row is passed to a TabHandler as soon as
+ *                it has been read, so memory is bounded by one row rather
+ *                than by the workbook (plus, for .xlsx, the workbook's table
+ *                of shared strings). As when a tab is exported to CSV,
+ *                trailing empty cells of each row and trailing empty rows of
+ *                each tab are dropped.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+final class WorkbookReader {
+  private static final String[] EXTENSIONS = { ".xlsx", ".ods" };
+
+  private static final String XLSX_WORKBOOK = "xl/workbook.xml";
+  private static final String XLSX_RELATIONSHIPS = "xl/_rels/workbook.xml.rels";
+  private static final String ODS_CONTENT = "content.xml";
+
+  private static final String ODS_OFFICE_NS = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+  private static final String ODS_TABLE_NS = "urn:oasis:names:tc:opendocument:xmlns:table:1.0";
+  private static final String ODS_TEXT_NS = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+  static {
+    // Workbooks come from users, so never resolve DTDs or external entities
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  /* Receives the rows of each tab of a workbook, in order */
+  interface TabHandler {
+
+    /* Called at the start of each tab. Returns false to skip the tab's rows. */
+    boolean startTab(String name) throws InterruptedException;
+
+    /* Called with each row of a tab that was not skipped */
+    void row(CharSequence[] cells) throws InterruptedException;
+
+    /* Called at the end of each tab that was not skipped */
+    void endTab() throws InterruptedException;
+  }
+
+  /* Builds the rows of one tab, holding back empty cells and rows until something follows them */
+  private static final class RowBuilder {
+    private final TabHandler handler;
+    private final List<CharSequence> cells = new ArrayList<>();
+    private int emptyCells;
+    private int emptyRows;
+
+    RowBuilder(TabHandler handler) {
+      this.handler = handler;
+    }
+
+    void cell(String text, int repeat) {
+      if (text.isEmpty()) {
+        emptyCells += repeat;
+        return;
+      }
+      for (; emptyCells > 0; emptyCells--) {
+        cells.add("");
+      }
+      for (int i = 0; i < repeat; i++) {
+        cells.add(text);
+      }
+    }
+
+    void emptyRows(int count) {
+      emptyRows += count;
+    }
+
+    void endRow(int repeat) throws InterruptedException {
+      emptyCells = 0;
+      if (cells.isEmpty()) {
+        emptyRows += repeat;
+        return;
+      }
+      for (; emptyRows > 0; emptyRows--) {
+        handler.row(new CharSequence[0]);
+      }
+      CharSequence[] row = cells.toArray(new CharSequence[0]);
+      handler.row(row);
+      for (int i = 1; i < repeat; i++) {
+        handler.row(row.clone());
+      }
+      cells.clear();
+    }
+  }
+
+  private WorkbookReader() {
+  }
+
+  /* Returns whether path looks like a workbook that this reader supports */
+  static boolean isWorkbook(Path path) {
+    String name = path.getFileName().toString().toLowerCase();
+    for (String extension : EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Reads every tab of the .xlsx or .ods workbook at path, in order, passing
+   * its rows to handler. The format is recognized from the workbook's contents.
+   */
+  static void read(Path path, TabHandler handler) throws IOException, InterruptedException {
+    try (ZipFile zip = new ZipFile(path.toFile())) {
+      if (zip.getEntry(XLSX_WORKBOOK) != null) {
+        readXlsx(zip, handler);
+      } else if (zip.getEntry(ODS_CONTENT) != null) {
+        readOds(zip, handler);
+      } else {
+        throw new IOException("'" + path + "' is not an .xlsx or .ods workbook");
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Malformed workbook '" + path + "': " + e.getMessage(), e);
+    }
+  }
+
+  /*****************************************************************************
+   * XLSX
+   ****************************************************************************/
+
+  private static void readXlsx(ZipFile zip, TabHandler handler) throws IOException, XMLStreamException,
+      InterruptedException {
+    // Worksheet and shared string parts are found through the workbook's relationships
+    Map<String, String> parts = new HashMap<>();
+    String sharedStringsPart = null;
+    try (InputStream in = getStream(zip, XLSX_RELATIONSHIPS)) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Relationship")) {
+            String part = resolvePart(XLSX_WORKBOOK, reader.getAttributeValue(null, "Target"));
+            String type = reader.getAttributeValue(null, "Type");
+            if (type != null && type.endsWith("/sharedStrings")) {
+              sharedStringsPart = part;
+            } else {
+              parts.put(reader.getAttributeValue(null, "Id"), part);
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    List<String> sharedStrings = sharedStringsPart == null ? new ArrayList<>()
+        : readSharedStrings(zip, sharedStringsPart);
+
+    List<String[]> sheets = new ArrayList<>();
+    try (InputStream in = getStream(zip, XLSX_WORKBOOK)) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("sheet")) {
+            sheets.add(new String[] { reader.getAttributeValue(null, "name"), parts.get(getRelationshipId(reader)) });
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    for (String[] sheet : sheets) {
+      if (sheet[1] == null) {
+        throw new XMLStreamException("Tab '" + sheet[0] + "' has no worksheet");
+      }
+      if (!handler.startTab(sheet[0])) {
+        continue;
+      }
+      try (InputStream in = getStream(zip, sheet[1])) {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+          readWorksheet(reader, sharedStrings, new RowBuilder(handler));
+        } finally {
+          reader.close();
+        }
+      }
+      handler.endTab();
+    }
+  }
+
+  /* Returns the r:id attribute of a sheet, in either the transitional or the strict namespace */
+  private static String getRelationshipId(XMLStreamReader reader) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String namespace = reader.getAttributeNamespace(i);
+      if (reader.getAttributeLocalName(i).equals("id") && namespace != null && namespace.endsWith("relationships")) {
+        return reader.getAttributeValue(i);
+      }
+    }
+    return null;
+  }
+
+  private static List<String> readSharedStrings(ZipFile zip, String part) throws IOException, XMLStreamException {
+    List<String> sharedStrings = new ArrayList<>();
+    try (InputStream in = getStream(zip, part)) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("si")) {
+            sharedStrings.add(readRichText(reader));
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return sharedStrings;
+  }
+
+  /*
+   * Streams the rows of a worksheet. Rows and cells that are not stored are
+   * empty, so gaps in their row numbers and cell references are filled in.
+   */
+  private static void readWorksheet(XMLStreamReader reader, List<String> sharedStrings, RowBuilder rows)
+      throws XMLStreamException, InterruptedException {
+    int nextRow = 0;
+    int nextColumn = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String name = reader.getLocalName();
+        if (name.equals("row")) {
+          String number = reader.getAttributeValue(null, "r");
+          int row = number == null ? nextRow : parseIndex(number) - 1;
+          if (row < nextRow) {
+            throw new XMLStreamException("Row " + number + " is out of order");
+          }
+          rows.emptyRows(row - nextRow);
+          nextRow = row + 1;
+          nextColumn = 0;
+        } else if (name.equals("c")) {
+          String reference = reader.getAttributeValue(null, "r");
+          int column = reference == null ? nextColumn : getColumnIndex(reference);
+          if (column < nextColumn) {
+            throw new XMLStreamException("Cell " + reference + " is out of order");
+          }
+          rows.cell("", column - nextColumn);
+          rows.cell(readCellValue(reader, sharedStrings), 1);
+          nextColumn = column + 1;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (reader.getLocalName().equals("row")) {
+          rows.endRow(1);
+        } else if (reader.getLocalName().equals("sheetData")) {
+          return;
+        }
+      }
+    }
+  }
+
+  /* Reads the text of the cell that starts at the reader's position, up to the cell's end */
+  private static String readCellValue(XMLStreamReader reader, List<String> sharedStrings) throws XMLStreamException {
+    String type = reader.getAttributeValue(null, "t");
+    String value = "";
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("c")) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      if (reader.getLocalName().equals("v")) {
+        value = reader.getElementText();
+      } else if (reader.getLocalName().equals("is")) {
+        value = readRichText(reader);
+      } else {
+        skipElement(reader);
+      }
+    }
+
+    if ("s".equals(type)) {
+      int index = parseIndex(value.trim());
+      if (index >= sharedStrings.size()) {
+        throw new XMLStreamException("Shared string " + index + " does not exist");
+      }
+      return sharedStrings.get(index);
+    }
+    return value;
+  }
+
+  /*
+   * Reads the text of the string item (si or is) that starts at the reader's
+   * position, joining its runs and leaving out phonetic hints.
+   */
+  private static String readRichText(XMLStreamReader reader) throws XMLStreamException {
+    String end = reader.getLocalName();
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (reader.getLocalName().equals("t")) {
+          text.append(decodeEscapes(reader.getElementText()));
+        } else if (reader.getLocalName().equals("rPh")) {
+          skipElement(reader);
+        } else {
+          depth++;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+    if (!reader.getLocalName().equals(end)) {
+      throw new XMLStreamException("Unexpected end of " + reader.getLocalName() + " in " + end);
+    }
+    return text.toString();
+  }
+
+  /* Decodes the _xHHHH_ escapes that Excel uses for control characters */
+  private static String decodeEscapes(String text) {
+    if (text.indexOf("_x") < 0) {
+      return text;
+    }
+    StringBuilder decoded = new StringBuilder();
+    int i = 0;
+    while (i < text.length()) {
+      if (i + 7 <= text.length() && text.startsWith("_x", i) && text.charAt(i + 6) == '_') {
+        try {
+          decoded.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+          i += 7;
+          continue;
+        } catch (NumberFormatException e) {
+          // Not an escape, so keep it as it is
+        }
+      }
+      decoded.append(text.charAt(i++));
+    }
+    return decoded.toString();
+  }
+
+  /* Returns the 0-based column of a cell reference such as "AB12" */
+  private static int getColumnIndex(String reference) throws XMLStreamException {
+    int column = 0;
+    int i = 0;
+    while (i < reference.length() && Character.isLetter(reference.charAt(i))) {
+      column = column * 26 + (Character.toUpperCase(reference.charAt(i)) - 'A' + 1);
+      i++;
+    }
+    if (i == 0 || column > 1 << 20) {
+      throw new XMLStreamException("Illegal cell reference: " + reference);
+    }
+    return column - 1;
+  }
+
+  private static int parseIndex(String number) throws XMLStreamException {
+    try {
+      int index = Integer.parseInt(number);
+      if (index >= 0) {
+        return index;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new XMLStreamException("Illegal number: " + number);
+  }
+
+  /* Resolves a relationship target against the part that it is relative to */
+  private static String resolvePart(String source, String target) throws XMLStreamException {
+    if (target == null) {
+      throw new XMLStreamException("Relationship has no target");
+    }
+    try {
+      String path = new URI(null, null, "/" + source, null).resolve(new URI(target)).normalize().getPath();
+      return path.startsWith("/") ? path.substring(1) : path;
+    } catch (URISyntaxException e) {
+      throw new XMLStreamException("Illegal relationship target: " + target);
+    }
+  }
+
+  /*****************************************************************************
+   * ODS
+   ****************************************************************************/
+
+  private static void readOds(ZipFile zip, TabHandler handler) throws IOException, XMLStreamException,
+      InterruptedException {
+    try (InputStream in = getStream(zip, ODS_CONTENT)) {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && isOds(reader, ODS_TABLE_NS, "table")) {
+            String name = reader.getAttributeValue(ODS_TABLE_NS, "name");
+            boolean included = handler.startTab(name);
+            readOdsTable(reader, included ? new RowBuilder(handler) : null);
+            if (included) {
+              handler.endTab();
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  /*
+   * Streams the rows of the table that starts at the reader's position to
+   * rows, or just skips them if rows is null. Rows and cells may be repeated.
+   */
+  private static void readOdsTable(XMLStreamReader reader, RowBuilder rows) throws XMLStreamException,
+      InterruptedException {
+    int rowRepeat = 1;
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (isOds(reader, ODS_TABLE_NS, "table-row")) {
+          rowRepeat = getRepeat(reader, "number-rows-repeated");
+        } else if (isOds(reader, ODS_TABLE_NS, "table-cell") || isOds(reader, ODS_TABLE_NS, "covered-table-cell")) {
+          int repeat = getRepeat(reader, "number-columns-repeated");
+          String text = readOdsCellText(reader);
+          if (rows != null) {
+            rows.cell(text, repeat);
+          }
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (isOds(reader, ODS_TABLE_NS, "table-row")) {
+          if (rows != null) {
+            rows.endRow(rowRepeat);
+          }
+        } else if (isOds(reader, ODS_TABLE_NS, "table")) {
+          return;
+        }
+      }
+    }
+  }
+
+  /*
+   * Reads the text of the cell that starts at the reader's position, up to the
+   * cell's end. Paragraphs are joined by line breaks, and comments are skipped.
+   */
+  private static String readOdsCellText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    boolean inParagraph = false;
+    int paragraphs = 0;
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (isOds(reader, ODS_OFFICE_NS, "annotation")) {
+          skipElement(reader);
+          continue;
+        }
+        depth++;
+        if (isOds(reader, ODS_TEXT_NS, "p") || isOds(reader, ODS_TEXT_NS, "h")) {
+          if (paragraphs++ > 0) {
+            text.append('\n');
+          }
+          inParagraph = true;
+        } else if (isOds(reader, ODS_TEXT_NS, "s")) {
+          String count = reader.getAttributeValue(ODS_TEXT_NS, "c");
+          for (int i = count == null ? 1 : parseIndex(count); i > 0; i--) {
+            text.append(' ');
+          }
+        } else if (isOds(reader, ODS_TEXT_NS, "tab")) {
+          text.append('\t');
+        } else if (isOds(reader, ODS_TEXT_NS, "line-break")) {
+          text.append('\n');
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+        if (isOds(reader, ODS_TEXT_NS, "p") || isOds(reader, ODS_TEXT_NS, "h")) {
+          inParagraph = false;
+        }
+      } else if (inParagraph && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+          || event == XMLStreamConstants.SPACE)) {
+        text.append(reader.getText());
+      }
+    }
+    return text.toString();
+  }
+
+  private static int getRepeat(XMLStreamReader reader, String attribute) throws XMLStreamException {
+    String repeat = reader.getAttributeValue(ODS_TABLE_NS, attribute);
+    return repeat == null ? 1 : Math.max(1, parseIndex(repeat));
+  }
+
+  private static boolean isOds(XMLStreamReader reader, String namespace, String localName) {
+    return reader.getLocalName().equals(localName) && namespace.equals(reader.getNamespaceURI());
+  }
+
+  /*****************************************************************************
+   * Helpers
+   ****************************************************************************/
+
+  private static InputStream getStream(ZipFile zip, String name) throws IOException {
+    ZipEntry entry = zip.getEntry(name);
+    if (entry == null) {
+      throw new IOException("Workbook has no part '" + name + "'");
+    }
+    return zip.getInputStream(entry);
+  }
+
+  /* Skips past the end of the element that starts at the reader's position */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+}
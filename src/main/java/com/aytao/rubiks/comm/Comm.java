@@ -11,8 +11,10 @@ package com.aytao.rubiks.comm;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
 import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 public class Comm {
 
@@ -41,17 +43,65 @@ public class Comm {
 
   public Comm(String commStr) {
     this.originalString = commStr;
-    this.root = parse(commStr);
+    this.root = parse(commStr, false);
+  }
+
+  private Comm(Component root) {
+    this(root.toString(), root);
+  }
+
+  /*
+   * Parses a comm for a big cube, whose moves may be any BigMove, such as 3Rw
+   * or 2U'. Only toBigSequence works on the comm returned.
+   */
+  public static Comm parseBigCube(String commStr) {
+    return new Comm(commStr, parse(commStr, true));
+  }
+
+  private Comm(String commStr, Component root) {
+    this.originalString = commStr;
+    this.root = root;
   }
 
   public ArrayList<Move> toSequence() {
     return root.toSequence();
   }
 
+  /* Returns the moves this comm executes, for a cube of any size */
+  public ArrayList<BigMove> toBigSequence() {
+    return root.toBigSequence();
+  }
+
   public String toString() {
     return originalString;
   }
 
+  /*
+   * Returns whether this comm executes exactly the inverse of other, as with
+   * [R' E R, U'] and [U', R' E R]. Such comms undo each other's cycles.
+   */
+  public boolean isInverseOf(Comm other) {
+    return root.isInverseOf(other.root);
+  }
+
+  /*
+   * Returns whether this comm is the L/R mirror image of other, move by move,
+   * as with [R U R', D] and [L' U' L, D'].
+   */
+  public boolean isMirrorOf(Comm other) {
+    return toSequence().equals(Sequence.getMirror(other.toSequence()));
+  }
+
+  /*
+   * Returns the comm that does in symmetry's frame what this comm does, with
+   * every move replaced by its image (see Symmetry) and the same structure. Its
+   * string is written out in sheet notation, e.g. [L' U' L , D'] for [R U R', D]
+   * under an L/R mirror.
+   */
+  public Comm transform(Symmetry symmetry) {
+    return new Comm(root.transform(symmetry));
+  }
+
   /*****************************************************************************
    * Parsing
    ****************************************************************************/
@@ -129,7 +179,7 @@ public class Comm {
     return -1;
   }
 
-  private static Component parse(String commStr) {
+  private static Component parse(String commStr, boolean bigCube) {
     if (!balanced(commStr)) {
       throw new UnbalancedBracketsException("String provided has unbalanced brackets");
     }
@@ -137,34 +187,34 @@ public class Comm {
     commStr = stripBrackets(commStr);
 
     if (isSequential(commStr)) {
-      return new SequenceComponent(commStr);
+      return new SequenceComponent(commStr, bigCube);
     }
 
     if (isDouble(commStr)) {
-      return new DoubleComponent(parse(commStr.substring(1, commStr.length() - 2)));
+      return new DoubleComponent(parse(commStr.substring(1, commStr.length() - 2), bigCube));
     }
 
     // Conjugates
     int colonSplit = findFirstUnbracketed(commStr, ':');
     if (colonSplit >= 0) {
-      Component setup = parse(commStr.substring(0, colonSplit));
-      Component nested = parse(commStr.substring(colonSplit + 1));
+      Component setup = parse(commStr.substring(0, colonSplit), bigCube);
+      Component nested = parse(commStr.substring(colonSplit + 1), bigCube);
       return new ConjugateComponent(setup, nested);
     }
 
     // Pure Comms
     int commaSplit = findFirstUnbracketed(commStr, ',');
     if (commaSplit >= 0) {
-      Component first = parse(commStr.substring(0, commaSplit));
-      Component second = parse(commStr.substring(commaSplit + 1));
+      Component first = parse(commStr.substring(0, commaSplit), bigCube);
+      Component second = parse(commStr.substring(commaSplit + 1), bigCube);
       return new CommutatorComponent(first, second);
     }
 
     // Slashes
     int slashSplit = findFirstUnbracketed(commStr, '/');
     if (slashSplit >= 0) {
-      Component setup = parse(commStr.substring(0, slashSplit));
-      Component slice = parse(commStr.substring(slashSplit + 1));
+      Component setup = parse(commStr.substring(0, slashSplit), bigCube);
+      Component slice = parse(commStr.substring(slashSplit + 1), bigCube);
       return new SlashComponent(setup, slice);
     }
 
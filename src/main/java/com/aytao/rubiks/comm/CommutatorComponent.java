@@ -11,8 +11,10 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
 import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 class CommutatorComponent extends Component {
   private final Component first;
@@ -39,4 +41,41 @@ class CommutatorComponent extends Component {
     return ret;
   }
 
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    ArrayList<BigMove> ret = new ArrayList<>();
+
+    ArrayList<BigMove> firstSequence = first.toBigSequence();
+    ArrayList<BigMove> secondSequence = second.toBigSequence();
+
+    ret.addAll(firstSequence);
+    ret.addAll(secondSequence);
+    ret.addAll(BigMove.getInverse(firstSequence));
+    ret.addAll(BigMove.getInverse(secondSequence));
+
+    return ret;
+  }
+
+  /* [A, B] is the inverse of [B, A] */
+  @Override
+  boolean isInverseOf(Component other) {
+    if (other instanceof CommutatorComponent) {
+      CommutatorComponent commutator = (CommutatorComponent) other;
+      if (first.isSameAs(commutator.second) && second.isSameAs(commutator.first)) {
+        return true;
+      }
+    }
+    return super.isInverseOf(other);
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    return new CommutatorComponent(first.transform(symmetry), second.transform(symmetry));
+  }
+
+  @Override
+  public String toString() {
+    return "[" + first + " , " + second + "]";
+  }
+
 }
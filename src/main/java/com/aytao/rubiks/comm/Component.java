@@ -14,10 +14,37 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 abstract class Component {
 
   abstract ArrayList<Move> toSequence();
 
+  /* As above, but as moves for a cube of any size */
+  abstract ArrayList<BigMove> toBigSequence();
+
+  /* Returns this component with every move replaced by its image under symmetry */
+  abstract Component transform(Symmetry symmetry);
+
+  /* Returns this component in sheet notation, bracketing every nested component */
+  @Override
+  public abstract String toString();
+
+  /* Returns whether this component executes exactly the same moves as other */
+  boolean isSameAs(Component other) {
+    return toSequence().equals(other.toSequence());
+  }
+
+  /*
+   * Returns whether this component executes exactly the inverse of other.
+   * Subclasses may recognize common cases structurally, without expanding
+   * either component.
+   */
+  boolean isInverseOf(Component other) {
+    return toSequence().equals(Sequence.getInverse(other.toSequence()));
+  }
+
 }
@@ -11,8 +11,10 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
 import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 class ConjugateComponent extends Component {
   private final Component setup;
@@ -37,4 +39,39 @@ class ConjugateComponent extends Component {
     return ret;
   }
 
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    ArrayList<BigMove> ret = new ArrayList<>();
+
+    ArrayList<BigMove> setupSequence = setup.toBigSequence();
+
+    ret.addAll(setupSequence);
+    ret.addAll(nestedComponent.toBigSequence());
+    ret.addAll(BigMove.getInverse(setupSequence));
+
+    return ret;
+  }
+
+  /* [A : B] is the inverse of [A : B'] */
+  @Override
+  boolean isInverseOf(Component other) {
+    if (other instanceof ConjugateComponent) {
+      ConjugateComponent conjugate = (ConjugateComponent) other;
+      if (setup.isSameAs(conjugate.setup) && nestedComponent.isInverseOf(conjugate.nestedComponent)) {
+        return true;
+      }
+    }
+    return super.isInverseOf(other);
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    return new ConjugateComponent(setup.transform(symmetry), nestedComponent.transform(symmetry));
+  }
+
+  @Override
+  public String toString() {
+    return "[" + setup + " : " + nestedComponent + "]";
+  }
+
 }
@@ -11,7 +11,9 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.Symmetry;
 
 public class DoubleComponent extends Component {
   private final Component nestedComponent;
@@ -32,4 +34,26 @@ public class DoubleComponent extends Component {
 
     return ret;
   }
+
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    ArrayList<BigMove> ret = new ArrayList<>();
+
+    ArrayList<BigMove> nestedComponentSequence = nestedComponent.toBigSequence();
+
+    ret.addAll(nestedComponentSequence);
+    ret.addAll(nestedComponentSequence);
+
+    return ret;
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    return new DoubleComponent(nestedComponent.transform(symmetry));
+  }
+
+  @Override
+  public String toString() {
+    return "(" + nestedComponent + ")2";
+  }
 }
@@ -14,7 +14,9 @@ package com.aytao.rubiks.comm;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.Symmetry;
 
 class MultiComponent extends Component {
   private List<Component> allComponents;
@@ -34,4 +36,36 @@ class MultiComponent extends Component {
 
     return ret;
   }
+
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    ArrayList<BigMove> ret = new ArrayList<>();
+
+    for (Component comp : allComponents) {
+      ret.addAll(comp.toBigSequence());
+    }
+
+    return ret;
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    List<Component> transformed = new ArrayList<>(allComponents.size());
+    for (Component comp : allComponents) {
+      transformed.add(comp.transform(symmetry));
+    }
+    return new MultiComponent(transformed);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Component comp : allComponents) {
+      if (sb.length() != 0) {
+        sb.append(" ");
+      }
+      sb.append(comp);
+    }
+    return sb.toString();
+  }
 }
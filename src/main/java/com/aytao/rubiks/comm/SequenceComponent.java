@@ -10,20 +10,78 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
 import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 class SequenceComponent extends Component {
   private ArrayList<Move> sequence;
 
-  SequenceComponent(String string) {
+  // The moves of a sequence parsed for a big cube, which are not 3x3 moves, or null
+  private ArrayList<BigMove> bigSequence;
+
+  SequenceComponent(String string, boolean bigCube) {
+    super();
+    if (bigCube) {
+      bigSequence = BigMove.parseSequence(string);
+    } else {
+      sequence = Sequence.getSequence(string);
+    }
+  }
+
+  private SequenceComponent(ArrayList<Move> sequence) {
     super();
-    sequence = Sequence.getSequence(string);
+    this.sequence = sequence;
   }
 
   @Override
   ArrayList<Move> toSequence() {
+    checkSmallCube();
     return new ArrayList<>(sequence);
   }
 
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    if (bigSequence != null) {
+      return new ArrayList<>(bigSequence);
+    }
+    ArrayList<BigMove> moves = new ArrayList<>(sequence.size());
+    for (Move move : sequence) {
+      moves.add(BigMove.of(move));
+    }
+    return moves;
+  }
+
+  private void checkSmallCube() {
+    if (sequence == null) {
+      throw new IllegalStateException("Sequence was parsed for a big cube");
+    }
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    checkSmallCube();
+    ArrayList<Move> transformed = new ArrayList<>(sequence.size());
+    for (Move move : sequence) {
+      transformed.add(symmetry.apply(move));
+    }
+    return new SequenceComponent(transformed);
+  }
+
+  @Override
+  public String toString() {
+    if (bigSequence != null) {
+      StringBuilder sb = new StringBuilder();
+      for (BigMove move : bigSequence) {
+        if (sb.length() != 0) {
+          sb.append(" ");
+        }
+        sb.append(move);
+      }
+      return sb.toString();
+    }
+    return Sequence.toString(sequence);
+  }
+
 }
@@ -10,8 +10,10 @@ package com.aytao.rubiks.comm;
 
 import java.util.ArrayList;
 
+import com.aytao.rubiks.cube.BigMove;
 import com.aytao.rubiks.cube.Move;
 import com.aytao.rubiks.cube.Sequence;
+import com.aytao.rubiks.cube.Symmetry;
 
 class SlashComponent extends Component {
   private final Component setup;
@@ -40,4 +42,31 @@ class SlashComponent extends Component {
     return ret;
   }
 
+  @Override
+  ArrayList<BigMove> toBigSequence() {
+    ArrayList<BigMove> ret = new ArrayList<>();
+
+    ArrayList<BigMove> setupSequence = setup.toBigSequence();
+    ArrayList<BigMove> sliceSequence = slice.toBigSequence();
+
+    ret.addAll(setupSequence);
+    ret.addAll(sliceSequence);
+    ret.addAll(setupSequence);
+    ret.addAll(setupSequence);
+    ret.addAll(BigMove.getInverse(sliceSequence));
+    ret.addAll(setupSequence);
+
+    return ret;
+  }
+
+  @Override
+  Component transform(Symmetry symmetry) {
+    return new SlashComponent(setup.transform(symmetry), slice.transform(symmetry));
+  }
+
+  @Override
+  public String toString() {
+    return "[" + setup + " / " + slice + "]";
+  }
+
 }
\ No newline at end of file
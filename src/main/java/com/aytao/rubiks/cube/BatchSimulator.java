@@ -0,0 +1,113 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Simulates a batch of move sequences at once, each from a
+ *                solved cube, for validating many comms in one go. The cubes
+ *                are lanes of one flat byte array rather than separate
+ *                objects: lane l holds its 54 facelets (as in MoveTables)
+ *                from l * STRIDE, padded to a 64-byte stride so that a whole
+ *                cube fits in one 512-bit vector. Each lane's moves are kept
+ *                as move ordinals.
+ *
+ *                The lanes are run by SimulationKernel. On Java 8 that is
+ *                plain scalar code; from a multi-release jar on Java 17 and up
+ *                with the jdk.incubator.vector module added, it applies each
+ *                move with a single vector shuffle when the hardware has
+ *                512-bit vectors (see src/main/java17). Both give exactly the
+ *                same states as MoveTables.
+ *
+ *                A batch reuses its arrays, so each one is meant to be used by
+ *                one thread.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.Arrays;
+import java.util.List;
+
+public final class BatchSimulator {
+  // Bytes per lane, which must hold every facelet
+  static final int STRIDE = 64;
+
+  private static final int INITIAL_MOVES = 32;
+
+  private final byte[] states;
+  private final byte[][] moves;
+  private final int[] lengths;
+  private int size;
+
+  /* Creates a batch with room for the given number of sequences */
+  public BatchSimulator(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Batch capacity must be positive, but was " + capacity);
+    }
+    states = new byte[capacity * STRIDE];
+    moves = new byte[capacity][INITIAL_MOVES];
+    lengths = new int[capacity];
+  }
+
+  /* Returns the name of the kernel that runs the lanes, e.g. "scalar" */
+  public static String getKernelName() {
+    return SimulationKernel.getName();
+  }
+
+  /*
+   * Adds a sequence to the next free lane and returns the lane. Throws an
+   * IllegalStateException if the batch is full.
+   */
+  public int add(List<Move> sequence) {
+    if (size == lengths.length) {
+      throw new IllegalStateException("Batch is full");
+    }
+    int lane = size++;
+    if (moves[lane].length < sequence.size()) {
+      moves[lane] = new byte[Math.max(sequence.size(), 2 * moves[lane].length)];
+    }
+    byte[] laneMoves = moves[lane];
+    for (int t = 0; t < sequence.size(); t++) {
+      laneMoves[t] = (byte) sequence.get(t).ordinal();
+    }
+    lengths[lane] = sequence.size();
+    return lane;
+  }
+
+  /* Simulates every lane's sequence from a solved cube */
+  public void simulate() {
+    SimulationKernel.simulate(states, moves, lengths, size);
+  }
+
+  /* Puts lane's simulated state into state, in the form MoveTables uses */
+  public void getState(int lane, int[] state) {
+    if (lane < 0 || lane >= size) {
+      throw new IndexOutOfBoundsException("Lane " + lane + " of a batch of " + size);
+    }
+    int base = lane * STRIDE;
+    for (int i = 0; i < MoveTables.NUM_FACELETS; i++) {
+      state[i] = states[base + i];
+    }
+  }
+
+  /* Returns the number of moves in lane's sequence */
+  public int getLength(int lane) {
+    return lengths[lane];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return lengths.length;
+  }
+
+  public boolean isFull() {
+    return size == lengths.length;
+  }
+
+  /* Removes every sequence, keeping the arrays for reuse */
+  public void clear() {
+    Arrays.fill(lengths, 0, size, 0);
+    size = 0;
+  }
+}
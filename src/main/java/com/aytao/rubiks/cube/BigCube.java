@@ -0,0 +1,320 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Facelet permutation tables for cubes of any size from 2x2 to
+ *                7x7, for big-cube sheets. As in MoveTables, a state is an
+ *                int[] over the 6 * N * N facelets, where state[i] is the home
+ *                position of the facelet currently at position i, and faces
+ *                are numbered and laid out the same way as in Cube, so a 3x3
+ *                BigCube agrees with MoveTables move for move.
+ *
+ *                Cube only models the 3x3, so the tables are built from the
+ *                geometry instead: every facelet is placed on its cubie in 3D,
+ *                and a quarter turn of each layer is found by rotating the
+ *                facelets in it. A BigMove's permutation is composed from the
+ *                quarter turns of its layers the first time it is used and
+ *                then reused.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.aytao.rubiks.cube.Move.IllegalMoveException;
+
+public final class BigCube {
+  public static final int MIN_SIZE = 2;
+  public static final int MAX_SIZE = 7;
+
+  // Face letters by face number, as in Cube
+  private static final String FACE_LETTERS = "ULFRBD";
+
+  // Outward normal of each face, by face number
+  private static final int[][] NORMALS = { { 0, 1, 0 }, { -1, 0, 0 }, { 0, 0, 1 }, { 1, 0, 0 }, { 0, 0, -1 },
+      { 0, -1, 0 } };
+
+  private static final BigCube[] cubes = new BigCube[MAX_SIZE + 1];
+
+  private final int n;
+  private final int numFacelets;
+
+  // Cubie coordinates of each facelet, from 0 to n - 1 along L to R, D to U and B to F
+  private final int[][] coords;
+
+  // Facelets of each facelet's cubie, starting with that facelet
+  private final int[][] cubieFacelets;
+
+  // quarterTurns[face][layer] turns the layer'th layer from face clockwise, as seen from face
+  private final int[][][] quarterTurns;
+
+  private final ConcurrentMap<BigMove, int[]> permutations = new ConcurrentHashMap<>();
+
+  private BigCube(int n) {
+    this.n = n;
+    this.numFacelets = Cube.NUM_FACES * n * n;
+
+    coords = new int[numFacelets][];
+    int[] faceletAt = new int[n * n * n * Cube.NUM_FACES];
+    for (int facelet = 0; facelet < numFacelets; facelet++) {
+      coords[facelet] = getCoords(face(facelet), row(facelet), col(facelet));
+      faceletAt[key(coords[facelet], face(facelet))] = facelet;
+    }
+
+    cubieFacelets = new int[numFacelets][];
+    for (int facelet = 0; facelet < numFacelets; facelet++) {
+      List<Integer> facelets = new ArrayList<>();
+      facelets.add(facelet);
+      for (int face = 0; face < Cube.NUM_FACES; face++) {
+        if (face != face(facelet) && isOnFace(coords[facelet], face)) {
+          facelets.add(faceletAt[key(coords[facelet], face)]);
+        }
+      }
+      cubieFacelets[facelet] = facelets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    quarterTurns = new int[Cube.NUM_FACES][n][];
+    for (int face = 0; face < Cube.NUM_FACES; face++) {
+      for (int layer = 0; layer < n; layer++) {
+        int[] permutation = new int[numFacelets];
+        reset(permutation);
+        for (int facelet = 0; facelet < numFacelets; facelet++) {
+          if (getLayer(coords[facelet], face) != layer) {
+            continue;
+          }
+          int[] turned = turn(face, center(coords[facelet]));
+          int[] normal = turn(face, NORMALS[face(facelet)]);
+          permutation[faceletAt[key(uncenter(turned), faceOf(normal))]] = facelet;
+        }
+        quarterTurns[face][layer] = permutation;
+      }
+    }
+  }
+
+  /* Returns the tables for an n x n cube, building them the first time */
+  public static synchronized BigCube of(int n) {
+    if (n < MIN_SIZE || n > MAX_SIZE) {
+      throw new IllegalArgumentException("Cube size must be from " + MIN_SIZE + " to " + MAX_SIZE + ", but was " + n);
+    }
+    if (cubes[n] == null) {
+      cubes[n] = new BigCube(n);
+    }
+    return cubes[n];
+  }
+
+  /*****************************************************************************
+   * Geometry
+   ****************************************************************************/
+
+  /* Returns the cubie a facelet is on, laid out as in Cube's net */
+  private int[] getCoords(int face, int row, int col) {
+    int last = n - 1;
+    switch (face) {
+      case Cube.U:
+        return new int[] { col, last, row };
+      case Cube.L:
+        return new int[] { 0, last - row, col };
+      case Cube.F:
+        return new int[] { col, last - row, last };
+      case Cube.R:
+        return new int[] { last, last - row, last - col };
+      case Cube.B:
+        return new int[] { last - col, last - row, 0 };
+      default:
+        return new int[] { col, 0, last - row };
+    }
+  }
+
+  /* Returns which layer from face the cubie at coord is in */
+  private int getLayer(int[] coord, int face) {
+    int[] normal = NORMALS[face];
+    for (int axis = 0; axis < 3; axis++) {
+      if (normal[axis] != 0) {
+        return normal[axis] > 0 ? n - 1 - coord[axis] : coord[axis];
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private boolean isOnFace(int[] coord, int face) {
+    return getLayer(coord, face) == 0;
+  }
+
+  /*
+   * Rotates a vector a quarter turn clockwise, as seen from face. Positions are
+   * centered and doubled first (see center), so that every coordinate is an
+   * integer.
+   */
+  private static int[] turn(int face, int[] v) {
+    switch (face) {
+      case Cube.U:
+        return new int[] { -v[2], v[1], v[0] };
+      case Cube.D:
+        return new int[] { v[2], v[1], -v[0] };
+      case Cube.F:
+        return new int[] { v[1], -v[0], v[2] };
+      case Cube.B:
+        return new int[] { -v[1], v[0], v[2] };
+      case Cube.R:
+        return new int[] { v[0], v[2], -v[1] };
+      default:
+        return new int[] { v[0], -v[2], v[1] };
+    }
+  }
+
+  private int[] center(int[] coord) {
+    return new int[] { 2 * coord[0] - (n - 1), 2 * coord[1] - (n - 1), 2 * coord[2] - (n - 1) };
+  }
+
+  private int[] uncenter(int[] v) {
+    return new int[] { (v[0] + n - 1) / 2, (v[1] + n - 1) / 2, (v[2] + n - 1) / 2 };
+  }
+
+  private static int faceOf(int[] normal) {
+    for (int face = 0; face < Cube.NUM_FACES; face++) {
+      if (NORMALS[face][0] == normal[0] && NORMALS[face][1] == normal[1] && NORMALS[face][2] == normal[2]) {
+        return face;
+      }
+    }
+    throw new IllegalStateException("Not a face normal");
+  }
+
+  private int key(int[] coord, int face) {
+    return ((coord[0] * n + coord[1]) * n + coord[2]) * Cube.NUM_FACES + face;
+  }
+
+  /*****************************************************************************
+   * Facelets
+   ****************************************************************************/
+
+  public int getSize() {
+    return n;
+  }
+
+  public int getNumFacelets() {
+    return numFacelets;
+  }
+
+  /* Returns the facelet index of the sticker at the given face, row and column */
+  public int facelet(int face, int row, int col) {
+    return (face * n + row) * n + col;
+  }
+
+  /* Returns the face a facelet is on, which is also the color of the facelet that starts there */
+  public int face(int facelet) {
+    return facelet / (n * n);
+  }
+
+  public int row(int facelet) {
+    return (facelet / n) % n;
+  }
+
+  public int col(int facelet) {
+    return facelet % n;
+  }
+
+  /* Returns the face number of a face letter, e.g. 2 for 'F' */
+  public static int getFace(char letter) {
+    int face = FACE_LETTERS.indexOf(letter);
+    if (face < 0) {
+      throw new IllegalArgumentException("Not a face: " + letter);
+    }
+    return face;
+  }
+
+  /*
+   * Returns the facelets of the cubie that facelet is on, starting with
+   * facelet: one for a center, two for an edge piece and three for a corner.
+   */
+  public int[] getCubieFacelets(int facelet) {
+    return cubieFacelets[facelet].clone();
+  }
+
+  /*****************************************************************************
+   * Moves
+   ****************************************************************************/
+
+  /*
+   * Returns the permutation of move on this cube, which callers must not
+   * modify. Throws an IllegalMoveException if the cube does not have the
+   * layers move turns.
+   */
+  public int[] getPermutation(BigMove move) {
+    int[] permutation = permutations.get(move);
+    if (permutation == null) {
+      permutation = buildPermutation(move);
+      permutations.putIfAbsent(move, permutation);
+    }
+    return permutation;
+  }
+
+  private int[] buildPermutation(BigMove move) {
+    int face;
+    int from;
+    int to;
+    switch (move.getLetter()) {
+      case 'M':
+      case 'E':
+      case 'S':
+        if (n % 2 == 0) {
+          throw new IllegalMoveException(move + " on a " + n + "x" + n);
+        }
+        face = getFace(move.getLetter() == 'M' ? 'L' : move.getLetter() == 'E' ? 'D' : 'F');
+        from = n / 2;
+        to = n / 2;
+        break;
+      case 'x':
+      case 'y':
+      case 'z':
+        face = getFace(move.getLetter() == 'x' ? 'R' : move.getLetter() == 'y' ? 'U' : 'F');
+        from = 0;
+        to = n - 1;
+        break;
+      default:
+        if (move.getTo() > n) {
+          throw new IllegalMoveException(move + " on a " + n + "x" + n);
+        }
+        face = getFace(move.getLetter());
+        from = move.getFrom() - 1;
+        to = move.getTo() - 1;
+    }
+
+    int[] permutation = new int[numFacelets];
+    int[] scratch = new int[numFacelets];
+    reset(permutation);
+    for (int layer = from; layer <= to; layer++) {
+      for (int t = 0; t < move.getTurns(); t++) {
+        apply(permutation, quarterTurns[face][layer], scratch);
+      }
+    }
+    return permutation;
+  }
+
+  /* Puts state into the solved state */
+  public void reset(int[] state) {
+    for (int i = 0; i < numFacelets; i++) {
+      state[i] = i;
+    }
+  }
+
+  /*
+   * Applies a permutation to state, using scratch (of length getNumFacelets())
+   * as temporary space. Does not allocate.
+   */
+  public void apply(int[] state, int[] permutation, int[] scratch) {
+    for (int i = 0; i < numFacelets; i++) {
+      scratch[i] = state[permutation[i]];
+    }
+    System.arraycopy(scratch, 0, state, 0, numFacelets);
+  }
+
+  /* Applies every move in moves to state, in order */
+  public void apply(int[] state, Iterable<BigMove> moves, int[] scratch) {
+    for (BigMove move : moves) {
+      apply(state, getPermutation(move), scratch);
+    }
+  }
+}
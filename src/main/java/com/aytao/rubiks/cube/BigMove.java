@@ -0,0 +1,187 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  A move on a cube of any size (see BigCube), written in
+ *                layer-prefixed notation. A face move turns a range of layers
+ *                counted from its face: R turns the outer layer, 2R only the
+ *                second layer, Rw and r the outer two layers, and 3Rw the
+ *                outer three. M, E and S turn the middle layer of an odd cube,
+ *                and x, y and z the whole cube. Every 3x3 move (see Move) is
+ *                written the same way here.
+ *
+ *                A BigMove does not know the size of the cube it is for, so
+ *                a move such as 4R parses on its own and is only rejected when
+ *                applied to a cube without a fourth layer.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aytao.rubiks.cube.Move.IllegalMoveException;
+
+public final class BigMove {
+  private static final String FACES = "UDFBRL";
+  private static final String SLICES = "MES";
+  private static final String ROTATIONS = "xyz";
+
+  // One of FACES, SLICES or ROTATIONS
+  private final char letter;
+
+  // Layers turned, counted from 1 at the face; 0 for slices and rotations
+  private final int from;
+  private final int to;
+
+  // Clockwise quarter turns: 1, 2 or 3
+  private final int turns;
+
+  private BigMove(char letter, int from, int to, int turns) {
+    this.letter = letter;
+    this.from = from;
+    this.to = to;
+    this.turns = turns;
+  }
+
+  /*
+   * Parses a move such as R, 2R', Rw2, r or 3Rw. Throws an IllegalMoveException
+   * for anything else.
+   */
+  public static BigMove parse(String moveStr) {
+    int i = 0;
+    int prefix = 0;
+    while (i < moveStr.length() && Character.isDigit(moveStr.charAt(i))) {
+      prefix = prefix * 10 + (moveStr.charAt(i) - '0');
+      i++;
+      if (prefix > 99) {
+        throw new IllegalMoveException(moveStr);
+      }
+    }
+    if (i == moveStr.length() || (i > 0 && prefix == 0)) {
+      throw new IllegalMoveException(moveStr);
+    }
+
+    char c = moveStr.charAt(i++);
+    boolean wide = i < moveStr.length() && moveStr.charAt(i) == 'w';
+    if (wide) {
+      i++;
+    }
+    int turns = parseTurns(moveStr, moveStr.substring(i));
+
+    if (FACES.indexOf(c) >= 0) {
+      if (wide) {
+        return new BigMove(c, 1, prefix == 0 ? 2 : prefix, turns);
+      }
+      return new BigMove(c, Math.max(prefix, 1), Math.max(prefix, 1), turns);
+    }
+    if (FACES.indexOf(Character.toUpperCase(c)) >= 0 && prefix == 0 && !wide) {
+      return new BigMove(Character.toUpperCase(c), 1, 2, turns);
+    }
+    if (SLICES.indexOf(c) >= 0 && prefix == 0 && !wide) {
+      return new BigMove(c, 0, 0, turns);
+    }
+    // Rotations may be written in either case, as for Move
+    if (ROTATIONS.indexOf(Character.toLowerCase(c)) >= 0 && prefix == 0 && !wide) {
+      return new BigMove(Character.toLowerCase(c), 0, 0, turns);
+    }
+    throw new IllegalMoveException(moveStr);
+  }
+
+  /* Parses the suffix of a move: none, ', 2 or 2' */
+  private static int parseTurns(String moveStr, String suffix) {
+    switch (suffix) {
+      case "":
+        return 1;
+      case "'":
+        return 3;
+      case "2":
+      case "2'":
+        return 2;
+      default:
+        throw new IllegalMoveException(moveStr);
+    }
+  }
+
+  /* Parses moves separated by single spaces, as Sequence.getSequence does */
+  public static ArrayList<BigMove> parseSequence(String movesStr) {
+    ArrayList<BigMove> moves = new ArrayList<>();
+    if (movesStr == null || movesStr.equals("")) {
+      return moves;
+    }
+
+    for (String move : movesStr.split(" ")) {
+      moves.add(parse(move));
+    }
+    return moves;
+  }
+
+  /* Returns the BigMove written the same way as a 3x3 move */
+  public static BigMove of(Move move) {
+    return parse(move.toString());
+  }
+
+  /* Returns the move that undoes this one */
+  public BigMove getInverse() {
+    return turns == 2 ? this : new BigMove(letter, from, to, 4 - turns);
+  }
+
+  /* Returns the inverse of a given sequence of moves */
+  public static ArrayList<BigMove> getInverse(List<BigMove> moves) {
+    ArrayList<BigMove> ret = new ArrayList<>(moves.size());
+    for (int i = moves.size() - 1; i >= 0; i--) {
+      ret.add(moves.get(i).getInverse());
+    }
+    return ret;
+  }
+
+  /* Returns the face, slice or rotation letter, e.g. 'R' for 3Rw' */
+  public char getLetter() {
+    return letter;
+  }
+
+  /* Returns the first layer turned, counted from 1 at the face, or 0 for a slice or rotation */
+  public int getFrom() {
+    return from;
+  }
+
+  /* Returns the last layer turned, as above */
+  public int getTo() {
+    return to;
+  }
+
+  /* Returns the number of clockwise quarter turns: 1, 2 or 3 */
+  public int getTurns() {
+    return turns;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    BigMove move = (BigMove) o;
+    return letter == move.letter && from == move.from && to == move.to && turns == move.turns;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((letter * 31 + from) * 31 + to) * 31 + turns;
+  }
+
+  /* Returns the move in the notation parse reads, e.g. 3Rw' or 2U2 */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    if (from == 0) {
+      sb.append(letter);
+    } else if (from == to) {
+      sb.append(from == 1 ? "" : Integer.toString(from)).append(letter);
+    } else {
+      sb.append(to == 2 ? "" : Integer.toString(to)).append(letter).append('w');
+    }
+    sb.append(turns == 1 ? "" : turns == 2 ? "2" : "'");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,121 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The big-cube piece types that blind sheets are written for,
+ *                with Speffz-style lettering. Each letter names the piece
+ *                next to the 3x3 sticker of that letter (see SpeffzUtils):
+ *
+ *                - Midges, the middle edges of odd cubes, are lettered like
+ *                  3x3 edges.
+ *                - Wings, on 4x4 and up, are lettered by the edge sticker
+ *                  they lie beside. Of the two wings beside it, each letter
+ *                  takes the one its edge reaches first going clockwise
+ *                  around the face, so 'c' is UFr.
+ *                - X-centers, on 4x4 and up, are lettered by the corner
+ *                  sticker they touch, so 'c' is Ufr.
+ *                - T-centers, on odd cubes from 5x5 up, are lettered by the
+ *                  edge sticker they touch, so 'c' is Uf.
+ *
+ *                On cubes with more than one orbit of wings or x-centers, the
+ *                outermost orbit is used.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public enum BigPieceType {
+  MIDGE("m"), WING("w"), XCENTER("x"), TCENTER("t");
+
+  // Size of the 3x3 that lettering is borrowed from
+  private static final int N = Cube.N;
+
+  private final String option;
+
+  BigPieceType(String option) {
+    this.option = option;
+  }
+
+  /* Returns the big-cube piece type for a piece type option, e.g. 'w', or null if there is none */
+  public static BigPieceType forOption(String option) {
+    for (BigPieceType pieceType : values()) {
+      if (pieceType.option.equals(option)) {
+        return pieceType;
+      }
+    }
+    return null;
+  }
+
+  public String getOption() {
+    return option;
+  }
+
+  /* Returns whether an n x n cube has pieces of this type */
+  public boolean existsOn(int n) {
+    switch (this) {
+      case MIDGE:
+        return n % 2 == 1 && n >= 3;
+      case TCENTER:
+        return n % 2 == 1 && n >= 5;
+      default:
+        return n >= 4;
+    }
+  }
+
+  /*
+   * Returns the facelet of cube that the sticker c of this piece type is on.
+   * Throws an IllegalArgumentException if the cube has no pieces of this type.
+   */
+  public int getFacelet(BigCube cube, char c) {
+    int n = cube.getSize();
+    if (!existsOn(n)) {
+      throw new IllegalArgumentException("A " + n + "x" + n + " has no " + name().toLowerCase() + "s");
+    }
+    int small = equals(XCENTER) ? SpeffzUtils.getCornerFacelet(c) : SpeffzUtils.getEdgeFacelet(c);
+    int face = small / (N * N);
+    int row = (small / N) % N;
+    int col = small % N;
+    int last = n - 1;
+    int mid = n / 2;
+
+    switch (this) {
+      case MIDGE:
+        return cube.facelet(face, scale(row, n), scale(col, n));
+      case XCENTER:
+        return cube.facelet(face, row == 0 ? 1 : last - 1, col == 0 ? 1 : last - 1);
+      case TCENTER:
+        return cube.facelet(face, row == 1 ? mid : row == 0 ? 1 : last - 1, col == 1 ? mid : col == 0 ? 1 : last - 1);
+      default:
+        // The wing at the clockwise start of the top, right, bottom or left edge
+        if (row == 0) {
+          return cube.facelet(face, 0, 1);
+        } else if (col == N - 1) {
+          return cube.facelet(face, 1, last);
+        } else if (row == N - 1) {
+          return cube.facelet(face, last, last - 1);
+        } else {
+          return cube.facelet(face, last - 1, 0);
+        }
+    }
+  }
+
+  /* Maps a 3x3 row or column to the outer rows or middle row of an odd cube */
+  private static int scale(int index, int n) {
+    return index == 0 ? 0 : index == N - 1 ? n - 1 : n / 2;
+  }
+
+  /* Returns the stickers on the same piece as c, including c */
+  public Set<Character> getRelatedStickersSet(char c) {
+    if (equals(MIDGE)) {
+      return SpeffzUtils.getRelatedEdgeStickersSet(c);
+    }
+    if (!SpeffzUtils.isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
+    Set<Character> related = new HashSet<>();
+    related.add(Character.toLowerCase(c));
+    return related;
+  }
+}
@@ -14,6 +14,12 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 
+/*
+ * A Cube is mutable and not thread-safe; each instance must be confined to a
+ * single thread. Class-level state (the solved reference cube) is built during
+ * class initialization and only read afterwards, so separate instances can be
+ * used concurrently from different threads.
+ */
 public class Cube {
   // Dimension of the cube
   static final int N = 3;
@@ -80,6 +86,19 @@ public class Cube {
     return Arrays.deepHashCode(stickers);
   }
 
+  /*
+   * Returns this Cube to the solved state in place, without allocating. Lets a
+   * single scratch Cube be reused for many simulations.
+   */
+  public void reset() {
+    for (int face = 0; face < NUM_FACES; face++) {
+      CubeColor color = solvedColor(face);
+      for (int row = 0; row < N; row++) {
+        Arrays.fill(stickers[face][row], color);
+      }
+    }
+  }
+
   /* Returns true if and only if the provided cube is solved */
   public boolean isSolved() {
     Cube clone = new Cube(this);
@@ -353,26 +372,7 @@ public class Cube {
     CubeColor[][][] stickers = new CubeColor[6][N][N];
 
     for (int i = 0; i < NUM_FACES; i++) {
-      CubeColor color;
-      switch (i) {
-        case U:
-          color = CubeColor.WHITE;
-          break;
-        case F:
-          color = CubeColor.GREEN;
-          break;
-        case R:
-          color = CubeColor.RED;
-          break;
-        case B:
-          color = CubeColor.BLUE;
-          break;
-        case L:
-          color = CubeColor.ORANGE;
-          break;
-        default: // D
-          color = CubeColor.YELLOW;
-      }
+      CubeColor color = solvedColor(i);
 
       for (int j = 0; j < N; j++) {
         for (int k = 0; k < N; k++) {
@@ -384,6 +384,24 @@ public class Cube {
     return stickers;
   }
 
+  /* Returns the color of the provided face in the solved state */
+  private static CubeColor solvedColor(int face) {
+    switch (face) {
+      case U:
+        return CubeColor.WHITE;
+      case F:
+        return CubeColor.GREEN;
+      case R:
+        return CubeColor.RED;
+      case B:
+        return CubeColor.BLUE;
+      case L:
+        return CubeColor.ORANGE;
+      default: // D
+        return CubeColor.YELLOW;
+    }
+  }
+
   /* Copies parameter copy into parameter face */
   private static void copy(CubeColor[][] face, CubeColor[][] copy) {
     assert (face.length == copy.length);
@@ -1046,15 +1064,15 @@ public class Cube {
    * Unit testing
    ****************************************************************************/
 
-  /* Executes n random moves and prints the resulting state */
-  private static void randomTurns(Cube cube, int n) {
-    System.out.println("Moves executed: ");
+  /* Executes n random moves and returns them, leaving any printing to the caller */
+  private static List<Move> randomTurns(Cube cube, int n) {
+    List<Move> moves = new ArrayList<>(n);
     for (int i = 0; i < n; i++) {
       Move move = Move.randomMove();
       cube.execute(move);
-      System.out.print(move + " ");
+      moves.add(move);
     }
-    System.out.println();
+    return moves;
   }
 
   /*
@@ -1067,7 +1085,12 @@ public class Cube {
     Cube cube = new Cube();
 
     if (args.length == 1) {
-      randomTurns(cube, Integer.parseInt(args[0]));
+      List<Move> moves = randomTurns(cube, Integer.parseInt(args[0]));
+      System.out.println("Moves executed: ");
+      for (Move move : moves) {
+        System.out.print(move + " ");
+      }
+      System.out.println();
       System.out.println(cube);
       return;
     }
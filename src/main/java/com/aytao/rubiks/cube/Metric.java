@@ -0,0 +1,103 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Ways of counting the moves of an alg. Rotations are free in
+ *                every metric.
+ *
+ *                HTM: every turn of an outer face counts as 1, including
+ *                wide turns (a face turn plus a rotation); slices count as 2.
+ *                QTM: as HTM, but half turns count as two quarter turns.
+ *                STM: every turn of an outer face, a slice or a wide block
+ *                counts as 1.
+ *
+ *                Each metric also names the moves an optimal solver needs:
+ *                any alg can be rewritten with just those moves without
+ *                getting longer in that metric.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public enum Metric {
+  HTM, QTM, STM;
+
+  // Moves are declared in groups of three (quarter, inverse, half) per layer
+  private static final int NUM_FACE_LAYERS = 6;
+  private static final int FIRST_SLICE_LAYER = 12;
+  private static final int FIRST_ROTATION_LAYER = 15;
+
+  /* Returns the metric named by s, ignoring case, e.g. "htm" */
+  public static Metric parse(String s) {
+    try {
+      return valueOf(s.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown metric '" + s + "'. Must be one of htm, qtm or stm");
+    }
+  }
+
+  /* Returns the moves an optimal solver for this metric searches with */
+  public Move[] getSolverMoves() {
+    List<Move> moves = new ArrayList<>();
+    for (Move move : Move.values()) {
+      int layer = move.ordinal() / 3;
+      boolean half = move.ordinal() % 3 == 2;
+      if (layer < NUM_FACE_LAYERS) {
+        if (this != QTM || !half) {
+          moves.add(move);
+        }
+      } else if (this == STM && layer < FIRST_ROTATION_LAYER) {
+        // A wide turn costs as much as a face turn, but its rotation can only be undone by a slice
+        moves.add(move);
+      }
+    }
+    return moves.toArray(new Move[0]);
+  }
+
+  /* Returns what a single move counts as in this metric */
+  public int cost(Move move) {
+    int layer = move.ordinal() / 3;
+    boolean half = move.ordinal() % 3 == 2;
+    int turns = this == QTM && half ? 2 : 1;
+    if (layer >= FIRST_ROTATION_LAYER) {
+      return 0;
+    } else if (layer >= FIRST_SLICE_LAYER) {
+      return this == STM ? 1 : 2 * turns;
+    }
+    return turns;
+  }
+
+  /*
+   * Returns the length of moves in this metric, after merging consecutive turns
+   * of the same layer (so R U U2 R' counts as R U' R').
+   */
+  public int length(List<Move> moves) {
+    // Quarter turns (mod 4) of each run of same-layer turns, as a stack
+    int[] layers = new int[moves.size()];
+    int[] turns = new int[moves.size()];
+    int size = 0;
+    for (Move move : moves) {
+      int layer = move.ordinal() / 3;
+      int quarterTurns = new int[] { 1, 3, 2 }[move.ordinal() % 3];
+      if (size > 0 && layers[size - 1] == layer) {
+        turns[size - 1] = (turns[size - 1] + quarterTurns) % 4;
+        if (turns[size - 1] == 0) {
+          size--;
+        }
+      } else {
+        layers[size] = layer;
+        turns[size] = quarterTurns;
+        size++;
+      }
+    }
+
+    int length = 0;
+    for (int k = 0; k < size; k++) {
+      int offset = turns[k] == 1 ? 0 : turns[k] == 3 ? 1 : 2;
+      length += cost(Move.values()[layers[k] * 3 + offset]);
+    }
+    return length;
+  }
+}
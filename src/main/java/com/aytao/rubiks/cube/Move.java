@@ -3,12 +3,15 @@
  *
  *  Description:  An enum representing all supported moves by the Cube class.
  *                Also provides methods for working with String representations
- *                and generating random moves.
+ *                and generating random moves. For whole scrambles, see
+ *                Scrambler.
  *
  **************************************************************************** */
 
 package com.aytao.rubiks.cube;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 public enum Move {
   // WCA legal moves
   U, Up, U2,
@@ -116,11 +119,11 @@ public enum Move {
 
   /* Returns a random move */
   public static Move randomMove() {
-    return allMoves[(int) (Math.random() * allMoves.length)];
+    return allMoves[ThreadLocalRandom.current().nextInt(allMoves.length)];
   }
 
   /* Returns a random WCA-legal move */
   public static Move randomWCAMove() {
-    return allMoves[(int) (Math.random() * NUM_WCA_LEGAL_MOVES)];
+    return allMoves[ThreadLocalRandom.current().nextInt(NUM_WCA_LEGAL_MOVES)];
   }
 }
@@ -0,0 +1,168 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Precomputed facelet permutations for every supported Move.
+ *                A cube state can then be represented compactly as an int[]
+ *                over the 54 facelets, where state[i] is the home position of
+ *                the facelet currently at position i, and a move is applied
+ *                by permuting that array. The permutations are derived from
+ *                the Cube class itself, so the two representations always
+ *                agree.
+ *
+ *                Also provides the L/R mirror image of facelets and moves. The
+ *                mirror of a move is found by searching for the move whose
+ *                permutation is the reflected permutation, so it too is
+ *                derived rather than written out by hand.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.Arrays;
+
+public class MoveTables {
+  public static final int NUM_FACELETS = Cube.NUM_FACES * Cube.N * Cube.N;
+
+  // Number of distinct colors, and of colorings needed to tell facelets apart
+  private static final int NUM_COLORS = CubeColor.values().length;
+  private static final int NUM_DIGITS = 3;
+
+  private static final Move[] ALL_MOVES = Move.values();
+
+  // permutations[move][i] is the position the facelet at i is moved from
+  private static final int[][] permutations;
+
+  // Reflections of facelets and moves through the plane between L and R
+  private static final int[] mirrorFacelets = new int[NUM_FACELETS];
+  private static final Move[] mirrorMoves = new Move[ALL_MOVES.length];
+
+  static {
+    int[] decode = new int[NUM_COLORS * NUM_COLORS * NUM_COLORS];
+    for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+      int code = 0;
+      for (int d = 0; d < NUM_DIGITS; d++) {
+        code = code * NUM_COLORS + digit(facelet, d);
+      }
+      decode[code] = facelet;
+    }
+
+    permutations = new int[ALL_MOVES.length][];
+    for (Move move : ALL_MOVES) {
+      int[] codes = new int[NUM_FACELETS];
+      for (int d = 0; d < NUM_DIGITS; d++) {
+        Cube cube = new Cube();
+        for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+          cube.stickers[face(facelet)][row(facelet)][col(facelet)] = CubeColor.values()[digit(facelet, d)];
+        }
+        cube.execute(move);
+        for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+          int color = cube.getStickerAt(face(facelet), row(facelet), col(facelet)).ordinal();
+          codes[facelet] = codes[facelet] * NUM_COLORS + color;
+        }
+      }
+
+      int[] permutation = new int[NUM_FACELETS];
+      for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+        permutation[facelet] = decode[codes[facelet]];
+      }
+      permutations[move.ordinal()] = permutation;
+    }
+
+    for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+      int face = face(facelet);
+      int mirrorFace = face == Cube.L ? Cube.R : face == Cube.R ? Cube.L : face;
+      mirrorFacelets[facelet] = facelet(mirrorFace, row(facelet), Cube.N - 1 - col(facelet));
+    }
+
+    for (Move move : ALL_MOVES) {
+      int[] permutation = permutations[move.ordinal()];
+      int[] reflected = new int[NUM_FACELETS];
+      for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+        reflected[mirrorFacelets[facelet]] = mirrorFacelets[permutation[facelet]];
+      }
+      for (Move candidate : ALL_MOVES) {
+        if (Arrays.equals(permutations[candidate.ordinal()], reflected)) {
+          mirrorMoves[move.ordinal()] = candidate;
+          break;
+        }
+      }
+      if (mirrorMoves[move.ordinal()] == null) {
+        throw new IllegalStateException("Move " + move + " has no mirror image");
+      }
+    }
+  }
+
+  /*
+   * Returns the d-th base-6 "digit" used to color a facelet. Every facelet gets
+   * a distinct triple of digits, and each color is used exactly N * N times per
+   * digit, so every coloring is still a legal Cube.
+   */
+  private static int digit(int facelet, int d) {
+    switch (d) {
+      case 0:
+        return facelet / (Cube.N * Cube.N);
+      case 1:
+        return facelet % NUM_COLORS;
+      default:
+        return (facelet / Cube.N) % NUM_COLORS;
+    }
+  }
+
+  private static int face(int facelet) {
+    return facelet / (Cube.N * Cube.N);
+  }
+
+  private static int row(int facelet) {
+    return (facelet / Cube.N) % Cube.N;
+  }
+
+  private static int col(int facelet) {
+    return facelet % Cube.N;
+  }
+
+  /* Returns the facelet index of the sticker at the given coordinate */
+  static int facelet(int face, int row, int col) {
+    return (face * Cube.N + row) * Cube.N + col;
+  }
+
+  /* Returns the permutation of move itself, which callers must not modify */
+  static int[] getPermutation(Move move) {
+    return permutations[move.ordinal()];
+  }
+
+  /* Returns the facelet that the given facelet is reflected to by an L/R mirror */
+  public static int mirror(int facelet) {
+    return mirrorFacelets[facelet];
+  }
+
+  /* Returns the L/R mirror image of a move, e.g. L' for R and U' for U */
+  public static Move mirror(Move move) {
+    return mirrorMoves[move.ordinal()];
+  }
+
+  /* Puts state into the solved state */
+  public static void reset(int[] state) {
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      state[i] = i;
+    }
+  }
+
+  /*
+   * Applies move to state, using scratch (of length NUM_FACELETS) as temporary
+   * space. Does not allocate.
+   */
+  public static void apply(int[] state, Move move, int[] scratch) {
+    int[] permutation = permutations[move.ordinal()];
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      scratch[i] = state[permutation[i]];
+    }
+    System.arraycopy(scratch, 0, state, 0, NUM_FACELETS);
+  }
+
+  /* Applies every move in moves to state, in order */
+  public static void apply(int[] state, Iterable<Move> moves, int[] scratch) {
+    for (Move move : moves) {
+      apply(state, move, scratch);
+    }
+  }
+}
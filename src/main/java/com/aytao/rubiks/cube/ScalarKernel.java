@@ -0,0 +1,63 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Runs the lanes of a BatchSimulator one facelet at a time,
+ *                the same way MoveTables.apply does, on byte permutations
+ *                copied from MoveTables. Works on any Java version.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+final class ScalarKernel {
+  static final String NAME = "scalar";
+
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+
+  private static final byte[][] permutations;
+
+  // Per-thread pair of states that each move permutes one into the other, so that simulating does not allocate
+  private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal
+      .withInitial(() -> new byte[][] { new byte[NUM_FACELETS], new byte[NUM_FACELETS] });
+
+  static {
+    Move[] allMoves = Move.values();
+    permutations = new byte[allMoves.length][NUM_FACELETS];
+    for (Move move : allMoves) {
+      int[] permutation = MoveTables.getPermutation(move);
+      for (int i = 0; i < NUM_FACELETS; i++) {
+        permutations[move.ordinal()][i] = (byte) permutation[i];
+      }
+    }
+  }
+
+  private ScalarKernel() {
+  }
+
+  /*
+   * Simulates each of the first count lanes from a solved cube: lane l applies
+   * the first lengths[l] move ordinals of moves[l], and its state is written to
+   * states from l * BatchSimulator.STRIDE.
+   */
+  static void simulate(byte[] states, byte[][] moves, int[] lengths, int count) {
+    byte[][] scratch = SCRATCH.get();
+    for (int lane = 0; lane < count; lane++) {
+      byte[] state = scratch[0];
+      byte[] next = scratch[1];
+      for (int i = 0; i < NUM_FACELETS; i++) {
+        state[i] = (byte) i;
+      }
+      byte[] laneMoves = moves[lane];
+      for (int t = 0; t < lengths[lane]; t++) {
+        byte[] permutation = permutations[laneMoves[t]];
+        for (int i = 0; i < NUM_FACELETS; i++) {
+          next[i] = state[permutation[i]];
+        }
+        byte[] swap = state;
+        state = next;
+        next = swap;
+      }
+      System.arraycopy(state, 0, states, lane * BatchSimulator.STRIDE, NUM_FACELETS);
+    }
+  }
+}
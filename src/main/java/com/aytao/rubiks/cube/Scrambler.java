@@ -0,0 +1,100 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Generates random-move scrambles of WCA face turns. A
+ *                scramble never turns the same face twice in a row, and
+ *                never turns a face again right after turning it and its
+ *                opposite face (as in R L R), so no moves cancel or merge.
+ *
+ *                Each Scrambler draws from its own SplittableRandom and is
+ *                meant to be used by one thread; split() makes an
+ *                independent Scrambler for another thread. Scrambles can be
+ *                written straight into a byte buffer of move ordinals, so
+ *                generating millions of them does not allocate.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public final class Scrambler {
+  public static final int DEFAULT_LENGTH = 25;
+
+  // WCA face turns come first among the moves, three (X, X', X2) per face
+  private static final int NUM_FACES = 6;
+  private static final int TURNS_PER_FACE = 3;
+  private static final Move[] MOVES = Move.values();
+
+  private final SplittableRandom random;
+
+  /* Creates a scrambler with an unpredictable seed */
+  public Scrambler() {
+    this(new SplittableRandom());
+  }
+
+  /* Creates a scrambler that always generates the same scrambles for the same seed */
+  public Scrambler(long seed) {
+    this(new SplittableRandom(seed));
+  }
+
+  private Scrambler(SplittableRandom random) {
+    this.random = random;
+  }
+
+  /* Returns a new scrambler, for use by another thread, whose scrambles are independent of this one's */
+  public Scrambler split() {
+    return new Scrambler(random.split());
+  }
+
+  /*
+   * Writes a scramble of length moves into buffer, starting at offset, as Move
+   * ordinals.
+   */
+  public void next(byte[] buffer, int offset, int length) {
+    int previous = -1;
+    int before = -1;
+    for (int k = 0; k < length; k++) {
+      int face;
+      do {
+        face = random.nextInt(NUM_FACES);
+      } while (!canFollow(before, previous, face));
+      buffer[offset + k] = (byte) (face * TURNS_PER_FACE + random.nextInt(TURNS_PER_FACE));
+      before = previous;
+      previous = face;
+    }
+  }
+
+  /* Returns a scramble of length moves */
+  public List<Move> next(int length) {
+    byte[] buffer = new byte[length];
+    next(buffer, 0, length);
+    List<Move> scramble = new ArrayList<>(length);
+    for (byte ordinal : buffer) {
+      scramble.add(MOVES[ordinal]);
+    }
+    return scramble;
+  }
+
+  /* Returns a scramble of the default length */
+  public List<Move> next() {
+    return next(DEFAULT_LENGTH);
+  }
+
+  /*
+   * Whether face may be turned after previous, which was turned after before
+   * (either may be -1 at the start). Opposite faces are 2k and 2k + 1.
+   */
+  private static boolean canFollow(int before, int previous, int face) {
+    if (previous < 0) {
+      return true;
+    }
+    if (face == previous) {
+      return false;
+    }
+    boolean sameAxis = face / 2 == previous / 2;
+    return !sameAxis || before < 0 || before / 2 != face / 2;
+  }
+}
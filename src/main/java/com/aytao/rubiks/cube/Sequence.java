@@ -53,7 +53,7 @@ public class Sequence {
   public static ArrayList<Move> getSequenceFromFile(String fileName) {
     ArrayList<Move> moves = new ArrayList<>();
 
-    try (Scanner in = new Scanner(ResourceHandler.getFile(fileName), "utf-8")) {
+    try (Scanner in = new Scanner(ResourceHandler.getStream(fileName), "utf-8")) {
       while (in.hasNext()) {
         try {
           String s = in.next();
@@ -88,4 +88,15 @@ public class Sequence {
 
     return ret;
   }
+
+  /* Returns the L/R mirror image of a given sequence of moves */
+  public static ArrayList<Move> getMirror(ArrayList<Move> moves) {
+    ArrayList<Move> ret = new ArrayList<>();
+
+    for (Move move : moves) {
+      ret.add(MoveTables.mirror(move));
+    }
+
+    return ret;
+  }
 }
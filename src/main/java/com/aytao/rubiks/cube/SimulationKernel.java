@@ -0,0 +1,25 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Runs the lanes of a BatchSimulator. This is the Java 8
+ *                version, which always uses ScalarKernel. A multi-release jar
+ *                replaces it on Java 17 and up with the version in
+ *                src/main/java17, which can use the Vector API instead.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+final class SimulationKernel {
+  private SimulationKernel() {
+  }
+
+  static String getName() {
+    return ScalarKernel.NAME;
+  }
+
+  /* Simulates the first count lanes, as ScalarKernel.simulate does */
+  static void simulate(byte[] states, byte[][] moves, int[] lengths, int count) {
+    ScalarKernel.simulate(states, moves, lengths, count);
+  }
+}
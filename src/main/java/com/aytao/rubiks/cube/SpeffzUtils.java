@@ -6,6 +6,11 @@
  *                return a character array representing the state and position
  *                of each sticker on the Cube.
  *
+ *                All tables are built once during class initialization and
+ *                are never modified afterwards, so every method here is safe
+ *                to call concurrently from multiple threads, as long as each
+ *                thread works on its own Cube and report buffers.
+ *
  **************************************************************************** */
 
 package com.aytao.rubiks.cube;
@@ -34,6 +39,17 @@ public class SpeffzUtils {
   private static final Map<Character, Set<Character>> relatedEdgeStickers;
   private final static Map<Character, Set<Character>> relatedCornerStickers;
 
+  // The order in which the other faces of a piece are named in its location
+  private static final Face[] LOCATION_ORDER = { Face.U, Face.D, Face.F, Face.B, Face.L, Face.R };
+
+  // Pieces as arrays of sticker letters, used by the report methods
+  private static final char[][] edgePieces;
+  private static final char[][] cornerPieces;
+
+  // Sticker letter lookups, indexed by a piece's color mask and then by color
+  private static final char[][] edgeStickerLookup;
+  private static final char[][] cornerStickerLookup;
+
   /*****************************************************************************
    * Initializers
    ****************************************************************************/
@@ -54,6 +70,12 @@ public class SpeffzUtils {
 
     relatedEdgeStickers = getRelatedStickersMap(edgePieceSets);
     relatedCornerStickers = getRelatedStickersMap(cornerPieceSets);
+
+    edgePieces = getPieceArrays(edgePieceSets);
+    cornerPieces = getPieceArrays(cornerPieceSets);
+
+    edgeStickerLookup = getStickerLookup(edgePieceMap);
+    cornerStickerLookup = getStickerLookup(cornerPieceMap);
   }
 
   /*
@@ -63,7 +85,7 @@ public class SpeffzUtils {
    */
   private static int[][] getCoords(String labelsFileName) {
     int[][] coords = new int[NUM_SPEFFZ_LETTERS][];
-    try (Scanner in = new Scanner(ResourceHandler.getFile(labelsFileName), "utf-8")) {
+    try (Scanner in = new Scanner(ResourceHandler.getStream(labelsFileName), "utf-8")) {
       while (in.hasNext()) {
         String line = in.nextLine();
         String[] args = line.split(",");
@@ -91,7 +113,7 @@ public class SpeffzUtils {
    */
   private static Set<Set<Character>> getPieces(String connectionsFileName) {
     Set<Set<Character>> piecesSet = new HashSet<>();
-    try (Scanner in = new Scanner(ResourceHandler.getFile(connectionsFileName), "utf-8")) {
+    try (Scanner in = new Scanner(ResourceHandler.getStream(connectionsFileName), "utf-8")) {
       while (in.hasNext()) {
         String line = in.nextLine();
         String[] stickers = line.split(",");
@@ -143,6 +165,47 @@ public class SpeffzUtils {
     return map;
   }
 
+  private static char[][] getPieceArrays(Set<Set<Character>> pieceSets) {
+    char[][] pieces = new char[pieceSets.size()][];
+    int idx = 0;
+    for (Set<Character> pieceSet : pieceSets) {
+      char[] piece = new char[pieceSet.size()];
+      int i = 0;
+      for (char sticker : pieceSet) {
+        piece[i++] = sticker;
+      }
+      pieces[idx++] = piece;
+    }
+
+    return pieces;
+  }
+
+  /*
+   * Flattens a piece map into an array indexed by the bitmask of a piece's
+   * colors, where each entry maps a color's ordinal to its sticker letter.
+   */
+  private static char[][] getStickerLookup(Map<Set<CubeColor>, Map<CubeColor, Character>> pieceMap) {
+    char[][] lookup = new char[1 << CubeColor.values().length][];
+
+    for (Map.Entry<Set<CubeColor>, Map<CubeColor, Character>> entry : pieceMap.entrySet()) {
+      char[] stickers = new char[CubeColor.values().length];
+      for (Map.Entry<CubeColor, Character> sticker : entry.getValue().entrySet()) {
+        stickers[sticker.getKey().ordinal()] = sticker.getValue();
+      }
+      lookup[colorMask(entry.getKey())] = stickers;
+    }
+
+    return lookup;
+  }
+
+  private static int colorMask(Set<CubeColor> colors) {
+    int mask = 0;
+    for (CubeColor color : colors) {
+      mask |= 1 << color.ordinal();
+    }
+    return mask;
+  }
+
   /*****************************************************************************
    * Sticker Colors
    ****************************************************************************/
@@ -168,6 +231,46 @@ public class SpeffzUtils {
     return cube.getStickerAt(coord[0], coord[1], coord[2]);
   }
 
+  /* Returns the MoveTables facelet index of an edge sticker */
+  public static int getEdgeFacelet(char c) {
+    return getFacelet(c, edgeCoords);
+  }
+
+  /* Returns the MoveTables facelet index of a corner sticker */
+  public static int getCornerFacelet(char c) {
+    return getFacelet(c, cornerCoords);
+  }
+
+  /* Returns the edge sticker that an L/R mirror reflects c onto */
+  public static char getMirroredEdgeSticker(char c) {
+    return getMirroredSticker(c, edgeCoords);
+  }
+
+  /* Returns the corner sticker that an L/R mirror reflects c onto */
+  public static char getMirroredCornerSticker(char c) {
+    return getMirroredSticker(c, cornerCoords);
+  }
+
+  private static char getMirroredSticker(char c, int[][] coords) {
+    int mirrored = MoveTables.mirror(getFacelet(c, coords));
+    for (char sticker = 'a'; sticker < 'a' + NUM_SPEFFZ_LETTERS; sticker++) {
+      if (getFacelet(sticker, coords) == mirrored) {
+        return sticker;
+      }
+    }
+    throw new IllegalStateException("Sticker " + c + " has no mirror image");
+  }
+
+  private static int getFacelet(char c, int[][] coords) {
+    c = Character.toLowerCase(c);
+    if (!isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
+
+    int[] coord = coords[c - 'a'];
+    return MoveTables.facelet(coord[0], coord[1], coord[2]);
+  }
+
   public static CubeColor getCenterStickerColor(Face face, Cube cube) {
     return cube.getStickerAt(face.faceNum, 1, 1);
   }
@@ -207,43 +310,114 @@ public class SpeffzUtils {
   }
 
   /*****************************************************************************
-   * Report Methods
+   * Piece Locations
    ****************************************************************************/
 
   /*
-   * Given a Cube object cube, returns a char[] that represents the current state
-   * of each edge-piece sticker on the cube. The array is indexed with 'a' at
-   * position 0, and the characters in the array represent the current sticker
-   * that is in that position.
+   * Returns the edge sticker named by a location such as "UF": the sticker on
+   * the first face named, of the edge between the two faces named.
    */
-  public static char[] edgeReport(Cube cube) {
-    CubeColor[] colors = new CubeColor[NUM_SPEFFZ_LETTERS];
+  public static char getEdgeSticker(String location) {
+    return getSticker(location, edgeCoords, relatedEdgeStickers);
+  }
 
-    for (int i = 0; i < NUM_SPEFFZ_LETTERS; i++) {
-      int[] coord = edgeCoords[i];
-      colors[i] = cube.getStickerAt(coord[0], coord[1], coord[2]);
-    }
+  /* As above, but for a corner location such as "UFR" */
+  public static char getCornerSticker(String location) {
+    return getSticker(location, cornerCoords, relatedCornerStickers);
+  }
 
-    char[] report = new char[NUM_SPEFFZ_LETTERS];
+  /*
+   * Returns the location of an edge sticker, as named in sheet headers: its own
+   * face, then the other face of its edge, e.g. "FU" for i.
+   */
+  public static String getEdgeLocation(char c) {
+    return getLocation(c, edgeCoords, relatedEdgeStickers);
+  }
 
-    for (Set<Character> pieceStickers : edgePieceSets) {
-      HashSet<CubeColor> piece = new HashSet<>();
+  /*
+   * As above, but for a corner sticker, whose other two faces are named U or D
+   * first, then F or B, then L or R, e.g. "LUB" for e.
+   */
+  public static String getCornerLocation(char c) {
+    return getLocation(c, cornerCoords, relatedCornerStickers);
+  }
 
-      for (char sticker : pieceStickers) {
-        piece.add(colors[sticker - 'a']);
-      }
+  private static String getLocation(char c, int[][] coords, Map<Character, Set<Character>> relatedStickers) {
+    c = Character.toLowerCase(c);
+    if (!isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
 
-      Map<CubeColor, Character> map = edgePieceMap.get(piece);
+    Set<Integer> otherFaces = new HashSet<>();
+    for (char sticker : relatedStickers.get(c)) {
+      if (sticker != c) {
+        otherFaces.add(coords[sticker - 'a'][0]);
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Face face : Face.values()) {
+      if (face.faceNum == coords[c - 'a'][0]) {
+        sb.append(face);
+      }
+    }
+    for (Face face : LOCATION_ORDER) {
+      if (otherFaces.contains(face.faceNum)) {
+        sb.append(face);
+      }
+    }
+    return sb.toString();
+  }
 
-      if (map == null) {
-        throw new IllegalArgumentException("Cube has invalid edge piece");
+  private static char getSticker(String location, int[][] coords, Map<Character, Set<Character>> relatedStickers) {
+    Set<Integer> faces = new HashSet<>();
+    for (int i = 0; i < location.length(); i++) {
+      try {
+        faces.add(Face.valueOf(location.substring(i, i + 1)).faceNum);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Location " + location + " contains an unknown face");
       }
+    }
 
-      for (char sticker : pieceStickers) {
-        report[sticker - 'a'] = map.get(colors[sticker - 'a']);
+    if (location.isEmpty() || faces.size() != location.length()) {
+      throw new IllegalArgumentException("Location " + location + " does not name a piece");
+    }
+
+    int firstFace = Face.valueOf(location.substring(0, 1)).faceNum;
+    for (char c = 'a'; c < 'a' + NUM_SPEFFZ_LETTERS; c++) {
+      if (coords[c - 'a'][0] != firstFace) {
+        continue;
+      }
+      Set<Integer> pieceFaces = new HashSet<>();
+      for (char sticker : relatedStickers.get(c)) {
+        pieceFaces.add(coords[sticker - 'a'][0]);
+      }
+      if (pieceFaces.equals(faces)) {
+        return c;
       }
     }
-    assert (isValidReport(report));
+    throw new IllegalArgumentException("Location " + location + " does not name a piece");
+  }
+
+  /*****************************************************************************
+   * Report Methods
+   ****************************************************************************/
+
+  /*
+   * Given a Cube object cube, returns a char[] that represents the current state
+   * of each edge-piece sticker on the cube. The array is indexed with 'a' at
+   * position 0, and the characters in the array represent the current sticker
+   * that is in that position.
+   */
+  public static char[] edgeReport(Cube cube) {
+    return edgeReport(cube, new char[NUM_SPEFFZ_LETTERS]);
+  }
+
+  /*
+   * Same as edgeReport(cube), but writes into the provided report buffer, which
+   * must have length NUM_SPEFFZ_LETTERS, and returns it. Does not allocate.
+   */
+  public static char[] edgeReport(Cube cube, char[] report) {
+    fillReport(cube, report, edgeCoords, edgePieces, edgeStickerLookup, "edge");
     return report;
   }
 
@@ -254,34 +428,40 @@ public class SpeffzUtils {
    * that is in that position.
    */
   public static char[] cornerReport(Cube cube) {
-    CubeColor[] colors = new CubeColor[NUM_SPEFFZ_LETTERS];
-
-    for (int i = 0; i < NUM_SPEFFZ_LETTERS; i++) {
-      int[] coord = cornerCoords[i];
-      colors[i] = cube.getStickerAt(coord[0], coord[1], coord[2]);
-    }
-
-    char[] report = new char[NUM_SPEFFZ_LETTERS];
+    return cornerReport(cube, new char[NUM_SPEFFZ_LETTERS]);
+  }
 
-    for (Set<Character> pieceStickers : cornerPieceSets) {
-      HashSet<CubeColor> piece = new HashSet<>();
+  /*
+   * Same as cornerReport(cube), but writes into the provided report buffer,
+   * which must have length NUM_SPEFFZ_LETTERS, and returns it. Does not
+   * allocate.
+   */
+  public static char[] cornerReport(Cube cube, char[] report) {
+    fillReport(cube, report, cornerCoords, cornerPieces, cornerStickerLookup, "corner");
+    return report;
+  }
 
-      for (char sticker : pieceStickers) {
-        piece.add(colors[sticker - 'a']);
+  private static void fillReport(Cube cube, char[] report, int[][] coords, char[][] pieces, char[][] lookup,
+      String pieceName) {
+    for (char[] piece : pieces) {
+      int mask = 0;
+      for (char sticker : piece) {
+        int[] coord = coords[sticker - 'a'];
+        mask |= 1 << cube.getStickerAt(coord[0], coord[1], coord[2]).ordinal();
       }
 
-      Map<CubeColor, Character> map = cornerPieceMap.get(piece);
+      char[] stickers = lookup[mask];
 
-      if (map == null) {
-        throw new IllegalArgumentException("Cube has invalid edge piece");
+      if (stickers == null) {
+        throw new IllegalArgumentException("Cube has invalid " + pieceName + " piece");
       }
 
-      for (char sticker : pieceStickers) {
-        report[sticker - 'a'] = map.get(colors[sticker - 'a']);
+      for (char sticker : piece) {
+        int[] coord = coords[sticker - 'a'];
+        report[sticker - 'a'] = stickers[cube.getStickerAt(coord[0], coord[1], coord[2]).ordinal()];
       }
     }
     assert (isValidReport(report));
-    return report;
   }
 
   /*****************************************************************************
@@ -0,0 +1,225 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  The 48 symmetries of the cube: the 24 whole-cube rotations,
+ *                each with and without an L/R mirror. A symmetry is stored as
+ *                a facelet permutation in the same form as a move's (see
+ *                MoveTables), and transforms an alg by conjugation, so the
+ *                transformed alg does in the rotated or mirrored frame what
+ *                the original does in the standard one.
+ *
+ *                Like MoveTables.mirror, every table is derived by search: the
+ *                image of a move is the move whose permutation is the
+ *                conjugated permutation, and the image of a Speffz sticker is
+ *                the sticker on the facelet it is carried to. The symmetries
+ *                themselves are generated from the x, y and z rotations.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+public final class Symmetry {
+  public static final int NUM_SYMMETRIES = 48;
+
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+  private static final int NUM_LETTERS = SpeffzUtils.NUM_SPEFFZ_LETTERS;
+  private static final Move[] ALL_MOVES = Move.values();
+  private static final Move[] ROTATIONS = { Move.X, Move.Xp, Move.X2, Move.Y, Move.Yp, Move.Y2, Move.Z, Move.Zp,
+      Move.Z2 };
+
+  // The rotations come first, in order of how many moves name them, then their mirror images
+  private static final List<Symmetry> symmetries;
+
+  private final int index;
+  private final String name;
+  private final boolean mirror;
+
+  // As for a move, permutation[i] is the position the facelet at i is moved from
+  private final int[] permutation;
+  private final int[] inversePermutation;
+
+  private final Move[] moves = new Move[ALL_MOVES.length];
+  private final char[] edgeStickers = new char[NUM_LETTERS];
+  private final char[] cornerStickers = new char[NUM_LETTERS];
+  private Symmetry inverse;
+
+  static {
+    List<int[]> permutations = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    int[] identity = new int[NUM_FACELETS];
+    MoveTables.reset(identity);
+    permutations.add(identity);
+    names.add("");
+
+    // Breadth-first, so each rotation is named by as few rotations as possible
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(0);
+    while (!queue.isEmpty()) {
+      int current = queue.poll();
+      for (Move rotation : ROTATIONS) {
+        int[] next = compose(permutations.get(current), MoveTables.getPermutation(rotation));
+        if (indexOf(permutations, next) < 0) {
+          permutations.add(next);
+          String name = names.get(current);
+          names.add(name.isEmpty() ? rotation.toString() : name + " " + rotation);
+          queue.add(permutations.size() - 1);
+        }
+      }
+    }
+
+    int[] mirror = new int[NUM_FACELETS];
+    for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+      mirror[facelet] = MoveTables.mirror(facelet);
+    }
+    int numRotations = permutations.size();
+    for (int r = 0; r < numRotations; r++) {
+      permutations.add(compose(permutations.get(r), mirror));
+      names.add(names.get(r).isEmpty() ? "L/R mirror" : names.get(r) + " + L/R mirror");
+    }
+    if (permutations.size() != NUM_SYMMETRIES) {
+      throw new IllegalStateException("Found " + permutations.size() + " symmetries, but expected "
+          + NUM_SYMMETRIES);
+    }
+
+    List<Symmetry> all = new ArrayList<>();
+    for (int s = 0; s < NUM_SYMMETRIES; s++) {
+      all.add(new Symmetry(s, names.get(s), s >= numRotations, permutations.get(s)));
+    }
+    for (Symmetry symmetry : all) {
+      symmetry.inverse = all.get(indexOf(permutations, symmetry.inversePermutation));
+    }
+    symmetries = Collections.unmodifiableList(all);
+  }
+
+  private Symmetry(int index, String name, boolean mirror, int[] permutation) {
+    this.index = index;
+    this.name = name;
+    this.mirror = mirror;
+    this.permutation = permutation;
+    this.inversePermutation = new int[NUM_FACELETS];
+    for (int facelet = 0; facelet < NUM_FACELETS; facelet++) {
+      inversePermutation[permutation[facelet]] = facelet;
+    }
+
+    int[] conjugated = new int[NUM_FACELETS];
+    for (Move move : ALL_MOVES) {
+      conjugate(MoveTables.getPermutation(move), conjugated);
+      for (Move candidate : ALL_MOVES) {
+        if (Arrays.equals(MoveTables.getPermutation(candidate), conjugated)) {
+          moves[move.ordinal()] = candidate;
+          break;
+        }
+      }
+      if (moves[move.ordinal()] == null) {
+        throw new IllegalStateException("Move " + move + " has no image under " + this);
+      }
+    }
+
+    char[] edgeAt = new char[NUM_FACELETS];
+    char[] cornerAt = new char[NUM_FACELETS];
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      edgeAt[SpeffzUtils.getEdgeFacelet(c)] = c;
+      cornerAt[SpeffzUtils.getCornerFacelet(c)] = c;
+    }
+    for (char c = 'a'; c < 'a' + NUM_LETTERS; c++) {
+      edgeStickers[c - 'a'] = edgeAt[permutation[SpeffzUtils.getEdgeFacelet(c)]];
+      cornerStickers[c - 'a'] = cornerAt[permutation[SpeffzUtils.getCornerFacelet(c)]];
+    }
+  }
+
+  /* Returns the permutation of applying first and then second */
+  private static int[] compose(int[] first, int[] second) {
+    int[] composed = new int[NUM_FACELETS];
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      composed[i] = first[second[i]];
+    }
+    return composed;
+  }
+
+  private static int indexOf(List<int[]> permutations, int[] permutation) {
+    for (int i = 0; i < permutations.size(); i++) {
+      if (Arrays.equals(permutations.get(i), permutation)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /* Returns every symmetry, starting with the identity */
+  public static List<Symmetry> values() {
+    return symmetries;
+  }
+
+  public static Symmetry get(int index) {
+    return symmetries.get(index);
+  }
+
+  public static Symmetry identity() {
+    return symmetries.get(0);
+  }
+
+  /* Returns the move that does in this symmetry's frame what move does, e.g. L' for R under an L/R mirror */
+  public Move apply(Move move) {
+    return moves[move.ordinal()];
+  }
+
+  /* Returns the facelet that this symmetry carries a sticker at facelet to */
+  public int apply(int facelet) {
+    return permutation[facelet];
+  }
+
+  /* Returns the edge sticker that this symmetry carries c to */
+  public char applyToEdgeSticker(char c) {
+    return edgeStickers[checkLetter(c) - 'a'];
+  }
+
+  /* Returns the corner sticker that this symmetry carries c to */
+  public char applyToCornerSticker(char c) {
+    return cornerStickers[checkLetter(c) - 'a'];
+  }
+
+  private static char checkLetter(char c) {
+    if (!SpeffzUtils.isValidSpeffzLetter(c)) {
+      throw new IllegalArgumentException("Letter " + c + " is not a valid Speffz letter");
+    }
+    return Character.toLowerCase(c);
+  }
+
+  /*
+   * Writes into result the facelet state that the transformed alg produces on
+   * a solved cube, given the state that the original alg produces. Both are
+   * facelet states as in MoveTables, and must not be the same array.
+   */
+  public void conjugate(int[] state, int[] result) {
+    for (int i = 0; i < NUM_FACELETS; i++) {
+      result[i] = permutation[state[inversePermutation[i]]];
+    }
+  }
+
+  /* Returns the symmetry that undoes this one */
+  public Symmetry inverse() {
+    return inverse;
+  }
+
+  /* Returns whether this symmetry reflects the cube, which turns every move the other way */
+  public boolean isMirror() {
+    return mirror;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  /* Returns the rotations (and mirror) that make up this symmetry, e.g. "X Y' + L/R mirror" */
+  @Override
+  public String toString() {
+    return name.isEmpty() ? "identity" : name;
+  }
+}
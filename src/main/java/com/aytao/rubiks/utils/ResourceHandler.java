@@ -1,6 +1,7 @@
 package com.aytao.rubiks.utils;
 
 import java.io.File;
+import java.io.InputStream;
 import java.net.URL;
 
 public class ResourceHandler {
@@ -13,4 +14,15 @@ public class ResourceHandler {
     File file = new File(filePath);
     return file;
   }
+
+  /*
+   * Opens a resource as a stream. Unlike getFile, this also works when the
+   * resource is packaged inside a jar.
+   */
+  public static InputStream getStream(String fileName) throws Exception {
+    InputStream stream = ResourceHandler.class.getClassLoader().getResourceAsStream(fileName);
+    if (stream == null)
+      throw new Exception("Error retrieving resource " + fileName);
+    return stream;
+  }
 }
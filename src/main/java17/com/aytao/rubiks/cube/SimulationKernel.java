@@ -0,0 +1,34 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Runs the lanes of a BatchSimulator. This is the Java 17
+ *                version, which a multi-release jar uses in place of the one
+ *                in src/main/java. It uses VectorKernel when the
+ *                jdk.incubator.vector module has been added (e.g. with
+ *                --add-modules jdk.incubator.vector) and the hardware has
+ *                512-bit vectors, and ScalarKernel otherwise.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+final class SimulationKernel {
+  private static final boolean VECTOR = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+      && VectorKernel.isSupported();
+
+  private SimulationKernel() {
+  }
+
+  static String getName() {
+    return VECTOR ? VectorKernel.NAME : ScalarKernel.NAME;
+  }
+
+  /* Simulates the first count lanes, as ScalarKernel.simulate does */
+  static void simulate(byte[] states, byte[][] moves, int[] lengths, int count) {
+    if (VECTOR) {
+      VectorKernel.simulate(states, moves, lengths, count);
+    } else {
+      ScalarKernel.simulate(states, moves, lengths, count);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Runs the lanes of a BatchSimulator with the Vector API. A
+ *                lane's whole cube is one 512-bit byte vector, and a move is
+ *                a single shuffle of it by the move's permutation (padded with
+ *                the identity past the last facelet), so a lane never leaves
+ *                its register until all of its moves are done.
+ *
+ *                Only loaded once SimulationKernel has found the incubator
+ *                module, so nothing else has to know the Vector API exists.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.cube;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernel {
+  static final String NAME = "vector";
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_512;
+  private static final int NUM_FACELETS = MoveTables.NUM_FACELETS;
+
+  private static final ByteVector SOLVED;
+  private static final VectorShuffle<Byte>[] SHUFFLES;
+
+  static {
+    int[] identity = new int[BatchSimulator.STRIDE];
+    byte[] solved = new byte[BatchSimulator.STRIDE];
+    for (int i = 0; i < identity.length; i++) {
+      identity[i] = i;
+      solved[i] = (byte) i;
+    }
+    SOLVED = ByteVector.fromArray(SPECIES, solved, 0);
+
+    Move[] allMoves = Move.values();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    VectorShuffle<Byte>[] shuffles = new VectorShuffle[allMoves.length];
+    for (Move move : allMoves) {
+      int[] indices = identity.clone();
+      System.arraycopy(MoveTables.getPermutation(move), 0, indices, 0, NUM_FACELETS);
+      shuffles[move.ordinal()] = VectorShuffle.fromArray(SPECIES, indices, 0);
+    }
+    SHUFFLES = shuffles;
+  }
+
+  private VectorKernel() {
+  }
+
+  /* Returns whether the hardware shuffles 512-bit vectors natively, rather than the Vector API emulating them */
+  static boolean isSupported() {
+    return ByteVector.SPECIES_PREFERRED.vectorByteSize() >= BatchSimulator.STRIDE;
+  }
+
+  /* Simulates the first count lanes, as ScalarKernel.simulate does */
+  static void simulate(byte[] states, byte[][] moves, int[] lengths, int count) {
+    for (int lane = 0; lane < count; lane++) {
+      // Stored back after every move, since a vector carried around the loop would be boxed each time
+      int base = lane * BatchSimulator.STRIDE;
+      SOLVED.intoArray(states, base);
+      byte[] laneMoves = moves[lane];
+      for (int t = 0; t < lengths[lane]; t++) {
+        ByteVector.fromArray(SPECIES, states, base).rearrange(SHUFFLES[laneMoves[t]]).intoArray(states, base);
+      }
+    }
+  }
+}
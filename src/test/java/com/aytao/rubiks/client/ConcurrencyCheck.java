@@ -0,0 +1,132 @@
+/* *****************************************************************************
+ *  Author:       Andrew Tao
+ *
+ *  Description:  Checks that validating in parallel gives exactly the same
+ *                results as validating serially. Each bundled sheet is
+ *                validated on one thread and then repeatedly on several, and
+ *                Cube and SpeffzUtils are driven from many threads at once,
+ *                each with its own scratch Cube and report buffers, and
+ *                compared with a serial run over the same random scrambles.
+ *
+ *                Run with run_checks.sh. Exits with status 1 and prints the
+ *                first difference if any result differs.
+ *
+ **************************************************************************** */
+
+package com.aytao.rubiks.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aytao.rubiks.client.CommSheetValidator.PieceType;
+import com.aytao.rubiks.cube.Cube;
+import com.aytao.rubiks.cube.Move;
+import com.aytao.rubiks.cube.SpeffzUtils;
+
+public class ConcurrencyCheck {
+  private static final int THREADS = 8;
+  private static final int SHEET_ROUNDS = 20;
+  private static final int SCRAMBLES = 20000;
+  private static final int SCRAMBLE_LENGTH = 25;
+  private static final long SEED = 1;
+
+  private static int failures;
+
+  public static void main(String[] args) throws Exception {
+    checkSheet("Comms/UFComms.csv", PieceType.EDGE);
+    checkSheet("Comms/UFRComms.csv", PieceType.CORNER);
+    checkCubes();
+    if (failures > 0) {
+      System.out.println(failures + " concurrency checks failed");
+      System.exit(1);
+    }
+    System.out.println("All concurrency checks passed");
+  }
+
+  private static void fail(String message) {
+    failures++;
+    System.out.println("FAILED: " + message);
+  }
+
+  /* Validates a bundled sheet serially and then repeatedly in parallel, and compares the results */
+  private static void checkSheet(String fileName, PieceType pieceType) {
+    CommValidity[][] serial;
+    try (CommSheetValidator validator = new CommSheetValidator(1)) {
+      serial = validator.checkValidity(fileName, 'c', pieceType, true, false);
+    }
+    try (CommSheetValidator validator = new CommSheetValidator(THREADS)) {
+      for (int round = 0; round < SHEET_ROUNDS; round++) {
+        CommValidity[][] parallel = validator.checkValidity(fileName, 'c', pieceType, true, false);
+        if (!Arrays.deepEquals(serial, parallel)) {
+          fail(fileName + " round " + round + " on " + THREADS + " threads differs from a serial run");
+          return;
+        }
+      }
+    }
+    System.out.println(fileName + ": " + SHEET_ROUNDS + " parallel runs match the serial run");
+  }
+
+  /*
+   * Applies the same random scrambles to fresh Cubes on one thread and to
+   * reused per-thread Cubes on many, and compares the edge and corner reports.
+   */
+  private static void checkCubes() throws Exception {
+    Random random = new Random(SEED);
+    Move[] moves = Move.values();
+    List<List<Move>> scrambles = new ArrayList<>(SCRAMBLES);
+    for (int i = 0; i < SCRAMBLES; i++) {
+      List<Move> scramble = new ArrayList<>(SCRAMBLE_LENGTH);
+      for (int t = 0; t < SCRAMBLE_LENGTH; t++) {
+        scramble.add(moves[random.nextInt(moves.length)]);
+      }
+      scrambles.add(scramble);
+    }
+
+    String[] serial = new String[SCRAMBLES];
+    for (int i = 0; i < SCRAMBLES; i++) {
+      Cube cube = new Cube(scrambles.get(i));
+      serial[i] = new String(SpeffzUtils.edgeReport(cube)) + "/" + new String(SpeffzUtils.cornerReport(cube));
+    }
+
+    String[] parallel = new String[SCRAMBLES];
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < THREADS; thread++) {
+        int first = thread;
+        futures.add(pool.submit(() -> {
+          Cube cube = new Cube();
+          char[] edges = new char[SpeffzUtils.NUM_SPEFFZ_LETTERS];
+          char[] corners = new char[SpeffzUtils.NUM_SPEFFZ_LETTERS];
+          // Interleaved, so that every thread works on the shared tables at the same time
+          for (int i = first; i < SCRAMBLES; i += THREADS) {
+            cube.reset();
+            cube.execute(scrambles.get(i));
+            parallel[i] = new String(SpeffzUtils.edgeReport(cube, edges)) + "/"
+                + new String(SpeffzUtils.cornerReport(cube, corners));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    for (int i = 0; i < SCRAMBLES; i++) {
+      if (!serial[i].equals(parallel[i])) {
+        fail("scramble " + scrambles.get(i) + " gives " + parallel[i] + " on " + THREADS + " threads but "
+            + serial[i] + " serially");
+        return;
+      }
+    }
+    System.out.println("Cube and SpeffzUtils: " + SCRAMBLES + " scrambles on " + THREADS
+        + " threads match a serial run");
+  }
+}
@@ -0,0 +1,8 @@
+@echo off
+REM Sends a comm sheet to a running validation server instead of starting a new
+REM JVM. Start the server once with: check_comms.bat --server [--port PORT]
+REM
+REM Usage: validate_sheet.bat COMM_SHEET.csv PARAMS
+REM   e.g. validate_sheet.bat UFComms.csv "type=e&buffer=c&headers=1"
+if "%COMM_SERVER_PORT%"=="" set COMM_SERVER_PORT=8642
+curl -sS --fail-with-body --data-binary "@%~1" "http://localhost:%COMM_SERVER_PORT%/sheet?format=text&%~2"
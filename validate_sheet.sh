@@ -0,0 +1,8 @@
+#!/bin/bash
+# Sends a comm sheet to a running validation server instead of starting a new
+# JVM. Start the server once with: ./check_comms.sh --server [--port PORT]
+#
+# Usage: validate_sheet.sh COMM_SHEET.csv PARAMS
+#   e.g. validate_sheet.sh UFComms.csv "type=e&buffer=c&headers=1"
+PORT="${COMM_SERVER_PORT:-8642}"
+curl -sS --fail-with-body --data-binary "@$1" "http://localhost:$PORT/sheet?format=text&$2"